@@ -5,7 +5,9 @@ import com.goodworkalan.cafe.builder.Builder;
 import com.goodworkalan.cafe.outline.JavaProject;
 
 /**
- * Builds the project definition for Diffuse.
+ * Builds the project definition for Diffuse. Diffuse must be compiled for and
+ * run on Java 11 or later, since it uses default methods, lambdas and
+ * <code>java.time</code> from Java 8 and <code>jdk.jfr</code> from Java 11.
  *
  * @author Alan Gutierrez
  */
@@ -24,6 +26,8 @@ public class DiffuseProject implements ProjectModule {
                     .production("com.github.bigeasy.reflective/reflective-getter/0.+1")
                     .production("com.github.bigeasy.class/class-association/0.+1")
                     .development("org.testng/testng-jdk15/5.10")
+                    .development("org.openjdk.jmh/jmh-core/1.37")
+                    .development("org.openjdk.jmh/jmh-generator-annprocess/1.37")
                     .end()
                 .end()
             .end();
@@ -1,9 +1,6 @@
 package com.goodworkalan.diffuse;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Set;
+import java.lang.reflect.Array;
 
 /**
  * An object diffuser that converts an array in to an unmodifiable
@@ -16,53 +13,92 @@ import java.util.Set;
  * 
  * @author Alan Gutierrez
  */
-public class ArrayDiffuser implements ObjectDiffuser {
+public class ArrayDiffuser implements ObjectDiffuser, LazyDiffuser {
     /** The singleton instance of the array diffuser. */
     public final static ObjectDiffuser INSTANCE = new ArrayDiffuser();
 
     /**
-     * Convert the given <code>array</code> into an unmodifiable
-     * <code>java.util.List</code> using the given root <code>diffuser</code> to
+     * Convert the given <code>array</code> into a list by emitting a list to
+     * the sink of the given <code>diffusion</code> and using the diffusion to
      * diffuse the list elements.
      * <p>
-     * Before using the root diffuser to diffuse an element, the array diffuser
-     * will append an asterisk to act as a wild card character in the path
-     * maintained in the given <code>path</code> reference as the object
-     * diffusers recursively descend an object graph. Users will specify
-     * container objects to include in diffusion by specifying a wild card to
-     * indicate match all array elements.
+     * The elements are diffused with the child include node for the asterisk
+     * path segment, which acts as a wild card character matching all array
+     * elements. Users will specify container objects to include in diffusion
+     * by specifying a wild card to indicate match all array elements.
      * <p>
-     * The set of includes is not consulted, since include paths cannot specify
-     * specific array elements. Only the wildcard is accepted and all elements
-     * are added to the list created.
+     * The includes are not consulted to determine which elements to add,
+     * since include paths cannot specify specific array elements. All elements
+     * are added to the list emitted.
+     * <p>
+     * A primitive array is copied and emitted as an already diffused,
+     * unmodifiable list view of the copy that boxes each element only when it
+     * is read, instead of emitting a boxed scalar for each element.
+     * <p>
+     * An array at least as long as the parallel threshold of the root
+     * diffuser is diffused in parallel.
      * 
-     * @param diffuser
-     *            The object diffuser provider.
+     * @param diffusion
+     *            The state of the diffusion.
      * @param array
      *            The array to diffuse.
-     * @param path
-     *            The path of the object in the object graph.
      * @param includes
-     *            The set of paths to include in the diffused object graph or an
-     *            empty set to include all paths.
-     * @return An unmodifiable collection containing the diffused objects of the
-     *         array.
+     *            The include node for the array in the object graph.
      */
-    public Object diffuse(Diffuser diffuser, Object array, StringBuilder path, Set<String> includes) {
+    public void diffuse(Diffusion diffusion, Object array, Includes includes) {
+        DiffusionSink sink = diffusion.getSink();
+        if (!(array instanceof Object[])) {
+            int length = Array.getLength(array);
+            if (length == 0 || !diffusion.isTruncated(length - 1)) {
+                sink.value(PrimitiveArrayList.copyOf(array));
+                return;
+            }
+            sink.startList();
+            for (int i = 0; i < length; i++) {
+                if (diffusion.isTruncated(i)) {
+                    diffusion.elideElements(length - i);
+                    break;
+                }
+                sink.scalar(Array.get(array, i));
+            }
+            sink.end();
+            return;
+        }
         Object[] original = (Object[]) array;
-        List<Object> copy = new ArrayList<Object>();
-        path.append("*.");
-        int index = path.length();
+        Includes elements = includes.getElements();
+        if (diffusion.isParallel(original.length)) {
+            ParallelDiffusion.list(diffusion, original, elements);
+            return;
+        }
+        sink.startList();
         for (int i = 0, stop = original.length; i < stop; i++) {
-            Object value = original[i];
-            if (value == null) {
-                copy.add(value);
-            } else {
-                copy.add(diffuser.getDiffuser(value.getClass()).diffuse(diffuser, value, path, includes));
-                path.setLength(index);
+            if (diffusion.isTruncated(i)) {
+                diffusion.elideElements(stop - i);
+                break;
             }
+            diffusion.diffuse(original[i], elements);
+        }
+        sink.end();
+    }
+
+    /**
+     * Copy the elements of the given array into a lazy list view whose
+     * elements are diffused when they are first accessed. A primitive array is
+     * copied into a list view that boxes its elements when they are read.
+     * 
+     * @param diffuser
+     *            The root diffuser.
+     * @param array
+     *            The array to diffuse.
+     * @param includes
+     *            The include node for the array in the object graph.
+     * @return A lazy list view.
+     */
+    public Object lazy(Diffuser diffuser, Object array, Includes includes) {
+        if (!(array instanceof Object[])) {
+            return PrimitiveArrayList.copyOf(array);
         }
-        return Collections.unmodifiableList(copy);
+        return new LazyList(diffuser, ((Object[]) array).clone(), includes.getElements());
     }
 
     /**
@@ -0,0 +1,51 @@
+package com.goodworkalan.diffuse;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * Creates an array from a diffused list, infusing each element as the
+ * component type of the array type. Creates primitive arrays as well as
+ * object arrays. The counterpart of the {@link ArrayDiffuser}.
+ * 
+ * @author Alan Gutierrez
+ */
+class ArrayInfuser implements ObjectInfuser {
+    /** The singleton instance of the array infuser. */
+    public final static ObjectInfuser INSTANCE = new ArrayInfuser();
+
+    /**
+     * Create an array of the given type from the given diffused list.
+     * 
+     * @param infuser
+     *            The root infuser.
+     * @param diffused
+     *            The diffused list.
+     * @param type
+     *            The array type.
+     * @return A new array.
+     * @exception IllegalArgumentException
+     *                If the value is not a list or an element cannot be
+     *                infused.
+     */
+    public Object infuse(Infuser infuser, Object diffused, Type type) {
+        if (!(diffused instanceof List<?>)) {
+            throw Infuser.cannotInfuse(diffused, type, null);
+        }
+        List<?> elements = (List<?>) diffused;
+        Type componentType = type instanceof GenericArrayType
+                           ? ((GenericArrayType) type).getGenericComponentType()
+                           : Infuser.getRawClass(type).getComponentType();
+        Class<?> componentClass = Infuser.getRawClass(componentType);
+        Object array = Array.newInstance(componentClass, elements.size());
+        for (int i = 0, stop = elements.size(); i < stop; i++) {
+            Object element = infuser.infuse(elements.get(i), componentType);
+            if (element != null || !componentClass.isPrimitive()) {
+                Array.set(array, i, element);
+            }
+        }
+        return array;
+    }
+}
@@ -3,10 +3,6 @@ package com.goodworkalan.diffuse;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Set;
-
-import com.goodworkalan.reflective.getter.Getter;
-import com.goodworkalan.reflective.getter.Getters;
 
 /**
  * Diffuses any object into a <code>java.util.Map</code> where fields and Java
@@ -17,77 +13,164 @@ import com.goodworkalan.reflective.getter.Getters;
  * 
  * @author Alan Gutierrez
  */
-class BeanDiffuser implements ObjectDiffuser {
+class BeanDiffuser implements ObjectDiffuser, LazyDiffuser {
     /** The singleton instance of the bean diffuser. */
     public final static ObjectDiffuser INSTANCE = new BeanDiffuser();
 
+    /** Whether a subclass overrides the modifiable method. */
+    private final boolean amends;
+
+    /** Create a bean diffuser. */
+    BeanDiffuser() {
+        boolean amends = false;
+        for (Class<?> type = getClass(); type != BeanDiffuser.class && !amends; type = type.getSuperclass()) {
+            try {
+                type.getDeclaredMethod("modifiable", Diffuser.class, Object.class, Includes.class);
+                amends = true;
+            } catch (NoSuchMethodException e) {
+            }
+        }
+        this.amends = amends;
+    }
+
     /**
-     * Freeze the given object, copying all arrays and Java collections classes,
-     * turning all the classes specified in the list classes into frozen beans.
+     * Diffuse the given object by emitting a map to the sink of the given
+     * <code>diffusion</code> with an entry for each field or property of the
+     * object, if the field or property was included according to the include
+     * node. The keys of the map are shared by all instances of the class
+     * diffused with the same included properties, unless the diffusion has a
+     * budget, in which case the remaining properties are elided once the
+     * budget of objects is exhausted.
+     * <p>
+     * If a subclass overrides {@link #modifiable(Diffuser, Object, Includes)
+     * modifiable}, the map it returns is emitted as an already diffused value
+     * instead, so that the subclass can amend the map.
+     * 
+     * @param diffusion
+     *            The state of the diffusion.
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The include node for the object in the object graph.
+     */
+    public void diffuse(Diffusion diffusion, Object object, Includes includes) {
+        DiffusionSink sink = diffusion.getSink();
+        if (amends) {
+            sink.value(Collections.unmodifiableMap(modifiable(diffusion.getDiffuser(), object, includes)));
+            return;
+        }
+        BeanPlan plan = diffusion.getDiffuser().getPlan(object.getClass());
+        MapKeys keys = plan.getKeys(includes);
+        if (diffusion.isBudgeted()) {
+            sink.startMap();
+        } else {
+            sink.startMap(keys);
+        }
+        for (int i = 0, stop = plan.size(); i < stop; i++) {
+            BeanProperty property = plan.get(i);
+            Includes child = includes.get(property.getName());
+            if (child != null || !property.isContainer()) {
+                if (diffusion.isExhausted()) {
+                    diffusion.elideEntries(keys.size() - keys.indexOf(property.getName()));
+                    break;
+                }
+                Object value = get(property, object);
+                sink.key(property.getName());
+                if (value == null) {
+                    sink.scalar(null);
+                } else {
+                    diffusion.diffuse(value, child == null ? Includes.NONE : child, property.getDiffuser());
+                }
+            }
+        }
+        sink.end();
+    }
+
+    /**
+     * Diffuse the given object into a lazy map view with an entry for each
+     * field or property of the object that is included according to the
+     * include node. The field or property is read and diffused when the entry
+     * is first accessed.
      * 
      * @param diffuser
-     *            The object diffuser provider.
+     *            The root diffuser.
      * @param object
      *            The object to diffuse.
-     * @param path
-     *            The path of the object in the object graph.
      * @param includes
-     *            The set of paths to include in the diffused object graph or an
-     *            empty set to include all paths.
-     * @return The object converted into a map of object fields and properties.
+     *            The include node for the object in the object graph.
+     * @return A lazy map view.
+     */
+    public Object lazy(final Diffuser diffuser, final Object object, Includes includes) {
+        final BeanPlan plan = diffuser.getPlan(object.getClass());
+        final int[] indexes = new int[plan.size()];
+        final Includes[] children = new Includes[plan.size()];
+        int count = 0;
+        for (int i = 0, stop = plan.size(); i < stop; i++) {
+            BeanProperty property = plan.get(i);
+            Includes child = includes.get(property.getName());
+            if (child != null || !property.isContainer()) {
+                indexes[count] = i;
+                children[count++] = child == null ? Includes.NONE : child;
+            }
+        }
+        return new LazyMap(plan.getKeys(includes)) {
+            protected Object diffuse(int index) {
+                BeanProperty property = plan.get(indexes[index]);
+                return diffuser.lazy(BeanDiffuser.get(property, object), children[index], property.getDiffuser());
+            }
+        };
+    }
+
+    /**
+     * Read the value of the given property from the given object, wrapping
+     * any checked exception in an <code>IllegalArgumentException</code>.
+     * 
+     * @param property
+     *            The bean property.
+     * @param object
+     *            The bean.
+     * @return The property value.
      */
-    public Object diffuse(Diffuser diffuser, Object object, StringBuilder path, Set<String> includes) {
-        return  Collections.unmodifiableMap(modifiable(diffuser, object, path, includes));
+    static Object get(BeanProperty property, Object object) {
+        try {
+            return property.get(object);
+        } catch (Exception e) {
+            checkRuntimeException(e);
+            throw new IllegalArgumentException(String.format(
+                    "\n\tUnable to set bean property.\n" +
+                    "\t\tClass: [%s]\n\t\tProperty: [%s], Type[%s]", property.getDeclaringClass(), property.getName(), property.getType()), e);
+        }
     }
 
     /**
      * Convert the given object into <code>java.util.Map</code> that can be
      * modified, unlike the unmodifiable map generated by the
-     * <code>diffuse</code> method. This method is called by
-     * <code>diffuse</code> which then wraps the returned map in an unmodifiable
-     * decorator implementation. Subclasses of <code>BeanDiffuser</code> can
-     * call or override this method to obtain a modifiable map so that they can
-     * add or remove elements from the map before it is returned to the user.
+     * <code>diffuse</code> method. The map has the entries of the map
+     * returned by {@link #diffuse(Diffuser, Object, Includes)}, each property
+     * value diffused by its own object diffuser. Subclasses can override this
+     * method to add or remove entries before the map is emitted by
+     * <code>diffuse</code>.
      * 
      * @param diffuser
      *            The object diffuser provider.
      * @param object
      *            The object to diffuse.
-     * @param path
-     *            The path of the object in the object graph.
      * @param includes
-     *            The set of paths to include in the diffused object graph or an
-     *            empty set to include all paths.
-     * @return An unmodifiable map with an diffused object entry for each field
+     *            The include node for the object in the object graph.
+     * @return A modifiable map with an diffused object entry for each field
      *         or property of the object, if the field or property was included
-     *         according to the set of includes.
+     *         according to the include node.
      */
-    protected Map<String, Object> modifiable(Diffuser diffuser, Object object, StringBuilder path, Set<String> includes) {
-        Class<?> beanClass = object.getClass();
-        int index = path.length();
+    protected Map<String, Object> modifiable(Diffuser diffuser, Object object, Includes includes) {
+        BeanPlan plan = diffuser.getPlan(object.getClass());
         Map<String, Object> diffused = new LinkedHashMap<String, Object>();
-        for (Getter getter : Getters.getGetters(beanClass).values()) {
-            String name = getter.getName();
-            path.append(name);
-            ObjectDiffuser converter = diffuser.getDiffuser(getter.getType());
-            if (!converter.isContainer() || includes.isEmpty() || includes.contains(path.toString())) {
-                Object value;
-                try {
-                    value = getter.get(object);
-                } catch (Exception e) {
-                    checkRuntimeException(e);
-                    throw new IllegalArgumentException(String.format(
-                            "\n\tUnable to set bean property.\n" +
-                            "\t\tClass: [%s]\n\t\tProperty: [%s], Type[%s]", getter.getMember().getDeclaringClass(), getter.getName(), getter.getType()), e);
-                }
-                if (value == null) {
-                    diffused.put(name, value);
-                } else {
-                    path.append(".");
-                    diffused.put(name, converter.diffuse(diffuser, value, path, includes));
-                }
+        for (int i = 0, stop = plan.size(); i < stop; i++) {
+            BeanProperty property = plan.get(i);
+            Includes child = includes.get(property.getName());
+            if (child != null || !property.isContainer()) {
+                Object value = get(property, object);
+                diffused.put(property.getName(), value == null ? null : property.getDiffuser().diffuse(diffuser, value, child == null ? Includes.NONE : child));
             }
-            path.setLength(index);
         }
         return diffused;
     }
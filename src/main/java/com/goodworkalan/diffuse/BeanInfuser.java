@@ -0,0 +1,93 @@
+package com.goodworkalan.diffuse;
+
+import java.lang.reflect.Type;
+import java.util.Map;
+
+/**
+ * Creates a bean from a diffused map, setting each writable property of the
+ * bean from the map entry with the same name. Entries that do not name a
+ * writable property are ignored. This is the default infuser for
+ * <code>java.lang.Object</code>, the counterpart of the {@link BeanDiffuser}.
+ * 
+ * @author Alan Gutierrez
+ */
+class BeanInfuser implements ObjectInfuser {
+    /** The singleton instance of the bean infuser. */
+    public final static ObjectInfuser INSTANCE = new BeanInfuser();
+
+    /**
+     * Create a bean of the given type from the given diffused map.
+     * 
+     * @param infuser
+     *            The root infuser.
+     * @param diffused
+     *            The diffused map.
+     * @param type
+     *            The bean class.
+     * @return A new bean.
+     * @exception IllegalArgumentException
+     *                If the value is not a map, the bean cannot be
+     *                constructed or a property cannot be set.
+     */
+    public Object infuse(Infuser infuser, Object diffused, Type type) {
+        if (!(diffused instanceof Map<?, ?>)) {
+            throw Infuser.cannotInfuse(diffused, type, null);
+        }
+        Map<?, ?> map = (Map<?, ?>) diffused;
+        InfusionPlan plan = infuser.getPlan(Infuser.getRawClass(type));
+        String[] names = plan.getParameterNames();
+        Object[] arguments = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+            arguments[i] = infuser.infuse(map.get(names[i]), plan.getParameterTypes()[i]);
+            if (arguments[i] == null && plan.getParameterTypes()[i] instanceof Class<?>) {
+                arguments[i] = defaultValue((Class<?>) plan.getParameterTypes()[i]);
+            }
+        }
+        Object bean = plan.newInstance(arguments);
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            InfusionProperty property = plan.get(entry.getKey().toString());
+            if (property == null) {
+                continue;
+            }
+            Object value = entry.getValue();
+            if (value == null) {
+                if (property.getPropertyClass().isPrimitive()) {
+                    continue;
+                }
+            } else {
+                Class<?> propertyClass = Infuser.getRawClass(property.getType());
+                value = propertyClass == Object.class ? value : property.getInfuser().infuse(infuser, value, property.getType());
+            }
+            try {
+                property.set(bean, value);
+            } catch (Exception e) {
+                BeanDiffuser.checkRuntimeException(e);
+                throw new IllegalArgumentException(String.format(
+                        "\n\tUnable to set bean property.\n" +
+                        "\t\tClass: [%s]\n\t\tProperty: [%s], Type[%s]", plan.getBeanClass(), property.getName(), property.getType()), e);
+            }
+        }
+        return bean;
+    }
+
+    /**
+     * Get the default value of the given primitive class, or null if the
+     * class is not primitive.
+     * 
+     * @param type
+     *            The class.
+     * @return The default value or null.
+     */
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        return ScalarInfuser.INSTANCE.infuse(null, 0, type);
+    }
+}
@@ -0,0 +1,216 @@
+package com.goodworkalan.diffuse;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.goodworkalan.reflective.getter.Getter;
+import com.goodworkalan.reflective.getter.Getters;
+
+/**
+ * A compiled plan for the diffusion of the instances of a bean class. The plan
+ * records the getters of the bean class in the order in which they are
+ * diffused, along with the object diffuser for the declared type of each
+ * property, so that the bean class does not have to be introspected and the
+ * object diffusers do not have to be looked up each time an instance is
+ * diffused.
+ * <p>
+ * If a {@link GeneratedDiffuser} is mapped to the bean class itself, the
+ * properties are those of the generated diffuser and are read by its
+ * generated code, so the bean class is not introspected at all.
+ * <p>
+ * The plan also shares the keys of the maps diffused from instances of the
+ * bean class, one set of keys for each distinct combination of included
+ * properties, so that diffused beans can be stored as compact maps.
+ * <p>
+ * Plans are immutable, apart from the cache of keys. A plan is created and
+ * cached by a {@link Diffuser} the first time an instance of the bean class
+ * is diffused and discarded when the object diffuser mappings of the
+ * <code>Diffuser</code> change.
+ * 
+ * @author Alan Gutierrez
+ */
+class BeanPlan {
+    /** The number of include nodes whose keys are remembered. */
+    private final static int MEMO_SIZE = 8;
+
+    /** The bean class. */
+    private final Class<?> beanClass;
+
+    /** The properties in diffusion order. */
+    private final BeanProperty[] properties;
+
+    /** The keys of the properties included when nothing is included. */
+    private final MapKeys scalars;
+
+    /** The keys of all properties. */
+    private final MapKeys all;
+
+    /** The keys indexed by the set of included property indexes. */
+    private final ConcurrentMap<BitSet, MapKeys> keys = new ConcurrentHashMap<BitSet, MapKeys>();
+
+    /** The keys of an include node. */
+    private final static class Memo {
+        /** The include node. */
+        public final Includes includes;
+
+        /** The keys of the properties included by the include node. */
+        public final MapKeys keys;
+
+        /**
+         * Create a memo of the keys of the given include node.
+         * 
+         * @param includes
+         *            The include node.
+         * @param keys
+         *            The keys of the included properties.
+         */
+        public Memo(Includes includes, MapKeys keys) {
+            this.includes = includes;
+            this.keys = keys;
+        }
+    }
+
+    /**
+     * The keys of the most recent include nodes, indexed by the identity hash
+     * code of the node. Memos are immutable, so races to replace them are
+     * benign.
+     */
+    private final Memo[] memos = new Memo[MEMO_SIZE];
+
+    /**
+     * Create a plan for the given bean class resolving the object diffusers
+     * for the bean properties with the given diffuser.
+     * 
+     * @param diffuser
+     *            The object diffuser provider.
+     * @param beanClass
+     *            The bean class.
+     */
+    public BeanPlan(Diffuser diffuser, Class<?> beanClass) {
+        BeanProperty[] properties;
+        ObjectDiffuser objectDiffuser = diffuser.getDiffuser(beanClass);
+        if (objectDiffuser instanceof MemoizingDiffuser) {
+            objectDiffuser = ((MemoizingDiffuser) objectDiffuser).getDelegate();
+        }
+        if (objectDiffuser instanceof GeneratedDiffuser && ((GeneratedDiffuser) objectDiffuser).getType() == beanClass) {
+            GeneratedDiffuser generated = (GeneratedDiffuser) objectDiffuser;
+            properties = new BeanProperty[generated.size()];
+            for (int i = 0; i < properties.length; i++) {
+                properties[i] = new BeanProperty(generated, i, diffuser.getDiffuser(generated.getPropertyType(i)));
+            }
+        } else {
+            Collection<Getter> getters = Getters.getGetters(beanClass).values();
+            properties = new BeanProperty[getters.size()];
+            int i = 0;
+            for (Getter getter : getters) {
+                properties[i++] = new BeanProperty(getter, diffuser.getDiffuser(getter.getType()));
+            }
+        }
+        this.beanClass = beanClass;
+        this.properties = properties;
+        this.scalars = getKeys(included(Includes.NONE));
+        this.all = getKeys(included(Includes.ALL));
+    }
+
+    /**
+     * Get the shared keys of the properties included by the given include
+     * node, in diffusion order. A property is included if it is named by the
+     * include node or if it is not a container.
+     * <p>
+     * This is called for every diffused bean, so the keys of the most recent
+     * include nodes are remembered by the identity of the node, and the
+     * properties are only scanned for a node that has not been seen recently.
+     * 
+     * @param includes
+     *            The include node for an instance of the bean class.
+     * @return The keys of the included properties.
+     */
+    public MapKeys getKeys(Includes includes) {
+        if (includes == Includes.NONE) {
+            return scalars;
+        }
+        if (includes.isAll()) {
+            return all;
+        }
+        int index = System.identityHashCode(includes) & (MEMO_SIZE - 1);
+        Memo memo = memos[index];
+        if (memo == null || memo.includes != includes) {
+            memo = new Memo(includes, getKeys(included(includes)));
+            memos[index] = memo;
+        }
+        return memo.keys;
+    }
+
+    /**
+     * Get the set of indexes of the properties included by the given include
+     * node.
+     * 
+     * @param includes
+     *            The include node.
+     * @return The included property indexes.
+     */
+    private BitSet included(Includes includes) {
+        BitSet included = new BitSet(properties.length);
+        for (int i = 0; i < properties.length; i++) {
+            if (!properties[i].isContainer() || includes.get(properties[i].getName()) != null) {
+                included.set(i);
+            }
+        }
+        return included;
+    }
+
+    /**
+     * Get the cached keys of the properties with the given indexes, creating
+     * and caching them if necessary.
+     * 
+     * @param included
+     *            The included property indexes.
+     * @return The keys of the included properties.
+     */
+    private MapKeys getKeys(BitSet included) {
+        MapKeys found = keys.get(included);
+        if (found == null) {
+            String[] names = new String[included.cardinality()];
+            for (int i = included.nextSetBit(0), j = 0; i != -1; i = included.nextSetBit(i + 1)) {
+                names[j++] = properties[i].getName();
+            }
+            found = new MapKeys(names);
+            MapKeys existing = keys.putIfAbsent(included, found);
+            if (existing != null) {
+                found = existing;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Get the bean class.
+     * 
+     * @return The bean class.
+     */
+    public Class<?> getBeanClass() {
+        return beanClass;
+    }
+
+    /**
+     * Get the number of properties.
+     * 
+     * @return The number of properties.
+     */
+    public int size() {
+        return properties.length;
+    }
+
+    /**
+     * Get the property at the given index in diffusion order.
+     * 
+     * @param index
+     *            The property index.
+     * @return The property.
+     */
+    public BeanProperty get(int index) {
+        return properties[index];
+    }
+}
@@ -0,0 +1,279 @@
+package com.goodworkalan.diffuse;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+
+import com.goodworkalan.reflective.getter.Getter;
+
+/**
+ * A property of a bean class as it appears in a {@link BeanPlan}, with the
+ * object diffuser for the declared property type resolved in advance.
+ * <p>
+ * The property value is read with a method handle obtained from the getter
+ * method or public field, so that the read can be inlined by the JIT instead
+ * of going through reflective invocation. If a method handle cannot be
+ * obtained, because the bean class or member is not publicly accessible, the
+ * property value is read with the reflective getter. A property of a
+ * {@link GeneratedDiffuser} is read by generated code.
+ * 
+ * @author Alan Gutierrez
+ */
+class BeanProperty {
+    /** The type of a property accessor method handle. */
+    private final static MethodType ACCESSOR = MethodType.methodType(Object.class, Object.class);
+
+    /** The getter used to read the property value or null if generated. */
+    private final Getter getter;
+
+    /** The generated diffuser that reads the property value or null. */
+    private final GeneratedDiffuser generated;
+
+    /** The index of the property in the generated diffuser. */
+    private final int index;
+
+    /**
+     * The method handle used to read the property value or null if the
+     * property is read with the reflective getter.
+     */
+    private final MethodHandle handle;
+
+    /**
+     * The method handle used to read a primitive property value without
+     * boxing, or null if the property is not primitive or is not read with a
+     * method handle.
+     */
+    private final MethodHandle primitive;
+
+    /** The object diffuser for the declared property type. */
+    private final ObjectDiffuser diffuser;
+
+    /** Whether the object diffuser for the property is a container diffuser. */
+    private final boolean container;
+
+    /**
+     * Create a bean property.
+     * 
+     * @param getter
+     *            The getter used to read the property value.
+     * @param diffuser
+     *            The object diffuser for the declared property type.
+     */
+    public BeanProperty(Getter getter, ObjectDiffuser diffuser) {
+        this.getter = getter;
+        this.generated = null;
+        this.index = -1;
+        this.handle = accessor(getter.getMember(), ACCESSOR);
+        this.primitive = getter.getType().isPrimitive() ? accessor(getter.getMember(), MethodType.methodType(getter.getType(), Object.class)) : null;
+        this.diffuser = diffuser;
+        this.container = diffuser.isContainer();
+    }
+
+    /**
+     * Create a bean property read by the generated code of the given
+     * generated diffuser.
+     * 
+     * @param generated
+     *            The generated diffuser.
+     * @param index
+     *            The index of the property in the generated diffuser.
+     * @param diffuser
+     *            The object diffuser for the declared property type.
+     */
+    public BeanProperty(GeneratedDiffuser generated, int index, ObjectDiffuser diffuser) {
+        this.getter = null;
+        this.generated = generated;
+        this.index = index;
+        this.handle = null;
+        this.primitive = null;
+        this.diffuser = diffuser;
+        this.container = diffuser.isContainer();
+    }
+
+    /**
+     * Create a method handle that reads the value of the given getter method
+     * or field, adapted to the given type. Returns null if the member is not
+     * publicly accessible.
+     * 
+     * @param member
+     *            The getter method or field.
+     * @param type
+     *            The type of the method handle.
+     * @return A method handle or null if one cannot be created.
+     */
+    static MethodHandle accessor(Member member, MethodType type) {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        try {
+            if (member instanceof Method) {
+                return lookup.unreflect((Method) member).asType(type);
+            }
+            if (member instanceof Field) {
+                return lookup.unreflectGetter((Field) member).asType(type);
+            }
+        } catch (IllegalAccessException e) {
+            // Fall back to the reflective getter.
+        }
+        return null;
+    }
+
+    /**
+     * Read the value of the property from the given bean. An exception thrown
+     * by the bean getter method is wrapped in an
+     * <code>InvocationTargetException</code>, the same as when it is invoked
+     * reflectively.
+     * 
+     * @param bean
+     *            The bean.
+     * @return The property value.
+     * @exception Exception
+     *                If the property cannot be read.
+     */
+    public Object get(Object bean) throws Exception {
+        if (generated != null) {
+            try {
+                return generated.get(bean, index);
+            } catch (Exception e) {
+                throw new InvocationTargetException(e);
+            }
+        }
+        if (handle == null) {
+            return getter.get(bean);
+        }
+        try {
+            return (Object) handle.invokeExact(bean);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    /**
+     * Read the values of this primitive property from each of the given beans
+     * into the given primitive array of the property type, without boxing if
+     * the property is read with a method handle.
+     * 
+     * @param beans
+     *            The beans.
+     * @param column
+     *            A primitive array of the property type as long as the beans.
+     * @exception Exception
+     *                If the property cannot be read.
+     */
+    public void fill(Object[] beans, Object column) throws Exception {
+        if (primitive == null) {
+            for (int i = 0; i < beans.length; i++) {
+                Array.set(column, i, get(beans[i]));
+            }
+            return;
+        }
+        try {
+            if (column instanceof int[]) {
+                int[] values = (int[]) column;
+                for (int i = 0; i < beans.length; i++) {
+                    values[i] = (int) primitive.invokeExact(beans[i]);
+                }
+            } else if (column instanceof long[]) {
+                long[] values = (long[]) column;
+                for (int i = 0; i < beans.length; i++) {
+                    values[i] = (long) primitive.invokeExact(beans[i]);
+                }
+            } else if (column instanceof double[]) {
+                double[] values = (double[]) column;
+                for (int i = 0; i < beans.length; i++) {
+                    values[i] = (double) primitive.invokeExact(beans[i]);
+                }
+            } else if (column instanceof float[]) {
+                float[] values = (float[]) column;
+                for (int i = 0; i < beans.length; i++) {
+                    values[i] = (float) primitive.invokeExact(beans[i]);
+                }
+            } else if (column instanceof boolean[]) {
+                boolean[] values = (boolean[]) column;
+                for (int i = 0; i < beans.length; i++) {
+                    values[i] = (boolean) primitive.invokeExact(beans[i]);
+                }
+            } else if (column instanceof short[]) {
+                short[] values = (short[]) column;
+                for (int i = 0; i < beans.length; i++) {
+                    values[i] = (short) primitive.invokeExact(beans[i]);
+                }
+            } else if (column instanceof byte[]) {
+                byte[] values = (byte[]) column;
+                for (int i = 0; i < beans.length; i++) {
+                    values[i] = (byte) primitive.invokeExact(beans[i]);
+                }
+            } else {
+                char[] values = (char[]) column;
+                for (int i = 0; i < beans.length; i++) {
+                    values[i] = (char) primitive.invokeExact(beans[i]);
+                }
+            }
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    /**
+     * Return true if the property value is read with a method handle or
+     * generated code instead of the reflective getter.
+     * 
+     * @return True if the property is read directly.
+     */
+    public boolean isDirect() {
+        return handle != null || generated != null;
+    }
+
+    /**
+     * Get the property name.
+     * 
+     * @return The property name.
+     */
+    public String getName() {
+        return generated == null ? getter.getName() : generated.getName(index);
+    }
+
+    /**
+     * Get the declared property type.
+     * 
+     * @return The property type.
+     */
+    public Class<?> getType() {
+        return generated == null ? getter.getType() : generated.getPropertyType(index);
+    }
+
+    /**
+     * Get the class that declares the property.
+     * 
+     * @return The declaring class.
+     */
+    public Class<?> getDeclaringClass() {
+        return generated == null ? getter.getMember().getDeclaringClass() : generated.getType();
+    }
+
+    /**
+     * Get the object diffuser for the declared property type.
+     * 
+     * @return The object diffuser.
+     */
+    public ObjectDiffuser getDiffuser() {
+        return diffuser;
+    }
+
+    /**
+     * Return true if the object diffuser for the declared property type is a
+     * container diffuser.
+     * 
+     * @return True if the property is a container.
+     */
+    public boolean isContainer() {
+        return container;
+    }
+}
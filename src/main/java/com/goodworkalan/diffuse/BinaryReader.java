@@ -0,0 +1,633 @@
+package com.goodworkalan.diffuse;
+
+import static com.goodworkalan.diffuse.BinaryWriter.BIG_DECIMAL;
+import static com.goodworkalan.diffuse.BinaryWriter.BIG_INTEGER;
+import static com.goodworkalan.diffuse.BinaryWriter.DOUBLE;
+import static com.goodworkalan.diffuse.BinaryWriter.END;
+import static com.goodworkalan.diffuse.BinaryWriter.FALSE;
+import static com.goodworkalan.diffuse.BinaryWriter.FLOAT;
+import static com.goodworkalan.diffuse.BinaryWriter.INT;
+import static com.goodworkalan.diffuse.BinaryWriter.KEY;
+import static com.goodworkalan.diffuse.BinaryWriter.KEY_INDEX;
+import static com.goodworkalan.diffuse.BinaryWriter.KEY_REFERENCE;
+import static com.goodworkalan.diffuse.BinaryWriter.LIST;
+import static com.goodworkalan.diffuse.BinaryWriter.LONG;
+import static com.goodworkalan.diffuse.BinaryWriter.MAGIC;
+import static com.goodworkalan.diffuse.BinaryWriter.MAP;
+import static com.goodworkalan.diffuse.BinaryWriter.NULL;
+import static com.goodworkalan.diffuse.BinaryWriter.SHAPED_MAP;
+import static com.goodworkalan.diffuse.BinaryWriter.SHARED;
+import static com.goodworkalan.diffuse.BinaryWriter.SMALL_INT;
+import static com.goodworkalan.diffuse.BinaryWriter.SMALL_INT_COUNT;
+import static com.goodworkalan.diffuse.BinaryWriter.STRING;
+import static com.goodworkalan.diffuse.BinaryWriter.TRUE;
+import static com.goodworkalan.diffuse.BinaryWriter.VERSION;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads documents written by a {@link BinaryWriter} from an
+ * <code>InputStream</code>, one document at a time. A document is either
+ * rebuilt as a tree of maps, lists and scalars, the same tree built by a
+ * {@link TreeSink}, or replayed as events to any {@link DiffusionSink}, so
+ * that it can be written in another encoding without building the tree.
+ * <p>
+ * Maps that were written with a shape are replayed with a call to
+ * {@link DiffusionSink#startMap(MapKeys)}, and every map of the same shape in
+ * a document is given the same <code>MapKeys</code>, so the rebuilt tree
+ * shares keys among beans just as the diffused tree does.
+ * <p>
+ * A reference to a map or list that appeared earlier in the document is
+ * rebuilt as the same map or list. It is replayed as a call to
+ * {@link DiffusionSink#reference(int)} to a sink that encodes references and
+ * as the events of the earlier map or list to any other sink, in which case
+ * the reader retains the maps and lists of the document as it replays them.
+ * <p>
+ * The input is read into a scratch buffer and is read no further than the
+ * end of the document, plus whatever the last fill of the scratch buffer
+ * read ahead. Strings and byte arrays are read into scratch space that grows
+ * as their bytes arrive, not by their declared counts, so that a malformed
+ * count cannot force a large allocation before the input ends. A binary
+ * reader is not thread-safe.
+ * 
+ * @author Alan Gutierrez
+ */
+public class BinaryReader {
+    /** The input stream. */
+    private final InputStream in;
+
+    /** The scratch buffer. */
+    private final byte[] buffer;
+
+    /** The position of the next byte in the scratch buffer. */
+    private int position;
+
+    /** The count of bytes in the scratch buffer. */
+    private int limit;
+
+    /** The key table of the current document. */
+    private final List<String> keys = new ArrayList<String>();
+
+    /** The shape table of the current document. */
+    private final List<MapKeys> shapes = new ArrayList<MapKeys>();
+
+    /** The shape of the map at each depth or null if it has no shape. */
+    private MapKeys[] shaped = new MapKeys[16];
+
+    /** The index of the next entry of the shaped map at each depth. */
+    private int[] entries = new int[16];
+
+    /** Whether the container at each depth is a list. */
+    private boolean[] lists = new boolean[16];
+
+    /** The index of the container at each depth. */
+    private int[] indexes = new int[16];
+
+    /** The number of maps and lists started in the current document. */
+    private int started;
+
+    /** Scratch space for the bytes of a string. */
+    private byte[] bytes = new byte[64];
+
+    /** Scratch space for the characters of a string. */
+    private char[] chars = new char[64];
+
+    /**
+     * Create a binary reader that reads from the given input stream with a
+     * scratch buffer of 8k.
+     * 
+     * @param in
+     *            The input stream.
+     */
+    public BinaryReader(InputStream in) {
+        this(in, 8192);
+    }
+
+    /**
+     * Create a binary reader that reads from the given input stream with a
+     * scratch buffer of the given size.
+     * 
+     * @param in
+     *            The input stream.
+     * @param bufferSize
+     *            The size of the scratch buffer.
+     */
+    public BinaryReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Read the next document and rebuild it as a tree of unmodifiable maps,
+     * lists and scalars.
+     * 
+     * @return The tree.
+     * @exception EOFException
+     *                If the input ends before the end of the document.
+     * @exception IOException
+     *                For any I/O error or if the input is not a document.
+     */
+    public Object read() throws IOException {
+        TreeSink sink = new TreeSink(true);
+        read(sink);
+        return sink.getTree();
+    }
+
+    /**
+     * Read the next document and replay it as events to the given sink.
+     * 
+     * @param sink
+     *            The sink.
+     * @exception EOFException
+     *                If the input ends before the end of the document.
+     * @exception IOException
+     *                For any I/O error or if the input is not a document.
+     */
+    public void read(DiffusionSink sink) throws IOException {
+        int magic = next();
+        int version = next();
+        if (magic != MAGIC || version != VERSION) {
+            throw new IOException(String.format(
+                    "\n\tNot a binary diffusion document.\n" +
+                    "\t\tHeader: [%02x %02x]", magic, version));
+        }
+        keys.clear();
+        shapes.clear();
+        started = 0;
+        int base = sink.mark();
+        if (base == -1) {
+            sink = new Replay(sink);
+            base = 0;
+        }
+        int depth = 0;
+        do {
+            int tag = next();
+            if (depth != 0 && tag == END) {
+                sink.end();
+                depth--;
+                continue;
+            }
+            if (depth != 0 && !lists[depth]) {
+                MapKeys shape = shaped[depth];
+                if (shape == null) {
+                    sink.key(name(tag));
+                    tag = next();
+                } else if (entries[depth] == shape.size()) {
+                    throw malformed(tag);
+                } else {
+                    sink.key(shape.get(entries[depth]++));
+                }
+            }
+            switch (tag) {
+            case MAP:
+                sink.startMap();
+                depth = push(depth, false, null);
+                break;
+            case SHAPED_MAP:
+                MapKeys shape = shape();
+                sink.startMap(shape);
+                depth = push(depth, false, shape);
+                break;
+            case LIST:
+                sink.startList();
+                depth = push(depth, true, null);
+                break;
+            case SHARED:
+                sink.reference(base + shared(depth));
+                break;
+            default:
+                sink.scalar(scalar(tag));
+            }
+        } while (depth != 0);
+    }
+
+    /**
+     * Enter a new map or list.
+     * 
+     * @param depth
+     *            The depth of the current container.
+     * @param list
+     *            Whether the container is a list.
+     * @param shape
+     *            The shape of the map or null.
+     * @return The depth of the new container.
+     */
+    private int push(int depth, boolean list, MapKeys shape) {
+        if (++depth == lists.length) {
+            boolean[] growLists = new boolean[depth * 2];
+            System.arraycopy(lists, 0, growLists, 0, depth);
+            lists = growLists;
+            MapKeys[] growShaped = new MapKeys[depth * 2];
+            System.arraycopy(shaped, 0, growShaped, 0, depth);
+            shaped = growShaped;
+            int[] growEntries = new int[depth * 2];
+            System.arraycopy(entries, 0, growEntries, 0, depth);
+            entries = growEntries;
+            int[] growIndexes = new int[depth * 2];
+            System.arraycopy(indexes, 0, growIndexes, 0, depth);
+            indexes = growIndexes;
+        }
+        indexes[depth] = started++;
+        lists[depth] = list;
+        shaped[depth] = shape;
+        entries[depth] = 0;
+        return depth;
+    }
+
+    /**
+     * Read the index of a reference to a map or list, which must be a map or
+     * list of the document that has ended.
+     * 
+     * @param depth
+     *            The depth of the current container.
+     * @return The index of the map or list.
+     * @exception IOException
+     *                For any I/O error or an unknown map or list.
+     */
+    private int shared(int depth) throws IOException {
+        int index = length();
+        if (index >= started) {
+            throw malformed(SHARED);
+        }
+        for (int i = 1; i <= depth; i++) {
+            if (indexes[i] == index) {
+                throw malformed(SHARED);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Read the scalar value with the given tag.
+     * 
+     * @param tag
+     *            The tag.
+     * @return The scalar value.
+     * @exception IOException
+     *                For any I/O error or an unknown tag.
+     */
+    private Object scalar(int tag) throws IOException {
+        if (tag >= SMALL_INT && tag < SMALL_INT + SMALL_INT_COUNT) {
+            return tag - SMALL_INT;
+        }
+        switch (tag) {
+        case NULL:
+            return null;
+        case FALSE:
+            return Boolean.FALSE;
+        case TRUE:
+            return Boolean.TRUE;
+        case INT:
+            return (int) zigzag();
+        case LONG:
+            return zigzag();
+        case FLOAT:
+            return Float.intBitsToFloat((int) fixed(4));
+        case DOUBLE:
+            return Double.longBitsToDouble(fixed(8));
+        case STRING:
+            return string();
+        case BIG_INTEGER:
+            return new BigInteger(bytes());
+        case BIG_DECIMAL:
+            int scale = (int) zigzag();
+            return new BigDecimal(new BigInteger(bytes()), scale);
+        }
+        throw malformed(tag);
+    }
+
+    /**
+     * Read a shape, either a new shape that is added to the shape table or a
+     * reference to a shape in the shape table.
+     * 
+     * @return The shape.
+     * @exception IOException
+     *                For any I/O error or an unknown shape.
+     */
+    private MapKeys shape() throws IOException {
+        int index = length();
+        if (index == 0) {
+            int count = length();
+            List<String> names = new ArrayList<String>();
+            for (int i = 0; i < count; i++) {
+                names.add(name(next()));
+            }
+            MapKeys shape = new MapKeys(names.toArray(new String[names.size()]));
+            shapes.add(shape);
+            return shape;
+        }
+        if (index > shapes.size()) {
+            throw malformed(SHAPED_MAP);
+        }
+        return shapes.get(index - 1);
+    }
+
+    /**
+     * Read a key with the given tag, either a new key that is added to the key
+     * table or a reference to a key in the key table.
+     * 
+     * @param tag
+     *            The tag.
+     * @return The key.
+     * @exception IOException
+     *                For any I/O error or an unknown key.
+     */
+    private String name(int tag) throws IOException {
+        int index;
+        if ((tag & KEY_INDEX) != 0) {
+            index = tag & ~KEY_INDEX;
+        } else if (tag == KEY_REFERENCE) {
+            index = length();
+        } else if (tag == KEY) {
+            String name = string().intern();
+            keys.add(name);
+            return name;
+        } else {
+            throw malformed(tag);
+        }
+        if (index >= keys.size()) {
+            throw malformed(tag);
+        }
+        return keys.get(index);
+    }
+
+    /**
+     * Create the exception thrown for an unexpected tag.
+     * 
+     * @param tag
+     *            The tag.
+     * @return An I/O exception.
+     */
+    private static IOException malformed(int tag) {
+        return new IOException(String.format(
+                "\n\tMalformed binary diffusion document.\n" +
+                "\t\tTag: [%02x]", tag));
+    }
+
+    /**
+     * Read the next byte.
+     * 
+     * @return The next byte as an unsigned value.
+     * @exception EOFException
+     *                If the input has ended.
+     * @exception IOException
+     *                For any I/O error.
+     */
+    private int next() throws IOException {
+        if (position == limit) {
+            int read;
+            do {
+                read = in.read(buffer, 0, buffer.length);
+            } while (read == 0);
+            if (read == -1) {
+                throw new EOFException();
+            }
+            position = 0;
+            limit = read;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * Read an unsigned variable length integer.
+     * 
+     * @return The value.
+     * @exception IOException
+     *                For any I/O error or if the integer is too long.
+     */
+    private long varint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = next();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw malformed(INT);
+    }
+
+    /**
+     * Read a zig-zag encoded variable length integer.
+     * 
+     * @return The value.
+     * @exception IOException
+     *                For any I/O error or if the integer is too long.
+     */
+    private long zigzag() throws IOException {
+        long value = varint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Read a variable length count or index.
+     * 
+     * @return The count or index.
+     * @exception IOException
+     *                For any I/O error or if the count is out of range.
+     */
+    private int length() throws IOException {
+        long length = varint();
+        if (length > Integer.MAX_VALUE - 8) {
+            throw malformed(STRING);
+        }
+        return (int) length;
+    }
+
+    /**
+     * Read the given number of bytes as a value, most significant first.
+     * 
+     * @param count
+     *            The number of bytes.
+     * @return The value.
+     * @exception IOException
+     *                For any I/O error.
+     */
+    private long fixed(int count) throws IOException {
+        long value = 0;
+        for (int i = 0; i < count; i++) {
+            value = (value << 8) | next();
+        }
+        return value;
+    }
+
+    /**
+     * Read a count of bytes followed by the bytes.
+     * 
+     * @return The bytes.
+     * @exception IOException
+     *                For any I/O error.
+     */
+    private byte[] bytes() throws IOException {
+        int length = length();
+        fill(length);
+        return Arrays.copyOf(bytes, length);
+    }
+
+    /**
+     * Read the given number of bytes into the scratch space for the bytes of
+     * a string, growing the scratch space as the bytes arrive.
+     * 
+     * @param length
+     *            The number of bytes.
+     * @exception EOFException
+     *                If the input ends before the bytes are read.
+     * @exception IOException
+     *                For any I/O error.
+     */
+    private void fill(int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            if (position == limit) {
+                next();
+                position--;
+            }
+            int count = Math.min(length - offset, limit - position);
+            if (bytes.length < offset + count) {
+                int grow = (int) Math.min(bytes.length * 2L, Integer.MAX_VALUE - 8);
+                bytes = Arrays.copyOf(bytes, Math.max(offset + count, grow));
+            }
+            System.arraycopy(buffer, position, bytes, offset, count);
+            position += count;
+            offset += count;
+        }
+    }
+
+    /**
+     * Read a count of UTF-8 bytes followed by the bytes and decode them,
+     * including the three byte sequences of unpaired surrogates.
+     * 
+     * @return The string.
+     * @exception IOException
+     *                For any I/O error or invalid UTF-8.
+     */
+    private String string() throws IOException {
+        int length = length();
+        fill(length);
+        if (chars.length < length) {
+            chars = new char[bytes.length];
+        }
+        int count = 0;
+        int i = 0;
+        while (i < length) {
+            int b = bytes[i++] & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if (b >= 0xC0 && b < 0xE0 && i < length) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (bytes[i++] & 0x3F));
+            } else if (b >= 0xE0 && b < 0xF0 && i + 1 < length) {
+                chars[count++] = (char) (((b & 0x0F) << 12) | ((bytes[i] & 0x3F) << 6) | (bytes[i + 1] & 0x3F));
+                i += 2;
+            } else if (b >= 0xF0 && b < 0xF8 && i + 2 < length) {
+                int codePoint = ((b & 0x07) << 18) | ((bytes[i] & 0x3F) << 12) | ((bytes[i + 1] & 0x3F) << 6) | (bytes[i + 2] & 0x3F);
+                chars[count++] = Character.highSurrogate(codePoint);
+                chars[count++] = Character.lowSurrogate(codePoint);
+                i += 3;
+            } else {
+                throw malformed(STRING);
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    /**
+     * A sink that replays events to a sink that does not encode references,
+     * retaining the maps and lists of the document in a tree so that a
+     * reference is replayed as the events of the referenced map or list.
+     */
+    private final static class Replay implements DiffusionSink {
+        /** The sink that does not encode references. */
+        private final DiffusionSink sink;
+
+        /** The tree that retains the maps and lists of the document. */
+        private final TreeSink tree = new TreeSink(true);
+
+        /**
+         * Create a replay to the given sink.
+         * 
+         * @param sink
+         *            The sink that does not encode references.
+         */
+        public Replay(DiffusionSink sink) {
+            this.sink = sink;
+        }
+
+        /** Start a map. */
+        public void startMap() {
+            sink.startMap();
+            tree.startMap();
+        }
+
+        /**
+         * Start a map with the given keys.
+         * 
+         * @param keys
+         *            The keys of the map entries.
+         */
+        public void startMap(MapKeys keys) {
+            sink.startMap(keys);
+            tree.startMap(keys);
+        }
+
+        /**
+         * Emit the key of the next map entry.
+         * 
+         * @param name
+         *            The entry key.
+         */
+        public void key(String name) {
+            sink.key(name);
+            tree.key(name);
+        }
+
+        /** Start a list. */
+        public void startList() {
+            sink.startList();
+            tree.startList();
+        }
+
+        /**
+         * Emit a scalar value.
+         * 
+         * @param value
+         *            The scalar value.
+         */
+        public void scalar(Object value) {
+            sink.scalar(value);
+            tree.scalar(value);
+        }
+
+        /** End the current map or list. */
+        public void end() {
+            sink.end();
+            tree.end();
+        }
+
+        /**
+         * Get the index of the next map or list.
+         * 
+         * @return The number of maps and lists started.
+         */
+        public int mark() {
+            return tree.mark();
+        }
+
+        /**
+         * Replay the events of the map or list with the given index.
+         * 
+         * @param index
+         *            The index of the map or list.
+         */
+        public void reference(int index) {
+            sink.value(tree.get(index));
+            tree.reference(index);
+        }
+    }
+}
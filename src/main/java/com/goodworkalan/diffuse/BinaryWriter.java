@@ -0,0 +1,449 @@
+package com.goodworkalan.diffuse;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A diffusion sink that writes a diffused object graph in a compact binary
+ * encoding directly to an <code>OutputStream</code>, a
+ * <code>WritableByteChannel</code> or a <code>ByteBuffer</code>, without
+ * building the diffused object graph as a tree of maps and lists. The
+ * encoding is read by a {@link BinaryReader}, which rebuilds the tree or
+ * replays it as events to another sink.
+ * <p>
+ * The encoding is in the style of CBOR and MessagePack. Each value begins
+ * with a tag byte. Small non-negative integers and references to the first
+ * 128 keys are a single byte. Other integers are zig-zag encoded variable
+ * length integers and strings are a variable length count of UTF-8 bytes
+ * followed by the bytes. Maps and lists are written as they are diffused, so
+ * they are terminated by an end tag instead of prefixed with a count.
+ * <p>
+ * Each map key is written in full only the first time it appears in a
+ * diffused object graph. It is assigned the next index in a key table and
+ * each later appearance is written as its index. The keys of a bean class,
+ * which the bean diffuser passes to {@link #startMap(MapKeys)}, are written
+ * once as a shape, a list of keys, and each later bean of the class with the
+ * same included properties is written as a reference to the shape followed by
+ * the entry values alone.
+ * <p>
+ * When the diffuser has a {@link CyclePolicy}, a container that appears more
+ * than once is written in full only at its first appearance. Each later
+ * appearance is written as a shared tag followed by the index of the first
+ * appearance, the number of maps and lists that begin before it in the
+ * document.
+ * <p>
+ * Every diffused object graph begins with a two byte header and starts with
+ * an empty key table and shape table, so each write produces a
+ * self-contained document and any number of documents can be written to the
+ * same stream. The tables, the scratch buffer and the nesting state are
+ * reused from one write to the next. A binary writer is not thread-safe.
+ * Each thread should have its own binary writer.
+ * 
+ * @author Alan Gutierrez
+ */
+public class BinaryWriter extends ByteSink {
+    /** The first byte of the header of a document. */
+    final static int MAGIC = 0xDF;
+
+    /** The version of the encoding, the second byte of the header. */
+    final static int VERSION = 1;
+
+    /** The tag of a null. */
+    final static int NULL = 0x00;
+
+    /** The tag of a boolean false. */
+    final static int FALSE = 0x01;
+
+    /** The tag of a boolean true. */
+    final static int TRUE = 0x02;
+
+    /** The tag of an integer followed by a zig-zag variable length integer. */
+    final static int INT = 0x03;
+
+    /** The tag of a long followed by a zig-zag variable length integer. */
+    final static int LONG = 0x04;
+
+    /**
+     * The tag of a float followed by its four bytes, most significant first.
+     */
+    final static int FLOAT = 0x05;
+
+    /**
+     * The tag of a double followed by its eight bytes, most significant
+     * first.
+     */
+    final static int DOUBLE = 0x06;
+
+    /** The tag of a string followed by a count of UTF-8 bytes and the bytes. */
+    final static int STRING = 0x07;
+
+    /**
+     * The tag of a big integer followed by a count of bytes and its two's
+     * complement bytes.
+     */
+    final static int BIG_INTEGER = 0x08;
+
+    /**
+     * The tag of a big decimal followed by its zig-zag scale and its unscaled
+     * big integer bytes.
+     */
+    final static int BIG_DECIMAL = 0x09;
+
+    /** The tag that starts a map whose entries are keys followed by values. */
+    final static int MAP = 0x0A;
+
+    /** The tag that starts a list. */
+    final static int LIST = 0x0B;
+
+    /** The tag that ends a map or list. */
+    final static int END = 0x0C;
+
+    /**
+     * The tag that starts a map with a shape whose entries are values alone.
+     */
+    final static int SHAPED_MAP = 0x0D;
+
+    /**
+     * The tag of a new key followed by a count of UTF-8 bytes and the bytes.
+     */
+    final static int KEY = 0x0E;
+
+    /**
+     * The tag of a key followed by its variable length index in the key
+     * table.
+     */
+    final static int KEY_REFERENCE = 0x0F;
+
+    /** The tag of the smallest single byte integer, zero. */
+    final static int SMALL_INT = 0x10;
+
+    /** The number of integers written as a single byte. */
+    final static int SMALL_INT_COUNT = 0x30;
+
+    /**
+     * The tag of a reference to a map or list followed by the variable length
+     * index of the map or list in the document.
+     */
+    final static int SHARED = 0x40;
+
+    /** The bit set in a single byte key reference. */
+    final static int KEY_INDEX = 0x80;
+
+    /** The key table, the index of each key written. */
+    private final Map<String, Integer> keys = new HashMap<String, Integer>();
+
+    /** The shape table, the index of each shape written. */
+    private final Map<MapKeys, Integer> shapes = new IdentityHashMap<MapKeys, Integer>();
+
+    /**
+     * Whether the map at each depth has a shape, so its keys are not written.
+     */
+    private boolean[] shaped = new boolean[16];
+
+    /** The depth of the current container, zero at the root. */
+    private int depth;
+
+    /** The number of maps and lists started in the document. */
+    private int started;
+
+    /** Create a binary writer with a scratch buffer of 8k. */
+    public BinaryWriter() {
+        this(8192);
+    }
+
+    /**
+     * Create a binary writer with a scratch buffer of the given size.
+     * 
+     * @param bufferSize
+     *            The size of the scratch buffer.
+     */
+    public BinaryWriter(int bufferSize) {
+        super(bufferSize);
+        start();
+    }
+
+    /**
+     * Create a binary writer with a scratch buffer of 8k that writes the events
+     * it receives directly to the given output stream, so that it can be
+     * given to {@link Diffuser#diffuse(Object, Includes, DiffusionSink)}.
+     * Each document ends with a call to {@link #flush()}.
+     * 
+     * @param out
+     *            The output stream.
+     */
+    public BinaryWriter(OutputStream out) {
+        super(8192, out);
+        start();
+    }
+
+    /** Write the header and empty the key and shape tables. */
+    protected void start() {
+        keys.clear();
+        shapes.clear();
+        depth = 0;
+        started = 0;
+        write(MAGIC);
+        write(VERSION);
+    }
+
+    /**
+     * Write the given value as an unsigned variable length integer, seven bits
+     * at a time, least significant first.
+     * 
+     * @param value
+     *            The value.
+     */
+    private void varint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        write((int) value);
+    }
+
+    /**
+     * Write the given value as a zig-zag encoded variable length integer, so
+     * that small negative values are as short as small positive values.
+     * 
+     * @param value
+     *            The value.
+     */
+    private void zigzag(long value) {
+        varint((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Write the low order bytes of the given value, most significant first.
+     * 
+     * @param value
+     *            The value.
+     * @param count
+     *            The number of low order bytes to write.
+     */
+    private void fixed(long value, int count) {
+        for (int shift = (count - 1) * 8; shift >= 0; shift -= 8) {
+            write((int) (value >>> shift));
+        }
+    }
+
+    /**
+     * Write the given bytes preceded by their count.
+     * 
+     * @param b
+     *            The bytes.
+     */
+    private void bytes(byte[] b) {
+        varint(b.length);
+        write(b, 0, b.length);
+    }
+
+    /**
+     * Write the given characters as a count of UTF-8 bytes followed by the
+     * bytes. Unpaired surrogates are encoded as three byte sequences, so that
+     * any string is read back unchanged.
+     * 
+     * @param chars
+     *            The characters.
+     */
+    private void string(CharSequence chars) {
+        int stop = chars.length();
+        long length = 0;
+        for (int i = 0; i < stop; i++) {
+            char ch = chars.charAt(i);
+            if (ch < 0x80) {
+                length++;
+            } else if (ch < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(ch) && i + 1 < stop && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        varint(length);
+        for (int i = 0; i < stop; i++) {
+            char ch = chars.charAt(i);
+            if (ch < 0x80) {
+                write(ch);
+            } else if (ch < 0x800) {
+                write(0xC0 | (ch >> 6));
+                write(0x80 | (ch & 0x3F));
+            } else if (Character.isHighSurrogate(ch) && i + 1 < stop && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(ch, chars.charAt(++i));
+                write(0xF0 | (codePoint >> 18));
+                write(0x80 | ((codePoint >> 12) & 0x3F));
+                write(0x80 | ((codePoint >> 6) & 0x3F));
+                write(0x80 | (codePoint & 0x3F));
+            } else {
+                write(0xE0 | (ch >> 12));
+                write(0x80 | ((ch >> 6) & 0x3F));
+                write(0x80 | (ch & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Write the given key as a reference to the key table if it has been
+     * written before, otherwise write it in full and add it to the key table.
+     * 
+     * @param name
+     *            The key.
+     */
+    private void name(String name) {
+        Integer index = keys.get(name);
+        if (index == null) {
+            keys.put(name, keys.size());
+            write(KEY);
+            string(name);
+        } else if (index < 0x80) {
+            write(KEY_INDEX | index);
+        } else {
+            write(KEY_REFERENCE);
+            varint(index);
+        }
+    }
+
+    /**
+     * Enter a new map or list.
+     * 
+     * @param shape
+     *            Whether the container is a map with a shape.
+     */
+    private void push(boolean shape) {
+        if (++depth == shaped.length) {
+            boolean[] grow = new boolean[depth * 2];
+            System.arraycopy(shaped, 0, grow, 0, depth);
+            shaped = grow;
+        }
+        shaped[depth] = shape;
+        started++;
+    }
+
+    /** Start a map whose entries are written as keys followed by values. */
+    public void startMap() {
+        write(MAP);
+        push(false);
+    }
+
+    /**
+     * Start a map with the given keys, writing the keys as a shape the first
+     * time they are seen and as a reference to the shape thereafter. The
+     * entries of the map are written as values alone.
+     * 
+     * @param keys
+     *            The keys of the map entries.
+     */
+    public void startMap(MapKeys keys) {
+        write(SHAPED_MAP);
+        Integer index = shapes.get(keys);
+        if (index == null) {
+            shapes.put(keys, shapes.size());
+            varint(0);
+            varint(keys.size());
+            for (int i = 0, stop = keys.size(); i < stop; i++) {
+                name(keys.get(i));
+            }
+        } else {
+            varint(index + 1);
+        }
+        push(true);
+    }
+
+    /**
+     * Write the given map key, unless the map has a shape.
+     * 
+     * @param name
+     *            The key.
+     */
+    public void key(String name) {
+        if (!shaped[depth]) {
+            name(name);
+        }
+    }
+
+    /** Start a list. */
+    public void startList() {
+        write(LIST);
+        push(false);
+    }
+
+    /**
+     * Write the given scalar. Integers, shorts and bytes are read back as
+     * integers and characters and other objects are written as strings.
+     * 
+     * @param value
+     *            The scalar value.
+     */
+    public void scalar(Object value) {
+        if (value == null) {
+            write(NULL);
+        } else if (value instanceof String) {
+            write(STRING);
+            string((String) value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            int i = ((Number) value).intValue();
+            if (i >= 0 && i < SMALL_INT_COUNT) {
+                write(SMALL_INT + i);
+            } else {
+                write(INT);
+                zigzag(i);
+            }
+        } else if (value instanceof Long) {
+            write(LONG);
+            zigzag((Long) value);
+        } else if (value instanceof Boolean) {
+            write(((Boolean) value).booleanValue() ? TRUE : FALSE);
+        } else if (value instanceof Double) {
+            write(DOUBLE);
+            fixed(Double.doubleToRawLongBits((Double) value), 8);
+        } else if (value instanceof Float) {
+            write(FLOAT);
+            fixed(Float.floatToRawIntBits((Float) value), 4);
+        } else if (value instanceof BigInteger) {
+            write(BIG_INTEGER);
+            bytes(((BigInteger) value).toByteArray());
+        } else if (value instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) value;
+            write(BIG_DECIMAL);
+            zigzag(decimal.scale());
+            bytes(decimal.unscaledValue().toByteArray());
+        } else if (value instanceof CharSequence) {
+            write(STRING);
+            string((CharSequence) value);
+        } else {
+            write(STRING);
+            string(value.toString());
+        }
+    }
+
+    /** End the current map or list. */
+    public void end() {
+        write(END);
+        depth--;
+    }
+
+    /**
+     * Get the index of the next map or list.
+     * 
+     * @return The number of maps and lists started.
+     */
+    public int mark() {
+        return started;
+    }
+
+    /**
+     * Write a reference to the map or list with the given index.
+     * 
+     * @param index
+     *            The index of the map or list.
+     */
+    public void reference(int index) {
+        write(SHARED);
+        varint(index);
+    }
+}
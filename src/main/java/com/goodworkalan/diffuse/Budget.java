@@ -0,0 +1,125 @@
+package com.goodworkalan.diffuse;
+
+/**
+ * The limits on the size of a single diffusion, so that the cost in time and
+ * memory of diffusing an arbitrary object graph can be capped. A budget
+ * limits the depth of nested containers, the total number of objects
+ * diffused, the number of members diffused from each array, collection or map
+ * and the number of characters of each string.
+ * <p>
+ * Output that exceeds the budget is truncated with an explicit marker that
+ * records the number of elided members. A map or bean is given an additional
+ * entry whose key is {@link #TRUNCATED} and whose value is the number of
+ * elided entries. A list is given an additional element that is a map with a
+ * single <code>TRUNCATED</code> entry whose value is the number of elided
+ * elements. A container nested too deeply is replaced by a map with a single
+ * <code>TRUNCATED</code> entry whose value is the number of members of the
+ * container or -1 if the number is not known. A string is cut to the maximum
+ * length and suffixed with the number of elided characters.
+ * <p>
+ * Budgets are immutable. A limit of zero means that there is no limit.
+ * 
+ * @author Alan Gutierrez
+ */
+public final class Budget {
+    /** The key of the marker of truncated output. */
+    public final static String TRUNCATED = "$truncated";
+
+    /** A budget with no limits. */
+    public final static Budget UNLIMITED = new Budget(0, 0, 0, 0);
+
+    /** The maximum depth of nested containers. */
+    private final int maxDepth;
+
+    /** The maximum number of objects diffused. */
+    private final long maxNodes;
+
+    /** The maximum number of members diffused from a container. */
+    private final int maxElements;
+
+    /** The maximum number of characters of a string. */
+    private final int maxStringLength;
+
+    /**
+     * Create a budget with the given limits, where zero means that there is
+     * no limit.
+     * 
+     * @param maxDepth
+     *            The maximum depth of nested containers, where the root object
+     *            is at depth one.
+     * @param maxNodes
+     *            The maximum number of objects diffused, including scalars.
+     * @param maxElements
+     *            The maximum number of elements diffused from an array or
+     *            collection or entries from a map.
+     * @param maxStringLength
+     *            The maximum number of characters of a string.
+     * @exception IllegalArgumentException
+     *                If a limit is negative.
+     */
+    public Budget(int maxDepth, long maxNodes, int maxElements, int maxStringLength) {
+        if (maxDepth < 0 || maxNodes < 0 || maxElements < 0 || maxStringLength < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "\n\tBudget limits cannot be negative.\n" +
+                    "\t\tDepth: [%d], Nodes: [%d], Elements: [%d], String Length: [%d]",
+                    maxDepth, maxNodes, maxElements, maxStringLength));
+        }
+        this.maxDepth = maxDepth == 0 ? Integer.MAX_VALUE : maxDepth;
+        this.maxNodes = maxNodes == 0 ? Long.MAX_VALUE : maxNodes;
+        this.maxElements = maxElements == 0 ? Integer.MAX_VALUE : maxElements;
+        this.maxStringLength = maxStringLength == 0 ? Integer.MAX_VALUE : maxStringLength;
+    }
+
+    /**
+     * Get the maximum depth of nested containers.
+     * 
+     * @return The maximum depth or <code>Integer.MAX_VALUE</code>.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Get the maximum number of objects diffused.
+     * 
+     * @return The maximum number of objects or <code>Long.MAX_VALUE</code>.
+     */
+    public long getMaxNodes() {
+        return maxNodes;
+    }
+
+    /**
+     * Get the maximum number of members diffused from a container.
+     * 
+     * @return The maximum number of members or
+     *         <code>Integer.MAX_VALUE</code>.
+     */
+    public int getMaxElements() {
+        return maxElements;
+    }
+
+    /**
+     * Get the maximum number of characters of a string.
+     * 
+     * @return The maximum string length or <code>Integer.MAX_VALUE</code>.
+     */
+    public int getMaxStringLength() {
+        return maxStringLength;
+    }
+
+    /**
+     * Truncate the given string to the maximum string length, suffixing it
+     * with the number of elided characters.
+     * 
+     * @param string
+     *            The string.
+     * @return The string or the truncated string.
+     */
+    String truncate(String string) {
+        if (string.length() <= maxStringLength) {
+            return string;
+        }
+        int elided = string.length() - maxStringLength;
+        return string.substring(0, maxStringLength) + "...[" + TRUNCATED + " " + elided + "]";
+    }
+}
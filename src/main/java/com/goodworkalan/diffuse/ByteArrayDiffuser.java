@@ -0,0 +1,74 @@
+package com.goodworkalan.diffuse;
+
+import java.util.Base64;
+
+/**
+ * Converts a <code>byte</code> array into a scalar string encoding of its
+ * contents, either Base64 or hexadecimal, instead of a list of numbers. By
+ * default a <code>byte</code> array is diffused into a list by the
+ * {@link ArrayDiffuser}. To diffuse <code>byte</code> arrays as strings,
+ * assign one of the byte array diffusers to the <code>byte[]</code> type.
+ * 
+ * <pre>
+ * diffuser.setConverter(byte[].class, ByteArrayDiffuser.BASE64);
+ * </pre>
+ * 
+ * @author Alan Gutierrez
+ */
+public class ByteArrayDiffuser implements ObjectDiffuser {
+    /** Diffuses a byte array into a Base64 string. */
+    public final static ObjectDiffuser BASE64 = new ByteArrayDiffuser(false);
+
+    /** Diffuses a byte array into a lower case hexadecimal string. */
+    public final static ObjectDiffuser HEX = new ByteArrayDiffuser(true);
+
+    /** The hexadecimal digits. */
+    private final static char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Whether to use hexadecimal instead of Base64. */
+    private final boolean hex;
+
+    /**
+     * Create a byte array diffuser.
+     * 
+     * @param hex
+     *            Whether to use hexadecimal instead of Base64.
+     */
+    private ByteArrayDiffuser(boolean hex) {
+        this.hex = hex;
+    }
+
+    /**
+     * Diffuse the given <code>byte</code> array by emitting its Base64 or
+     * hexadecimal encoding as a scalar.
+     * 
+     * @param diffusion
+     *            The state of the diffusion.
+     * @param object
+     *            The byte array to diffuse.
+     * @param includes
+     *            The include node for the object in the object graph.
+     */
+    public void diffuse(Diffusion diffusion, Object object, Includes includes) {
+        byte[] bytes = (byte[]) object;
+        if (hex) {
+            char[] chars = new char[bytes.length * 2];
+            for (int i = 0, stop = bytes.length; i < stop; i++) {
+                chars[i * 2] = DIGITS[(bytes[i] >> 4) & 0xF];
+                chars[i * 2 + 1] = DIGITS[bytes[i] & 0xF];
+            }
+            diffusion.scalar(new String(chars));
+        } else {
+            diffusion.scalar(Base64.getEncoder().encodeToString(bytes));
+        }
+    }
+
+    /**
+     * Return false indicating that this is a diffuser for a scalar object.
+     * 
+     * @return False to indicate that this is a scalar diffuser.
+     */
+    public boolean isContainer() {
+        return false;
+    }
+}
@@ -0,0 +1,259 @@
+package com.goodworkalan.diffuse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The base class of diffusion sinks that encode a diffused object graph as
+ * bytes written directly to an <code>OutputStream</code>, a
+ * <code>WritableByteChannel</code> or a <code>ByteBuffer</code>, without
+ * building the diffused object graph as a tree of maps and lists. The object
+ * graph is diffused with the object diffusers, converters and include paths
+ * of the given {@link Diffuser}.
+ * <p>
+ * The bytes are encoded into a scratch buffer that is flushed to the output
+ * when it fills and when the diffusion completes. The scratch buffer is
+ * reused from one write to the next. A byte sink is not thread-safe. Each
+ * thread should have its own byte sink.
+ * <p>
+ * A byte sink created with an output stream can also be given directly to
+ * {@link Diffuser#diffuse(Object, Includes, DiffusionSink)}, in which case the
+ * bytes are written to that output stream as the scratch buffer fills and
+ * the remaining bytes are written by {@link #flush()}, which ends the
+ * document.
+ * 
+ * @author Alan Gutierrez
+ */
+public abstract class ByteSink implements DiffusionSink {
+    /** The scratch buffer. */
+    private final byte[] buffer;
+
+    /** A byte buffer that wraps the scratch buffer for writing to channels. */
+    private final ByteBuffer wrapper;
+
+    /** The count of bytes in the scratch buffer. */
+    private int position;
+
+    /** The output stream given to the constructor or null. */
+    private final OutputStream target;
+
+    /** The output stream or null if not writing to an output stream. */
+    private OutputStream out;
+
+    /** The channel or null if not writing to a channel. */
+    private WritableByteChannel channel;
+
+    /** The byte buffer or null if not writing to a byte buffer. */
+    private ByteBuffer bytes;
+
+    /**
+     * Create a byte sink with a scratch buffer of the given size.
+     * 
+     * @param bufferSize
+     *            The size of the scratch buffer.
+     */
+    protected ByteSink(int bufferSize) {
+        this(bufferSize, null);
+    }
+
+    /**
+     * Create a byte sink with a scratch buffer of the given size that writes
+     * the events it receives directly to the given output stream.
+     * Subclasses call {@link #start()} once they are constructed, so that
+     * they are ready to receive events.
+     * 
+     * @param bufferSize
+     *            The size of the scratch buffer.
+     * @param out
+     *            The output stream or null.
+     */
+    protected ByteSink(int bufferSize, OutputStream out) {
+        this.buffer = new byte[bufferSize];
+        this.wrapper = ByteBuffer.wrap(buffer);
+        this.target = out;
+        this.out = out;
+    }
+
+    /**
+     * Diffuse the given object with the given diffuser and write it to the
+     * given output stream. The output stream is not flushed or closed.
+     * 
+     * @param diffuser
+     *            The root diffuser.
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The compiled include paths.
+     * @param out
+     *            The output stream.
+     * @exception IOException
+     *                For any I/O error.
+     */
+    public void write(Diffuser diffuser, Object object, Includes includes, OutputStream out) throws IOException {
+        this.out = out;
+        write(diffuser, object, includes);
+    }
+
+    /**
+     * Diffuse the given object with the given diffuser and write it to the
+     * given channel.
+     * 
+     * @param diffuser
+     *            The root diffuser.
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The compiled include paths.
+     * @param channel
+     *            The channel.
+     * @exception IOException
+     *                For any I/O error.
+     */
+    public void write(Diffuser diffuser, Object object, Includes includes, WritableByteChannel channel) throws IOException {
+        this.channel = channel;
+        write(diffuser, object, includes);
+    }
+
+    /**
+     * Diffuse the given object with the given diffuser and write it to the
+     * given byte buffer starting at the current position of the byte buffer.
+     * 
+     * @param diffuser
+     *            The root diffuser.
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The compiled include paths.
+     * @param bytes
+     *            The byte buffer.
+     * @exception java.nio.BufferOverflowException
+     *                If the encoding does not fit in the byte buffer.
+     */
+    public void write(Diffuser diffuser, Object object, Includes includes, ByteBuffer bytes) {
+        this.bytes = bytes;
+        try {
+            write(diffuser, object, includes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Diffuse the given object to this sink and flush the scratch buffer to
+     * the current output, resetting the output afterward.
+     * 
+     * @param diffuser
+     *            The root diffuser.
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The compiled include paths.
+     * @exception IOException
+     *                For any I/O error.
+     */
+    private void write(Diffuser diffuser, Object object, Includes includes) throws IOException {
+        position = 0;
+        try {
+            start();
+            diffuser.diffuse(object, includes, this);
+            drain();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            out = target;
+            channel = null;
+            bytes = null;
+            position = 0;
+            start();
+        }
+    }
+
+    /**
+     * Write the bytes of the events received directly by this sink to the
+     * output stream given to the constructor, ending the document, and
+     * prepare for the next document. The output stream is not flushed.
+     * 
+     * @exception IOException
+     *                For any I/O error.
+     * @exception IllegalStateException
+     *                If the sink was created without an output stream.
+     */
+    public void flush() throws IOException {
+        try {
+            drain();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        start();
+    }
+
+    /**
+     * Reset the encoding state before a diffused object graph is written and
+     * write any header that precedes it. Called before each write, after each
+     * write, to be ready for events received directly, and after each
+     * {@link #flush()}.
+     */
+    protected abstract void start();
+
+    /**
+     * Write the contents of the scratch buffer to the current output.
+     * 
+     * @exception UncheckedIOException
+     *                For any I/O error.
+     * @exception IllegalStateException
+     *                If there is no output.
+     */
+    private void drain() {
+        try {
+            if (out != null) {
+                out.write(buffer, 0, position);
+            } else if (channel != null) {
+                wrapper.clear().limit(position);
+                while (wrapper.hasRemaining()) {
+                    channel.write(wrapper);
+                }
+            } else if (bytes != null) {
+                bytes.put(buffer, 0, position);
+            } else {
+                throw new IllegalStateException(String.format(
+                        "\n\tByte sink has no output.\n" +
+                        "\t\tClass: [%s]", getClass()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        position = 0;
+    }
+
+    /**
+     * Write a single byte to the scratch buffer, flushing if it is full.
+     * 
+     * @param b
+     *            The byte.
+     */
+    protected final void write(int b) {
+        if (position == buffer.length) {
+            drain();
+        }
+        buffer[position++] = (byte) b;
+    }
+
+    /**
+     * Write the given bytes to the scratch buffer.
+     * 
+     * @param b
+     *            The bytes.
+     * @param off
+     *            The offset of the first byte to write.
+     * @param len
+     *            The number of bytes to write.
+     */
+    protected final void write(byte[] b, int off, int len) {
+        for (int i = off, stop = off + len; i < stop; i++) {
+            write(b[i]);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.goodworkalan.diffuse;
+
+import java.util.List;
+
+/**
+ * A change to a value in a diffused object graph found by a {@link Delta}.
+ * The change is located by a path of map keys and list indexes from the root
+ * of the diffused object graph, where an empty path is the root itself.
+ * 
+ * @author Alan Gutierrez
+ */
+public final class Change {
+    /** The kinds of change. */
+    public enum Type {
+        /** A map entry or list element that did not exist before. */
+        ADDED,
+
+        /** A map entry or list element that no longer exists. */
+        REMOVED,
+
+        /** A value that is not equal to the value it replaced. */
+        REPLACED
+    }
+
+    /** The kind of change. */
+    private final Type type;
+
+    /** The path of the changed value. */
+    private final List<Object> path;
+
+    /** The previous value or null if added. */
+    private final Object oldValue;
+
+    /** The new value or null if removed. */
+    private final Object newValue;
+
+    /**
+     * Create a change.
+     * 
+     * @param type
+     *            The kind of change.
+     * @param path
+     *            The path of the changed value.
+     * @param oldValue
+     *            The previous value or null if added.
+     * @param newValue
+     *            The new value or null if removed.
+     */
+    Change(Type type, List<Object> path, Object oldValue, Object newValue) {
+        this.type = type;
+        this.path = path;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+    }
+
+    /**
+     * Get the kind of change.
+     * 
+     * @return The kind of change.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get the path of the changed value, an unmodifiable list of string map
+     * keys and integer list indexes.
+     * 
+     * @return The path.
+     */
+    public List<Object> getPath() {
+        return path;
+    }
+
+    /**
+     * Get the previous diffused value.
+     * 
+     * @return The previous value or null if the value was added.
+     */
+    public Object getOldValue() {
+        return oldValue;
+    }
+
+    /**
+     * Get the new diffused value.
+     * 
+     * @return The new value or null if the value was removed.
+     */
+    public Object getNewValue() {
+        return newValue;
+    }
+
+    /**
+     * Get a string representation of the change for debugging.
+     * 
+     * @return A string representation.
+     */
+    @Override
+    public String toString() {
+        return type + " " + path + " " + oldValue + " -> " + newValue;
+    }
+}
@@ -1,7 +1,5 @@
 package com.goodworkalan.diffuse;
 
-import java.util.Set;
-
 /**
  * Converts an <code>Class</code> to the canonical class name. This
  * implementation is in lieu of using <code>Class.toString</code>, which
@@ -15,26 +13,22 @@ public class ClassDiffuser implements ObjectDiffuser {
     public final static ObjectDiffuser INSTANCE = new ClassDiffuser();
 
     /**
-     * Diffuse the class given in object by returning its canonical name or name
+     * Diffuse the class given in object by emitting its canonical name or name
      * if the canonical name is null.
      * 
-     * @param diffuser
-     *            The object diffuser provider.
+     * @param diffusion
+     *            The state of the diffusion.
      * @param object
      *            The class to diffuse.
-     * @param path
-     *            The path of the object in the object graph.
      * @param includes
-     *            The set of paths to include in the diffused object graph or an
-     *            empty set to include all paths.
-     * @return The canonical class name or the class name.
+     *            The include node for the object in the object graph.
      */
-    public Object diffuse(Diffuser diffuser, Object object, StringBuilder path, Set<String> includes) {
+    public void diffuse(Diffusion diffusion, Object object, Includes includes) {
         String className = ((Class<?>) object).getCanonicalName();
         if (className == null) {
-            return ((Class<?>) object).getName();
+            className = ((Class<?>) object).getName();
         }
-        return className;
+        diffusion.getSink().scalar(className);
     }
 
     /**
@@ -1,64 +1,77 @@
 package com.goodworkalan.diffuse;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
-import java.util.Set;
 
 /**
  * Converts a collection into a list.
  * 
  * @author Alan Gutierrez
  */
-class CollectionDiffuser implements ObjectDiffuser {
+class CollectionDiffuser implements ObjectDiffuser, LazyDiffuser {
     /** The singleton collection diffuser intsance. */
     public final static ObjectDiffuser INSTANCE = new CollectionDiffuser();
 
     /**
-     * Copy the given <code>collection</code> into an unmodifiable
-     * <code>java.util.List</code> using the given object diffuser provider,
-     * <code>diffuser</code>, to diffuse the list elements.
+     * Convert the given <code>collection</code> into a list by emitting a list
+     * to the sink of the given <code>diffusion</code> and using the diffusion
+     * to diffuse the list elements.
      * <p>
-     * Before using the root diffuser to diffuse an element, the array diffuser
-     * will append an asterisk to act as a wild card character in the path
-     * maintained in the given <code>path</code> reference as the object
-     * diffusers recursively descend an object graph. Users will specify
-     * container objects to include in diffusion by specifying a wild card to
-     * indicate match all array elements.
+     * The elements are diffused with the child include node for the asterisk
+     * path segment, which acts as a wild card character matching all
+     * collection elements. Users will specify container objects to include in
+     * diffusion by specifying a wild card to indicate match all collection
+     * elements.
      * <p>
-     * The set of includes is not consulted, since include paths cannot specify
-     * specific array elements. Only the wildcard is accepted and all elements
-     * are added to the list created.
+     * The includes are not consulted to determine which elements to add,
+     * since include paths cannot specify specific collection elements. All
+     * elements are added to the list emitted.
+     * <p>
+     * A collection at least as large as the parallel threshold of the root
+     * diffuser is diffused in parallel.
      * 
-     * @param diffuser
-     *            The object diffuser provider.
+     * @param diffusion
+     *            The state of the diffusion.
      * @param collection
      *            The collection to diffuse.
-     * @param path
-     *            The path of the collection in the object graph.
      * @param includes
-     *            The set of paths to include in the diffused object graph or an
-     *            empty set to include all paths.
-     * @return An unmodifiable collection containing the diffused objects of the
-     *         array.
+     *            The include node for the collection in the object graph.
      */
-    public Object diffuse(Diffuser diffuser, Object collection, StringBuilder path, Set<String> includes) {
-        path.append("*.");
-        int index = path.length();
-        Collection<?> original = (Collection<?>) collection;
-        List<Object> copy = new ArrayList<Object>();
-        for (Object item : original) {
-            if (item == null) {
-                copy.add(item);
-            } else {
-                copy.add(diffuser.getDiffuser(item.getClass()).diffuse(diffuser, item, path, includes));
-                path.setLength(index);
+    public void diffuse(Diffusion diffusion, Object collection, Includes includes) {
+        DiffusionSink sink = diffusion.getSink();
+        Includes elements = includes.getElements();
+        if (diffusion.isParallel(((Collection<?>) collection).size())) {
+            ParallelDiffusion.list(diffusion, ((Collection<?>) collection).toArray(), elements);
+            return;
+        }
+        sink.startList();
+        int index = 0;
+        for (Object item : (Collection<?>) collection) {
+            if (diffusion.isTruncated(index)) {
+                diffusion.elideElements(((Collection<?>) collection).size() - index);
+                break;
             }
+            diffusion.diffuse(item, elements);
+            index++;
         }
-        return Collections.unmodifiableList(copy);
+        sink.end();
     }
     
+    /**
+     * Copy the elements of the given collection into a lazy list view whose
+     * elements are diffused when they are first accessed.
+     * 
+     * @param diffuser
+     *            The root diffuser.
+     * @param collection
+     *            The collection to diffuse.
+     * @param includes
+     *            The include node for the collection in the object graph.
+     * @return A lazy list view.
+     */
+    public Object lazy(Diffuser diffuser, Object collection, Includes includes) {
+        return new LazyList(diffuser, ((Collection<?>) collection).toArray(), includes.getElements());
+    }
+
     /**
      * Return true indicating that this diffuser converts an object that is a
      * container for other objects.
@@ -0,0 +1,82 @@
+package com.goodworkalan.diffuse;
+
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Queue;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Creates a collection from a diffused list, infusing each element as the
+ * element type argument of the collection type. Collection interfaces are
+ * created as an <code>ArrayList</code>, <code>LinkedHashSet</code>,
+ * <code>TreeSet</code> or <code>ArrayDeque</code>. Concrete collection
+ * classes are created with their no argument constructor.
+ * 
+ * @author Alan Gutierrez
+ */
+class CollectionInfuser implements ObjectInfuser {
+    /** The singleton instance of the collection infuser. */
+    public final static ObjectInfuser INSTANCE = new CollectionInfuser();
+
+    /**
+     * Create a collection of the given type from the given diffused list.
+     * 
+     * @param infuser
+     *            The root infuser.
+     * @param diffused
+     *            The diffused list.
+     * @param type
+     *            The collection type.
+     * @return A new collection.
+     * @exception IllegalArgumentException
+     *                If the value is not a collection or an element cannot be
+     *                infused.
+     */
+    @SuppressWarnings("unchecked")
+    public Object infuse(Infuser infuser, Object diffused, Type type) {
+        if (!(diffused instanceof Collection<?>)) {
+            throw Infuser.cannotInfuse(diffused, type, null);
+        }
+        Collection<?> elements = (Collection<?>) diffused;
+        Type elementType = Infuser.getTypeArgument(type, 0);
+        Collection<Object> collection = (Collection<Object>) create(infuser, Infuser.getRawClass(type), elements.size());
+        for (Object element : elements) {
+            collection.add(infuser.infuse(element, elementType));
+        }
+        return collection;
+    }
+
+    /**
+     * Create an empty collection of the given class.
+     * 
+     * @param infuser
+     *            The root infuser.
+     * @param collectionClass
+     *            The collection class.
+     * @param size
+     *            The number of elements.
+     * @return An empty collection.
+     */
+    private static Object create(Infuser infuser, Class<?> collectionClass, int size) {
+        if (collectionClass.isInterface() || Modifier.isAbstract(collectionClass.getModifiers())) {
+            if (collectionClass.isAssignableFrom(ArrayList.class)) {
+                return new ArrayList<Object>(size);
+            }
+            if (collectionClass.isAssignableFrom(LinkedHashSet.class)) {
+                return new LinkedHashSet<Object>();
+            }
+            if (SortedSet.class.isAssignableFrom(collectionClass) && collectionClass.isAssignableFrom(TreeSet.class)) {
+                return new TreeSet<Object>();
+            }
+            if (Queue.class.isAssignableFrom(collectionClass) && collectionClass.isAssignableFrom(ArrayDeque.class)) {
+                return new ArrayDeque<Object>(size);
+            }
+        }
+        return infuser.getPlan(collectionClass).newInstance();
+    }
+}
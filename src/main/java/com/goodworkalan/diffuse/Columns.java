@@ -0,0 +1,199 @@
+package com.goodworkalan.diffuse;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A collection of beans of the same class diffused into columns, one column
+ * for each included property, instead of into a list of maps that each
+ * repeat the same keys. The columns are in the order of the keys returned
+ * by {@link #getKeys()}.
+ * <p>
+ * A column of a property whose declared type is primitive is a primitive
+ * array of that type, read without boxing when the property can be read with
+ * a method handle. Any other column is an unmodifiable list of the diffused
+ * property values, where nested containers are diffused with the include
+ * node of the property, exactly as they are diffused within a bean.
+ * <p>
+ * Columns are built by {@link Diffuser#columns(Collection, Class, Includes)}.
+ * The primitive arrays are not copied when they are returned, so they must
+ * not be modified.
+ * 
+ * @author Alan Gutierrez
+ */
+public final class Columns {
+    /** The bean class. */
+    private final Class<?> beanClass;
+
+    /** The keys of the columns. */
+    private final MapKeys keys;
+
+    /** The declared types of the columns. */
+    private final Class<?>[] types;
+
+    /** The columns, primitive arrays or lists. */
+    private final Object[] columns;
+
+    /** The number of beans. */
+    private final int size;
+
+    /**
+     * Diffuse the given beans into columns.
+     * 
+     * @param diffuser
+     *            The root diffuser.
+     * @param beans
+     *            The beans, all instances of exactly the bean class.
+     * @param beanClass
+     *            The bean class.
+     * @param includes
+     *            The compiled include paths of each bean.
+     * @exception IllegalArgumentException
+     *                If a bean is null or not an instance of exactly the bean
+     *                class, or if a property cannot be read.
+     */
+    Columns(Diffuser diffuser, Collection<?> beans, Class<?> beanClass, Includes includes) {
+        Object[] rows = beans.toArray();
+        for (Object row : rows) {
+            if (row == null || row.getClass() != beanClass) {
+                throw new IllegalArgumentException(String.format(
+                        "\n\tColumn diffusion requires beans of a single class.\n" +
+                        "\t\tClass: [%s]\n\t\tFound: [%s]", beanClass, row == null ? null : row.getClass()));
+            }
+        }
+        BeanPlan plan = diffuser.getPlan(beanClass);
+        MapKeys keys = plan.getKeys(includes);
+        this.beanClass = beanClass;
+        this.keys = keys;
+        this.size = rows.length;
+        this.types = new Class<?>[keys.size()];
+        this.columns = new Object[keys.size()];
+        for (int i = 0, j = 0, stop = plan.size(); i < stop; i++) {
+            BeanProperty property = plan.get(i);
+            Includes child = includes.get(property.getName());
+            if (child == null && property.isContainer()) {
+                continue;
+            }
+            Class<?> type = property.getType();
+            types[j] = type;
+            if (type.isPrimitive()) {
+                Object column = Array.newInstance(type, rows.length);
+                try {
+                    property.fill(rows, column);
+                } catch (Exception e) {
+                    BeanDiffuser.checkRuntimeException(e);
+                    throw new IllegalArgumentException(String.format(
+                            "\n\tUnable to set bean property.\n" +
+                            "\t\tClass: [%s]\n\t\tProperty: [%s], Type[%s]", property.getDeclaringClass(), property.getName(), type), e);
+                }
+                columns[j++] = column;
+            } else {
+                TreeSink sink = new TreeSink();
+                Diffusion diffusion = new Diffusion(diffuser, sink);
+                sink.startList();
+                for (Object row : rows) {
+                    Object value = BeanDiffuser.get(property, row);
+                    if (value == null) {
+                        sink.scalar(null);
+                    } else {
+                        diffusion.diffuse(value, child == null ? Includes.NONE : child, property.getDiffuser());
+                    }
+                }
+                sink.end();
+                columns[j++] = sink.getTree();
+            }
+        }
+    }
+
+    /**
+     * Get the bean class.
+     * 
+     * @return The bean class.
+     */
+    public Class<?> getBeanClass() {
+        return beanClass;
+    }
+
+    /**
+     * Get the keys of the columns, the names of the included properties.
+     * 
+     * @return The column keys.
+     */
+    public MapKeys getKeys() {
+        return keys;
+    }
+
+    /**
+     * Get the number of beans, the length of each column.
+     * 
+     * @return The number of beans.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the declared type of the property of the column at the given index.
+     * 
+     * @param index
+     *            The column index.
+     * @return The declared property type.
+     */
+    public Class<?> getType(int index) {
+        return types[index];
+    }
+
+    /**
+     * Get the column at the given index, a primitive array if the declared
+     * property type is primitive, otherwise an unmodifiable list of diffused
+     * values.
+     * 
+     * @param index
+     *            The column index.
+     * @return The column.
+     */
+    public Object getColumn(int index) {
+        return columns[index];
+    }
+
+    /**
+     * Get the column with the given key.
+     * 
+     * @param key
+     *            The column key.
+     * @return The column or null if there is no such column.
+     */
+    public Object getColumn(String key) {
+        int index = keys.indexOf(key);
+        return index == -1 ? null : columns[index];
+    }
+
+    /**
+     * Get the column at the given index as an unmodifiable list, boxing the
+     * elements of a primitive column as they are read.
+     * 
+     * @param index
+     *            The column index.
+     * @return The column as a list.
+     */
+    public List<?> getList(int index) {
+        Object column = columns[index];
+        return column instanceof List<?> ? (List<?>) column : PrimitiveArrayList.view(column);
+    }
+
+    /**
+     * Get the columns as an unmodifiable map of column keys to column lists,
+     * a diffused form that can be written by any diffusion sink.
+     * 
+     * @return The columns as a map.
+     */
+    public Map<String, Object> toMap() {
+        CompactMap map = new CompactMap(keys);
+        for (int i = 0; i < columns.length; i++) {
+            map.add(getList(i));
+        }
+        return map;
+    }
+}
@@ -0,0 +1,124 @@
+package com.goodworkalan.diffuse;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An unmodifiable map whose keys are shared with other maps diffused from the
+ * same bean class and whose values are stored in an array in key order. A
+ * compact map retains a fraction of the memory of a linked hash map wrapped
+ * in an unmodifiable view.
+ * <p>
+ * The {@link TreeSink} fills a compact map as the entries of a bean are
+ * emitted. Once filled, it is never modified, so it is safe to share among
+ * threads once safely published.
+ * 
+ * @author Alan Gutierrez
+ */
+final class CompactMap extends AbstractMap<String, Object> {
+    /** The shared keys. */
+    private final MapKeys keys;
+
+    /** The values in key order. */
+    private final Object[] values;
+
+    /** The number of values added. */
+    private int count;
+
+    /**
+     * Create an empty compact map to be filled with values for the given keys.
+     * 
+     * @param keys
+     *            The shared keys.
+     */
+    public CompactMap(MapKeys keys) {
+        this.keys = keys;
+        this.values = new Object[keys.size()];
+    }
+
+    /**
+     * Add the value for the next key.
+     * 
+     * @param value
+     *            The value.
+     */
+    void add(Object value) {
+        values[count++] = value;
+    }
+
+    /**
+     * Get the number of entries.
+     * 
+     * @return The size of the map.
+     */
+    @Override
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Return true if the map contains the given key.
+     * 
+     * @param key
+     *            The key.
+     * @return True if the map contains the key.
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        int index = keys.indexOf(key);
+        return index != -1 && index < count;
+    }
+
+    /**
+     * Get the value for the given key.
+     * 
+     * @param key
+     *            The key.
+     * @return The value or null if the key is not in the map.
+     */
+    @Override
+    public Object get(Object key) {
+        int index = keys.indexOf(key);
+        return index == -1 || index >= count ? null : values[index];
+    }
+
+    /**
+     * Get the set of entries in key order.
+     * 
+     * @return The set of entries.
+     */
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            public int size() {
+                return count;
+            }
+
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new Iterator<Map.Entry<String, Object>>() {
+                    private int index;
+
+                    public boolean hasNext() {
+                        return index < count;
+                    }
+
+                    public Map.Entry<String, Object> next() {
+                        if (index >= count) {
+                            throw new NoSuchElementException();
+                        }
+                        int i = index++;
+                        return new AbstractMap.SimpleImmutableEntry<String, Object>(keys.get(i), values[i]);
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+}
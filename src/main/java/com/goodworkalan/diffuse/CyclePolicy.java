@@ -0,0 +1,27 @@
+package com.goodworkalan.diffuse;
+
+/**
+ * How a {@link Diffuser} handles a container that contains itself, directly or
+ * indirectly. Setting a cycle policy on a diffuser turns on identity tracking,
+ * so that each container object is diffused only once for each diffusion.
+ * 
+ * @author Alan Gutierrez
+ */
+public enum CyclePolicy {
+    /**
+     * Emit a reference marker in place of the cyclic container. The marker is
+     * a map with a single entry whose key is <code>"$ref"</code> and whose
+     * value is the number of containers to ascend from the marker to reach the
+     * referenced container, where 1 is the immediately enclosing container.
+     */
+    REFERENCE,
+
+    /** Emit null in place of the cyclic container. */
+    NULL,
+
+    /**
+     * Throw an <code>IllegalArgumentException</code> when a cyclic container
+     * is encountered.
+     */
+    THROW
+}
@@ -1,52 +1,322 @@
 package com.goodworkalan.diffuse;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
-import java.util.Queue;
-import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
- * Convert a date into an RFC 822 formatted date string.
+ * Convert a date or time into a formatted date string or a number of
+ * milliseconds since the epoch. Diffuses <code>java.util.Date</code>,
+ * <code>java.sql.Timestamp</code>, <code>Instant</code>,
+ * <code>LocalDateTime</code> and <code>ZonedDateTime</code>.
+ * <p>
+ * Date diffusers are immutable and use immutable
+ * <code>DateTimeFormatter</code> instances, so they can be shared by any
+ * number of threads. A local date time is interpreted in the time zone of the
+ * date diffuser and a zoned date time is formatted in its own time zone.
+ * <p>
+ * Formatting the second of a date or instant is the expensive part, and the
+ * dates in an object graph are often within the same few seconds of each
+ * other, so a date diffuser may keep a small cache of the most recently
+ * formatted seconds. The formatted second is reused and only the fraction of
+ * the second, if any, is formatted. The cache is used only for dates and
+ * instants and only if the output format has no fields smaller than a second
+ * other than the fraction appended to an ISO-8601 instant.
  *
  * @author Alan Gutierrez
  */
 public class DateDiffuser implements ObjectDiffuser {
-    /** The singleton date diffuser instance. */
-    public static ObjectDiffuser INSTANCE = new DateDiffuser(); 
-        
-    /** A cache of compiled date formats. */
-    private static Queue<DateFormat> FORMATS = new ConcurrentLinkedQueue<DateFormat>();
-
-    /**
-     * Convert the given <code>date</code> into an RFC 822 formatted date
-     * string.
-     * 
-     * @param diffuse
-     *            The object diffuser provider.
+    /**
+     * The date format pattern of the default date diffuser, equivalent to the
+     * format of <code>Date.toString()</code>.
+     */
+    public final static String DEFAULT_PATTERN = "EEE MMM dd HH:mm:ss z yyyy";
+
+    /**
+     * The singleton date diffuser instance that formats dates with the
+     * {@link #DEFAULT_PATTERN default pattern} in the system default time
+     * zone.
+     */
+    public static ObjectDiffuser INSTANCE = new DateDiffuser();
+
+    /**
+     * A date diffuser that formats dates and instants as ISO-8601 instants in
+     * UTC, local date times as ISO-8601 local date times and zoned date times
+     * as ISO-8601 offset date times.
+     */
+    public final static DateDiffuser ISO = new DateDiffuser(Style.ISO, null, ZoneOffset.UTC, true);
+
+    /**
+     * A date diffuser that emits dates as the number of milliseconds since the
+     * epoch as a <code>Long</code> scalar. Local date times are interpreted in
+     * UTC.
+     */
+    public final static DateDiffuser EPOCH_MILLIS = new DateDiffuser(Style.EPOCH_MILLIS, null, ZoneOffset.UTC, false);
+
+    /** The number of seconds in the cache of formatted seconds. */
+    private final static int CACHE_SIZE = 16;
+
+    /** The output styles. */
+    private enum Style {
+        /** ISO-8601 date strings. */
+        ISO,
+        /** The number of milliseconds since the epoch. */
+        EPOCH_MILLIS,
+        /** Date strings formatted with a pattern. */
+        PATTERN
+    }
+
+    /** A formatted second in the cache of formatted seconds. */
+    private final static class Second {
+        /** The number of seconds since the epoch. */
+        public final long epochSecond;
+
+        /** The formatted second. */
+        public final String formatted;
+
+        /**
+         * Create a formatted second.
+         *
+         * @param epochSecond
+         *            The number of seconds since the epoch.
+         * @param formatted
+         *            The formatted second.
+         */
+        public Second(long epochSecond, String formatted) {
+            this.epochSecond = epochSecond;
+            this.formatted = formatted;
+        }
+    }
+
+    /** The output style. */
+    private final Style style;
+
+    /** The formatter for the pattern style or the ISO instant second. */
+    private final DateTimeFormatter formatter;
+
+    /** The time zone of dates, instants and local date times. */
+    private final ZoneId zone;
+
+    /**
+     * The cache of formatted seconds indexed by the low bits of the second, or
+     * null if formatted seconds are not cached. Seconds are immutable, so
+     * races to replace them are benign.
+     */
+    private final Second[] seconds;
+
+    /**
+     * Create a date diffuser that formats dates with the
+     * {@link #DEFAULT_PATTERN default pattern} in the system default time
+     * zone, caching recently formatted seconds.
+     */
+    public DateDiffuser() {
+        this(DEFAULT_PATTERN);
+    }
+
+    /**
+     * Create a date diffuser that formats dates with the given
+     * <code>DateTimeFormatter</code> pattern in the system default time zone,
+     * caching recently formatted seconds if the pattern has no fields smaller
+     * than a second.
+     *
+     * @param pattern
+     *            The date format pattern.
+     * @exception IllegalArgumentException
+     *                If the pattern is invalid.
+     */
+    public DateDiffuser(String pattern) {
+        this(pattern, ZoneId.systemDefault(), true);
+    }
+
+    /**
+     * Create a date diffuser that formats dates with the given
+     * <code>DateTimeFormatter</code> pattern in the given time zone.
+     *
+     * @param pattern
+     *            The date format pattern.
+     * @param zone
+     *            The time zone of dates, instants and local date times.
+     * @param cache
+     *            Whether to cache recently formatted seconds, ignored if the
+     *            pattern has fields smaller than a second.
+     * @exception IllegalArgumentException
+     *                If the pattern is invalid.
+     */
+    public DateDiffuser(String pattern, ZoneId zone, boolean cache) {
+        this(Style.PATTERN, DateTimeFormatter.ofPattern(pattern), zone, cache && isSecondResolution(pattern));
+    }
+
+    /**
+     * Create a date diffuser.
+     *
+     * @param style
+     *            The output style.
+     * @param formatter
+     *            The pattern formatter or null for the other styles.
+     * @param zone
+     *            The time zone of dates, instants and local date times.
+     * @param cache
+     *            Whether to cache recently formatted seconds.
+     */
+    private DateDiffuser(Style style, DateTimeFormatter formatter, ZoneId zone, boolean cache) {
+        this.style = style;
+        this.formatter = style == Style.ISO ? DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss") : formatter;
+        this.zone = zone;
+        this.seconds = cache ? new Second[CACHE_SIZE] : null;
+    }
+
+    /**
+     * Get the time zone in which dates, instants and local date times are
+     * formatted and in which local date times are converted to milliseconds.
+     *
+     * @return The time zone.
+     */
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    /**
+     * Return true if the given pattern has no fields smaller than a second
+     * outside of quoted literals.
+     *
+     * @param pattern
+     *            The date format pattern.
+     * @return True if the pattern formats to the second.
+     */
+    private static boolean isSecondResolution(String pattern) {
+        boolean quoted = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char ch = pattern.charAt(i);
+            if (ch == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && (ch == 'S' || ch == 'n' || ch == 'N' || ch == 'A')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Convert the given date or time into a date string or a number of
+     * milliseconds according to the output style and emit it as a scalar.
+     *
+     * @param diffusion
+     *            The state of the diffusion.
      * @param object
-     *            The date to diffuse.
-     * @param path
-     *            The path of the object in the object graph.
+     *            The date or time to diffuse.
      * @param includes
-     *            The set of paths to include in the diffused object graph or an
-     *            empty set to include all paths.
-     * @return The RFC 822 date.
+     *            The include node for the object in the object graph.
+     */
+    public void diffuse(Diffusion diffusion, Object object, Includes includes) {
+        diffusion.getSink().scalar(format(object));
+    }
+
+    /**
+     * Convert the given date or time into a date string or a number of
+     * milliseconds according to the output style.
+     *
+     * @param object
+     *            The date or time.
+     * @return The formatted date or time.
+     * @exception IllegalArgumentException
+     *                If the object is not a supported date or time.
+     */
+    public Object format(Object object) {
+        if (object instanceof Timestamp) {
+            return format(((Timestamp) object).toInstant());
+        }
+        if (object instanceof Date) {
+            return format(Instant.ofEpochMilli(((Date) object).getTime()));
+        }
+        if (object instanceof Instant) {
+            return format((Instant) object);
+        }
+        if (object instanceof LocalDateTime) {
+            LocalDateTime local = (LocalDateTime) object;
+            switch (style) {
+            case ISO:
+                return DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(local);
+            case EPOCH_MILLIS:
+                return local.atZone(zone).toInstant().toEpochMilli();
+            default:
+                return formatter.format(local.atZone(zone));
+            }
+        }
+        if (object instanceof ZonedDateTime) {
+            ZonedDateTime zoned = (ZonedDateTime) object;
+            switch (style) {
+            case ISO:
+                return DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(zoned);
+            case EPOCH_MILLIS:
+                return zoned.toInstant().toEpochMilli();
+            default:
+                return formatter.format(zoned);
+            }
+        }
+        throw new IllegalArgumentException(String.format(
+                "\n\tUnable to diffuse date.\n" +
+                "\t\tClass: [%s]", object.getClass()));
+    }
+
+    /**
+     * Convert the given instant into a date string or a number of
+     * milliseconds according to the output style.
+     *
+     * @param instant
+     *            The instant.
+     * @return The formatted instant.
      */
-    public Object diffuse(Diffuser diffuse, Object object, StringBuilder path, Set<String> includes) {
-        DateFormat format = FORMATS.poll();
-        if (format == null) {
-            format = new SimpleDateFormat("EEE MMM dd HH:mm:ss z yyyy");
+    private Object format(Instant instant) {
+        switch (style) {
+        case EPOCH_MILLIS:
+            return instant.toEpochMilli();
+        case ISO:
+            String second = second(instant.getEpochSecond());
+            int nanos = instant.getNano();
+            if (nanos == 0) {
+                return second + 'Z';
+            }
+            StringBuilder iso = new StringBuilder(second.length() + 11).append(second).append('.');
+            int digits = nanos % 1000000 == 0 ? 3 : nanos % 1000 == 0 ? 6 : 9;
+            String fraction = Integer.toString(nanos + 1000000000).substring(1, digits + 1);
+            return iso.append(fraction).append('Z').toString();
+        default:
+            if (seconds == null) {
+                return formatter.format(instant.atZone(zone));
+            }
+            return second(instant.getEpochSecond());
+        }
+    }
+
+    /**
+     * Format the given second since the epoch in the time zone of the date
+     * diffuser, using the cache of formatted seconds if there is one.
+     *
+     * @param epochSecond
+     *            The number of seconds since the epoch.
+     * @return The formatted second.
+     */
+    private String second(long epochSecond) {
+        if (seconds == null) {
+            return formatter.format(Instant.ofEpochSecond(epochSecond).atZone(zone));
+        }
+        int index = (int) epochSecond & (CACHE_SIZE - 1);
+        Second second = seconds[index];
+        if (second == null || second.epochSecond != epochSecond) {
+            second = new Second(epochSecond, formatter.format(Instant.ofEpochSecond(epochSecond).atZone(zone)));
+            seconds[index] = second;
         }
-        String formatted = format.format((Date) object);
-        FORMATS.offer(format);
-        return formatted;
+        return second.formatted;
     }
 
     /**
      * Return false indicating that this is a diffuser for a scalar object.
-     * 
+     *
      * @return False to indicate that this is a scalar diffuser.
      */
     public boolean isContainer() {
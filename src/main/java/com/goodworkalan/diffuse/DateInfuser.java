@@ -0,0 +1,148 @@
+package com.goodworkalan.diffuse;
+
+import java.lang.reflect.Type;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+/**
+ * Converts a diffused date back into a <code>java.util.Date</code>,
+ * <code>java.sql.Timestamp</code>, <code>Instant</code>,
+ * <code>LocalDateTime</code> or <code>ZonedDateTime</code>. Accepts the
+ * output of each style of {@link DateDiffuser}: a number of milliseconds
+ * since the epoch, an ISO-8601 string or a string in the
+ * {@link DateDiffuser#DEFAULT_PATTERN default pattern}.
+ * <p>
+ * A local date time diffused as a number of milliseconds or as a string
+ * without an offset was converted in the time zone of the date diffuser, so it
+ * must be converted back in the same time zone. The default date infuser
+ * matches the default date diffusers. It interprets numbers in UTC, as does
+ * {@link DateDiffuser#EPOCH_MILLIS}, and strings without an offset in the
+ * system default time zone, as does the default date diffuser. A date
+ * infuser created for a specific date diffuser interprets both in the time
+ * zone of that date diffuser.
+ * 
+ * @author Alan Gutierrez
+ */
+public class DateInfuser implements ObjectInfuser {
+    /**
+     * The singleton instance of the date infuser that interprets numbers in
+     * UTC and strings without an offset in the system default time zone.
+     */
+    public final static ObjectInfuser INSTANCE = new DateInfuser(ZoneOffset.UTC, null);
+
+    /** The formatter for the default pattern. */
+    private final static DateTimeFormatter DEFAULT = DateTimeFormatter.ofPattern(DateDiffuser.DEFAULT_PATTERN);
+
+    /** The time zone of numbers of milliseconds since the epoch. */
+    private final ZoneId epochZone;
+
+    /**
+     * The time zone of strings without an offset or null for the system
+     * default time zone.
+     */
+    private final ZoneId zone;
+
+    /**
+     * Create a date infuser that converts the dates diffused by the given
+     * date diffuser, interpreting numbers and strings without an offset in its
+     * time zone.
+     * 
+     * @param diffuser
+     *            The date diffuser.
+     */
+    public DateInfuser(DateDiffuser diffuser) {
+        this(diffuser.getZone(), diffuser.getZone());
+    }
+
+    /**
+     * Create a date infuser that interprets numbers and strings without an
+     * offset in the given time zones.
+     * 
+     * @param epochZone
+     *            The time zone of numbers of milliseconds since the epoch.
+     * @param zone
+     *            The time zone of strings without an offset or null for the
+     *            system default time zone.
+     */
+    private DateInfuser(ZoneId epochZone, ZoneId zone) {
+        this.epochZone = epochZone;
+        this.zone = zone;
+    }
+
+    /**
+     * Convert the given diffused date into the given date type.
+     * 
+     * @param infuser
+     *            The root infuser.
+     * @param diffused
+     *            The diffused date.
+     * @param type
+     *            The date class.
+     * @return The date.
+     * @exception IllegalArgumentException
+     *                If the value is not a recognized date.
+     */
+    public Object infuse(Infuser infuser, Object diffused, Type type) {
+        Class<?> dateClass = Infuser.getRawClass(type);
+        if (dateClass.isInstance(diffused)) {
+            return diffused;
+        }
+        ZonedDateTime zoned;
+        try {
+            zoned = parse(diffused);
+        } catch (DateTimeParseException e) {
+            throw Infuser.cannotInfuse(diffused, type, e);
+        }
+        if (dateClass == Instant.class) {
+            return zoned.toInstant();
+        }
+        if (dateClass == LocalDateTime.class) {
+            return zoned.toLocalDateTime();
+        }
+        if (dateClass == ZonedDateTime.class) {
+            return zoned;
+        }
+        if (dateClass == Timestamp.class) {
+            return Timestamp.from(zoned.toInstant());
+        }
+        if (dateClass == Date.class) {
+            return Date.from(zoned.toInstant());
+        }
+        throw Infuser.cannotInfuse(diffused, type, null);
+    }
+
+    /**
+     * Parse the given diffused date into a zoned date time.
+     * 
+     * @param diffused
+     *            The diffused date.
+     * @return The zoned date time.
+     * @exception DateTimeParseException
+     *                If the value is not a recognized date.
+     */
+    private ZonedDateTime parse(Object diffused) {
+        if (diffused instanceof Number) {
+            return Instant.ofEpochMilli(((Number) diffused).longValue()).atZone(epochZone);
+        }
+        ZoneId zone = this.zone == null ? ZoneId.systemDefault() : this.zone;
+        String string = diffused.toString();
+        if (string.isEmpty() || !Character.isDigit(string.charAt(0))) {
+            return ZonedDateTime.parse(string, DEFAULT);
+        }
+        if (string.endsWith("Z")) {
+            return Instant.parse(string).atZone(zone);
+        }
+        if (string.lastIndexOf('+') > 0 || string.lastIndexOf('-') > 9) {
+            return OffsetDateTime.parse(string).toZonedDateTime();
+        }
+        return LocalDateTime.parse(string).atZone(zone);
+    }
+}
@@ -0,0 +1,638 @@
+package com.goodworkalan.diffuse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A diffusion sink that compares a diffused object graph, as it is diffused,
+ * to a previous diffused object graph, recording the paths of the values that
+ * were added, removed or replaced, while building the new diffused object
+ * graph as a tree to compare against next time.
+ * <p>
+ * Maps and lists are compared member by member as they are emitted. A map or
+ * list with no counterpart of the same kind in the previous graph is
+ * recorded as a single addition or replacement. A value emitted already
+ * diffused, such as a container reused under a cycle policy or an immutable
+ * object from a {@link DiffusionCache}, is skipped without comparing its
+ * members if it is the same instance as its counterpart in the previous
+ * graph, so registering long-lived immutable objects makes unchanged
+ * subtrees free to compare.
+ * <p>
+ * A delta diffuses the whole object graph and compares every value it
+ * emits, so it costs a full diffusion plus a walk of the matching parts of
+ * the previous graph, whatever the number of changes. Building the new tree
+ * for the next comparison costs a copy of the diffused object graph as well.
+ * A delta created without a snapshot does not build the new tree, and only
+ * builds the containers that it records as added or replaced.
+ * <p>
+ * A delta created with a previous {@link Fingerprint} instead of a previous
+ * diffused object graph compares the hash of each value to the hash of its
+ * counterpart, and builds the fingerprint of the new graph to compare against
+ * next time instead of the new tree. A value emitted already diffused is
+ * compared by the hashes of its maps and lists, and the members of a map or
+ * list whose hash is unchanged are not compared. An object of a class
+ * registered as immutable that is the same instance, diffused with the same
+ * include node, as the object diffused at the same path last time is not
+ * diffused at all, and its previous fingerprint is reused. Since the previous
+ * values are not retained, the changes found against a fingerprint have no
+ * old values.
+ * <p>
+ * A delta is built by {@link Diffuser#delta(Object, Object, Includes)} or
+ * {@link Diffuser#delta(Fingerprint, Object, Includes)} and compares a single
+ * diffusion. It is not thread-safe. Members of a container
+ * diffused in parallel are emitted to it already diffused, in order, and are
+ * compared as trees.
+ * 
+ * @author Alan Gutierrez
+ */
+public class Delta implements DiffusionSink {
+    /** The tree builder that receives every event or null. */
+    private final TreeSink tree;
+
+    /**
+     * The fingerprint builder that receives every event when comparing
+     * against a fingerprint, otherwise null.
+     */
+    private final FingerprintSink fingerprints;
+
+    /**
+     * The tree builder for the container being captured as a whole when there
+     * is no tree builder for the whole graph, otherwise null.
+     */
+    private TreeSink captured;
+
+    /** The changes found. */
+    private final List<Change> changes = new ArrayList<Change>();
+
+    /** The previous container at each depth, a map or list. */
+    private final List<Object> containers = new ArrayList<Object>();
+
+    /**
+     * The keys of the previous map at each depth that have been emitted, or
+     * null for a list.
+     */
+    private final List<Set<String>> seen = new ArrayList<Set<String>>();
+
+    /** The path of map keys and list indexes to the current container. */
+    private final List<Object> path = new ArrayList<Object>();
+
+    /** The previous diffused object graph or its fingerprint. */
+    private final Object previous;
+
+    /** The key of the next entry of the map at each depth. */
+    private String[] keys = new String[16];
+
+    /** The index of the next element of the list at each depth. */
+    private int[] indexes = new int[16];
+
+    /** The depth of the current container, zero at the root. */
+    private int depth;
+
+    /**
+     * The depth of the container that is being captured as a whole, or zero
+     * if containers are being compared.
+     */
+    private int capture;
+
+    /** Whether the captured container replaces a previous value. */
+    private boolean replacing;
+
+    /** The previous value replaced by the captured container. */
+    private Object replaced;
+
+    /**
+     * Create a delta against the given previous diffused object graph that
+     * builds the new diffused object graph.
+     * 
+     * @param previous
+     *            The previous diffused object graph.
+     */
+    public Delta(Object previous) {
+        this(previous, true);
+    }
+
+    /**
+     * Create a delta against the given previous diffused object graph.
+     * 
+     * @param previous
+     *            The previous diffused object graph.
+     * @param snapshot
+     *            Whether to build the new diffused object graph.
+     */
+    public Delta(Object previous, boolean snapshot) {
+        this.previous = previous;
+        this.tree = snapshot ? new TreeSink() : null;
+        this.fingerprints = null;
+    }
+
+    /**
+     * Create a delta against the given fingerprint of the previous diffused
+     * object graph that builds the fingerprint of the new diffused object
+     * graph.
+     * 
+     * @param previous
+     *            The fingerprint of the previous diffused object graph or
+     *            null if there is none.
+     */
+    public Delta(Fingerprint previous) {
+        this.previous = previous;
+        this.tree = null;
+        this.fingerprints = new FingerprintSink();
+    }
+
+    /**
+     * Get the changes from the previous diffused object graph, in the order
+     * in which they were found.
+     * 
+     * @return The list of changes.
+     */
+    public List<Change> getChanges() {
+        return Collections.unmodifiableList(changes);
+    }
+
+    /**
+     * Return true if the diffused object graph is equal to the previous
+     * diffused object graph.
+     * 
+     * @return True if there are no changes.
+     */
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * Get the new diffused object graph.
+     * 
+     * @return The diffused tree or null if the delta was created without a
+     *         snapshot.
+     */
+    public Object getTree() {
+        return tree == null ? null : tree.getTree();
+    }
+
+    /**
+     * Get the fingerprint of the new diffused object graph.
+     * 
+     * @return The fingerprint or null if the delta was not created with a
+     *         previous fingerprint.
+     */
+    public Fingerprint getFingerprint() {
+        return fingerprints == null ? null : fingerprints.getFingerprint();
+    }
+
+    /**
+     * Get the given previous value, or null if comparing against a
+     * fingerprint, where previous values are not retained.
+     * 
+     * @param before
+     *            The previous value or its fingerprint.
+     * @return The previous value or null.
+     */
+    private Object old(Object before) {
+        return fingerprints == null ? before : null;
+    }
+
+    /**
+     * Emit the previous fingerprint of the next member of the current
+     * container, if the next member is the same immutable object diffused
+     * with the same include node last time, otherwise record the immutable
+     * object in the fingerprint of the next member.
+     * 
+     * @param source
+     *            The immutable object.
+     * @param includes
+     *            The include node of the immutable object.
+     * @return True if the previous fingerprint was emitted.
+     */
+    boolean reuse(Object source, Includes includes) {
+        if (fingerprints == null) {
+            return false;
+        }
+        if (capture == 0 && isPresent()) {
+            Object before = getPrevious();
+            if (before != null && ((Fingerprint) before).isSource(source, includes)) {
+                fingerprints.reuse((Fingerprint) before);
+                next();
+                return true;
+            }
+        }
+        fingerprints.source(source, includes);
+        return false;
+    }
+
+    /**
+     * Get the tree builder that receives the next event, the builder for the
+     * whole graph or the builder for the container being captured, or null
+     * if no tree is being built.
+     * 
+     * @return The tree builder or null.
+     */
+    private TreeSink builder() {
+        return tree == null ? captured : tree;
+    }
+
+    /**
+     * Create the path of the given member of the current container.
+     * 
+     * @param member
+     *            The map key or list index or null for the current container.
+     * @return An unmodifiable path.
+     */
+    private List<Object> path(Object member) {
+        Object[] parts = path.toArray(new Object[path.size() + (member == null ? 0 : 1)]);
+        if (member != null) {
+            parts[parts.length - 1] = member;
+        }
+        return Collections.unmodifiableList(Arrays.asList(parts));
+    }
+
+    /**
+     * Get the map key or list index of the next member of the current
+     * container, or null at the root.
+     * 
+     * @return The member of the current container.
+     */
+    private Object member() {
+        if (depth == 0) {
+            return null;
+        }
+        return seen.get(depth - 1) == null ? (Object) indexes[depth] : keys[depth];
+    }
+
+    /**
+     * Return true if the next member of the current container has a
+     * counterpart in the previous container.
+     * 
+     * @return True if the next member existed before.
+     */
+    private boolean isPresent() {
+        if (depth == 0) {
+            return true;
+        }
+        Object container = containers.get(depth - 1);
+        if (container instanceof Map<?, ?>) {
+            return ((Map<?, ?>) container).containsKey(keys[depth]);
+        }
+        return indexes[depth] < ((List<?>) container).size();
+    }
+
+    /**
+     * Get the counterpart of the next member of the current container in the
+     * previous container.
+     * 
+     * @return The previous value or null.
+     */
+    private Object getPrevious() {
+        if (depth == 0) {
+            return previous;
+        }
+        Object container = containers.get(depth - 1);
+        if (container instanceof Map<?, ?>) {
+            return ((Map<?, ?>) container).get(keys[depth]);
+        }
+        List<?> list = (List<?>) container;
+        return indexes[depth] < list.size() ? list.get(indexes[depth]) : null;
+    }
+
+    /** Advance past the member of the current container just emitted. */
+    private void next() {
+        if (depth != 0) {
+            Set<String> names = seen.get(depth - 1);
+            if (names == null) {
+                indexes[depth]++;
+            } else if (((Map<?, ?>) containers.get(depth - 1)).containsKey(keys[depth])) {
+                names.add(keys[depth]);
+            }
+        }
+    }
+
+    /**
+     * Record a value that is not a container being compared, as an addition
+     * if it has no counterpart or as a replacement if it is not equal to its
+     * counterpart.
+     * 
+     * @param value
+     *            The new value.
+     */
+    private void leaf(Object value) {
+        if (!isPresent()) {
+            changes.add(new Change(Change.Type.ADDED, path(member()), null, value));
+        } else if (fingerprints == null) {
+            compare(path(member()), getPrevious(), value);
+        } else {
+            compare(path(member()), (Fingerprint) getPrevious(), fingerprints.getLast(), value);
+        }
+    }
+
+    /**
+     * Compare the given previous fingerprint to the given new fingerprint of
+     * the given new value at the given path, recording the changes. The
+     * members of maps and lists are compared only if their hashes differ.
+     * 
+     * @param at
+     *            The path of the value.
+     * @param before
+     *            The previous fingerprint or null.
+     * @param after
+     *            The new fingerprint.
+     * @param value
+     *            The new value.
+     */
+    private void compare(List<Object> at, Fingerprint before, Fingerprint after, Object value) {
+        Object was = before == null ? null : before.getContainer();
+        Object is = after.getContainer();
+        if (before != null && before.getValue() == after.getValue() && (was == null) == (is == null) && before.isMap() == after.isMap()) {
+            return;
+        }
+        if (was instanceof Map<?, ?> && is instanceof Map<?, ?>) {
+            Map<?, ?> wasMap = (Map<?, ?>) was;
+            Map<?, ?> values = (Map<?, ?>) value;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) is).entrySet()) {
+                if (wasMap.containsKey(entry.getKey())) {
+                    compare(append(at, entry.getKey()), (Fingerprint) wasMap.get(entry.getKey()), (Fingerprint) entry.getValue(), values.get(entry.getKey()));
+                } else {
+                    changes.add(new Change(Change.Type.ADDED, append(at, entry.getKey()), null, values.get(entry.getKey())));
+                }
+            }
+            for (Object key : wasMap.keySet()) {
+                if (!((Map<?, ?>) is).containsKey(key)) {
+                    changes.add(new Change(Change.Type.REMOVED, append(at, key), null, null));
+                }
+            }
+        } else if (was instanceof List<?> && is instanceof List<?>) {
+            List<?> wasList = (List<?>) was;
+            List<?> isList = (List<?>) is;
+            List<?> values = (List<?>) value;
+            for (int i = 0; i < isList.size(); i++) {
+                if (i < wasList.size()) {
+                    compare(append(at, i), (Fingerprint) wasList.get(i), (Fingerprint) isList.get(i), values.get(i));
+                } else {
+                    changes.add(new Change(Change.Type.ADDED, append(at, i), null, values.get(i)));
+                }
+            }
+            for (int i = isList.size(); i < wasList.size(); i++) {
+                changes.add(new Change(Change.Type.REMOVED, append(at, i), null, null));
+            }
+        } else {
+            changes.add(new Change(Change.Type.REPLACED, at, null, value));
+        }
+    }
+
+    /**
+     * Compare the given previous value to the given new value at the given
+     * path, recording the changes. Maps and lists are compared member by
+     * member unless they are the same instance.
+     * 
+     * @param at
+     *            The path of the value.
+     * @param before
+     *            The previous value.
+     * @param after
+     *            The new value.
+     */
+    private void compare(List<Object> at, Object before, Object after) {
+        if (before == after) {
+            return;
+        }
+        if (before instanceof Map<?, ?> && after instanceof Map<?, ?>) {
+            Map<?, ?> was = (Map<?, ?>) before;
+            Map<?, ?> is = (Map<?, ?>) after;
+            for (Map.Entry<?, ?> entry : is.entrySet()) {
+                if (was.containsKey(entry.getKey())) {
+                    compare(append(at, entry.getKey()), was.get(entry.getKey()), entry.getValue());
+                } else {
+                    changes.add(new Change(Change.Type.ADDED, append(at, entry.getKey()), null, entry.getValue()));
+                }
+            }
+            for (Map.Entry<?, ?> entry : was.entrySet()) {
+                if (!is.containsKey(entry.getKey())) {
+                    changes.add(new Change(Change.Type.REMOVED, append(at, entry.getKey()), entry.getValue(), null));
+                }
+            }
+        } else if (before instanceof List<?> && after instanceof List<?>) {
+            List<?> was = (List<?>) before;
+            List<?> is = (List<?>) after;
+            for (int i = 0; i < is.size(); i++) {
+                if (i < was.size()) {
+                    compare(append(at, i), was.get(i), is.get(i));
+                } else {
+                    changes.add(new Change(Change.Type.ADDED, append(at, i), null, is.get(i)));
+                }
+            }
+            for (int i = is.size(); i < was.size(); i++) {
+                changes.add(new Change(Change.Type.REMOVED, append(at, i), was.get(i), null));
+            }
+        } else if (before == null ? after != null : !before.equals(after)) {
+            changes.add(new Change(Change.Type.REPLACED, at, before, after));
+        }
+    }
+
+    /**
+     * Create a path that is the given path followed by the given member.
+     * 
+     * @param at
+     *            The path of a container.
+     * @param member
+     *            The map key or list index.
+     * @return An unmodifiable path.
+     */
+    private static List<Object> append(List<Object> at, Object member) {
+        Object[] parts = at.toArray(new Object[at.size() + 1]);
+        parts[at.size()] = member;
+        return Collections.unmodifiableList(Arrays.asList(parts));
+    }
+
+    /**
+     * Enter a new map or list, comparing it to its counterpart if it is a
+     * container of the same kind, otherwise capturing it as a whole.
+     * 
+     * @param map
+     *            Whether the container is a map.
+     */
+    private void push(boolean map) {
+        if (capture == 0) {
+            boolean present = isPresent();
+            Object before = present ? getPrevious() : null;
+            Object container = fingerprints == null || before == null ? before : ((Fingerprint) before).getContainer();
+            if (present && (map ? container instanceof Map<?, ?> : container instanceof List<?>)) {
+                if (depth != 0) {
+                    path.add(member());
+                }
+                containers.add(container);
+                seen.add(map ? new HashSet<String>() : null);
+            } else {
+                capture = depth + 1;
+                replacing = present;
+                replaced = old(before);
+                if (tree == null) {
+                    captured = new TreeSink();
+                }
+            }
+        }
+        if (++depth == indexes.length) {
+            int[] grow = new int[depth * 2];
+            System.arraycopy(indexes, 0, grow, 0, depth);
+            indexes = grow;
+            String[] growKeys = new String[depth * 2];
+            System.arraycopy(keys, 0, growKeys, 0, depth);
+            keys = growKeys;
+        }
+        indexes[depth] = 0;
+    }
+
+    /** Start a map. */
+    public void startMap() {
+        if (fingerprints != null) {
+            fingerprints.startMap();
+        }
+        push(true);
+        TreeSink builder = builder();
+        if (builder != null) {
+            builder.startMap();
+        }
+    }
+
+    /**
+     * Start a map with the given keys.
+     * 
+     * @param keys
+     *            The keys of the map entries.
+     */
+    public void startMap(MapKeys keys) {
+        if (fingerprints != null) {
+            fingerprints.startMap(keys);
+        }
+        push(true);
+        TreeSink builder = builder();
+        if (builder != null) {
+            builder.startMap(keys);
+        }
+    }
+
+    /**
+     * Record the key of the next map entry.
+     * 
+     * @param name
+     *            The entry key.
+     */
+    public void key(String name) {
+        if (fingerprints != null) {
+            fingerprints.key(name);
+        }
+        keys[depth] = name;
+        TreeSink builder = builder();
+        if (builder != null) {
+            builder.key(name);
+        }
+    }
+
+    /** Start a list. */
+    public void startList() {
+        if (fingerprints != null) {
+            fingerprints.startList();
+        }
+        push(false);
+        TreeSink builder = builder();
+        if (builder != null) {
+            builder.startList();
+        }
+    }
+
+    /**
+     * Compare the given scalar to its counterpart.
+     * 
+     * @param value
+     *            The scalar value.
+     */
+    public void scalar(Object value) {
+        if (fingerprints != null) {
+            fingerprints.scalar(value);
+        }
+        TreeSink builder = builder();
+        if (builder != null) {
+            builder.scalar(value);
+        }
+        if (capture == 0) {
+            leaf(value);
+            next();
+        }
+    }
+
+    /**
+     * Compare the given already diffused value to its counterpart, skipping
+     * it if it is the same instance or, when comparing against a fingerprint,
+     * if its hash is unchanged.
+     * 
+     * @param diffused
+     *            The diffused value.
+     */
+    public void value(Object diffused) {
+        if (fingerprints != null) {
+            fingerprints.value(diffused);
+        }
+        TreeSink builder = builder();
+        if (builder != null) {
+            builder.value(diffused);
+        }
+        if (capture == 0) {
+            leaf(diffused);
+            next();
+        }
+    }
+
+    /**
+     * End the current map or list, recording the members of its counterpart
+     * that were not emitted as removed, or recording it as a whole if it was
+     * captured.
+     */
+    public void end() {
+        if (fingerprints != null) {
+            fingerprints.end();
+        }
+        TreeSink builder = builder();
+        if (builder != null) {
+            builder.end();
+        }
+        if (capture == depth) {
+            capture = 0;
+            captured = null;
+            depth--;
+            Object after = builder.getLast();
+            Object member = member();
+            changes.add(replacing
+                    ? new Change(Change.Type.REPLACED, path(member), replaced, after)
+                    : new Change(Change.Type.ADDED, path(member), null, after));
+            replaced = null;
+            next();
+            return;
+        }
+        if (capture != 0) {
+            depth--;
+            return;
+        }
+        Object before = containers.remove(containers.size() - 1);
+        Set<String> names = seen.remove(seen.size() - 1);
+        if (names == null) {
+            List<?> list = (List<?>) before;
+            for (int i = indexes[depth]; i < list.size(); i++) {
+                changes.add(new Change(Change.Type.REMOVED, path(i), old(list.get(i)), null));
+            }
+        } else if (names.size() != ((Map<?, ?>) before).size()) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) before).entrySet()) {
+                if (!names.contains(entry.getKey())) {
+                    changes.add(new Change(Change.Type.REMOVED, path(entry.getKey()), old(entry.getValue()), null));
+                }
+            }
+        }
+        depth--;
+        if (depth != 0) {
+            path.remove(path.size() - 1);
+        }
+        next();
+    }
+}
@@ -0,0 +1,25 @@
+package com.goodworkalan.diffuse;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a bean class for which the {@link DiffusableProcessor} generates a
+ * {@link GeneratedDiffuser} at compile time. The generated diffuser reads the
+ * public fields and getters of the bean directly, without reflection, and is
+ * registered with every new {@link Diffuser} through the
+ * <code>ServiceLoader</code>.
+ * <p>
+ * The annotated class must be a public top level class or a public static
+ * nested class.
+ * 
+ * @author Alan Gutierrez
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface Diffusable {
+}
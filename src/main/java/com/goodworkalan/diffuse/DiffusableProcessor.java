@@ -0,0 +1,252 @@
+package com.goodworkalan.diffuse;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * An annotation processor that generates a {@link GeneratedDiffuser} for each
+ * class annotated with {@link Diffusable}. The generated diffuser is named
+ * after the bean class with the suffix <code>_Diffuser</code>, is placed in
+ * the same package, and lists the public fields and getters of the bean class
+ * in the same way as the reflective bean diffuser: public instance fields,
+ * followed by public instance methods without parameters named with a
+ * <code>get</code> prefix, or an <code>is</code> prefix if they return a
+ * boolean, where a getter replaces a field of the same name.
+ * <p>
+ * The generated diffusers are listed in the
+ * <code>META-INF/services/com.goodworkalan.diffuse.GeneratedDiffuser</code>
+ * resource, written when processing is over, so that they are registered by
+ * every new {@link Diffuser}.
+ * <p>
+ * The processor is registered as a service, so it runs whenever this library
+ * is on the compiler class path.
+ * 
+ * @author Alan Gutierrez
+ */
+@SupportedAnnotationTypes("com.goodworkalan.diffuse.Diffusable")
+public class DiffusableProcessor extends AbstractProcessor {
+    /** The service resource that lists the generated diffusers. */
+    private final static String SERVICES = "META-INF/services/" + GeneratedDiffuser.class.getName();
+
+    /** The names of the generated diffusers. */
+    private final List<String> generated = new ArrayList<String>();
+
+    /**
+     * Support the latest source version, since the processor only reads
+     * fields and methods.
+     * 
+     * @return The latest supported source version.
+     */
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    /**
+     * Generate a diffuser for each annotated class in the round, and write the
+     * service resource when processing is over.
+     * 
+     * @param annotations
+     *            The annotations processed in this round.
+     * @param round
+     *            The round environment.
+     * @return True to claim the annotations.
+     */
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        for (Element element : round.getElementsAnnotatedWith(Diffusable.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                error(element, "Only classes can be annotated with @Diffusable.");
+                continue;
+            }
+            TypeElement type = (TypeElement) element;
+            if (!isAccessible(type)) {
+                error(element, "A @Diffusable class must be a public top level class or a public static nested class.");
+                continue;
+            }
+            try {
+                generate(type);
+            } catch (IOException e) {
+                error(element, "Unable to write generated diffuser: " + e.getMessage());
+            }
+        }
+        if (round.processingOver() && !generated.isEmpty()) {
+            try {
+                FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICES);
+                Writer writer = file.openWriter();
+                try {
+                    for (String name : generated) {
+                        writer.write(name);
+                        writer.write('\n');
+                    }
+                } finally {
+                    writer.close();
+                }
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to write " + SERVICES + ": " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return true if the given class is public and is either top level or
+     * static and nested in accessible classes.
+     * 
+     * @param type
+     *            The class.
+     * @return True if the generated diffuser can reference the class.
+     */
+    private static boolean isAccessible(TypeElement type) {
+        if (!type.getModifiers().contains(Modifier.PUBLIC)) {
+            return false;
+        }
+        if (type.getNestingKind() == NestingKind.TOP_LEVEL) {
+            return true;
+        }
+        return type.getNestingKind() == NestingKind.MEMBER
+            && type.getModifiers().contains(Modifier.STATIC)
+            && isAccessible((TypeElement) type.getEnclosingElement());
+    }
+
+    /**
+     * Report an error for the given element.
+     * 
+     * @param element
+     *            The element.
+     * @param message
+     *            The error message.
+     */
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    /**
+     * Generate the diffuser for the given class.
+     * 
+     * @param type
+     *            The annotated class.
+     * @exception IOException
+     *                If the source file cannot be written.
+     */
+    private void generate(TypeElement type) throws IOException {
+        Map<String, String> accessors = new LinkedHashMap<String, String>();
+        Map<String, String> types = new LinkedHashMap<String, String>();
+        for (VariableElement field : ElementFilter.fieldsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+            if (field.getModifiers().contains(Modifier.PUBLIC) && !field.getModifiers().contains(Modifier.STATIC)) {
+                String name = field.getSimpleName().toString();
+                accessors.put(name, "bean." + name);
+                types.put(name, erasure(field.asType()));
+            }
+        }
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+            if (!method.getModifiers().contains(Modifier.PUBLIC) || method.getModifiers().contains(Modifier.STATIC)
+                    || !method.getParameters().isEmpty() || method.getReturnType().getKind() == TypeKind.VOID) {
+                continue;
+            }
+            String methodName = method.getSimpleName().toString();
+            String name;
+            if (methodName.startsWith("get") && methodName.length() > 3 && !methodName.equals("getClass")) {
+                name = Character.toLowerCase(methodName.charAt(3)) + methodName.substring(4);
+            } else if (methodName.startsWith("is") && methodName.length() > 2 && method.getReturnType().getKind() == TypeKind.BOOLEAN) {
+                name = Character.toLowerCase(methodName.charAt(2)) + methodName.substring(3);
+            } else {
+                continue;
+            }
+            accessors.remove(name);
+            types.remove(name);
+            accessors.put(name, "bean." + methodName + "()");
+            types.put(name, erasure(method.getReturnType()));
+        }
+
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+        String beanName = type.getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String simpleName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1)).replace('$', '_') + "_Diffuser";
+        String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n")
+              .append(" * Diffuses instances of {@link ").append(beanName).append("}.\n")
+              .append(" * Generated by ").append(DiffusableProcessor.class.getName()).append(".\n")
+              .append(" */\n")
+              .append("public final class ").append(simpleName).append(" extends ").append(GeneratedDiffuser.class.getName()).append(" {\n")
+              .append("    /** Create the diffuser. */\n")
+              .append("    public ").append(simpleName).append("() {\n")
+              .append("        super(").append(beanName).append(".class, new String[] {");
+        String separator = " ";
+        for (String name : accessors.keySet()) {
+            source.append(separator).append('"').append(name).append('"');
+            separator = ", ";
+        }
+        source.append(" }, new Class<?>[] {");
+        separator = " ";
+        for (String name : types.values()) {
+            source.append(separator).append(name).append(".class");
+            separator = ", ";
+        }
+        source.append(" });\n")
+              .append("    }\n\n")
+              .append("    /** Read the property at the given index. */\n")
+              .append("    protected Object get(Object object, int index) throws Exception {\n")
+              .append("        ").append(beanName).append(" bean = (").append(beanName).append(") object;\n")
+              .append("        switch (index) {\n");
+        int index = 0;
+        for (String accessor : accessors.values()) {
+            source.append("        case ").append(index++).append(":\n")
+                  .append("            return ").append(accessor).append(";\n");
+        }
+        source.append("        default:\n")
+              .append("            throw new IndexOutOfBoundsException(Integer.toString(index));\n")
+              .append("        }\n")
+              .append("    }\n")
+              .append("}\n");
+
+        Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter();
+        try {
+            writer.write(source.toString());
+        } finally {
+            writer.close();
+        }
+        generated.add(qualifiedName);
+    }
+
+    /**
+     * Get the source representation of the erasure of the given type.
+     * 
+     * @param type
+     *            The type.
+     * @return The erased type name.
+     */
+    private String erasure(TypeMirror type) {
+        return processingEnv.getTypeUtils().erasure(type).toString();
+    }
+}
@@ -2,14 +2,53 @@ package com.goodworkalan.diffuse;
 
 import java.io.File;
 import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetAddress;
 import java.net.URI;
 import java.net.URL;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.MonthDay;
+import java.time.OffsetDateTime;
+import java.time.OffsetTime;
+import java.time.Period;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.BaseStream;
 
 import com.goodworkalan.utility.ClassAssociation;
 
@@ -21,12 +60,19 @@ import com.goodworkalan.utility.ClassAssociation;
  * the maps and lists will result in an
  * <code>UnsupportedOperationException</code>.
  * <p>
+ * The object diffusers emit the diffused object graph as a stream of events to
+ * a {@link DiffusionSink}. The object tree is built by a {@link TreeSink}. A
+ * diffused object graph can be sent to any other sink with
+ * {@link #diffuse(Object, Includes, DiffusionSink)} so that it can be written
+ * without building the object tree.
+ * <p>
  * An object in the object graph is converted using an {@link ObjectDiffuser}
  * implementation. The <code>Diffuser</code> keeps a map that associates classes
  * and interfaces with <code>ObjectDiffuser</code> implementations.
  * <p>
  * When an object is diffused, it is returned immediately if it is null. It is
- * converted into a list if it is an array. Otherwise, the
+ * converted into a list if it is an array, unless an object diffuser has been
+ * assigned to that specific array type. Otherwise, the
  * <code>ObjectDiffuser</code> map is checked for an object diffuser that
  * matches the type of the object. If none is found, then the
  * <code>ObjectDiffuser</code> map is checked for an <code>ObjectDiffuser</code>
@@ -46,22 +92,101 @@ import com.goodworkalan.utility.ClassAssociation;
  * {@link #setConverter(Class, ObjectDiffuser) setConverter} method.
  * <p>
  * The ascent up the class hierarchy is potentially time consuming, so the
- * results of the <code>ObjectDiffuser</code> search are cached. The cache is
- * cleared every time the {@link #setConverter(Class, ObjectDiffuser)
+ * results of the <code>ObjectDiffuser</code> search are cached for each
+ * concrete class, in a cache that is read without locking by any number of
+ * threads. The cache is a class value, so it does not keep the classes it
+ * has seen, or their class loaders, reachable. The cache is replaced with an
+ * empty cache every time the {@link #setConverter(Class, ObjectDiffuser)
  * setConverter} method is called. Mapping <code>ObjectDiffuser</code>
  * implementations should be done before a <code>Diffuser</code> is used to
  * diffuser an object.
  * <p>
+ * The properties of a bean class and the object diffusers for their declared
+ * types are compiled into a plan the first time an instance of the bean class
+ * is diffused. Plans are cached and reused by subsequent diffusions. They are
+ * also discarded every time the {@link #setConverter(Class, ObjectDiffuser)
+ * setConverter} method is called.
+ * <p>
+ * Classes whose instances are immutable and recur across diffusions can be
+ * registered with {@link #setImmutable(Class, boolean) setImmutable}. Given a
+ * {@link DiffusionCache}, the diffuser caches the diffused forms of their
+ * instances and reuses them instead of diffusing the instances again.
+ * <p>
  * Upon creation, map is populated with reasonable defaults for the
  * <code>java.util</code> containers, the primitives and <code>Object</code>
  * derived counterparts, and <code>String</code>. Additionally, some reasonable
- * defaults as associated with some common Java types.
+ * defaults as associated with some common Java types. Enums are diffused as
+ * their names, big numbers as themselves, the <code>java.time</code> values,
+ * UUIDs and internet addresses as their standard string forms, and
+ * optionals and atomics as their values, so that none of these common value
+ * types are diffused reflectively as beans. Iterators and streams are
+ * diffused into lists, consuming their elements one at a time, so that a
+ * long stream written to a sink is diffused in constant memory. Other
+ * iterables are diffused as beans unless an {@link IteratorDiffuser} is
+ * assigned to them.
+ * <p>
+ * The object diffusers generated at compile time for classes annotated with
+ * {@link Diffusable} are found with a <code>ServiceLoader</code> and
+ * associated with their bean classes, so that those beans are diffused without
+ * reflection. Classes without a generated diffuser are diffused reflectively
+ * by the default bean diffuser.
  * 
  * @author Alan Gutierrez
  */
 public class Diffuser {
+    /**
+     * The object diffusers generated for classes annotated with
+     * <code>Diffusable</code>.
+     */
+    private final static List<GeneratedDiffuser> GENERATED = loadGenerated();
+
     /** The mapping of classes to their object diffusers. */
     private final ClassAssociation<ObjectDiffuser> associations;
+
+    /** The object diffusers assigned to specific array types. */
+    private final ConcurrentMap<Class<?>, ObjectDiffuser> arrays;
+
+    /**
+     * The cache of bean diffusion plans, replaced with an empty cache when the
+     * object diffuser mappings change.
+     */
+    private volatile ClassValue<BeanPlan> plans = newPlans();
+
+    /**
+     * The cache of object diffusers resolved for each class, replaced with an
+     * empty cache when the object diffuser mappings change.
+     */
+    private volatile ClassValue<ObjectDiffuser> dispatch = newDispatch();
+
+    /** Whether diffusion returns lazy views of containers. */
+    private volatile boolean lazy;
+
+    /** The cycle policy or null if object identities are not tracked. */
+    private volatile CyclePolicy cycles;
+
+    /**
+     * The minimum number of members of a container diffused in parallel or
+     * zero to never diffuse in parallel.
+     */
+    private volatile int parallelThreshold;
+
+    /** The fork/join pool used to diffuse in parallel. */
+    private volatile ForkJoinPool forkJoinPool = ForkJoinPool.commonPool();
+
+    /** The listener that receives diffusion measurements or null. */
+    private volatile DiffusionListener listener;
+
+    /** The budget of each diffusion or null for no budget. */
+    private volatile Budget budget;
+
+    /**
+     * The classes registered as immutable mapped to whether their instances
+     * are cached by identity instead of equality.
+     */
+    private final ConcurrentMap<Class<?>, Boolean> immutables;
+
+    /** The cache of diffused immutable objects or null for no cache. */
+    private volatile DiffusionCache cache;
  
     /**
      * Create a diffuser with reasonable defaults for the most common types. The
@@ -70,6 +195,8 @@ public class Diffuser {
      */
     public Diffuser() {
         associations = new ClassAssociation<ObjectDiffuser>();
+        arrays = new ConcurrentHashMap<Class<?>, ObjectDiffuser>();
+        immutables = new ConcurrentHashMap<Class<?>, Boolean>();
         associations.assignable(Byte.class, NullDiffuser.INSTANCE);
         associations.assignable(Boolean.class, NullDiffuser.INSTANCE);
         associations.assignable(Short.class, NullDiffuser.INSTANCE);
@@ -82,6 +209,36 @@ public class Diffuser {
         associations.assignable(Object.class, BeanDiffuser.INSTANCE);
         associations.assignable(Map.class, MapDiffuser.INSTANCE);
         associations.assignable(Collection.class, CollectionDiffuser.INSTANCE);
+        associations.assignable(Iterator.class, IteratorDiffuser.INSTANCE);
+        associations.assignable(BaseStream.class, IteratorDiffuser.INSTANCE);
+        associations.assignable(Path.class, ToStringDiffuser.INSTANCE);
+        associations.assignable(BigDecimal.class, NullDiffuser.INSTANCE);
+        associations.assignable(BigInteger.class, NullDiffuser.INSTANCE);
+        associations.assignable(Enum.class, EnumDiffuser.INSTANCE);
+        associations.assignable(UUID.class, ToStringDiffuser.INSTANCE);
+        associations.assignable(InetAddress.class, InetAddressDiffuser.INSTANCE);
+        associations.assignable(Duration.class, ToStringDiffuser.INSTANCE);
+        associations.assignable(Period.class, ToStringDiffuser.INSTANCE);
+        associations.assignable(LocalDate.class, ToStringDiffuser.INSTANCE);
+        associations.assignable(LocalTime.class, ToStringDiffuser.INSTANCE);
+        associations.assignable(OffsetDateTime.class, ToStringDiffuser.INSTANCE);
+        associations.assignable(OffsetTime.class, ToStringDiffuser.INSTANCE);
+        associations.assignable(Year.class, ToStringDiffuser.INSTANCE);
+        associations.assignable(YearMonth.class, ToStringDiffuser.INSTANCE);
+        associations.assignable(MonthDay.class, ToStringDiffuser.INSTANCE);
+        associations.assignable(ZoneId.class, ToStringDiffuser.INSTANCE);
+        associations.assignable(Optional.class, ValueDiffuser.REFERENCE);
+        associations.assignable(OptionalInt.class, ValueDiffuser.INSTANCE);
+        associations.assignable(OptionalLong.class, ValueDiffuser.INSTANCE);
+        associations.assignable(OptionalDouble.class, ValueDiffuser.INSTANCE);
+        associations.assignable(AtomicBoolean.class, ValueDiffuser.INSTANCE);
+        associations.assignable(AtomicInteger.class, ValueDiffuser.INSTANCE);
+        associations.assignable(AtomicLong.class, ValueDiffuser.INSTANCE);
+        associations.assignable(AtomicReference.class, ValueDiffuser.REFERENCE);
+        associations.assignable(LongAdder.class, ValueDiffuser.INSTANCE);
+        associations.assignable(LongAccumulator.class, ValueDiffuser.INSTANCE);
+        associations.assignable(DoubleAdder.class, ValueDiffuser.INSTANCE);
+        associations.assignable(DoubleAccumulator.class, ValueDiffuser.INSTANCE);
         associations.assignable(File.class, ToStringDiffuser.INSTANCE);
         associations.assignable(URL.class, ToStringDiffuser.INSTANCE);
         associations.assignable(URI.class, ToStringDiffuser.INSTANCE);
@@ -89,6 +246,34 @@ public class Diffuser {
         associations.assignable(CharSequence.class, ToStringDiffuser.INSTANCE);
         associations.assignable(StringWriter.class, ToStringDiffuser.INSTANCE);
         associations.assignable(Date.class, DateDiffuser.INSTANCE);
+        associations.assignable(Instant.class, DateDiffuser.INSTANCE);
+        associations.assignable(LocalDateTime.class, DateDiffuser.INSTANCE);
+        associations.assignable(ZonedDateTime.class, DateDiffuser.INSTANCE);
+        for (GeneratedDiffuser generated : GENERATED) {
+            associations.assignable(generated.getType(), generated);
+        }
+    }
+
+    /**
+     * Load the generated object diffusers listed as services, skipping any
+     * that cannot be loaded or instantiated.
+     * 
+     * @return The generated object diffusers.
+     */
+    private static List<GeneratedDiffuser> loadGenerated() {
+        List<GeneratedDiffuser> generated = new ArrayList<GeneratedDiffuser>();
+        Iterator<GeneratedDiffuser> services = ServiceLoader.load(GeneratedDiffuser.class).iterator();
+        for (;;) {
+            try {
+                if (!services.hasNext()) {
+                    break;
+                }
+                generated.add(services.next());
+            } catch (ServiceConfigurationError e) {
+                // Fall back to the reflective bean diffuser.
+            }
+        }
+        return Collections.unmodifiableList(generated);
     }
 
     /**
@@ -100,6 +285,16 @@ public class Diffuser {
      */
     public Diffuser(Diffuser diffuser) {
         associations = new ClassAssociation<ObjectDiffuser>(diffuser.associations);
+        arrays = new ConcurrentHashMap<Class<?>, ObjectDiffuser>(diffuser.arrays);
+        lazy = diffuser.lazy;
+        cycles = diffuser.cycles;
+        parallelThreshold = diffuser.parallelThreshold;
+        forkJoinPool = diffuser.forkJoinPool;
+        listener = diffuser.listener;
+        budget = diffuser.budget;
+        immutables = new ConcurrentHashMap<Class<?>, Boolean>(diffuser.immutables);
+        DiffusionCache cache = diffuser.cache;
+        this.cache = cache == null ? null : new DiffusionCache(cache.getMaximumSize());
     }
 
     /**
@@ -108,6 +303,13 @@ public class Diffuser {
      * <code>ClassLoader</code> of the given object type. The assignment will be
      * inherited by any subsequently created child class loaders of the
      * associated class loader, but not by existing child class loaders.
+     * <p>
+     * If the given type is an array type, the object diffuser is used only for
+     * arrays of exactly that type, such as <code>byte[]</code>.
+     * <p>
+     * The cached object diffusers, bean plans and diffused immutable objects
+     * are discarded, so that diffusions that start after this method returns
+     * use the new mapping.
      * 
      * @param type
      *            The object type.
@@ -115,7 +317,211 @@ public class Diffuser {
      *            The object diffuser.
      */
     public void setConverter(Class<?> type, ObjectDiffuser diffuser) {
-        associations.assignable(type, diffuser);
+        if (type.isArray()) {
+            arrays.put(type, diffuser);
+        } else {
+            associations.assignable(type, diffuser);
+        }
+        dispatch = newDispatch();
+        plans = newPlans();
+        DiffusionCache cache = this.cache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Register the given class and its subclasses as immutable, so that the
+     * diffused form of each of their instances is cached, if a cache has been
+     * set with {@link #setCache(DiffusionCache) setCache}, and returned instead
+     * of diffusing the instance again. Instances are found in the cache by
+     * equality, or by identity if the class does not implement
+     * <code>equals</code> or if equality is expensive.
+     * <p>
+     * The diffused form of an immutable object must depend only on the object
+     * and its include paths. The cached object diffusers are discarded, so
+     * that diffusions that start after this method returns use the new
+     * registration.
+     * 
+     * @param type
+     *            The immutable class.
+     * @param identity
+     *            Whether to find instances by identity instead of equality.
+     */
+    public void setImmutable(Class<?> type, boolean identity) {
+        immutables.put(type, identity);
+        dispatch = newDispatch();
+        plans = newPlans();
+    }
+
+    /**
+     * Set the cache of the diffused forms of objects registered as immutable
+     * with {@link #setImmutable(Class, boolean) setImmutable}, or null to
+     * diffuse immutable objects every time, the default. Objects are diffused
+     * as usual within a budget.
+     * 
+     * @param cache
+     *            The cache or null.
+     */
+    public void setCache(DiffusionCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Get the cache of the diffused forms of immutable objects.
+     * 
+     * @return The cache or null.
+     */
+    public DiffusionCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Set whether this diffuser is in lazy mode. In lazy mode, the
+     * {@link #diffuse(Object, Includes)} method returns unmodifiable map and
+     * list views of the containers in the object graph whose members are
+     * diffused when they are first accessed. Lazy views implement the
+     * {@link Lazy} interface, whose {@link Lazy#snapshot() snapshot} method
+     * will diffuse the entire view at once, detaching it from the objects
+     * from which it was diffused.
+     * <p>
+     * Only containers whose object diffusers implement {@link LazyDiffuser}
+     * are diffused lazily. Diffusion to a sink is never lazy.
+     * 
+     * @param lazy
+     *            Whether diffusion returns lazy views.
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    /**
+     * Return true if this diffuser is in lazy mode.
+     * 
+     * @return True if diffusion returns lazy views.
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Set the cycle policy. When a cycle policy is set, each diffusion tracks
+     * the identity of the container objects it diffuses. A container that
+     * contains itself, directly or indirectly, is handled according to the
+     * policy instead of recursing endlessly, and a container that appears
+     * more than once in the object graph is diffused once and its diffused
+     * result is reused when diffusing into a tree or emitted as a reference
+     * when diffusing into a sink that encodes references. When the cycle
+     * policy is null, the default, identities are not tracked, but a
+     * container that contains itself still fails with an
+     * <code>IllegalArgumentException</code> once containers are nested
+     * {@link Diffusion#CHECKED_DEPTH} deep.
+     * 
+     * @param cycles
+     *            The cycle policy or null to not track identities.
+     */
+    public void setCyclePolicy(CyclePolicy cycles) {
+        this.cycles = cycles;
+    }
+
+    /**
+     * Get the cycle policy.
+     * 
+     * @return The cycle policy or null if identities are not tracked.
+     */
+    public CyclePolicy getCyclePolicy() {
+        return cycles;
+    }
+
+    /**
+     * Set the minimum number of elements of an array or collection or entries
+     * of a map at which the members are diffused in parallel by fork/join
+     * tasks, or zero to never diffuse in parallel, the default.
+     * <p>
+     * The members are divided into ranges, each diffused into a tree by a
+     * separate task with its own include cursor, and the diffused members are
+     * emitted in their original order. When diffusing into a sink other than
+     * a tree, the diffused members are replayed to the sink. Containers
+     * shared by members of different ranges are not reused across ranges.
+     * 
+     * @param parallelThreshold
+     *            The minimum number of members to diffuse in parallel or
+     *            zero.
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Get the minimum number of members of a container diffused in parallel.
+     * 
+     * @return The parallel threshold or zero if diffusion is never parallel.
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Set the fork/join pool used to diffuse in parallel. The default is the
+     * common pool.
+     * 
+     * @param forkJoinPool
+     *            The fork/join pool.
+     */
+    public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+        this.forkJoinPool = forkJoinPool;
+    }
+
+    /**
+     * Get the fork/join pool used to diffuse in parallel.
+     * 
+     * @return The fork/join pool.
+     */
+    public ForkJoinPool getForkJoinPool() {
+        return forkJoinPool;
+    }
+
+    /**
+     * Set the listener that receives the measurements of each diffusion and
+     * of each object diffused, or null to not measure diffusions. The default
+     * is null.
+     * 
+     * @param listener
+     *            The diffusion listener or null.
+     */
+    public void setListener(DiffusionListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Get the listener that receives the measurements of each diffusion.
+     * 
+     * @return The diffusion listener or null.
+     */
+    public DiffusionListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Set the budget that limits the size of each diffusion or null for no
+     * limits, the default. Each diffusion has its own count of the objects
+     * diffused. Containers are never diffused in parallel within a budget.
+     * Lazy views are not limited by the budget.
+     * 
+     * @param budget
+     *            The budget or null.
+     */
+    public void setBudget(Budget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Get the budget that limits the size of each diffusion.
+     * 
+     * @return The budget or null.
+     */
+    public Budget getBudget() {
+        return budget;
     }
 
     /**
@@ -133,20 +539,88 @@ public class Diffuser {
     }
 
     /**
-     * Get the object converter for the given object type.
+     * Get the object converter for the given object type. The object
+     * converter is resolved once for each type and cached until the next call
+     * to {@link #setConverter(Class, ObjectDiffuser) setConverter}.
      * 
      * @param type
      *            The object type.
      * @return The object converter.
      */
     public ObjectDiffuser getDiffuser(Class<?> type) {
+        return dispatch.get(type);
+    }
+
+    /**
+     * Create an empty cache of the object diffusers resolved for each class.
+     * The cache is a class value, so the resolved object diffusers are held by
+     * the classes themselves and do not keep a class or its class loader
+     * reachable once the class is otherwise unreachable.
+     * 
+     * @return An empty object diffuser cache.
+     */
+    private ClassValue<ObjectDiffuser> newDispatch() {
+        return new ClassValue<ObjectDiffuser>() {
+            protected ObjectDiffuser computeValue(Class<?> type) {
+                return resolve(type);
+            }
+        };
+    }
+
+    /**
+     * Create an empty cache of bean diffusion plans. The cache is a class
+     * value, so that it does not keep bean classes reachable.
+     * 
+     * @return An empty bean plan cache.
+     */
+    private ClassValue<BeanPlan> newPlans() {
+        return new ClassValue<BeanPlan>() {
+            protected BeanPlan computeValue(Class<?> beanClass) {
+                return new BeanPlan(Diffuser.this, beanClass);
+            }
+        };
+    }
+
+    /**
+     * Resolve the object diffuser for the given class from the object diffuser
+     * mappings.
+     * 
+     * @param type
+     *            The class.
+     * @return The object diffuser for the class.
+     */
+    private ObjectDiffuser resolve(Class<?> type) {
         if (type.isArray()) {
-            return ArrayDiffuser.INSTANCE;
+            ObjectDiffuser diffuser = arrays.get(type);
+            return diffuser == null ? ArrayDiffuser.INSTANCE : diffuser;
         }
         if (type.isPrimitive()) {
             return NullDiffuser.INSTANCE;
         }
-        return associations.get(type);
+        ObjectDiffuser diffuser = associations.get(type);
+        for (Map.Entry<Class<?>, Boolean> immutable : immutables.entrySet()) {
+            if (immutable.getKey().isAssignableFrom(type)) {
+                return new MemoizingDiffuser(diffuser, immutable.getValue());
+            }
+        }
+        return diffuser;
+    }
+
+    /**
+     * Get the diffusion plan for the given bean class, creating and caching
+     * the plan if it does not already exist.
+     * <p>
+     * A plan created concurrently with a call to
+     * {@link #setConverter(Class, ObjectDiffuser) setConverter} is added to the
+     * cache that was current when the plan was started, so a plan built with
+     * stale object diffuser mappings is never cached.
+     * 
+     * @param beanClass
+     *            The bean class.
+     * @return The diffusion plan for the bean class.
+     */
+    BeanPlan getPlan(Class<?> beanClass) {
+        return plans.get(beanClass);
     }
 
     /**
@@ -156,25 +630,309 @@ public class Diffuser {
      * include paths are the special path "*", then recursive copy is performed
      * that includes all of the paths.
      * <p>
-     * Currently, this method only converts object trees. Actually object graphs
-     * will result in endless recursion.
+     * The include paths are compiled each time this method is called. When
+     * the same include paths are used repeatedly, compile them once into an
+     * {@link Includes} and call {@link #diffuse(Object, Includes)} instead.
+     * <p>
+     * Object graphs that contain cycles will result in endless recursion
+     * unless a {@link #setCyclePolicy(CyclePolicy) cycle policy} is set.
      * 
      * @param object
      *            The object to diffuse.
+     * @param includes
+     *            The paths to include.
      * @return A diffused object graph that contains only maps, lists or
      *         scalars, where a scalar is a primitive or string.
      */
     public Object diffuse(Object object, String... includes) {
+        return diffuse(object, new Includes(includes));
+    }
+
+    /**
+     * Diffuse the given object creating a diffused object graph that includes
+     * only the child objects that are included by the given compiled include
+     * paths.
+     * <p>
+     * If this diffuser is in {@link #setLazy(boolean) lazy mode}, containers
+     * are returned as lazy views.
+     * <p>
+     * Object graphs that contain cycles will result in endless recursion
+     * unless a {@link #setCyclePolicy(CyclePolicy) cycle policy} is set.
+     * 
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The compiled include paths.
+     * @return A diffused object graph that contains only maps, lists or
+     *         scalars, where a scalar is a primitive or string.
+     */
+    public Object diffuse(Object object, Includes includes) {
+        if (lazy) {
+            return object == null ? null : lazy(object, includes, getDiffuser(object.getClass()));
+        }
+        TreeSink sink = new TreeSink();
+        diffuse(object, includes, sink);
+        return sink.getTree();
+    }
+
+    /**
+     * Diffuse the given object emitting the diffused object graph as a stream
+     * of events to the given sink, instead of building it as a tree of maps
+     * and lists. Only the child objects that are included by the given
+     * compiled include paths are diffused.
+     * 
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The compiled include paths.
+     * @param sink
+     *            The sink that receives the diffused object graph.
+     */
+    public void diffuse(Object object, Includes includes, DiffusionSink sink) {
+        new Diffusion(this, sink).root(object, includes, null);
+    }
+
+    /**
+     * Diffuse the given object into a tree, limiting the size of the diffused
+     * object graph by the given budget instead of the budget of this
+     * diffuser. The tree is never lazy.
+     * 
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The compiled include paths.
+     * @param budget
+     *            The budget or null for no limits.
+     * @return A diffused object graph that contains only maps, lists or
+     *         scalars, where a scalar is a primitive or string.
+     */
+    public Object diffuse(Object object, Includes includes, Budget budget) {
+        TreeSink sink = new TreeSink();
+        diffuse(object, includes, sink, budget);
+        return sink.getTree();
+    }
+
+    /**
+     * Diffuse the given object emitting the diffused object graph as a stream
+     * of events to the given sink, limiting the size of the diffused object
+     * graph by the given budget instead of the budget of this diffuser.
+     * 
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The compiled include paths.
+     * @param sink
+     *            The sink that receives the diffused object graph.
+     * @param budget
+     *            The budget or null for no limits.
+     */
+    public void diffuse(Object object, Includes includes, DiffusionSink sink, Budget budget) {
+        new Diffusion(this, sink, budget).root(object, includes, null);
+    }
+
+    /**
+     * Diffuse the given object, comparing the diffused object graph to the
+     * given previous diffused object graph as it is diffused. The returned
+     * delta lists the paths of the values that were added, removed or
+     * replaced, and holds the new diffused object graph to compare against
+     * next time.
+     * <p>
+     * The whole object graph is diffused and every value is compared, so a
+     * delta costs as much as a diffusion whatever the number of changes, plus
+     * the copy of the new diffused object graph.
+     * 
+     * @param previous
+     *            The previous diffused object graph.
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The compiled include paths.
+     * @return The delta.
+     */
+    public Delta delta(Object previous, Object object, Includes includes) {
+        return delta(previous, object, includes, true);
+    }
+
+    /**
+     * Diffuse the given object, comparing the diffused object graph to the
+     * given previous diffused object graph as it is diffused. If a snapshot
+     * is not requested, the new diffused object graph is not built, only the
+     * containers recorded as added or replaced, and the delta holds only the
+     * changes.
+     * <p>
+     * The whole object graph is diffused and every value is compared, so a
+     * delta costs as much as a diffusion whatever the number of changes.
+     * 
+     * @param previous
+     *            The previous diffused object graph.
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The compiled include paths.
+     * @param snapshot
+     *            Whether to build the new diffused object graph.
+     * @return The delta.
+     */
+    public Delta delta(Object previous, Object object, Includes includes, boolean snapshot) {
+        Delta delta = new Delta(previous, snapshot);
+        diffuse(object, includes, delta);
+        return delta;
+    }
+
+    /**
+     * Diffuse the given object, comparing the diffused object graph to the
+     * given retained fingerprint of the previous diffused object graph as it
+     * is diffused. The returned delta lists the paths of the values that were
+     * added, removed or replaced, without their old values, and holds the
+     * fingerprint of the new diffused object graph to compare against next
+     * time.
+     * <p>
+     * Maps and lists emitted already diffused whose hashes are unchanged are
+     * not compared member by member, and objects of classes registered as
+     * immutable that are the same instances at the same paths as last time
+     * are not diffused.
+     * 
+     * @param previous
+     *            The fingerprint of the previous diffused object graph or
+     *            null if there is none.
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The compiled include paths.
+     * @return The delta.
+     * @see Fingerprint
+     */
+    public Delta delta(Fingerprint previous, Object object, Includes includes) {
+        Delta delta = new Delta(previous);
+        diffuse(object, includes, delta);
+        return delta;
+    }
+
+    /**
+     * Compute a digest of the canonical encoding of the diffused object graph
+     * of the given object with the given message digest, without building the
+     * diffused object graph. Equal diffused object graphs have equal digests,
+     * whatever the order of the entries of their maps.
+     *
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The compiled include paths.
+     * @param digest
+     *            The message digest, which is left unchanged.
+     * @return The digest.
+     * @exception IllegalArgumentException
+     *                If the message digest cannot be cloned.
+     * @see DigestSink
+     */
+    public byte[] digest(Object object, Includes includes, MessageDigest digest) {
+        DigestSink sink = new DigestSink(digest);
+        diffuse(object, includes, sink);
+        return sink.getDigest();
+    }
+
+    /**
+     * Compute a 64-bit {@link Xxh64} fingerprint of the canonical encoding of
+     * the diffused object graph of the given object, without building the
+     * diffused object graph.
+     *
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The compiled include paths.
+     * @return The fingerprint.
+     * @see DigestSink
+     */
+    public long fingerprint(Object object, Includes includes) {
+        DigestSink sink = new DigestSink();
+        diffuse(object, includes, sink);
+        return sink.getValue();
+    }
+
+    /**
+     * Diffuse the given beans, all instances of exactly the given bean class,
+     * into columns, one column for each property included by the given
+     * compiled include paths, instead of into a list of maps. The properties
+     * are read with the same bean plan used to diffuse a single bean. A
+     * column of a primitive property is a primitive array and any other
+     * column is a list of diffused values.
+     * 
+     * @param beans
+     *            The beans.
+     * @param beanClass
+     *            The bean class.
+     * @param includes
+     *            The compiled include paths of each bean.
+     * @return The diffused columns.
+     * @exception IllegalArgumentException
+     *                If a bean is null or not an instance of exactly the bean
+     *                class, or if a property cannot be read.
+     */
+    public Columns columns(Collection<?> beans, Class<?> beanClass, Includes includes) {
+        return new Columns(this, beans, beanClass, includes);
+    }
+
+    /**
+     * Diffuse the given object into the given buffer, starting at the position
+     * of the buffer, and return an unmodifiable view of the diffused object
+     * graph that decodes its maps, lists and scalars from the buffer as they
+     * are read. The position of the buffer is advanced past the diffused
+     * object graph. With a direct or memory-mapped buffer, the diffused object
+     * graph is kept out of the garbage collected heap.
+     * 
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The compiled include paths.
+     * @param buffer
+     *            The buffer.
+     * @return A view of the diffused object graph.
+     * @exception java.nio.BufferOverflowException
+     *                If the diffused object graph does not fit in the buffer.
+     * @see FlatSink
+     */
+    public Object flatten(Object object, Includes includes, ByteBuffer buffer) {
+        FlatSink sink = new FlatSink(buffer);
+        diffuse(object, includes, sink);
+        return sink.getRoot();
+    }
+
+    /**
+     * Diffuse the given object with the given object diffuser, returning a
+     * lazy view if the object diffuser is a {@link LazyDiffuser}, or the
+     * eagerly diffused object otherwise. Used by lazy views to diffuse their
+     * members when they are first accessed.
+     * 
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The include node for the object in the object graph.
+     * @param diffuser
+     *            The object diffuser for the object.
+     * @return A lazy view or the diffused object.
+     */
+    public Object lazy(Object object, Includes includes, ObjectDiffuser diffuser) {
         if (object == null) {
             return null;
         }
-        Set<String> paths = new HashSet<String>(Arrays.asList(includes));
-        if (paths.isEmpty()) {
-            paths.add("\0");
+        if (diffuser instanceof LazyDiffuser) {
+            return ((LazyDiffuser) diffuser).lazy(this, object, includes);
         }
-        if (paths.contains("*")) {
-            paths.clear();
+        return diffuser.diffuse(this, object, includes);
+    }
+
+    /**
+     * Return a detached copy of the given diffused object graph if it is a
+     * lazy view, or the given diffused object graph if it is not.
+     * 
+     * @param diffused
+     *            A diffused object graph.
+     * @return A diffused object graph without lazy views.
+     */
+    public static Object snapshot(Object diffused) {
+        if (diffused instanceof Lazy) {
+            return ((Lazy) diffused).snapshot();
         }
-        return getDiffuser(object.getClass()).diffuse(this, object, new StringBuilder(), paths);
+        return diffused;
     }
 }
@@ -0,0 +1,578 @@
+package com.goodworkalan.diffuse;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The state of a single diffusion of an object graph. A diffusion is created
+ * for each call to {@link Diffuser#diffuse(Object, Includes, DiffusionSink)}
+ * and passed to each object diffuser as the diffusion descends the object
+ * graph. It provides the root diffuser and the sink that receives the diffused
+ * object graph.
+ * <p>
+ * If the root diffuser has a {@link CyclePolicy}, the diffusion records the
+ * identity of each container object it diffuses. A container that contains
+ * itself is handled according to the cycle policy. When diffusing into a
+ * {@link TreeSink}, a container that appears more than once in the object
+ * graph is diffused once and the diffused result is reused wherever the
+ * container appears again with the same include node. A sink that encodes
+ * references, such as a {@link JsonWriter} or a {@link BinaryWriter},
+ * receives a reference to the first appearance of the container instead.
+ * Other sinks receive the events of the container again, since they do not
+ * retain a diffused result.
+ * <p>
+ * If the root diffuser has no cycle policy, identities are not tracked, but
+ * once containers are nested {@link #CHECKED_DEPTH} deep each container is
+ * compared with the containers that enclose it, so that a container that
+ * contains itself fails with an exception instead of exhausting the stack.
+ * <p>
+ * If the root diffuser has a {@link DiffusionListener}, the diffusion
+ * measures each object it diffuses and reports the measurements to the
+ * listener, even if the diffusion fails. Otherwise, the only cost is a null
+ * check per object.
+ * <p>
+ * If the diffusion has a {@link Budget}, the diffusion counts the objects it
+ * diffuses and the depth of the current object, and containers consult the
+ * diffusion to determine whether to elide their remaining members. Containers
+ * are never diffused in parallel within a budget.
+ * 
+ * @author Alan Gutierrez
+ */
+public class Diffusion {
+    /**
+     * The depth of nested containers beyond which containers are checked for
+     * cycles when there is no cycle policy.
+     */
+    public final static int CHECKED_DEPTH = 256;
+
+    /** The root diffuser. */
+    private final Diffuser diffuser;
+
+    /** The sink that receives the diffused object graph. */
+    private final DiffusionSink sink;
+
+    /** The cycle policy or null if identities are not tracked. */
+    private final CyclePolicy cycles;
+
+    /** The visits to container objects indexed by object identity. */
+    private final Map<Object, Visit> visits;
+
+    /** The number of tracked containers currently being diffused. */
+    private int depth;
+
+    /**
+     * The containers currently being diffused when there is no cycle policy,
+     * indexed by depth, or null if there is a cycle policy.
+     */
+    private Object[] enclosing;
+
+    /** The listener to report measurements to or null. */
+    private final DiffusionListener listener;
+
+    /** The budget of the diffusion or null for no limits. */
+    private final Budget budget;
+
+    /** The number of objects diffused when measuring or within a budget. */
+    private long nodes;
+
+    /**
+     * The depth of the object currently diffused when measuring or within a
+     * budget.
+     */
+    private int level;
+
+    /** The maximum depth of the objects diffused when measuring. */
+    private int maximumLevel;
+
+    /**
+     * Create a diffusion.
+     * 
+     * @param diffuser
+     *            The root diffuser.
+     * @param sink
+     *            The sink that receives the diffused object graph.
+     */
+    Diffusion(Diffuser diffuser, DiffusionSink sink) {
+        this(diffuser, sink, diffuser.getBudget());
+    }
+
+    /**
+     * Create a diffusion with the given budget.
+     * 
+     * @param diffuser
+     *            The root diffuser.
+     * @param sink
+     *            The sink that receives the diffused object graph.
+     * @param budget
+     *            The budget or null for no limits.
+     */
+    Diffusion(Diffuser diffuser, DiffusionSink sink, Budget budget) {
+        this(diffuser, sink, diffuser.getCyclePolicy(), budget);
+    }
+
+    /**
+     * Create a diffusion with the given cycle policy and budget.
+     * 
+     * @param diffuser
+     *            The root diffuser.
+     * @param sink
+     *            The sink that receives the diffused object graph.
+     * @param cycles
+     *            The cycle policy or null if identities are not tracked.
+     * @param budget
+     *            The budget or null for no limits.
+     */
+    private Diffusion(Diffuser diffuser, DiffusionSink sink, CyclePolicy cycles, Budget budget) {
+        this.diffuser = diffuser;
+        this.budget = budget;
+        this.sink = sink;
+        this.cycles = cycles;
+        this.visits = cycles == null ? null : new IdentityHashMap<Object, Visit>();
+        this.enclosing = cycles == null ? new Object[16] : null;
+        this.listener = diffuser.getListener();
+    }
+
+    /**
+     * Create a diffusion that diffuses into the given sink on behalf of this
+     * diffusion, for use by a parallel task. The fork knows of the containers
+     * this diffusion is currently diffusing, so that it detects cycles that
+     * lead back to them, but it does not share the results of this diffusion
+     * nor of other forks.
+     * 
+     * @param sink
+     *            The sink for the fork.
+     * @return A fork of this diffusion.
+     */
+    Diffusion fork(DiffusionSink sink) {
+        Diffusion fork = new Diffusion(diffuser, sink, cycles, budget);
+        if (visits != null) {
+            for (Map.Entry<Object, Visit> entry : visits.entrySet()) {
+                if (entry.getValue().depth != -1) {
+                    fork.visits.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        if (enclosing != null) {
+            fork.enclosing = Arrays.copyOf(enclosing, Math.max(depth, 16));
+        }
+        fork.depth = depth;
+        fork.level = fork.maximumLevel = level;
+        return fork;
+    }
+
+    /**
+     * Add the measurements of a fork to the measurements of this diffusion
+     * once the fork has completed.
+     * 
+     * @param fork
+     *            The completed fork.
+     */
+    synchronized void join(Diffusion fork) {
+        nodes += fork.nodes;
+        maximumLevel = Math.max(maximumLevel, fork.maximumLevel);
+    }
+
+    /**
+     * Diffuse the root object of the object graph, reporting the measurements
+     * of the whole diffusion to the listener if there is one.
+     * 
+     * @param object
+     *            The root object.
+     * @param includes
+     *            The include tree.
+     * @param objectDiffuser
+     *            The object diffuser for the root object or null to use the
+     *            object diffuser for its class.
+     */
+    void root(Object object, Includes includes, ObjectDiffuser objectDiffuser) {
+        if (listener == null) {
+            diffuseRoot(object, includes, objectDiffuser);
+            return;
+        }
+        listener.beginDiffusion();
+        long start = System.nanoTime();
+        try {
+            diffuseRoot(object, includes, objectDiffuser);
+        } finally {
+            listener.diffusion(object == null ? null : object.getClass(), System.nanoTime() - start, nodes, maximumLevel);
+        }
+    }
+
+    /**
+     * Diffuse the root object of the object graph.
+     * 
+     * @param object
+     *            The root object.
+     * @param includes
+     *            The include tree.
+     * @param objectDiffuser
+     *            The object diffuser for the root object or null to use the
+     *            object diffuser for its class.
+     */
+    private void diffuseRoot(Object object, Includes includes, ObjectDiffuser objectDiffuser) {
+        if (object == null) {
+            sink.scalar(null);
+        } else if (objectDiffuser == null) {
+            diffuse(object, includes);
+        } else {
+            diffuse(object, includes, objectDiffuser);
+        }
+    }
+
+    /**
+     * Return true if a container with the given number of members should be
+     * diffused in parallel according to the parallel threshold of the root
+     * diffuser.
+     * 
+     * @param size
+     *            The number of members.
+     * @return True if the members should be diffused in parallel.
+     */
+    public boolean isParallel(int size) {
+        int threshold = diffuser.getParallelThreshold();
+        return threshold != 0 && size >= threshold && budget == null;
+    }
+
+    /**
+     * Return true if the member of a container at the given index and all
+     * the members that follow it should be elided, because the container has
+     * reached the maximum number of elements or the diffusion has reached the
+     * maximum number of objects of the budget.
+     * 
+     * @param index
+     *            The index of the member in the container.
+     * @return True if the remaining members should be elided.
+     */
+    public boolean isTruncated(int index) {
+        return budget != null && (index >= budget.getMaxElements() || nodes >= budget.getMaxNodes());
+    }
+
+    /**
+     * Return true if the diffusion has reached the maximum number of objects
+     * of the budget, so the remaining members of a bean should be elided.
+     * 
+     * @return True if the remaining members should be elided.
+     */
+    public boolean isExhausted() {
+        return budget != null && nodes >= budget.getMaxNodes();
+    }
+
+    /**
+     * Return true if the diffusion has a budget.
+     * 
+     * @return True if the diffusion has a budget.
+     */
+    public boolean isBudgeted() {
+        return budget != null;
+    }
+
+    /**
+     * Emit the marker of the given number of elided elements as the last
+     * element of the current list.
+     * 
+     * @param elided
+     *            The number of elided elements.
+     */
+    public void elideElements(int elided) {
+        sink.value(Collections.singletonMap(Budget.TRUNCATED, elided));
+    }
+
+    /**
+     * Emit the marker of the given number of elided entries as the last entry
+     * of the current map.
+     * 
+     * @param elided
+     *            The number of elided entries.
+     */
+    public void elideEntries(int elided) {
+        sink.key(Budget.TRUNCATED);
+        sink.scalar(elided);
+    }
+
+    /**
+     * Emit the given scalar value, truncating it if it is a string longer
+     * than the maximum string length of the budget.
+     * 
+     * @param value
+     *            The scalar value.
+     */
+    public void scalar(Object value) {
+        if (budget != null && value instanceof String) {
+            value = budget.truncate((String) value);
+        }
+        sink.scalar(value);
+    }
+
+    /**
+     * Get the root diffuser used to obtain the object diffusers of nested
+     * objects.
+     * 
+     * @return The root diffuser.
+     */
+    public Diffuser getDiffuser() {
+        return diffuser;
+    }
+
+    /**
+     * Get the sink that receives the diffused object graph.
+     * 
+     * @return The diffusion sink.
+     */
+    public DiffusionSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Diffuse the given nested object using the object diffuser for its class
+     * obtained from the root diffuser. If the object is null, a null scalar is
+     * emitted.
+     * 
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The include node for the object in the object graph.
+     */
+    public void diffuse(Object object, Includes includes) {
+        if (object == null) {
+            sink.scalar(null);
+        } else {
+            diffuse(object, includes, diffuser.getDiffuser(object.getClass()));
+        }
+    }
+
+    /**
+     * Diffuse the given non-null nested object using the given object
+     * diffuser. Container diffusers should use this method, rather than
+     * calling the object diffuser directly, when they have already resolved
+     * the object diffuser of a nested object, so that object identities are
+     * tracked.
+     * 
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The include node for the object in the object graph.
+     * @param objectDiffuser
+     *            The object diffuser for the object.
+     */
+    public void diffuse(Object object, Includes includes, ObjectDiffuser objectDiffuser) {
+        if (listener == null && budget == null) {
+            track(object, includes, objectDiffuser);
+            return;
+        }
+        nodes++;
+        if (++level > maximumLevel) {
+            maximumLevel = level;
+        }
+        long start = 0L;
+        if (listener != null) {
+            listener.beginObject();
+            start = System.nanoTime();
+        }
+        try {
+            if (budget != null && level > budget.getMaxDepth() && objectDiffuser.isContainer()) {
+                int size = size(object);
+                ObjectDiffuser assigned = objectDiffuser instanceof MemoizingDiffuser ? ((MemoizingDiffuser) objectDiffuser).getDelegate() : objectDiffuser;
+                if (size == -1 && assigned instanceof BeanDiffuser) {
+                    size = diffuser.getPlan(object.getClass()).size();
+                }
+                sink.value(Collections.singletonMap(Budget.TRUNCATED, size));
+            } else {
+                track(object, includes, objectDiffuser);
+            }
+        } finally {
+            level--;
+            if (listener != null) {
+                listener.object(object.getClass(), objectDiffuser, System.nanoTime() - start, size(object));
+            }
+        }
+    }
+
+    /**
+     * Get the number of elements or entries of the given object if it is an
+     * array, collection or map, otherwise -1.
+     * 
+     * @param object
+     *            The object.
+     * @return The size of the object or -1.
+     */
+    private static int size(Object object) {
+        if (object instanceof Collection<?>) {
+            return ((Collection<?>) object).size();
+        }
+        if (object instanceof Map<?, ?>) {
+            return ((Map<?, ?>) object).size();
+        }
+        if (object.getClass().isArray()) {
+            return Array.getLength(object);
+        }
+        return -1;
+    }
+
+    /**
+     * Diffuse the given non-null nested object using the given object
+     * diffuser, tracking its identity if it is a container and there is a
+     * cycle policy. A container that has already been diffused with the same
+     * include node is emitted as its diffused result when diffusing into a
+     * tree or as a reference if the sink encodes references.
+     * 
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The include node for the object in the object graph.
+     * @param objectDiffuser
+     *            The object diffuser for the object.
+     */
+    private void track(Object object, Includes includes, ObjectDiffuser objectDiffuser) {
+        if (!objectDiffuser.isContainer()) {
+            objectDiffuser.diffuse(this, object, includes);
+            return;
+        }
+        if (cycles == null) {
+            enclose(object, includes, objectDiffuser);
+            return;
+        }
+        Visit visit = visits.get(object);
+        if (visit != null) {
+            if (visit.depth != -1) {
+                cycle(object, depth - visit.depth);
+                return;
+            }
+            if (visit.includes == includes) {
+                if (visit.diffused != null) {
+                    sink.value(visit.diffused);
+                    return;
+                }
+                if (visit.index != -1) {
+                    sink.reference(visit.index);
+                    return;
+                }
+            }
+        }
+        int index = sink.mark();
+        visit = new Visit(includes, depth);
+        visits.put(object, visit);
+        depth++;
+        try {
+            objectDiffuser.diffuse(this, object, includes);
+        } finally {
+            depth--;
+        }
+        visit.depth = -1;
+        if (sink instanceof TreeSink) {
+            visit.diffused = ((TreeSink) sink).getLast();
+        } else if (index != -1 && sink.mark() > index) {
+            visit.index = index;
+        }
+    }
+
+    /**
+     * Diffuse the given non-null nested container using the given object
+     * diffuser when there is no cycle policy, recording it as an enclosing
+     * container and, once containers are nested {@link #CHECKED_DEPTH} deep,
+     * checking that it does not enclose itself.
+     * 
+     * @param object
+     *            The container to diffuse.
+     * @param includes
+     *            The include node for the container in the object graph.
+     * @param objectDiffuser
+     *            The object diffuser for the container.
+     * @exception IllegalArgumentException
+     *                If the container contains itself.
+     */
+    private void enclose(Object object, Includes includes, ObjectDiffuser objectDiffuser) {
+        if (depth >= CHECKED_DEPTH) {
+            for (int i = 0; i < depth; i++) {
+                if (enclosing[i] == object) {
+                    throw cyclic(object);
+                }
+            }
+        }
+        if (depth == enclosing.length) {
+            enclosing = Arrays.copyOf(enclosing, depth * 2);
+        }
+        enclosing[depth++] = object;
+        try {
+            objectDiffuser.diffuse(this, object, includes);
+        } finally {
+            enclosing[--depth] = null;
+        }
+    }
+
+    /**
+     * Handle a container that contains itself according to the cycle policy.
+     * 
+     * @param object
+     *            The cyclic container.
+     * @param distance
+     *            The number of containers to ascend to reach the first
+     *            appearance of the container.
+     * @exception IllegalArgumentException
+     *                If the cycle policy is to throw an exception.
+     */
+    private void cycle(Object object, int distance) {
+        switch (cycles) {
+        case REFERENCE:
+            sink.value(Collections.singletonMap("$ref", distance));
+            break;
+        case NULL:
+            sink.scalar(null);
+            break;
+        default:
+            throw cyclic(object);
+        }
+    }
+
+    /**
+     * Create the exception thrown for a container that contains itself.
+     * 
+     * @param object
+     *            The cyclic container.
+     * @return An illegal argument exception.
+     */
+    private static IllegalArgumentException cyclic(Object object) {
+        return new IllegalArgumentException(String.format(
+                "\n\tCycle detected in object graph.\n" +
+                "\t\tClass: [%s]", object.getClass()));
+    }
+
+    /**
+     * The record of a visit to a container object.
+     */
+    private final static class Visit {
+        /** The include node the container was diffused with. */
+        public final Includes includes;
+
+        /**
+         * The depth of the container while it is being diffused, or -1 once
+         * its diffusion is complete.
+         */
+        public int depth;
+
+        /** The diffused container or null if it is not retained. */
+        public Object diffused;
+
+        /**
+         * The index of the diffused container in a sink that encodes
+         * references or -1.
+         */
+        public int index = -1;
+
+        /**
+         * Create a visit.
+         * 
+         * @param includes
+         *            The include node the container was diffused with.
+         * @param depth
+         *            The depth of the container.
+         */
+        public Visit(Includes includes, int depth) {
+            this.includes = includes;
+            this.depth = depth;
+        }
+    }
+}
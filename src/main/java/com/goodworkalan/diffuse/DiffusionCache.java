@@ -0,0 +1,295 @@
+package com.goodworkalan.diffuse;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of the diffused forms of immutable objects, used by a
+ * {@link Diffuser} to return the diffused form of an object registered as
+ * immutable with {@link Diffuser#setImmutable(Class, boolean)} instead of
+ * diffusing it again.
+ * <p>
+ * The cache is divided into segments by the hash of the key, each segment a
+ * least recently used map with its own lock and an equal share of the
+ * maximum size, so that concurrent diffusions rarely contend for a lock and
+ * the least recently used entries are evicted first, approximately, across
+ * the whole cache. Each segment holds at least 32 entries, so that a few keys
+ * that hash to the same segment do not evict each other, and a cache of fewer
+ * than 64 entries is a single least recently used map. The counts of hits,
+ * misses and evictions are kept without locking.
+ * <p>
+ * The keys of the cache are strong references to the cached objects, so
+ * cached objects are retained until they are evicted or the cache is
+ * cleared.
+ * 
+ * @author Alan Gutierrez
+ */
+public class DiffusionCache {
+    /** The maximum number of segments. */
+    private final static int SEGMENTS = 16;
+
+    /** The minimum maximum size of a segment of a cache with many segments. */
+    private final static int SEGMENT_SIZE = 32;
+
+    /** A cache key for an object and its include node. */
+    private final static class Key {
+        /** The object. */
+        private final Object object;
+
+        /** The include node of the object. */
+        private final Includes includes;
+
+        /** Whether the object is compared by identity instead of equality. */
+        private final boolean identity;
+
+        /** The hash code. */
+        private final int hashCode;
+
+        /**
+         * Create a key for the given object and include node.
+         * 
+         * @param object
+         *            The object.
+         * @param includes
+         *            The include node of the object.
+         * @param identity
+         *            Whether to compare the object by identity instead of
+         *            equality.
+         */
+        public Key(Object object, Includes includes, boolean identity) {
+            this.object = object;
+            this.includes = includes;
+            this.identity = identity;
+            int hashCode = identity ? System.identityHashCode(object) : object.hashCode();
+            this.hashCode = hashCode * 31 + System.identityHashCode(includes);
+        }
+
+        /**
+         * Get the hash code.
+         * 
+         * @return The hash code.
+         */
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        /**
+         * Return true if the given object is a key for the same include node
+         * and for an object that is equal to, or if compared by identity the
+         * same as, the object of this key.
+         * 
+         * @param o
+         *            The other key.
+         * @return True if the keys are equal.
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return includes == key.includes && identity == key.identity
+                && (identity ? object == key.object : object.equals(key.object));
+        }
+    }
+
+    /** A segment of the cache, a least recently used map. */
+    private final class Segment extends LinkedHashMap<Object, Object> {
+        /** The serial version id. */
+        private static final long serialVersionUID = 1L;
+
+        /** The maximum size of the segment. */
+        private final int maximumSize;
+
+        /**
+         * Create a segment with the given maximum size.
+         * 
+         * @param maximumSize
+         *            The maximum size of the segment.
+         */
+        public Segment(int maximumSize) {
+            super(16, 0.75f, true);
+            this.maximumSize = maximumSize;
+        }
+
+        /**
+         * Evict the least recently used entry when the segment is full.
+         * 
+         * @param eldest
+         *            The least recently used entry.
+         * @return True if the entry should be evicted.
+         */
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+            if (size() > maximumSize) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /** The maximum number of cached objects. */
+    private final int maximumSize;
+
+    /** The segments. */
+    private final Segment[] segments;
+
+    /** The count of cache hits. */
+    private final LongAdder hits = new LongAdder();
+
+    /** The count of cache misses. */
+    private final LongAdder misses = new LongAdder();
+
+    /** The count of evictions. */
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a cache that holds at most the given number of diffused objects.
+     * 
+     * @param maximumSize
+     *            The maximum number of cached objects.
+     * @exception IllegalArgumentException
+     *                If the maximum size is not positive.
+     */
+    public DiffusionCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException(String.format(
+                    "\n\tCache size must be positive.\n" +
+                    "\t\tMaximum Size: [%d]", maximumSize));
+        }
+        int count = Math.min(SEGMENTS, Integer.highestOneBit(Math.max(1, maximumSize / SEGMENT_SIZE)));
+        this.maximumSize = maximumSize;
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(maximumSize / count + (i < maximumSize % count ? 1 : 0));
+        }
+    }
+
+    /**
+     * Create a key for the given object and include node.
+     * 
+     * @param object
+     *            The object.
+     * @param includes
+     *            The include node of the object.
+     * @param identity
+     *            Whether to compare the object by identity instead of
+     *            equality.
+     * @return The cache key.
+     */
+    static Object key(Object object, Includes includes, boolean identity) {
+        return new Key(object, includes, identity);
+    }
+
+    /**
+     * Get the segment for the given key.
+     * 
+     * @param key
+     *            The key.
+     * @return The segment.
+     */
+    private Segment segment(Object key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    /**
+     * Get the diffused object cached for the given key, counting a hit or a
+     * miss.
+     * 
+     * @param key
+     *            The key.
+     * @return The diffused object or null if it is not cached.
+     */
+    Object get(Object key) {
+        Segment segment = segment(key);
+        Object diffused;
+        synchronized (segment) {
+            diffused = segment.get(key);
+        }
+        if (diffused == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return diffused;
+    }
+
+    /**
+     * Cache the diffused object for the given key.
+     * 
+     * @param key
+     *            The key.
+     * @param diffused
+     *            The diffused object.
+     */
+    void put(Object key, Object diffused) {
+        Segment segment = segment(key);
+        synchronized (segment) {
+            segment.put(key, diffused);
+        }
+    }
+
+    /** Remove all cached objects. The counts are not reset. */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Get the number of cached objects.
+     * 
+     * @return The number of cached objects.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get the maximum number of cached objects.
+     * 
+     * @return The maximum size.
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Get the number of times a diffused object was found in the cache.
+     * 
+     * @return The count of hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of times a diffused object was not found in the cache.
+     * 
+     * @return The count of misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Get the number of cached objects evicted to make room for others.
+     * 
+     * @return The count of evictions.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+}
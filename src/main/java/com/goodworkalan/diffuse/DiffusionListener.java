@@ -0,0 +1,70 @@
+package com.goodworkalan.diffuse;
+
+/**
+ * Receives measurements of the diffusions performed by a {@link Diffuser}.
+ * When a listener is assigned to a diffuser, each diffusion measures each
+ * object it diffuses and reports the measurement to the listener, then
+ * reports a measurement of the whole diffusion. When no listener is assigned,
+ * nothing is measured.
+ * <p>
+ * A listener assigned to a diffuser that is shared by many threads will be
+ * called by all of those threads, so implementations must be thread-safe and
+ * should be fast. The {@link DiffusionMetrics} listener aggregates the
+ * measurements using striped counters. The {@link JfrDiffusionListener}
+ * emits the measurements as Java Flight Recorder events.
+ * <p>
+ * Each call to {@link #beginObject()} is followed on the same thread by a
+ * call to {@link #object(Class, ObjectDiffuser, long, int) object}, and each
+ * call to {@link #beginDiffusion()} by a call to
+ * {@link #diffusion(Class, long, long, int) diffusion}, even if the diffusion
+ * fails, so that a listener can bracket the work with its own clock.
+ * 
+ * @author Alan Gutierrez
+ */
+public interface DiffusionListener {
+    /**
+     * Called before an object in the object graph is diffused. The default
+     * implementation does nothing.
+     */
+    default public void beginObject() {
+    }
+
+    /**
+     * Called after an object in the object graph has been diffused.
+     * 
+     * @param type
+     *            The class of the object.
+     * @param diffuser
+     *            The object diffuser that diffused the object.
+     * @param elapsed
+     *            The time spent diffusing the object in nanoseconds,
+     *            including the time spent diffusing its members.
+     * @param size
+     *            The number of elements or entries if the object is an array,
+     *            collection or map, otherwise -1.
+     */
+    public void object(Class<?> type, ObjectDiffuser diffuser, long elapsed, int size);
+
+    /**
+     * Called before the diffusion of an object graph begins. The default
+     * implementation does nothing.
+     */
+    default public void beginDiffusion() {
+    }
+
+    /**
+     * Called after a diffusion of an object graph has completed.
+     * 
+     * @param type
+     *            The class of the root object or null if the root object is
+     *            null.
+     * @param elapsed
+     *            The time spent diffusing the object graph in nanoseconds.
+     * @param nodes
+     *            The number of objects diffused.
+     * @param depth
+     *            The maximum depth of the diffused objects, where the root
+     *            object is at depth 1.
+     */
+    public void diffusion(Class<?> type, long elapsed, long nodes, int depth);
+}
@@ -0,0 +1,267 @@
+package com.goodworkalan.diffuse;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A diffusion listener that aggregates measurements for all diffusions and
+ * for each class diffused. Measurements are aggregated without locking using
+ * striped counters, so a single instance can be shared by a diffuser used by
+ * many threads.
+ * <p>
+ * The measurements for each class are found through a class value, so that
+ * they are found without locking, and are listed in a map with weak keys, so
+ * that the measurements do not prevent an unloaded class from being
+ * collected.
+ * 
+ * @author Alan Gutierrez
+ */
+public class DiffusionMetrics implements DiffusionListener {
+    /**
+     * The aggregate measurements for a single class.
+     */
+    public final static class Type {
+        /** The number of objects of the class diffused. */
+        private final LongAdder objects = new LongAdder();
+
+        /** The total time spent diffusing objects of the class. */
+        private final LongAdder elapsed = new LongAdder();
+
+        /** The total number of elements or entries of objects of the class. */
+        private final LongAdder members = new LongAdder();
+
+        /** The largest number of elements or entries of an object. */
+        private final LongAccumulator maximumSize = new LongAccumulator(Math::max, -1);
+
+        /** The number of diffusions with an object of the class as root. */
+        private final LongAdder diffusions = new LongAdder();
+
+        /** The total number of objects diffused by those diffusions. */
+        private final LongAdder nodes = new LongAdder();
+
+        /** The maximum depth of those diffusions. */
+        private final LongAccumulator maximumDepth = new LongAccumulator(Math::max, 0);
+
+        /** The object diffuser that most recently diffused the class. */
+        private volatile ObjectDiffuser diffuser;
+
+        /**
+         * Get the number of objects of the class diffused.
+         * 
+         * @return The object count.
+         */
+        public long getObjects() {
+            return objects.sum();
+        }
+
+        /**
+         * Get the total time spent diffusing objects of the class, including
+         * their members, in nanoseconds.
+         * 
+         * @return The total elapsed time.
+         */
+        public long getElapsed() {
+            return elapsed.sum();
+        }
+
+        /**
+         * Get the total number of elements or entries of the objects of the
+         * class, if it is an array, collection or map.
+         * 
+         * @return The total size.
+         */
+        public long getMembers() {
+            return members.sum();
+        }
+
+        /**
+         * Get the largest number of elements or entries of an object of the
+         * class or -1 if the class is not an array, collection or map.
+         * 
+         * @return The maximum size.
+         */
+        public long getMaximumSize() {
+            return maximumSize.get();
+        }
+
+        /**
+         * Get the number of diffusions with an object of the class as root.
+         * 
+         * @return The number of diffusions.
+         */
+        public long getDiffusions() {
+            return diffusions.sum();
+        }
+
+        /**
+         * Get the total number of objects diffused by the diffusions with an
+         * object of the class as root.
+         * 
+         * @return The number of nodes.
+         */
+        public long getNodes() {
+            return nodes.sum();
+        }
+
+        /**
+         * Get the maximum depth of the diffusions with an object of the class
+         * as root.
+         * 
+         * @return The maximum depth.
+         */
+        public long getMaximumDepth() {
+            return maximumDepth.get();
+        }
+
+        /**
+         * Get the object diffuser that diffused objects of the class.
+         * 
+         * @return The object diffuser.
+         */
+        public ObjectDiffuser getDiffuser() {
+            return diffuser;
+        }
+    }
+
+    /** The measurements for each class indexed weakly by class. */
+    private final Map<Class<?>, Type> types = new WeakHashMap<Class<?>, Type>();
+
+    /** The measurements for each class found without locking. */
+    private final ClassValue<Type> measurements = new ClassValue<Type>() {
+        protected Type computeValue(Class<?> type) {
+            synchronized (types) {
+                Type measurements = types.get(type);
+                if (measurements == null) {
+                    measurements = new Type();
+                    types.put(type, measurements);
+                }
+                return measurements;
+            }
+        }
+    };
+
+    /** The number of diffusions. */
+    private final LongAdder diffusions = new LongAdder();
+
+    /** The total time spent in diffusions. */
+    private final LongAdder elapsed = new LongAdder();
+
+    /** The total number of objects diffused. */
+    private final LongAdder nodes = new LongAdder();
+
+    /** The maximum depth of any diffusion. */
+    private final LongAccumulator maximumDepth = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Get the measurements for the given class, creating them if necessary.
+     * 
+     * @param type
+     *            The class.
+     * @return The measurements for the class.
+     */
+    private Type type(Class<?> type) {
+        return measurements.get(type);
+    }
+
+    /**
+     * Record the diffusion of an object.
+     * 
+     * @param type
+     *            The class of the object.
+     * @param diffuser
+     *            The object diffuser that diffused the object.
+     * @param elapsed
+     *            The time spent diffusing the object in nanoseconds.
+     * @param size
+     *            The number of elements or entries or -1.
+     */
+    public void object(Class<?> type, ObjectDiffuser diffuser, long elapsed, int size) {
+        Type measurements = type(type);
+        measurements.objects.increment();
+        measurements.elapsed.add(elapsed);
+        if (size != -1) {
+            measurements.members.add(size);
+            measurements.maximumSize.accumulate(size);
+        }
+        if (measurements.diffuser != diffuser) {
+            measurements.diffuser = diffuser;
+        }
+    }
+
+    /**
+     * Record a diffusion.
+     * 
+     * @param type
+     *            The class of the root object or null.
+     * @param elapsed
+     *            The time spent diffusing the object graph in nanoseconds.
+     * @param nodes
+     *            The number of objects diffused.
+     * @param depth
+     *            The maximum depth of the diffused objects.
+     */
+    public void diffusion(Class<?> type, long elapsed, long nodes, int depth) {
+        this.diffusions.increment();
+        this.elapsed.add(elapsed);
+        this.nodes.add(nodes);
+        this.maximumDepth.accumulate(depth);
+        if (type != null) {
+            Type measurements = type(type);
+            measurements.diffusions.increment();
+            measurements.nodes.add(nodes);
+            measurements.maximumDepth.accumulate(depth);
+        }
+    }
+
+    /**
+     * Get the number of diffusions.
+     * 
+     * @return The number of diffusions.
+     */
+    public long getDiffusions() {
+        return diffusions.sum();
+    }
+
+    /**
+     * Get the total time spent in diffusions in nanoseconds.
+     * 
+     * @return The total elapsed time.
+     */
+    public long getElapsed() {
+        return elapsed.sum();
+    }
+
+    /**
+     * Get the total number of objects diffused by all diffusions.
+     * 
+     * @return The total number of nodes.
+     */
+    public long getNodes() {
+        return nodes.sum();
+    }
+
+    /**
+     * Get the maximum depth of any diffusion.
+     * 
+     * @return The maximum depth.
+     */
+    public long getMaximumDepth() {
+        return maximumDepth.get();
+    }
+
+    /**
+     * Get an unmodifiable copy of the measurements for each class diffused
+     * whose class has not been collected.
+     * 
+     * @return The measurements indexed by class.
+     */
+    public Map<Class<?>, Type> getTypes() {
+        synchronized (types) {
+            return Collections.unmodifiableMap(new HashMap<Class<?>, Type>(types));
+        }
+    }
+}
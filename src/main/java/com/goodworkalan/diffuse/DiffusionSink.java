@@ -0,0 +1,122 @@
+package com.goodworkalan.diffuse;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives a diffused object graph as a stream of events. Object diffusers
+ * emit events to a sink as they descend an object graph, so a diffused object
+ * graph can be written or otherwise consumed without first being built as a
+ * tree of maps and lists.
+ * <p>
+ * A map is emitted as a call to {@link #startMap()}, followed by a call to
+ * {@link #key(String)} before the events of each entry value, followed by a
+ * call to {@link #end()}. A list is emitted as a call to {@link #startList()},
+ * followed by the events of each element, followed by a call to
+ * {@link #end()}. A scalar, a primitive, string or null, is emitted as a call
+ * to {@link #scalar(Object)}.
+ * <p>
+ * A sink that encodes references returns the index of the next map or list
+ * from {@link #mark()}, and a container that appears again in the object
+ * graph may then be emitted as a call to {@link #reference(int)} with the
+ * index of its first appearance.
+ * <p>
+ * Building a tree of maps and lists is itself just one sink implementation,
+ * the {@link TreeSink}.
+ * 
+ * @author Alan Gutierrez
+ */
+public interface DiffusionSink {
+    /** Start a map. */
+    public void startMap();
+
+    /**
+     * Start a map whose entries will have the given keys, in order. Bean
+     * diffusers know the keys of a map before emitting its entries, and the
+     * same keys are passed for every bean of a class with the same included
+     * properties. The {@link #key(String)} events are still emitted. The
+     * default implementation calls {@link #startMap()}.
+     * 
+     * @param keys
+     *            The keys of the map entries.
+     */
+    default public void startMap(MapKeys keys) {
+        startMap();
+    }
+
+    /**
+     * Emit the key of the next map entry.
+     * 
+     * @param name
+     *            The entry key.
+     */
+    public void key(String name);
+
+    /** Start a list. */
+    public void startList();
+
+    /**
+     * Emit a scalar value, a primitive, string or null.
+     * 
+     * @param value
+     *            The scalar value.
+     */
+    public void scalar(Object value);
+
+    /** End the current map or list. */
+    public void end();
+
+    /**
+     * Get the index that the next map or list started will have, the number
+     * of maps and lists started before it, or -1 if this sink does not encode
+     * references. References are not counted. The default implementation
+     * returns -1.
+     * 
+     * @return The index of the next map or list or -1.
+     */
+    default public int mark() {
+        return -1;
+    }
+
+    /**
+     * Emit a reference to the completed map or list with the given index in
+     * place of its events. Called only if {@link #mark()} does not return -1.
+     * The default implementation throws an exception.
+     * 
+     * @param index
+     *            The index of the map or list.
+     * @exception UnsupportedOperationException
+     *                If the sink does not encode references.
+     */
+    default public void reference(int index) {
+        throw new UnsupportedOperationException(String.format(
+                "\n\tDiffusion sink does not encode references.\n" +
+                "\t\tClass: [%s]", getClass()));
+    }
+
+    /**
+     * Emit a value that has already been diffused into a tree of maps, lists
+     * and scalars. The default implementation replays the tree as events.
+     * 
+     * @param diffused
+     *            The diffused value.
+     */
+    default public void value(Object diffused) {
+        if (diffused instanceof Map<?, ?>) {
+            startMap();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) diffused).entrySet()) {
+                key(entry.getKey().toString());
+                value(entry.getValue());
+            }
+            end();
+        } else if (diffused instanceof List<?>) {
+            startList();
+            for (Object element : (List<?>) diffused) {
+                value(element);
+            }
+            end();
+        } else {
+            scalar(diffused);
+        }
+    }
+}
@@ -0,0 +1,503 @@
+package com.goodworkalan.diffuse;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A diffusion sink that computes a digest of a diffused object graph as it is
+ * diffused, without building the diffused object graph as a tree of maps and
+ * lists, for a cache key, an ETag or a check for a change. The digest is a
+ * digest of a canonical encoding of the diffused object graph, so equal
+ * diffused object graphs have equal digests, whatever the order in which the
+ * entries of their maps are emitted.
+ * <p>
+ * In the canonical encoding, every integer, whether a byte, short, integer,
+ * long or big integer that fits in a long, is encoded as a long. A float is
+ * encoded as a double. A big decimal is encoded without its trailing zeros. A
+ * character sequence or any other scalar is encoded as the UTF-8 bytes of its
+ * string value.
+ * <p>
+ * Each map and list is digested on its own and encoded in its parent as its
+ * digest. The elements of a list are fed to the digest of the list as they
+ * are emitted. The encoded entries of a map are buffered until the end of the
+ * map, where they are fed to the digest of the map in the order of their keys.
+ * Only the encoded scalars and child digests of the maps that are open are
+ * buffered at any one time. The order of the keys of the maps of a bean
+ * class, which the bean diffuser passes to {@link #startMap(MapKeys)}, is
+ * sorted only once.
+ * <p>
+ * The digest and buffers of each depth are reused from one diffused object
+ * graph to the next. A digest sink is not thread-safe. Each thread should
+ * have its own digest sink.
+ *
+ * @author Alan Gutierrez
+ */
+public class DigestSink implements DiffusionSink {
+    /** The tag of a null. */
+    private final static int NULL = 0x00;
+
+    /** The tag of a boolean false. */
+    private final static int FALSE = 0x01;
+
+    /** The tag of a boolean true. */
+    private final static int TRUE = 0x02;
+
+    /** The tag of an integer followed by its eight bytes. */
+    private final static int LONG = 0x03;
+
+    /** The tag of a floating point number followed by its eight bytes. */
+    private final static int DOUBLE = 0x04;
+
+    /** The tag of a string followed by a count of UTF-8 bytes and the bytes. */
+    private final static int STRING = 0x05;
+
+    /** The tag of a big integer followed by a count of bytes and the bytes. */
+    private final static int BIG_INTEGER = 0x06;
+
+    /** The tag of a big decimal followed by its scale and its unscaled bytes. */
+    private final static int BIG_DECIMAL = 0x07;
+
+    /** The tag of a map followed by its digest. */
+    private final static int MAP = 0x08;
+
+    /** The tag of a list followed by its digest. */
+    private final static int LIST = 0x09;
+
+    /** The tag of a map key followed by a count of UTF-8 bytes and the bytes. */
+    private final static int KEY = 0x0A;
+
+    /** The state of an open map or list, or of the diffused object graph. */
+    private final static class Frame {
+        /** The digest. */
+        final MessageDigest digest;
+
+        /** Whether the frame is a map. */
+        boolean map;
+
+        /** The keys of a map of a bean class or null. */
+        MapKeys shape;
+
+        /** The encoded entry values of a map. */
+        byte[] buffer = new byte[64];
+
+        /** The length of the encoded entry values. */
+        int length;
+
+        /** The keys of the entries of a map. */
+        String[] keys = new String[8];
+
+        /** The offsets of the encoded entry values. */
+        int[] starts = new int[8];
+
+        /** The count of entries of a map. */
+        int count;
+
+        /**
+         * Create a frame with the given digest.
+         *
+         * @param digest
+         *            The digest.
+         */
+        public Frame(MessageDigest digest) {
+            this.digest = digest;
+        }
+    }
+
+    /** The frames of the open maps and lists, the diffused object graph first. */
+    private Frame[] frames = new Frame[8];
+
+    /** The depth of the current map or list, zero outside of any. */
+    private int depth;
+
+    /** The scratch buffer of a single encoded value. */
+    private final byte[] scratch = new byte[16];
+
+    /** The sorted key orders of the maps of bean classes. */
+    private final Map<MapKeys, int[]> orders = new IdentityHashMap<MapKeys, int[]>();
+
+    /** The digest of the last diffused object graph. */
+    private byte[] result;
+
+    /**
+     * The digest of the encoding of each scalar when the hash of each value
+     * is kept, otherwise null.
+     */
+    private Xxh64 leaf;
+
+    /** The hash of the value most recently completed. */
+    private long last;
+
+    /** Create a digest sink that computes a 64-bit {@link Xxh64} digest. */
+    public DigestSink() {
+        this(new Xxh64());
+    }
+
+    /**
+     * Create a digest sink that computes a digest with the given message
+     * digest. The message digest is cloned for each depth of the diffused
+     * object graph.
+     *
+     * @param digest
+     *            The message digest.
+     * @exception IllegalArgumentException
+     *                If the message digest cannot be cloned.
+     */
+    public DigestSink(MessageDigest digest) {
+        frames[0] = new Frame(copy(digest));
+    }
+
+    /**
+     * Create a digest sink that computes a 64-bit {@link Xxh64} digest and
+     * keeps the hash of each value as it is completed, the digest of each map
+     * and list and the hash of the encoding of each scalar.
+     *
+     * @param values
+     *            Whether to keep the hash of each value.
+     */
+    DigestSink(boolean values) {
+        this();
+        if (values) {
+            leaf = new Xxh64();
+        }
+    }
+
+    /**
+     * Get the hash of the value most recently completed, if the hash of each
+     * value is kept.
+     *
+     * @return The hash of the last value.
+     */
+    long getLast() {
+        return last;
+    }
+
+    /**
+     * Emit a map or list that has the given 64-bit digest without emitting
+     * its members, as if its members had been emitted.
+     *
+     * @param map
+     *            Whether the value is a map.
+     * @param value
+     *            The 64-bit digest.
+     */
+    void digested(boolean map, long value) {
+        scratch[0] = (byte) (map ? MAP : LIST);
+        for (int i = 8; i > 0; i--) {
+            scratch[i] = (byte) value;
+            value >>>= 8;
+        }
+        emit(scratch, 0, 9);
+        complete();
+    }
+
+    /**
+     * Create a reset copy of the given message digest.
+     *
+     * @param digest
+     *            The message digest.
+     * @return A copy of the message digest.
+     * @exception IllegalArgumentException
+     *                If the message digest cannot be cloned.
+     */
+    private static MessageDigest copy(MessageDigest digest) {
+        try {
+            MessageDigest copy = (MessageDigest) digest.clone();
+            copy.reset();
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalArgumentException(String.format("\n\tMessage digest cannot be cloned.\n\t\tAlgorithm: [%s]", digest.getAlgorithm()), e);
+        }
+    }
+
+    /**
+     * Get the digest of the last diffused object graph.
+     *
+     * @return The digest or null if no object graph has been diffused.
+     */
+    public byte[] getDigest() {
+        return result == null ? null : result.clone();
+    }
+
+    /**
+     * Get the first eight bytes of the digest of the last diffused object
+     * graph as a long, most significant first, the entire digest of a 64-bit
+     * {@link Xxh64} digest.
+     *
+     * @return The digest as a long.
+     * @exception IllegalStateException
+     *                If no object graph has been diffused.
+     */
+    public long getValue() {
+        if (result == null) {
+            throw new IllegalStateException("\n\tNo object graph has been diffused.");
+        }
+        long value = 0;
+        for (int i = 0; i < 8 && i < result.length; i++) {
+            value = value << 8 | (result[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Emit the given range of encoded bytes to the current map or list,
+     * buffering them if the current frame is a map.
+     *
+     * @param bytes
+     *            The bytes.
+     * @param offset
+     *            The offset of the range.
+     * @param count
+     *            The count of bytes in the range.
+     */
+    private void emit(byte[] bytes, int offset, int count) {
+        Frame frame = frames[depth];
+        if (frame.map) {
+            if (frame.length + count > frame.buffer.length) {
+                frame.buffer = Arrays.copyOf(frame.buffer, Math.max(frame.buffer.length * 2, frame.length + count));
+            }
+            System.arraycopy(bytes, offset, frame.buffer, frame.length, count);
+            frame.length += count;
+        } else {
+            frame.digest.update(bytes, offset, count);
+        }
+        if (leaf != null) {
+            leaf.update(bytes, offset, count);
+        }
+    }
+
+    /**
+     * Emit a tag followed by the given eight bytes, most significant first.
+     *
+     * @param tag
+     *            The tag.
+     * @param value
+     *            The value.
+     */
+    private void fixed(int tag, long value) {
+        scratch[0] = (byte) tag;
+        for (int i = 8; i > 0; i--) {
+            scratch[i] = (byte) value;
+            value >>>= 8;
+        }
+        emit(scratch, 0, 9);
+    }
+
+    /**
+     * Emit a tag followed by a count of bytes and the given bytes.
+     *
+     * @param tag
+     *            The tag.
+     * @param bytes
+     *            The bytes.
+     */
+    private void bytes(int tag, byte[] bytes) {
+        int count = bytes.length;
+        scratch[0] = (byte) tag;
+        scratch[1] = (byte) (count >>> 24);
+        scratch[2] = (byte) (count >>> 16);
+        scratch[3] = (byte) (count >>> 8);
+        scratch[4] = (byte) count;
+        emit(scratch, 0, 5);
+        emit(bytes, 0, count);
+    }
+
+    /**
+     * If the current frame is the diffused object graph, the value just
+     * emitted is the entire diffused object graph, so take its digest.
+     */
+    private void complete() {
+        if (depth == 0) {
+            result = frames[0].digest.digest();
+        }
+    }
+
+    /**
+     * Start a map or list.
+     *
+     * @param map
+     *            Whether to start a map.
+     * @param shape
+     *            The keys of a map of a bean class or null.
+     */
+    private void start(boolean map, MapKeys shape) {
+        depth++;
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
+        }
+        Frame frame = frames[depth];
+        if (frame == null) {
+            frame = frames[depth] = new Frame(copy(frames[0].digest));
+        }
+        frame.map = map;
+        frame.shape = shape;
+        frame.length = 0;
+        frame.count = 0;
+    }
+
+    /** Start a map. */
+    public void startMap() {
+        start(true, null);
+    }
+
+    /**
+     * Start a map whose entries will have the given keys, in order, so that
+     * the sorted order of the keys is computed once for all the maps with the
+     * given keys.
+     *
+     * @param keys
+     *            The keys of the map entries.
+     */
+    @Override
+    public void startMap(MapKeys keys) {
+        start(true, keys);
+    }
+
+    /**
+     * Emit the key of the next map entry.
+     *
+     * @param name
+     *            The entry key.
+     */
+    public void key(String name) {
+        Frame frame = frames[depth];
+        if (frame.count == frame.keys.length) {
+            frame.keys = Arrays.copyOf(frame.keys, frame.count * 2);
+            frame.starts = Arrays.copyOf(frame.starts, frame.count * 2);
+        }
+        frame.keys[frame.count] = name;
+        frame.starts[frame.count] = frame.length;
+        frame.count++;
+    }
+
+    /** Start a list. */
+    public void startList() {
+        start(false, null);
+    }
+
+    /**
+     * Emit a scalar value, a primitive, string or null.
+     *
+     * @param value
+     *            The scalar value.
+     */
+    public void scalar(Object value) {
+        if (leaf != null) {
+            leaf.reset();
+        }
+        if (value == null) {
+            scratch[0] = NULL;
+            emit(scratch, 0, 1);
+        } else if (value instanceof String) {
+            bytes(STRING, ((String) value).getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            fixed(LONG, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            scratch[0] = (byte) (((Boolean) value).booleanValue() ? TRUE : FALSE);
+            emit(scratch, 0, 1);
+        } else if (value instanceof Double || value instanceof Float) {
+            fixed(DOUBLE, Double.doubleToLongBits(((Number) value).doubleValue()));
+        } else if (value instanceof BigInteger) {
+            BigInteger integer = (BigInteger) value;
+            if (integer.bitLength() < 64) {
+                fixed(LONG, integer.longValue());
+            } else {
+                bytes(BIG_INTEGER, integer.toByteArray());
+            }
+        } else if (value instanceof BigDecimal) {
+            BigDecimal decimal = ((BigDecimal) value).stripTrailingZeros();
+            fixed(BIG_DECIMAL, decimal.scale());
+            bytes(BIG_INTEGER, decimal.unscaledValue().toByteArray());
+        } else {
+            bytes(STRING, value.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        if (leaf != null) {
+            last = leaf.getValue();
+        }
+        complete();
+    }
+
+    /**
+     * Get the indexes of the entries of the given map in the order of their
+     * keys.
+     *
+     * @param frame
+     *            The map.
+     * @return The sorted entry indexes.
+     */
+    private int[] order(Frame frame) {
+        MapKeys shape = frame.shape;
+        if (shape != null && shape.size() == frame.count) {
+            int[] order = orders.get(shape);
+            if (order == null) {
+                order = sort(frame);
+                orders.put(shape, order);
+            }
+            return order;
+        }
+        return sort(frame);
+    }
+
+    /**
+     * Sort the indexes of the entries of the given map by their keys.
+     *
+     * @param frame
+     *            The map.
+     * @return The sorted entry indexes.
+     */
+    private static int[] sort(Frame frame) {
+        final String[] keys = frame.keys;
+        int count = frame.count;
+        Integer[] boxed = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, (left, right) -> keys[left].compareTo(keys[right]));
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = boxed[i];
+        }
+        return order;
+    }
+
+    /** End the current map or list. */
+    public void end() {
+        Frame frame = frames[depth];
+        if (frame.map) {
+            int[] order = order(frame);
+            MessageDigest digest = frame.digest;
+            for (int i = 0; i < frame.count; i++) {
+                int entry = order[i];
+                byte[] key = frame.keys[entry].getBytes(StandardCharsets.UTF_8);
+                int count = key.length;
+                scratch[0] = KEY;
+                scratch[1] = (byte) (count >>> 24);
+                scratch[2] = (byte) (count >>> 16);
+                scratch[3] = (byte) (count >>> 8);
+                scratch[4] = (byte) count;
+                digest.update(scratch, 0, 5);
+                digest.update(key);
+                int start = frame.starts[entry];
+                int end = entry + 1 == frame.count ? frame.length : frame.starts[entry + 1];
+                digest.update(frame.buffer, start, end - start);
+            }
+            Arrays.fill(frame.keys, 0, frame.count, null);
+        }
+        byte[] child = frame.digest.digest();
+        if (leaf != null) {
+            last = 0;
+            for (int i = 0; i < 8; i++) {
+                last = last << 8 | (child[i] & 0xFF);
+            }
+        }
+        depth--;
+        scratch[0] = (byte) (frame.map ? MAP : LIST);
+        emit(scratch, 0, 1);
+        emit(child, 0, child.length);
+        complete();
+    }
+}
@@ -0,0 +1,37 @@
+package com.goodworkalan.diffuse;
+
+/**
+ * Convert an enum constant into a string by calling its <code>name</code>
+ * method. Unlike <code>toString</code>, the name of an enum constant cannot
+ * be overridden, so the diffused form of a constant is always the identifier
+ * that declares it.
+ *
+ * @author Alan Gutierrez
+ */
+public class EnumDiffuser implements ObjectDiffuser {
+    /** The singleton instance of the enum diffuser. */
+    public final static ObjectDiffuser INSTANCE = new EnumDiffuser();
+
+    /**
+     * Diffuse the given enum constant by emitting its name as a scalar.
+     *
+     * @param diffusion
+     *            The state of the diffusion.
+     * @param object
+     *            The enum constant to diffuse.
+     * @param includes
+     *            The include node for the object in the object graph.
+     */
+    public void diffuse(Diffusion diffusion, Object object, Includes includes) {
+        diffusion.scalar(((Enum<?>) object).name());
+    }
+
+    /**
+     * Return false indicating that this is a diffuser for a scalar object.
+     *
+     * @return False to indicate that this is a scalar diffuser.
+     */
+    public boolean isContainer() {
+        return false;
+    }
+}
@@ -0,0 +1,124 @@
+package com.goodworkalan.diffuse;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The retained fingerprint of a diffused object graph, a tree of 64-bit
+ * {@link Xxh64} hashes with a hash for every map, list and scalar, to compare
+ * against instead of the diffused object graph itself. The hash of a map or
+ * list is the digest of its canonical encoding computed by a
+ * {@link DigestSink}, so equal values have equal hashes, whatever the order
+ * of the entries of their maps.
+ * <p>
+ * A fingerprint is built by a {@link Delta} created with a previous
+ * fingerprint and is retained in place of the diffused object graph, so that
+ * the scalars of the object graph are not retained. A map or list emitted for
+ * an object of a class registered as immutable also retains the identity of
+ * the object and its include node.
+ * <p>
+ * A fingerprint is immutable.
+ *
+ * @author Alan Gutierrez
+ */
+public final class Fingerprint {
+    /** The hash of the value. */
+    private final long value;
+
+    /** The fingerprints of the entries of a map or null. */
+    private final Map<String, Fingerprint> entries;
+
+    /** The fingerprints of the elements of a list or null. */
+    private final List<Fingerprint> elements;
+
+    /** The immutable object diffused to create the value or null. */
+    private final Object source;
+
+    /** The include node of the immutable object or null. */
+    private final Includes includes;
+
+    /**
+     * Create a fingerprint.
+     *
+     * @param value
+     *            The hash of the value.
+     * @param entries
+     *            The fingerprints of the entries of a map or null.
+     * @param elements
+     *            The fingerprints of the elements of a list or null.
+     * @param source
+     *            The immutable object diffused to create the value or null.
+     * @param includes
+     *            The include node of the immutable object or null.
+     */
+    Fingerprint(long value, Map<String, Fingerprint> entries, List<Fingerprint> elements, Object source, Includes includes) {
+        this.value = value;
+        this.entries = entries == null ? null : Collections.unmodifiableMap(entries);
+        this.elements = elements == null ? null : Collections.unmodifiableList(elements);
+        this.source = source;
+        this.includes = includes;
+    }
+
+    /**
+     * Create a copy of the given fingerprint that was created by diffusing the
+     * given immutable object with the given include node.
+     *
+     * @param fingerprint
+     *            The fingerprint.
+     * @param source
+     *            The immutable object.
+     * @param includes
+     *            The include node of the immutable object.
+     */
+    Fingerprint(Fingerprint fingerprint, Object source, Includes includes) {
+        this.value = fingerprint.value;
+        this.entries = fingerprint.entries;
+        this.elements = fingerprint.elements;
+        this.source = source;
+        this.includes = includes;
+    }
+
+    /**
+     * Get the hash of the value.
+     *
+     * @return The hash.
+     */
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * Get the fingerprints of the entries of the map, the fingerprints of the
+     * elements of the list, or null if the value is a scalar.
+     *
+     * @return A map of entry fingerprints, a list of element fingerprints or
+     *         null.
+     */
+    Object getContainer() {
+        return entries == null ? elements : entries;
+    }
+
+    /**
+     * Return true if the value is a map or list that was created by diffusing
+     * the given immutable object with the given include node.
+     *
+     * @param object
+     *            The immutable object.
+     * @param includes
+     *            The include node.
+     * @return True if the value was diffused from the object.
+     */
+    boolean isSource(Object object, Includes includes) {
+        return source == object && this.includes == includes && (entries != null || elements != null);
+    }
+
+    /**
+     * Return true if the value is a map.
+     *
+     * @return True if the value is a map.
+     */
+    boolean isMap() {
+        return entries != null;
+    }
+}
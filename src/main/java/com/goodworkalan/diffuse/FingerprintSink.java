@@ -0,0 +1,184 @@
+package com.goodworkalan.diffuse;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A diffusion sink that builds the {@link Fingerprint} of a diffused object
+ * graph, hashing each value with a {@link DigestSink} as it is emitted.
+ * <p>
+ * A fingerprint sink is used by a single {@link Delta} and is not
+ * thread-safe.
+ *
+ * @author Alan Gutierrez
+ */
+final class FingerprintSink implements DiffusionSink {
+    /** The digest sink that hashes each value. */
+    private final DigestSink digest = new DigestSink(true);
+
+    /**
+     * The fingerprints of the entries or elements of the maps and lists under
+     * construction, a map for a map and a list for a list.
+     */
+    private final List<Object> stack = new ArrayList<Object>();
+
+    /** The key of the next entry of the map at each depth. */
+    private final List<String> keys = new ArrayList<String>();
+
+    /** The immutable object of the next value at each depth or null. */
+    private Object[] sources = new Object[16];
+
+    /** The include node of the immutable object at each depth or null. */
+    private Includes[] includes = new Includes[16];
+
+    /** The fingerprint most recently completed. */
+    private Fingerprint last;
+
+    /** The fingerprint of the root of the diffused object graph. */
+    private Fingerprint root;
+
+    /**
+     * Record that the next value at the current depth is diffused from the
+     * given immutable object with the given include node.
+     *
+     * @param source
+     *            The immutable object.
+     * @param includes
+     *            The include node of the immutable object.
+     */
+    public void source(Object source, Includes includes) {
+        int depth = stack.size();
+        if (depth == sources.length) {
+            Object[] growSources = new Object[depth * 2];
+            System.arraycopy(sources, 0, growSources, 0, depth);
+            sources = growSources;
+            Includes[] growIncludes = new Includes[depth * 2];
+            System.arraycopy(this.includes, 0, growIncludes, 0, depth);
+            this.includes = growIncludes;
+        }
+        sources[depth] = source;
+        this.includes[depth] = includes;
+    }
+
+    /**
+     * Add the given fingerprint of a map or list from a previous fingerprint
+     * without hashing its members again.
+     *
+     * @param fingerprint
+     *            The previous fingerprint of a map or list.
+     */
+    public void reuse(Fingerprint fingerprint) {
+        digest.digested(fingerprint.isMap(), fingerprint.getValue());
+        add(fingerprint);
+    }
+
+    /**
+     * Add the given fingerprint to the map or list at the top of the stack or
+     * set the root if the stack is empty, recording the immutable object it
+     * was diffused from, if any.
+     *
+     * @param fingerprint
+     *            The fingerprint.
+     */
+    @SuppressWarnings("unchecked")
+    private void add(Fingerprint fingerprint) {
+        int depth = stack.size();
+        if (depth < sources.length && sources[depth] != null) {
+            fingerprint = new Fingerprint(fingerprint, sources[depth], includes[depth]);
+            sources[depth] = null;
+            includes[depth] = null;
+        }
+        last = fingerprint;
+        if (depth == 0) {
+            root = fingerprint;
+        } else {
+            Object top = stack.get(depth - 1);
+            if (top instanceof List<?>) {
+                ((List<Fingerprint>) top).add(fingerprint);
+            } else {
+                ((Map<String, Fingerprint>) top).put(keys.get(depth - 1), fingerprint);
+            }
+        }
+    }
+
+    /** Start a map. */
+    public void startMap() {
+        digest.startMap();
+        stack.add(new LinkedHashMap<String, Fingerprint>());
+        keys.add(null);
+    }
+
+    /**
+     * Start a map with the given keys.
+     *
+     * @param keys
+     *            The keys of the map entries.
+     */
+    public void startMap(MapKeys keys) {
+        digest.startMap(keys);
+        stack.add(new LinkedHashMap<String, Fingerprint>());
+        this.keys.add(null);
+    }
+
+    /**
+     * Record the key of the next map entry.
+     *
+     * @param name
+     *            The entry key.
+     */
+    public void key(String name) {
+        digest.key(name);
+        keys.set(keys.size() - 1, name);
+    }
+
+    /** Start a list. */
+    public void startList() {
+        digest.startList();
+        stack.add(new ArrayList<Fingerprint>());
+        keys.add(null);
+    }
+
+    /**
+     * Hash the given scalar and add its fingerprint.
+     *
+     * @param value
+     *            The scalar value.
+     */
+    public void scalar(Object value) {
+        digest.scalar(value);
+        add(new Fingerprint(digest.getLast(), null, null, null, null));
+    }
+
+    /** Hash the current map or list and add its fingerprint. */
+    @SuppressWarnings("unchecked")
+    public void end() {
+        digest.end();
+        keys.remove(keys.size() - 1);
+        Object top = stack.remove(stack.size() - 1);
+        if (top instanceof List<?>) {
+            add(new Fingerprint(digest.getLast(), null, (List<Fingerprint>) top, null, null));
+        } else {
+            add(new Fingerprint(digest.getLast(), (Map<String, Fingerprint>) top, null, null, null));
+        }
+    }
+
+    /**
+     * Get the fingerprint most recently completed.
+     *
+     * @return The last fingerprint.
+     */
+    public Fingerprint getLast() {
+        return last;
+    }
+
+    /**
+     * Get the fingerprint of the root of the diffused object graph.
+     *
+     * @return The root fingerprint.
+     */
+    public Fingerprint getFingerprint() {
+        return root;
+    }
+}
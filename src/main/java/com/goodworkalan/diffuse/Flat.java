@@ -0,0 +1,217 @@
+package com.goodworkalan.diffuse;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * The layout of a diffused object graph written to a flat buffer by a
+ * {@link FlatSink} and the decoding of the values of the graph from the
+ * buffer.
+ * <p>
+ * Every value begins with a tag byte. Scalars follow their tag with a fixed
+ * width big-endian primitive, or with a four byte count of UTF-8 bytes and the
+ * bytes. A list follows its tag with its size and the position of a table of
+ * the positions of its elements. A map follows its tag with its size and the
+ * position of a table of pairs of key and value positions, where a key is a
+ * string value written once per buffer. A shaped map follows its tag with its
+ * size, the position of its shape, a table of the key positions shared by
+ * every map of a bean class, and the position of a table of value positions.
+ * <p>
+ * All positions are absolute positions in the buffer and all reads are
+ * absolute reads, so any number of threads can read the same buffer.
+ * 
+ * @author Alan Gutierrez
+ */
+final class Flat {
+    /** The tag of a null. */
+    final static byte NULL = 0;
+
+    /** The tag of a boolean false. */
+    final static byte FALSE = 1;
+
+    /** The tag of a boolean true. */
+    final static byte TRUE = 2;
+
+    /** The tag of a byte. */
+    final static byte BYTE = 3;
+
+    /** The tag of a short. */
+    final static byte SHORT = 4;
+
+    /** The tag of a character. */
+    final static byte CHARACTER = 5;
+
+    /** The tag of an integer. */
+    final static byte INT = 6;
+
+    /** The tag of a long. */
+    final static byte LONG = 7;
+
+    /** The tag of a float. */
+    final static byte FLOAT = 8;
+
+    /** The tag of a double. */
+    final static byte DOUBLE = 9;
+
+    /** The tag of a string. */
+    final static byte STRING = 10;
+
+    /** The tag of a big integer, written as a decimal string. */
+    final static byte BIG_INTEGER = 11;
+
+    /** The tag of a big decimal, written as a decimal string. */
+    final static byte BIG_DECIMAL = 12;
+
+    /** The tag of a list. */
+    final static byte LIST = 13;
+
+    /** The tag of a map. */
+    final static byte MAP = 14;
+
+    /** The tag of a map with a shape. */
+    final static byte SHAPED_MAP = 15;
+
+    /** Cannot be instantiated. */
+    private Flat() {
+    }
+
+    /**
+     * Decode the value at the given position, creating a view of the buffer if
+     * the value is a map or a list.
+     * 
+     * @param buffer
+     *            The buffer.
+     * @param position
+     *            The position of the value.
+     * @return The value.
+     * @exception IllegalArgumentException
+     *                If there is no value at the position.
+     */
+    static Object value(ByteBuffer buffer, int position) {
+        switch (buffer.get(position)) {
+        case NULL:
+            return null;
+        case FALSE:
+            return Boolean.FALSE;
+        case TRUE:
+            return Boolean.TRUE;
+        case BYTE:
+            return buffer.get(position + 1);
+        case SHORT:
+            return buffer.getShort(position + 1);
+        case CHARACTER:
+            return buffer.getChar(position + 1);
+        case INT:
+            return buffer.getInt(position + 1);
+        case LONG:
+            return buffer.getLong(position + 1);
+        case FLOAT:
+            return buffer.getFloat(position + 1);
+        case DOUBLE:
+            return buffer.getDouble(position + 1);
+        case STRING:
+            return string(buffer, position);
+        case BIG_INTEGER:
+            return new BigInteger(string(buffer, position));
+        case BIG_DECIMAL:
+            return new BigDecimal(string(buffer, position));
+        case LIST:
+            return new FlatList(buffer, position);
+        case MAP:
+        case SHAPED_MAP:
+            return new FlatMap(buffer, position);
+        }
+        throw new IllegalArgumentException(String.format(
+                "\n\tNo diffused value in flat buffer.\n" +
+                "\t\tPosition: [%d]", position));
+    }
+
+    /**
+     * Decode the string value at the given position, including the three byte
+     * sequences of unpaired surrogates.
+     * 
+     * @param buffer
+     *            The buffer.
+     * @param position
+     *            The position of the string value.
+     * @return The string.
+     */
+    static String string(ByteBuffer buffer, int position) {
+        int length = buffer.getInt(position + 1);
+        char[] chars = new char[length];
+        int count = 0;
+        for (int i = position + 5, stop = i + length; i < stop;) {
+            int codePoint = buffer.get(i) & 0xFF;
+            if (codePoint < 0x80) {
+                chars[count++] = (char) codePoint;
+                i++;
+            } else {
+                codePoint = codePoint(buffer, i);
+                i += codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+                count += Character.toChars(codePoint, chars, count);
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    /**
+     * Decode the multiple byte UTF-8 sequence at the given position.
+     * 
+     * @param buffer
+     *            The buffer.
+     * @param i
+     *            The position of the sequence.
+     * @return The code point.
+     */
+    private static int codePoint(ByteBuffer buffer, int i) {
+        int b = buffer.get(i) & 0xFF;
+        if (b < 0xE0) {
+            return ((b & 0x1F) << 6) | (buffer.get(i + 1) & 0x3F);
+        }
+        if (b < 0xF0) {
+            return ((b & 0x0F) << 12) | ((buffer.get(i + 1) & 0x3F) << 6) | (buffer.get(i + 2) & 0x3F);
+        }
+        return ((b & 0x07) << 18) | ((buffer.get(i + 1) & 0x3F) << 12) | ((buffer.get(i + 2) & 0x3F) << 6) | (buffer.get(i + 3) & 0x3F);
+    }
+
+    /**
+     * Return true if the string value at the given position is equal to the
+     * given string, comparing without decoding the string value.
+     * 
+     * @param buffer
+     *            The buffer.
+     * @param position
+     *            The position of the string value.
+     * @param string
+     *            The string.
+     * @return True if the strings are equal.
+     */
+    static boolean equals(ByteBuffer buffer, int position, String string) {
+        int length = buffer.getInt(position + 1);
+        int j = 0;
+        int size = string.length();
+        for (int i = position + 5, stop = i + length; i < stop;) {
+            int codePoint = buffer.get(i) & 0xFF;
+            if (codePoint < 0x80) {
+                if (j == size || string.charAt(j++) != codePoint) {
+                    return false;
+                }
+                i++;
+            } else {
+                codePoint = codePoint(buffer, i);
+                i += codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+                if (codePoint < 0x10000) {
+                    if (j == size || string.charAt(j++) != codePoint) {
+                        return false;
+                    }
+                } else if (j + 1 >= size || string.codePointAt(j) != codePoint) {
+                    return false;
+                } else {
+                    j += 2;
+                }
+            }
+        }
+        return j == size;
+    }
+}
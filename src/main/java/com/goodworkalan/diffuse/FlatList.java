@@ -0,0 +1,63 @@
+package com.goodworkalan.diffuse;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * An unmodifiable view of a list written to a flat buffer. Elements are
+ * decoded from the buffer each time they are read.
+ * 
+ * @author Alan Gutierrez
+ */
+final class FlatList extends AbstractList<Object> implements RandomAccess {
+    /** The buffer. */
+    private final ByteBuffer buffer;
+
+    /** The number of elements. */
+    private final int size;
+
+    /** The position of the table of element positions. */
+    private final int table;
+
+    /**
+     * Create a view of the list at the given position.
+     * 
+     * @param buffer
+     *            The buffer.
+     * @param position
+     *            The position of the list.
+     */
+    public FlatList(ByteBuffer buffer, int position) {
+        this.buffer = buffer;
+        this.size = buffer.getInt(position + 1);
+        this.table = buffer.getInt(position + 5);
+    }
+
+    /**
+     * Get the number of elements.
+     * 
+     * @return The size of the list.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Decode the element at the given index.
+     * 
+     * @param index
+     *            The index.
+     * @return The element.
+     * @exception IndexOutOfBoundsException
+     *                If the index is out of range.
+     */
+    @Override
+    public Object get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+        return Flat.value(buffer, buffer.getInt(table + index * 4));
+    }
+}
@@ -0,0 +1,158 @@
+package com.goodworkalan.diffuse;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An unmodifiable view of a map written to a flat buffer. Keys are compared
+ * and values are decoded in the buffer each time they are read. Keys are
+ * found by a linear search, which is as fast as hashing for maps the size of
+ * most beans.
+ * 
+ * @author Alan Gutierrez
+ */
+final class FlatMap extends AbstractMap<String, Object> {
+    /** The buffer. */
+    private final ByteBuffer buffer;
+
+    /** The number of entries. */
+    private final int size;
+
+    /** The position of the shape or -1 if the map has no shape. */
+    private final int shape;
+
+    /** The position of the table of entry positions. */
+    private final int table;
+
+    /**
+     * Create a view of the map at the given position.
+     * 
+     * @param buffer
+     *            The buffer.
+     * @param position
+     *            The position of the map.
+     */
+    public FlatMap(ByteBuffer buffer, int position) {
+        this.buffer = buffer;
+        this.size = buffer.getInt(position + 1);
+        if (buffer.get(position) == Flat.SHAPED_MAP) {
+            this.shape = buffer.getInt(position + 5);
+            this.table = buffer.getInt(position + 9);
+        } else {
+            this.shape = -1;
+            this.table = buffer.getInt(position + 5);
+        }
+    }
+
+    /**
+     * Get the position of the key of the entry at the given index.
+     * 
+     * @param index
+     *            The entry index.
+     * @return The position of the key.
+     */
+    private int key(int index) {
+        return shape == -1 ? buffer.getInt(table + index * 8) : buffer.getInt(shape + 4 + index * 4);
+    }
+
+    /**
+     * Get the position of the value of the entry at the given index.
+     * 
+     * @param index
+     *            The entry index.
+     * @return The position of the value.
+     */
+    private int value(int index) {
+        return shape == -1 ? buffer.getInt(table + index * 8 + 4) : buffer.getInt(table + index * 4);
+    }
+
+    /**
+     * Get the index of the entry with the given key.
+     * 
+     * @param key
+     *            The key.
+     * @return The entry index or -1 if there is no such entry.
+     */
+    private int indexOf(Object key) {
+        if (key instanceof String) {
+            for (int i = 0; i < size; i++) {
+                if (Flat.equals(buffer, key(i), (String) key)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the number of entries.
+     * 
+     * @return The size of the map.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return true if the map contains the given key.
+     * 
+     * @param key
+     *            The key.
+     * @return True if there is an entry for the key.
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) != -1;
+    }
+
+    /**
+     * Decode the value for the given key.
+     * 
+     * @param key
+     *            The key.
+     * @return The value or null if there is no entry for the key.
+     */
+    @Override
+    public Object get(Object key) {
+        int index = indexOf(key);
+        return index == -1 ? null : Flat.value(buffer, value(index));
+    }
+
+    /**
+     * Get a set view of the entries, decoded as they are iterated.
+     * 
+     * @return The entry set.
+     */
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            public int size() {
+                return size;
+            }
+
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new Iterator<Map.Entry<String, Object>>() {
+                    private int index;
+
+                    public boolean hasNext() {
+                        return index < size;
+                    }
+
+                    public Map.Entry<String, Object> next() {
+                        if (index == size) {
+                            throw new NoSuchElementException();
+                        }
+                        int i = index++;
+                        return new SimpleImmutableEntry<String, Object>(Flat.string(buffer, key(i)), Flat.value(buffer, value(i)));
+                    }
+                };
+            }
+        };
+    }
+}
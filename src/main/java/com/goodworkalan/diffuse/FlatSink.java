@@ -0,0 +1,419 @@
+package com.goodworkalan.diffuse;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A diffusion sink that writes a diffused object graph into a flat buffer,
+ * a direct <code>ByteBuffer</code> or a <code>MappedByteBuffer</code> of a
+ * memory-mapped file, so that the diffused object graph is kept out of the
+ * garbage collected heap. The diffused object graph is read through
+ * unmodifiable <code>Map</code> and <code>List</code> views that decode
+ * their entries and elements from the buffer each time they are read, so the
+ * views are interchangeable with the tree built by a {@link TreeSink}.
+ * <p>
+ * The graph is written starting at the position of the buffer and the
+ * position of the buffer is advanced past the graph once the root value has
+ * been written. Each map key is written to the buffer once and each bean
+ * class that passes its keys to {@link #startMap(MapKeys)} has its keys
+ * recorded once as a shape shared by every map of the bean class, so the
+ * flat graph is a fraction of the size of a tree of linked hash maps.
+ * <p>
+ * The first four bytes of the graph are the position of the root value, so a
+ * graph can be read again from a buffer, such as a buffer mapped from a file
+ * written earlier, with {@link #view(ByteBuffer, int)}. A flat sink writes a
+ * single graph and is not thread-safe. The views are thread-safe.
+ * 
+ * @author Alan Gutierrez
+ */
+public class FlatSink implements DiffusionSink {
+    /** The buffer whose position is advanced when the graph is written. */
+    private final ByteBuffer target;
+
+    /** A big-endian view of the buffer used for all reads and writes. */
+    private final ByteBuffer buffer;
+
+    /** The position of the graph. */
+    private final int start;
+
+    /** The position of the next byte to write. */
+    private int position;
+
+    /** The position of the root value or -1 if it has not been written. */
+    private int root = -1;
+
+    /** The positions of the keys that have been written. */
+    private final Map<String, Integer> keys = new HashMap<String, Integer>();
+
+    /** The positions of the shapes that have been written. */
+    private final Map<MapKeys, Integer> shapes = new IdentityHashMap<MapKeys, Integer>();
+
+    /** The positions of the open maps and lists. */
+    private int[] containers = new int[16];
+
+    /** The index of the first child position of each open map or list. */
+    private int[] bases = new int[16];
+
+    /** The depth of the current container, zero at the root. */
+    private int depth;
+
+    /** The positions of the keys and values of the open maps and lists. */
+    private int[] children = new int[64];
+
+    /** The number of child positions. */
+    private int count;
+
+    /**
+     * Create a flat sink that writes a graph into the given buffer starting
+     * at the current position of the buffer.
+     * 
+     * @param buffer
+     *            The buffer.
+     * @exception BufferOverflowException
+     *                If there is no room for the position of the root value.
+     */
+    public FlatSink(ByteBuffer buffer) {
+        if (buffer.remaining() < 4) {
+            throw new BufferOverflowException();
+        }
+        this.target = buffer;
+        this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        this.start = buffer.position();
+        this.position = start + 4;
+    }
+
+    /**
+     * Create a view of the graph written at the given position of the given
+     * buffer.
+     * 
+     * @param buffer
+     *            The buffer.
+     * @param start
+     *            The position of the graph.
+     * @return The root value of the graph, a map, list or scalar.
+     */
+    public static Object view(ByteBuffer buffer, int start) {
+        ByteBuffer bigEndian = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        return Flat.value(bigEndian, bigEndian.getInt(start));
+    }
+
+    /**
+     * Get the root value of the graph written, a map, list or scalar.
+     * 
+     * @return The root value.
+     * @exception IllegalStateException
+     *                If the graph has not been written.
+     */
+    public Object getRoot() {
+        if (root == -1 || depth != 0) {
+            throw new IllegalStateException();
+        }
+        return Flat.value(buffer, root);
+    }
+
+    /**
+     * Get the position at which the graph was written.
+     * 
+     * @return The position of the graph.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Assert that the given number of bytes fit in the buffer.
+     * 
+     * @param length
+     *            The number of bytes to write.
+     * @exception BufferOverflowException
+     *                If the bytes do not fit.
+     */
+    private void ensure(long length) {
+        if (position + length > buffer.limit()) {
+            throw new BufferOverflowException();
+        }
+    }
+
+    /**
+     * Add a child position to the current map or list.
+     * 
+     * @param child
+     *            The position of the child.
+     */
+    private void child(int child) {
+        if (count == children.length) {
+            int[] grow = new int[count * 2];
+            System.arraycopy(children, 0, grow, 0, count);
+            children = grow;
+        }
+        children[count++] = child;
+    }
+
+    /**
+     * Record the position of a value that is about to be written, either as a
+     * child of the current map or list or as the root value.
+     */
+    private void value() {
+        if (depth == 0) {
+            if (root != -1) {
+                throw new IllegalStateException();
+            }
+            root = position;
+        } else {
+            child(position);
+        }
+    }
+
+    /**
+     * Write the position of the root value and advance the position of the
+     * target buffer past the graph.
+     */
+    private void complete() {
+        buffer.putInt(start, root);
+        target.position(position);
+    }
+
+    /**
+     * Write the given string as a string value at the current position.
+     * Unpaired surrogates are encoded as three byte sequences, so that any
+     * string is read back unchanged.
+     * 
+     * @param tag
+     *            The tag of the value.
+     * @param chars
+     *            The characters.
+     */
+    private void string(byte tag, CharSequence chars) {
+        int stop = chars.length();
+        long length = 0;
+        for (int i = 0; i < stop; i++) {
+            char ch = chars.charAt(i);
+            if (ch < 0x80) {
+                length++;
+            } else if (ch < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(ch) && i + 1 < stop && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        ensure(5 + length);
+        buffer.put(position++, tag);
+        buffer.putInt(position, (int) length);
+        position += 4;
+        for (int i = 0; i < stop; i++) {
+            char ch = chars.charAt(i);
+            if (ch < 0x80) {
+                buffer.put(position++, (byte) ch);
+            } else if (ch < 0x800) {
+                buffer.put(position++, (byte) (0xC0 | (ch >> 6)));
+                buffer.put(position++, (byte) (0x80 | (ch & 0x3F)));
+            } else if (Character.isHighSurrogate(ch) && i + 1 < stop && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(ch, chars.charAt(++i));
+                buffer.put(position++, (byte) (0xF0 | (codePoint >> 18)));
+                buffer.put(position++, (byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put(position++, (byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put(position++, (byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                buffer.put(position++, (byte) (0xE0 | (ch >> 12)));
+                buffer.put(position++, (byte) (0x80 | ((ch >> 6) & 0x3F)));
+                buffer.put(position++, (byte) (0x80 | (ch & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Write the tag of a primitive value and advance past the value, which is
+     * then written at the given width before the position.
+     * 
+     * @param tag
+     *            The tag of the value.
+     * @param width
+     *            The width of the primitive in bytes.
+     */
+    private void primitive(byte tag, int width) {
+        ensure(1 + width);
+        buffer.put(position, tag);
+        position += 1 + width;
+    }
+
+    /**
+     * Get the position of the given key, writing it as a string value if it
+     * has not been written before.
+     * 
+     * @param name
+     *            The key.
+     * @return The position of the key.
+     */
+    private int name(String name) {
+        Integer key = keys.get(name);
+        if (key == null) {
+            key = position;
+            string(Flat.STRING, name);
+            keys.put(name, key);
+        }
+        return key;
+    }
+
+    /**
+     * Write the header of a map or list with room for its size and table
+     * positions and enter it.
+     * 
+     * @param tag
+     *            The tag of the container.
+     * @param shape
+     *            The position of the shape of a shaped map.
+     */
+    private void push(byte tag, int shape) {
+        value();
+        int header = tag == Flat.SHAPED_MAP ? 13 : 9;
+        ensure(header);
+        if (++depth == containers.length) {
+            int[] grow = new int[depth * 2];
+            System.arraycopy(containers, 0, grow, 0, depth);
+            containers = grow;
+            grow = new int[depth * 2];
+            System.arraycopy(bases, 0, grow, 0, depth);
+            bases = grow;
+        }
+        containers[depth] = position;
+        bases[depth] = count;
+        buffer.put(position, tag);
+        if (tag == Flat.SHAPED_MAP) {
+            buffer.putInt(position + 5, shape);
+        }
+        position += header;
+    }
+
+    /** Start a map whose entries record the positions of their keys. */
+    public void startMap() {
+        push(Flat.MAP, 0);
+    }
+
+    /**
+     * Start a map with the given keys, writing the keys as a shape the first
+     * time they are seen. The entries of the map record only the positions of
+     * their values.
+     * 
+     * @param keys
+     *            The keys of the map entries.
+     */
+    public void startMap(MapKeys keys) {
+        Integer shape = shapes.get(keys);
+        if (shape == null) {
+            int size = keys.size();
+            int[] names = new int[size];
+            for (int i = 0; i < size; i++) {
+                names[i] = name(keys.get(i));
+            }
+            ensure(4 + size * 4L);
+            shape = position;
+            buffer.putInt(position, size);
+            position += 4;
+            for (int i = 0; i < size; i++) {
+                buffer.putInt(position, names[i]);
+                position += 4;
+            }
+            shapes.put(keys, shape);
+        }
+        push(Flat.SHAPED_MAP, shape);
+    }
+
+    /**
+     * Record the position of the given map key, unless the map has a shape.
+     * 
+     * @param name
+     *            The key.
+     */
+    public void key(String name) {
+        if (buffer.get(containers[depth]) == Flat.MAP) {
+            int key = name(name);
+            child(key);
+        }
+    }
+
+    /** Start a list. */
+    public void startList() {
+        push(Flat.LIST, 0);
+    }
+
+    /**
+     * Write the given scalar value. Numbers, booleans and characters are
+     * written as primitives, and other objects are written as strings.
+     * 
+     * @param value
+     *            The scalar value.
+     */
+    public void scalar(Object value) {
+        value();
+        if (value == null) {
+            primitive(Flat.NULL, 0);
+        } else if (value instanceof String) {
+            string(Flat.STRING, (String) value);
+        } else if (value instanceof Integer) {
+            primitive(Flat.INT, 4);
+            buffer.putInt(position - 4, (Integer) value);
+        } else if (value instanceof Long) {
+            primitive(Flat.LONG, 8);
+            buffer.putLong(position - 8, (Long) value);
+        } else if (value instanceof Boolean) {
+            primitive(((Boolean) value).booleanValue() ? Flat.TRUE : Flat.FALSE, 0);
+        } else if (value instanceof Double) {
+            primitive(Flat.DOUBLE, 8);
+            buffer.putDouble(position - 8, (Double) value);
+        } else if (value instanceof Float) {
+            primitive(Flat.FLOAT, 4);
+            buffer.putFloat(position - 4, (Float) value);
+        } else if (value instanceof Short) {
+            primitive(Flat.SHORT, 2);
+            buffer.putShort(position - 2, (Short) value);
+        } else if (value instanceof Byte) {
+            primitive(Flat.BYTE, 1);
+            buffer.put(position - 1, (Byte) value);
+        } else if (value instanceof Character) {
+            primitive(Flat.CHARACTER, 2);
+            buffer.putChar(position - 2, (Character) value);
+        } else if (value instanceof BigInteger) {
+            string(Flat.BIG_INTEGER, value.toString());
+        } else if (value instanceof BigDecimal) {
+            string(Flat.BIG_DECIMAL, value.toString());
+        } else if (value instanceof CharSequence) {
+            string(Flat.STRING, (CharSequence) value);
+        } else {
+            string(Flat.STRING, value.toString());
+        }
+        if (depth == 0) {
+            complete();
+        }
+    }
+
+    /**
+     * End the current map or list by writing the table of the positions of
+     * its children and filling in its size and the position of the table.
+     */
+    public void end() {
+        int container = containers[depth];
+        int base = bases[depth];
+        int entries = count - base;
+        ensure(entries * 4L);
+        byte tag = buffer.get(container);
+        buffer.putInt(container + 1, tag == Flat.MAP ? entries / 2 : entries);
+        buffer.putInt(container + (tag == Flat.SHAPED_MAP ? 9 : 5), position);
+        for (int i = base; i < count; i++) {
+            buffer.putInt(position, children[i]);
+            position += 4;
+        }
+        count = base;
+        if (--depth == 0) {
+            complete();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.goodworkalan.diffuse;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Type;
+
+/**
+ * Creates an object from its diffused string representation. Enums are
+ * created by name and classes by class name. Other types are created with a
+ * public static <code>valueOf</code> method that takes a string or a public
+ * constructor that takes a string. The counterpart of the
+ * {@link ToStringDiffuser}.
+ * 
+ * @author Alan Gutierrez
+ */
+public class FromStringInfuser implements ObjectInfuser {
+    /** The singleton instance of the from string infuser. */
+    public final static ObjectInfuser INSTANCE = new FromStringInfuser();
+
+    /** The type of a factory method handle. */
+    private final static MethodType FACTORY = MethodType.methodType(Object.class, String.class);
+
+    /** The cache of factory method handles for each class. */
+    private final static ClassValue<MethodHandle> FACTORIES = new ClassValue<MethodHandle>() {
+        protected MethodHandle computeValue(Class<?> type) {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            try {
+                return lookup.findStatic(type, "valueOf", MethodType.methodType(type, String.class)).asType(FACTORY);
+            } catch (NoSuchMethodException e) {
+            } catch (IllegalAccessException e) {
+            }
+            try {
+                return lookup.findConstructor(type, MethodType.methodType(void.class, String.class)).asType(FACTORY);
+            } catch (NoSuchMethodException e) {
+            } catch (IllegalAccessException e) {
+            }
+            return null;
+        }
+    };
+
+    /**
+     * Create an object of the given type from the string representation of
+     * the given diffused value.
+     * 
+     * @param infuser
+     *            The root infuser.
+     * @param diffused
+     *            The diffused string.
+     * @param type
+     *            The type of object to create.
+     * @return The created object.
+     * @exception IllegalArgumentException
+     *                If the object cannot be created from the string.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public Object infuse(Infuser infuser, Object diffused, Type type) {
+        Class<?> objectClass = Infuser.getRawClass(type);
+        if (objectClass.isInstance(diffused)) {
+            return diffused;
+        }
+        String string = diffused.toString();
+        try {
+            if (objectClass.isEnum()) {
+                return Enum.valueOf((Class<? extends Enum>) objectClass, string);
+            }
+            if (objectClass == Class.class) {
+                return Class.forName(string);
+            }
+        } catch (IllegalArgumentException e) {
+            throw Infuser.cannotInfuse(diffused, type, e);
+        } catch (ClassNotFoundException e) {
+            throw Infuser.cannotInfuse(diffused, type, e);
+        }
+        MethodHandle factory = FACTORIES.get(objectClass);
+        if (factory == null) {
+            throw Infuser.cannotInfuse(diffused, type, null);
+        }
+        try {
+            return (Object) factory.invokeExact(string);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw Infuser.cannotInfuse(diffused, type, e);
+        }
+    }
+}
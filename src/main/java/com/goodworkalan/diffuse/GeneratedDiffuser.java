@@ -0,0 +1,98 @@
+package com.goodworkalan.diffuse;
+
+/**
+ * The base class of the object diffusers generated by the
+ * {@link DiffusableProcessor} for classes annotated with {@link Diffusable}.
+ * A generated diffuser diffuses a bean exactly as the default bean diffuser
+ * does, but the properties of the bean are listed by the generated code and
+ * read by calling the public fields and getters of the bean directly, so the
+ * bean class is never introspected.
+ * <p>
+ * Generated diffusers are listed in the
+ * <code>META-INF/services/com.goodworkalan.diffuse.GeneratedDiffuser</code>
+ * resource and registered for their bean class by every new {@link Diffuser}.
+ * Subclasses of the bean class that are not themselves annotated are diffused
+ * with reflection.
+ * 
+ * @author Alan Gutierrez
+ */
+public abstract class GeneratedDiffuser extends BeanDiffuser {
+    /** The bean class. */
+    private final Class<?> type;
+
+    /** The property names in diffusion order. */
+    private final String[] names;
+
+    /** The declared property types in diffusion order. */
+    private final Class<?>[] types;
+
+    /**
+     * Create a generated diffuser for the given bean class with the given
+     * properties.
+     * 
+     * @param type
+     *            The bean class.
+     * @param names
+     *            The property names in diffusion order.
+     * @param types
+     *            The declared property types in diffusion order.
+     */
+    protected GeneratedDiffuser(Class<?> type, String[] names, Class<?>[] types) {
+        this.type = type;
+        this.names = names;
+        this.types = types;
+    }
+
+    /**
+     * Get the bean class.
+     * 
+     * @return The bean class.
+     */
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * Get the number of properties.
+     * 
+     * @return The number of properties.
+     */
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * Get the name of the property at the given index.
+     * 
+     * @param index
+     *            The property index.
+     * @return The property name.
+     */
+    String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * Get the declared type of the property at the given index.
+     * 
+     * @param index
+     *            The property index.
+     * @return The property type.
+     */
+    Class<?> getPropertyType(int index) {
+        return types[index];
+    }
+
+    /**
+     * Read the value of the property at the given index from the given bean.
+     * 
+     * @param bean
+     *            The bean.
+     * @param index
+     *            The property index.
+     * @return The property value.
+     * @exception Exception
+     *                If the getter throws an exception.
+     */
+    protected abstract Object get(Object bean, int index) throws Exception;
+}
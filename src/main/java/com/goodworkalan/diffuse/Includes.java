@@ -0,0 +1,246 @@
+package com.goodworkalan.diffuse;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable set of paths to include in a diffusion compiled into a tree
+ * of path segments. An instance of <code>Includes</code> is both the compiled
+ * set of include paths and a cursor into the set of include paths. Container
+ * diffusers walk the tree node by node as they descend the object graph, so
+ * that testing whether a member is included does not create a path string.
+ * <p>
+ * An include path is a dot separated path of field names, property names or
+ * map keys. The elements of arrays and collections are matched by an
+ * asterisk, so that the path <code>"widgets.*.owner"</code> includes the
+ * <code>owner</code> property of each element of the <code>widgets</code>
+ * collection. A container is included only if its own path is listed, so
+ * the <code>widgets</code> collection must be included by listing
+ * <code>"widgets"</code> as well, and the path <code>"widgets.*.owner"</code>
+ * alone includes nothing. The elements of an included array or collection
+ * are always included, so <code>"widgets.*"</code> need not be listed.
+ * <p>
+ * The special path <code>"*"</code> includes all paths. An
+ * <code>Includes</code> created without any paths includes no container
+ * members at all, producing a shallow diffusion.
+ * <p>
+ * Instances are immutable and can be compiled once and shared by any number
+ * of threads for any number of diffusions.
+ * 
+ * @author Alan Gutierrez
+ */
+public final class Includes {
+    /** Includes every path. */
+    public final static Includes ALL = new Includes(true, true, Collections.<String, Includes>emptyMap());
+
+    /** Includes no paths. */
+    public final static Includes NONE = new Includes(false, true, Collections.<String, Includes>emptyMap());
+
+    /** Whether all paths beneath this node are included. */
+    private final boolean all;
+
+    /** Whether the path of this node was listed. */
+    private final boolean listed;
+
+    /** The child nodes of this node indexed by path segment. */
+    private final Map<String, Includes> children;
+
+    /**
+     * Create an include tree node.
+     * 
+     * @param all
+     *            Whether all paths beneath this node are included.
+     * @param listed
+     *            Whether the path of this node was listed.
+     * @param children
+     *            The child nodes of this node.
+     */
+    private Includes(boolean all, boolean listed, Map<String, Includes> children) {
+        this.all = all;
+        this.listed = listed;
+        this.children = children;
+    }
+
+    /**
+     * Compile the given include paths.
+     * 
+     * @param paths
+     *            The dot separated paths to include.
+     */
+    public Includes(String... paths) {
+        Map<String, Object> tree = new HashMap<String, Object>();
+        boolean all = false;
+        for (String path : paths) {
+            if (path.equals("*")) {
+                all = true;
+            }
+            add(tree, path);
+        }
+        this.all = all;
+        this.listed = true;
+        this.children = all ? Collections.<String, Includes>emptyMap() : compile(tree);
+    }
+
+    /** The key that marks a node of the mutable tree whose path was listed. */
+    private final static String LISTED = "\0";
+
+    /**
+     * Add the given dot separated path to the given mutable tree of path
+     * segments, marking the node at the end of the path as listed.
+     * 
+     * @param tree
+     *            The mutable tree of path segments.
+     * @param path
+     *            The path to add.
+     */
+    @SuppressWarnings("unchecked")
+    private static void add(Map<String, Object> tree, String path) {
+        for (String segment : path.split("\\.")) {
+            Map<String, Object> child = (Map<String, Object>) tree.get(segment);
+            if (child == null) {
+                child = new HashMap<String, Object>();
+                tree.put(segment, child);
+            }
+            tree = child;
+        }
+        tree.put(LISTED, null);
+    }
+
+    /**
+     * Convert the given mutable tree of path segments into immutable include
+     * nodes.
+     * 
+     * @param tree
+     *            The mutable tree of path segments.
+     * @return A map of path segments to include nodes.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Includes> compile(Map<String, Object> tree) {
+        if (tree.size() == (tree.containsKey(LISTED) ? 1 : 0)) {
+            return Collections.emptyMap();
+        }
+        Map<String, Includes> children = new HashMap<String, Includes>();
+        for (Map.Entry<String, Object> entry : tree.entrySet()) {
+            if (!entry.getKey().equals(LISTED)) {
+                Map<String, Object> child = (Map<String, Object>) entry.getValue();
+                children.put(entry.getKey(), new Includes(false, child.containsKey(LISTED), compile(child)));
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Create a cursor from the path and set of includes given to the original
+     * form of the {@link ObjectDiffuser} diffuse method. An empty set of
+     * includes includes all paths. The cursor is positioned at the given dot
+     * separated path, and includes nothing if that path is not included.
+     * 
+     * @param path
+     *            The dot separated path of the object in the object graph.
+     * @param includes
+     *            The set of paths to include or an empty set to include all
+     *            paths.
+     * @return A cursor positioned at the given path.
+     */
+    static Includes fromPaths(CharSequence path, Set<String> includes) {
+        if (includes.isEmpty()) {
+            return ALL;
+        }
+        Includes cursor = new Includes(includes.toArray(new String[includes.size()]));
+        for (String segment : path.toString().split("\\.")) {
+            if (segment.length() != 0) {
+                cursor = cursor.all ? cursor : cursor.children.get(segment);
+                if (cursor == null) {
+                    return NONE;
+                }
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Create the set of include paths given to the original form of the
+     * {@link ObjectDiffuser} diffuse method from this include node, the
+     * inverse of {@link #fromPaths(CharSequence, Set)} for an object at the
+     * root path. An empty set includes all paths and a set containing only
+     * the path <code>"\0"</code> includes no paths.
+     * 
+     * @return The dot separated paths beneath this include node.
+     */
+    Set<String> toPaths() {
+        Set<String> paths = new HashSet<String>();
+        if (!all) {
+            toPaths(paths, "");
+            if (paths.isEmpty()) {
+                paths.add("\0");
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Add the listed dot separated paths beneath this include node to the
+     * given set, each prefixed by the given path.
+     * 
+     * @param paths
+     *            The set of paths.
+     * @param prefix
+     *            The path of this include node followed by a dot, or an
+     *            empty string for the root.
+     */
+    private void toPaths(Set<String> paths, String prefix) {
+        for (Map.Entry<String, Includes> entry : children.entrySet()) {
+            String path = prefix + entry.getKey();
+            if (entry.getValue().listed) {
+                paths.add(path);
+            }
+            entry.getValue().toPaths(paths, path + ".");
+        }
+    }
+
+    /**
+     * Get the include node for the member with the given name, or null if the
+     * member is not included because its path was not listed. The name of the
+     * member of an array or collection is an asterisk.
+     * 
+     * @param name
+     *            The field name, property name, map key or an asterisk.
+     * @return The include node for the member or null if the member is not
+     *         included.
+     */
+    public Includes get(String name) {
+        if (all) {
+            return this;
+        }
+        Includes child = children.get(name);
+        return child == null || !child.listed ? null : child;
+    }
+
+    /**
+     * Get the include node for the elements of an array or collection, the
+     * child node for the asterisk path segment, or {@link #NONE} if no
+     * members of the elements are included. Elements themselves are always
+     * included, since include paths cannot specify specific elements.
+     * 
+     * @return The include node for the elements of an array or collection.
+     */
+    public Includes getElements() {
+        if (all) {
+            return this;
+        }
+        Includes elements = children.get("*");
+        return elements == null ? NONE : elements;
+    }
+
+    /**
+     * Return true if every path beneath this node is included.
+     * 
+     * @return True if all paths are included.
+     */
+    public boolean isAll() {
+        return all;
+    }
+}
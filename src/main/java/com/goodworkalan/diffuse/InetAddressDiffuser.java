@@ -0,0 +1,41 @@
+package com.goodworkalan.diffuse;
+
+import java.net.InetAddress;
+
+/**
+ * Convert an internet address into a string by calling its
+ * <code>getHostAddress</code> method, the literal IP address. The host name
+ * is never included, so diffusing an address never performs a reverse name
+ * lookup and the diffused form does not depend on how the address was
+ * created.
+ *
+ * @author Alan Gutierrez
+ */
+public class InetAddressDiffuser implements ObjectDiffuser {
+    /** The singleton instance of the internet address diffuser. */
+    public final static ObjectDiffuser INSTANCE = new InetAddressDiffuser();
+
+    /**
+     * Diffuse the given internet address by emitting its literal IP address as
+     * a scalar.
+     *
+     * @param diffusion
+     *            The state of the diffusion.
+     * @param object
+     *            The internet address to diffuse.
+     * @param includes
+     *            The include node for the object in the object graph.
+     */
+    public void diffuse(Diffusion diffusion, Object object, Includes includes) {
+        diffusion.scalar(((InetAddress) object).getHostAddress());
+    }
+
+    /**
+     * Return false indicating that this is a diffuser for a scalar object.
+     *
+     * @return False to indicate that this is a scalar diffuser.
+     */
+    public boolean isContainer() {
+        return false;
+    }
+}
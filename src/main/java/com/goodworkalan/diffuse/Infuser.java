@@ -0,0 +1,282 @@
+package com.goodworkalan.diffuse;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.net.URI;
+import java.net.URL;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.goodworkalan.utility.ClassAssociation;
+
+/**
+ * Converts a diffused object graph of maps, lists and scalars back into typed
+ * beans, collections, maps and arrays. The counterpart of {@link Diffuser}.
+ * <p>
+ * An infuser maps classes to the {@link ObjectInfuser} instances that create
+ * objects of those classes, using the same class hierarchy search as the
+ * <code>Diffuser</code>. The default object infuser for
+ * <code>java.lang.Object</code> creates a bean and sets its properties from the
+ * entries of a diffused map.
+ * <p>
+ * The constructor, setter methods and public fields of a bean class, and the
+ * object infusers for their declared types, are compiled into a plan the first
+ * time an instance of the bean class is infused. Plans and the object
+ * infusers resolved for each class are cached and reused by subsequent
+ * infusions, and discarded every time the
+ * {@link #setConverter(Class, ObjectInfuser) setConverter} method is called.
+ * An infuser can be shared by any number of threads.
+ * 
+ * @author Alan Gutierrez
+ */
+public class Infuser {
+    /** The mapping of classes to their object infusers. */
+    private final ClassAssociation<ObjectInfuser> associations;
+
+    /**
+     * The cache of object infusers resolved for each class, replaced with an
+     * empty cache when the object infuser mappings change.
+     */
+    private volatile ConcurrentMap<Class<?>, ObjectInfuser> dispatch = new ConcurrentHashMap<Class<?>, ObjectInfuser>();
+
+    /**
+     * The cache of bean infusion plans, replaced with an empty cache when the
+     * object infuser mappings change.
+     */
+    private volatile ConcurrentMap<Class<?>, InfusionPlan> plans = new ConcurrentHashMap<Class<?>, InfusionPlan>();
+
+    /**
+     * Create an infuser with object infusers for the types diffused by the
+     * default <code>Diffuser</code>.
+     */
+    public Infuser() {
+        associations = new ClassAssociation<ObjectInfuser>();
+        associations.assignable(Byte.class, ScalarInfuser.INSTANCE);
+        associations.assignable(Boolean.class, ScalarInfuser.INSTANCE);
+        associations.assignable(Short.class, ScalarInfuser.INSTANCE);
+        associations.assignable(Character.class, ScalarInfuser.INSTANCE);
+        associations.assignable(Integer.class, ScalarInfuser.INSTANCE);
+        associations.assignable(Long.class, ScalarInfuser.INSTANCE);
+        associations.assignable(Float.class, ScalarInfuser.INSTANCE);
+        associations.assignable(Double.class, ScalarInfuser.INSTANCE);
+        associations.assignable(String.class, ScalarInfuser.INSTANCE);
+        associations.assignable(Object.class, BeanInfuser.INSTANCE);
+        associations.assignable(Map.class, MapInfuser.INSTANCE);
+        associations.assignable(Collection.class, CollectionInfuser.INSTANCE);
+        associations.assignable(File.class, FromStringInfuser.INSTANCE);
+        associations.assignable(URL.class, FromStringInfuser.INSTANCE);
+        associations.assignable(URI.class, FromStringInfuser.INSTANCE);
+        associations.assignable(Class.class, FromStringInfuser.INSTANCE);
+        associations.assignable(Enum.class, FromStringInfuser.INSTANCE);
+        associations.assignable(Date.class, DateInfuser.INSTANCE);
+        associations.assignable(Instant.class, DateInfuser.INSTANCE);
+        associations.assignable(LocalDateTime.class, DateInfuser.INSTANCE);
+        associations.assignable(ZonedDateTime.class, DateInfuser.INSTANCE);
+    }
+
+    /**
+     * Create a copy of the given infuser.
+     * 
+     * @param infuser
+     *            The infuser to copy.
+     */
+    public Infuser(Infuser infuser) {
+        associations = new ClassAssociation<ObjectInfuser>(infuser.associations);
+    }
+
+    /**
+     * Assign the given object infuser to the given object type, discarding
+     * the cached object infusers and bean plans.
+     * 
+     * @param type
+     *            The object type.
+     * @param infuser
+     *            The object infuser.
+     */
+    public void setConverter(Class<?> type, ObjectInfuser infuser) {
+        associations.assignable(type, infuser);
+        dispatch = new ConcurrentHashMap<Class<?>, ObjectInfuser>();
+        plans = new ConcurrentHashMap<Class<?>, InfusionPlan>();
+    }
+
+    /**
+     * Assign an object infuser that creates objects of the given type from
+     * their string representation, using a static <code>valueOf</code> method
+     * or a constructor that takes a single string. The counterpart of
+     * {@link Diffuser#toString(Class)}.
+     * 
+     * @param fromStringClass
+     *            The object type.
+     */
+    public void fromString(Class<?> fromStringClass) {
+        setConverter(fromStringClass, FromStringInfuser.INSTANCE);
+    }
+
+    /**
+     * Get the object infuser for the given object type. The object infuser is
+     * resolved once for each type and cached.
+     * 
+     * @param type
+     *            The object type.
+     * @return The object infuser.
+     */
+    public ObjectInfuser getInfuser(Class<?> type) {
+        ConcurrentMap<Class<?>, ObjectInfuser> dispatch = this.dispatch;
+        ObjectInfuser infuser = dispatch.get(type);
+        if (infuser == null) {
+            if (type.isArray()) {
+                infuser = ArrayInfuser.INSTANCE;
+            } else if (type.isPrimitive()) {
+                infuser = ScalarInfuser.INSTANCE;
+            } else {
+                infuser = associations.get(type);
+            }
+            dispatch.putIfAbsent(type, infuser);
+        }
+        return infuser;
+    }
+
+    /**
+     * Get the infusion plan for the given bean class, creating and caching it
+     * if necessary.
+     * 
+     * @param beanClass
+     *            The bean class.
+     * @return The infusion plan for the bean class.
+     */
+    InfusionPlan getPlan(Class<?> beanClass) {
+        ConcurrentMap<Class<?>, InfusionPlan> plans = this.plans;
+        InfusionPlan plan = plans.get(beanClass);
+        if (plan == null) {
+            plan = new InfusionPlan(this, beanClass);
+            InfusionPlan existing = plans.putIfAbsent(beanClass, plan);
+            if (existing != null) {
+                plan = existing;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Infuse the given diffused object graph, converting it into an object of
+     * the given class.
+     * 
+     * @param <T>
+     *            The type of object to create.
+     * @param diffused
+     *            The diffused map, list or scalar.
+     * @param type
+     *            The class of object to create.
+     * @return An object of the given class or null if the diffused value is
+     *         null.
+     * @exception IllegalArgumentException
+     *                If the diffused object graph cannot be converted.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T infuse(Object diffused, Class<T> type) {
+        return (T) infuse(diffused, (Type) type);
+    }
+
+    /**
+     * Infuse the given diffused object graph, converting it into an object of
+     * the given type. Collections and maps are created with members of the
+     * type arguments of a parameterized type. If the type is
+     * <code>Object</code>, the diffused value is returned as is.
+     * 
+     * @param diffused
+     *            The diffused map, list or scalar.
+     * @param type
+     *            The type of object to create, a class or a parameterized
+     *            type.
+     * @return An object of the given type or null if the diffused value is
+     *         null.
+     * @exception IllegalArgumentException
+     *                If the diffused object graph cannot be converted.
+     */
+    public Object infuse(Object diffused, Type type) {
+        if (diffused == null) {
+            return null;
+        }
+        Class<?> rawClass = getRawClass(type);
+        if (rawClass == Object.class) {
+            return diffused;
+        }
+        return getInfuser(rawClass).infuse(this, diffused, type);
+    }
+
+    /**
+     * Get the class of the given type, the raw class of a parameterized type
+     * or the upper bound of a wildcard or type variable.
+     * 
+     * @param type
+     *            The type.
+     * @return The class of the type.
+     */
+    static Class<?> getRawClass(Type type) {
+        if (type instanceof Class<?>) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return getRawClass(((ParameterizedType) type).getRawType());
+        }
+        if (type instanceof GenericArrayType) {
+            return Array.newInstance(getRawClass(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        }
+        if (type instanceof WildcardType) {
+            return getRawClass(((WildcardType) type).getUpperBounds()[0]);
+        }
+        if (type instanceof TypeVariable<?>) {
+            return getRawClass(((TypeVariable<?>) type).getBounds()[0]);
+        }
+        return Object.class;
+    }
+
+    /**
+     * Get the type argument at the given index of the given type if it is a
+     * parameterized type, otherwise <code>Object</code>.
+     * 
+     * @param type
+     *            The type.
+     * @param index
+     *            The index of the type argument.
+     * @return The type argument or <code>Object</code>.
+     */
+    static Type getTypeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (index < arguments.length) {
+                return arguments[index];
+            }
+        }
+        return Object.class;
+    }
+
+    /**
+     * Create an exception for a diffused value that cannot be converted to the
+     * given type.
+     * 
+     * @param diffused
+     *            The diffused value.
+     * @param type
+     *            The type.
+     * @param cause
+     *            The cause or null.
+     * @return An exception to throw.
+     */
+    static IllegalArgumentException cannotInfuse(Object diffused, Type type, Throwable cause) {
+        return new IllegalArgumentException(String.format(
+                "\n\tUnable to infuse value.\n" +
+                "\t\tType: [%s]\n\t\tValue Class: [%s]", type, diffused.getClass()), cause);
+    }
+}
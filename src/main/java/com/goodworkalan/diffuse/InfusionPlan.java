@@ -0,0 +1,221 @@
+package com.goodworkalan.diffuse;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A compiled plan for the infusion of the instances of a class. The plan
+ * records how to construct an instance and the writable properties of the
+ * class, setter methods and public fields, along with the object infuser for
+ * the declared type of each property, so that the class does not have to be
+ * introspected each time an instance is infused.
+ * <p>
+ * An instance is created with the public no argument constructor if there is
+ * one. Otherwise, it is created with the public constructor with the most
+ * parameters whose parameter names were retained by the compiler, passing the
+ * diffused entries with the same names as the parameters. Parameter names are
+ * retained when a class is compiled with the <code>-parameters</code> option.
+ * <p>
+ * Plans are immutable. A plan is created and cached by an {@link Infuser} the
+ * first time an instance of the class is infused and discarded when the
+ * object infuser mappings of the <code>Infuser</code> change.
+ * 
+ * @author Alan Gutierrez
+ */
+class InfusionPlan {
+    /** The type of a constructor method handle. */
+    private final static MethodType CONSTRUCTOR = MethodType.methodType(Object.class, Object[].class);
+
+    /** The class. */
+    private final Class<?> beanClass;
+
+    /**
+     * The method handle that creates an instance from an array of constructor
+     * arguments, or null if the class cannot be constructed.
+     */
+    private final MethodHandle constructor;
+
+    /** The reflective constructor, used if there is no method handle. */
+    private final Constructor<?> reflective;
+
+    /** The names of the constructor parameters. */
+    private final String[] parameterNames;
+
+    /** The generic types of the constructor parameters. */
+    private final Type[] parameterTypes;
+
+    /** The writable properties indexed by name. */
+    private final Map<String, InfusionProperty> properties;
+
+    /**
+     * Create a plan for the given class resolving the object infusers for the
+     * properties with the given infuser.
+     * 
+     * @param infuser
+     *            The object infuser provider.
+     * @param beanClass
+     *            The class.
+     */
+    public InfusionPlan(Infuser infuser, Class<?> beanClass) {
+        Constructor<?> chosen = null;
+        for (Constructor<?> candidate : beanClass.getConstructors()) {
+            if (candidate.getParameterCount() == 0) {
+                chosen = candidate;
+                break;
+            }
+            if (isNamed(candidate) && (chosen == null || candidate.getParameterCount() > chosen.getParameterCount())) {
+                chosen = candidate;
+            }
+        }
+        if (chosen == null && !Modifier.isAbstract(beanClass.getModifiers())) {
+            try {
+                chosen = beanClass.getDeclaredConstructor();
+            } catch (NoSuchMethodException e) {
+                // The class cannot be constructed.
+            }
+        }
+        MethodHandle constructor = null;
+        String[] parameterNames = new String[0];
+        Type[] parameterTypes = new Type[0];
+        if (chosen != null) {
+            try {
+                constructor = MethodHandles.publicLookup().unreflectConstructor(chosen).asSpreader(Object[].class, chosen.getParameterCount()).asType(CONSTRUCTOR);
+            } catch (IllegalAccessException e) {
+                // Fall back to reflection.
+            }
+            Parameter[] parameters = chosen.getParameters();
+            parameterNames = new String[parameters.length];
+            parameterTypes = chosen.getGenericParameterTypes();
+            for (int i = 0; i < parameters.length; i++) {
+                parameterNames[i] = parameters[i].getName();
+            }
+        }
+        Map<String, InfusionProperty> properties = new HashMap<String, InfusionProperty>();
+        for (Field field : beanClass.getFields()) {
+            int modifiers = field.getModifiers();
+            if (!Modifier.isStatic(modifiers) && !Modifier.isFinal(modifiers)) {
+                properties.put(field.getName(), new InfusionProperty(infuser, field.getName(), field));
+            }
+        }
+        for (Method method : beanClass.getMethods()) {
+            String name = method.getName();
+            if (name.length() > 3 && name.startsWith("set") && method.getParameterCount() == 1 && !Modifier.isStatic(method.getModifiers())) {
+                String property = Character.toLowerCase(name.charAt(3)) + name.substring(4);
+                properties.put(property, new InfusionProperty(infuser, property, method));
+            }
+        }
+        this.beanClass = beanClass;
+        this.constructor = constructor;
+        this.reflective = constructor == null ? chosen : null;
+        this.parameterNames = parameterNames;
+        this.parameterTypes = parameterTypes;
+        this.properties = properties;
+    }
+
+    /**
+     * Return true if the parameter names of the given constructor were
+     * retained by the compiler.
+     * 
+     * @param constructor
+     *            The constructor.
+     * @return True if the parameters are named.
+     */
+    private static boolean isNamed(Constructor<?> constructor) {
+        for (Parameter parameter : constructor.getParameters()) {
+            if (!parameter.isNamePresent()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the class.
+     * 
+     * @return The class.
+     */
+    public Class<?> getBeanClass() {
+        return beanClass;
+    }
+
+    /**
+     * Get the names of the constructor parameters.
+     * 
+     * @return The constructor parameter names.
+     */
+    public String[] getParameterNames() {
+        return parameterNames;
+    }
+
+    /**
+     * Get the generic types of the constructor parameters.
+     * 
+     * @return The constructor parameter types.
+     */
+    public Type[] getParameterTypes() {
+        return parameterTypes;
+    }
+
+    /**
+     * Get the writable property with the given name.
+     * 
+     * @param name
+     *            The property name.
+     * @return The property or null if there is no writable property with the
+     *         name.
+     */
+    public InfusionProperty get(String name) {
+        return properties.get(name);
+    }
+
+    /**
+     * Create an instance of the class with the given constructor arguments.
+     * 
+     * @param arguments
+     *            The constructor arguments, one for each parameter name.
+     * @return A new instance.
+     * @exception IllegalArgumentException
+     *                If the class cannot be constructed.
+     */
+    public Object newInstance(Object... arguments) {
+        try {
+            if (constructor != null) {
+                return (Object) constructor.invokeExact(arguments);
+            }
+            if (reflective != null) {
+                reflective.setAccessible(true);
+                return reflective.newInstance(arguments);
+            }
+        } catch (Error e) {
+            throw e;
+        } catch (InvocationTargetException e) {
+            throw cannotConstruct(e.getCause());
+        } catch (Throwable e) {
+            throw cannotConstruct(e);
+        }
+        throw cannotConstruct(null);
+    }
+
+    /**
+     * Create an exception for a class that cannot be constructed.
+     * 
+     * @param cause
+     *            The cause or null.
+     * @return An exception to throw.
+     */
+    private IllegalArgumentException cannotConstruct(Throwable cause) {
+        return new IllegalArgumentException(String.format(
+                "\n\tUnable to construct bean.\n" +
+                "\t\tClass: [%s]", beanClass), cause);
+    }
+}
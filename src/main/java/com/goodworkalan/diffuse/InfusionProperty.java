@@ -0,0 +1,173 @@
+package com.goodworkalan.diffuse;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+
+/**
+ * A writable property of a bean class as it appears in an
+ * {@link InfusionPlan}, a setter method or a public field, with the object
+ * infuser for the declared property type resolved in advance.
+ * <p>
+ * The property value is written with a method handle obtained from the setter
+ * method or public field. If a method handle cannot be obtained, because the
+ * bean class is not publicly accessible, the property value is written
+ * reflectively.
+ * 
+ * @author Alan Gutierrez
+ */
+class InfusionProperty {
+    /** The type of a property mutator method handle. */
+    private final static MethodType MUTATOR = MethodType.methodType(void.class, Object.class, Object.class);
+
+    /** The property name. */
+    private final String name;
+
+    /** The setter method or field. */
+    private final Member member;
+
+    /** The generic property type. */
+    private final Type type;
+
+    /** The property class. */
+    private final Class<?> propertyClass;
+
+    /**
+     * The method handle used to write the property value or null if the
+     * property is written reflectively.
+     */
+    private final MethodHandle handle;
+
+    /** The object infuser for the declared property type. */
+    private final ObjectInfuser infuser;
+
+    /**
+     * Create a property written with the given setter method or field.
+     * 
+     * @param infuser
+     *            The root infuser used to resolve the object infuser.
+     * @param name
+     *            The property name.
+     * @param member
+     *            The setter method or field.
+     */
+    public InfusionProperty(Infuser infuser, String name, Member member) {
+        this.name = name;
+        this.member = member;
+        if (member instanceof Method) {
+            this.type = ((Method) member).getGenericParameterTypes()[0];
+            this.propertyClass = ((Method) member).getParameterTypes()[0];
+        } else {
+            this.type = ((Field) member).getGenericType();
+            this.propertyClass = ((Field) member).getType();
+        }
+        this.handle = mutator(member);
+        this.infuser = infuser.getInfuser(propertyClass);
+    }
+
+    /**
+     * Create a method handle that writes the value of the given setter method
+     * or field, adapted to take an <code>Object</code> bean and value.
+     * Returns null if the member is not publicly accessible.
+     * 
+     * @param member
+     *            The setter method or field.
+     * @return A method handle or null if one cannot be created.
+     */
+    private static MethodHandle mutator(Member member) {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        try {
+            if (member instanceof Method) {
+                return lookup.unreflect((Method) member).asType(MUTATOR);
+            }
+            return lookup.unreflectSetter((Field) member).asType(MUTATOR);
+        } catch (IllegalAccessException e) {
+            // Fall back to reflection.
+        }
+        return null;
+    }
+
+    /**
+     * Get the property name.
+     * 
+     * @return The property name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the generic property type.
+     * 
+     * @return The property type.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get the property class.
+     * 
+     * @return The property class.
+     */
+    public Class<?> getPropertyClass() {
+        return propertyClass;
+    }
+
+    /**
+     * Get the object infuser for the declared property type.
+     * 
+     * @return The object infuser.
+     */
+    public ObjectInfuser getInfuser() {
+        return infuser;
+    }
+
+    /**
+     * Return true if the property value is written with a method handle
+     * instead of reflection.
+     * 
+     * @return True if the property is written with a method handle.
+     */
+    public boolean isDirect() {
+        return handle != null;
+    }
+
+    /**
+     * Write the given value to the property of the given bean. An exception
+     * thrown by the bean setter method is wrapped in an
+     * <code>InvocationTargetException</code>, the same as when it is invoked
+     * reflectively.
+     * 
+     * @param bean
+     *            The bean.
+     * @param value
+     *            The property value.
+     * @exception Exception
+     *                If the property cannot be written.
+     */
+    public void set(Object bean, Object value) throws Exception {
+        if (handle == null) {
+            ((AccessibleObject) member).setAccessible(true);
+            if (member instanceof Method) {
+                ((Method) member).invoke(bean, value);
+            } else {
+                ((Field) member).set(bean, value);
+            }
+            return;
+        }
+        try {
+            handle.invokeExact(bean, value);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.goodworkalan.diffuse;
+
+import java.lang.reflect.Type;
+
+/**
+ * A diffusion sink that infuses the diffused object graph it receives into an
+ * object of a given type. Diffusing an object into an infusion sink creates a
+ * deep copy of the object, or a copy of a different type with the same
+ * properties, without the caller handling the intermediate tree.
+ * <p>
+ * An infusion sink is not streaming. It builds the entire diffused object
+ * graph as a tree of maps and lists, as a {@link TreeSink} does, and infuses
+ * the tree when {@link #getInfused()} is called, so it costs as much memory
+ * as a diffusion followed by an infusion.
+ * <p>
+ * An infusion sink is used for a single diffusion and is not thread-safe.
+ * 
+ * @param <T>
+ *            The type of object to infuse.
+ * 
+ * @author Alan Gutierrez
+ */
+public class InfusionSink<T> extends TreeSink {
+    /** The infuser. */
+    private final Infuser infuser;
+
+    /** The type of object to infuse. */
+    private final Type type;
+
+    /**
+     * Create an infusion sink that infuses objects of the given class.
+     * 
+     * @param infuser
+     *            The infuser.
+     * @param type
+     *            The class of object to infuse.
+     */
+    public InfusionSink(Infuser infuser, Class<T> type) {
+        this.infuser = infuser;
+        this.type = type;
+    }
+
+    /**
+     * Infuse the diffused object graph received by this sink.
+     * 
+     * @return The infused object or null if the diffused object was null.
+     * @exception IllegalArgumentException
+     *                If the diffused object graph cannot be converted.
+     */
+    @SuppressWarnings("unchecked")
+    public T getInfused() {
+        return (T) infuser.infuse(getTree(), type);
+    }
+}
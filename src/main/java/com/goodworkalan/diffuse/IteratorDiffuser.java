@@ -0,0 +1,158 @@
+package com.goodworkalan.diffuse;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.BaseStream;
+
+/**
+ * Converts an iterator, an iterable or a stream into a list, consuming its
+ * elements one at a time as they are diffused.
+ * <p>
+ * The elements are never gathered into an intermediate collection, so when
+ * the diffused object graph is emitted to a sink that writes it, such as a
+ * {@link JsonWriter} or a {@link BinaryWriter}, a source of any number of
+ * elements, such as a stream backed by a database cursor, is diffused in
+ * memory that does not grow with the number of elements.
+ * <p>
+ * An iterator or a stream can be consumed only once, so diffusing it a second
+ * time produces an empty list. A stream is closed once all of its elements
+ * have been consumed or if diffusing an element fails, releasing a cursor or
+ * file behind it. A stream that is truncated by a budget is left open for its
+ * owner to close.
+ * <p>
+ * Iterators and streams are assigned to the iterator diffuser by default,
+ * but iterables are not, since some, such as <code>SQLException</code>,
+ * iterate themselves, and others are beans that happen to be iterable. An
+ * iterator diffuser can be assigned to a specific iterable class with
+ * {@link Diffuser#setConverter(Class, ObjectDiffuser) setConverter}. A
+ * collection is always diffused by the collection diffuser.
+ *
+ * @author Alan Gutierrez
+ */
+public class IteratorDiffuser implements ObjectDiffuser, LazyDiffuser {
+    /** The singleton iterator diffuser instance. */
+    public final static ObjectDiffuser INSTANCE = new IteratorDiffuser();
+
+    /**
+     * Get an iterator over the elements of the given iterator, iterable or
+     * stream.
+     *
+     * @param object
+     *            The iterator, iterable or stream.
+     * @return An iterator over its elements.
+     */
+    private static Iterator<?> iterator(Object object) {
+        if (object instanceof Iterator<?>) {
+            return (Iterator<?>) object;
+        }
+        if (object instanceof BaseStream<?, ?>) {
+            return ((BaseStream<?, ?>) object).iterator();
+        }
+        return ((Iterable<?>) object).iterator();
+    }
+
+    /**
+     * Convert the given iterator, iterable or stream into a list by emitting
+     * a list to the sink of the given <code>diffusion</code> and diffusing each
+     * element as it is consumed.
+     * <p>
+     * The elements are diffused with the child include node for the asterisk
+     * path segment, as are the elements of a collection. The number of
+     * elements is not known in advance, so the elements are never diffused in
+     * parallel, and when the budget of the diffusion truncates the list, the
+     * remaining elements are not consumed and the number of elided elements
+     * is given as -1.
+     * <p>
+     * A stream is closed once its elements have all been consumed or if
+     * diffusing an element fails, so that a stream backed by a cursor is not
+     * leaked. A stream truncated by the budget is left open.
+     *
+     * @param diffusion
+     *            The state of the diffusion.
+     * @param object
+     *            The iterator, iterable or stream to diffuse.
+     * @param includes
+     *            The include node for the object in the object graph.
+     */
+    public void diffuse(Diffusion diffusion, Object object, Includes includes) {
+        if (object instanceof Collection<?>) {
+            CollectionDiffuser.INSTANCE.diffuse(diffusion, object, includes);
+            return;
+        }
+        DiffusionSink sink = diffusion.getSink();
+        Includes elements = includes.getElements();
+        Iterator<?> iterator = iterator(object);
+        boolean truncated = false;
+        try {
+            sink.startList();
+            int index = 0;
+            while (iterator.hasNext()) {
+                if (diffusion.isTruncated(index)) {
+                    diffusion.elideElements(-1);
+                    truncated = true;
+                    break;
+                }
+                diffusion.diffuse(iterator.next(), elements);
+                index++;
+            }
+            sink.end();
+        } finally {
+            if (!truncated) {
+                close(object);
+            }
+        }
+    }
+
+    /**
+     * Close the given object if it is a stream.
+     *
+     * @param object
+     *            The iterator, iterable or stream.
+     */
+    private static void close(Object object) {
+        if (object instanceof BaseStream<?, ?>) {
+            ((BaseStream<?, ?>) object).close();
+        }
+    }
+
+    /**
+     * Consume the elements of the given iterator, iterable or stream into a
+     * lazy list view whose elements are diffused when they are first
+     * accessed. Unlike an eager diffusion, the lazy list view holds every
+     * element.
+     *
+     * @param diffuser
+     *            The root diffuser.
+     * @param object
+     *            The iterator, iterable or stream to diffuse.
+     * @param includes
+     *            The include node for the object in the object graph.
+     * @return A lazy list view.
+     */
+    public Object lazy(Diffuser diffuser, Object object, Includes includes) {
+        if (object instanceof Collection<?>) {
+            return ((LazyDiffuser) CollectionDiffuser.INSTANCE).lazy(diffuser, object, includes);
+        }
+        List<Object> list = new ArrayList<Object>();
+        try {
+            for (Iterator<?> iterator = iterator(object); iterator.hasNext();) {
+                list.add(iterator.next());
+            }
+        } finally {
+            close(object);
+        }
+        return new LazyList(diffuser, list.toArray(), includes.getElements());
+    }
+
+    /**
+     * Return true indicating that this diffuser converts an object that is a
+     * container for other objects.
+     *
+     * @return True to indicate that this is a container diffuser.
+     */
+    public boolean isContainer() {
+        return true;
+    }
+}
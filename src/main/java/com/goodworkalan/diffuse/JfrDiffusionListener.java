@@ -0,0 +1,164 @@
+package com.goodworkalan.diffuse;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A diffusion listener that emits Java Flight Recorder events, so that
+ * diffusion can be profiled in production. A
+ * <code>com.goodworkalan.diffuse.Diffusion</code> event is emitted for each
+ * diffusion. A <code>com.goodworkalan.diffuse.Object</code> event is emitted
+ * for each object diffused, but that event is disabled by default and must be
+ * enabled in the recording settings.
+ * <p>
+ * Each event is begun when the listener is told that the work is beginning
+ * and ended when the listener is told that the work has completed, so that
+ * the start time and duration of the event are those of the work measured by
+ * the flight recorder clock. The events begun and not yet ended are kept in a
+ * stack for each thread. No object event is created while object events are
+ * disabled.
+ * <p>
+ * Requires a Java runtime with the <code>jdk.jfr</code> module.
+ * 
+ * @author Alan Gutierrez
+ */
+public class JfrDiffusionListener implements DiffusionListener {
+    /** The event emitted for each diffusion. */
+    @Name("com.goodworkalan.diffuse.Diffusion")
+    @Label("Diffusion")
+    @Category("Diffuse")
+    @Description("The diffusion of an object graph.")
+    @StackTrace(false)
+    public final static class DiffusionEvent extends Event {
+        /** The class of the root object. */
+        @Label("Root Class")
+        public Class<?> type;
+
+        /** The number of objects diffused. */
+        @Label("Nodes")
+        public long nodes;
+
+        /** The maximum depth of the diffused objects. */
+        @Label("Depth")
+        public int depth;
+    }
+
+    /** The event emitted for each object diffused. */
+    @Name("com.goodworkalan.diffuse.Object")
+    @Label("Object Diffusion")
+    @Category("Diffuse")
+    @Description("The diffusion of an object in an object graph.")
+    @Enabled(false)
+    @StackTrace(false)
+    public final static class ObjectEvent extends Event {
+        /** The class of the object. */
+        @Label("Class")
+        public Class<?> type;
+
+        /** The class of the object diffuser. */
+        @Label("Object Diffuser")
+        public Class<?> diffuser;
+
+        /** The number of elements or entries or -1. */
+        @Label("Size")
+        public int size;
+    }
+
+    /** The object events begun and not yet ended by the current thread. */
+    private final ThreadLocal<Deque<ObjectEvent>> objects = ThreadLocal.withInitial(ArrayDeque::new);
+
+    /** The diffusion events begun and not yet ended by the current thread. */
+    private final ThreadLocal<Deque<DiffusionEvent>> diffusions = ThreadLocal.withInitial(ArrayDeque::new);
+
+    /**
+     * An object event that is never committed, used to test whether object
+     * events are enabled without creating an event for each object.
+     */
+    private final static ObjectEvent PROBE = new ObjectEvent();
+
+    /**
+     * Begin an object event if object events are enabled, otherwise do
+     * nothing.
+     */
+    public void beginObject() {
+        if (PROBE.isEnabled()) {
+            ObjectEvent event = new ObjectEvent();
+            event.begin();
+            objects.get().push(event);
+        }
+    }
+
+    /**
+     * End the object event begun for the object and emit it if object events
+     * are enabled. If object events were disabled when the object was begun,
+     * there is no event to end. If object events were enabled or disabled
+     * while the object was diffused, an event begun for an enclosing object
+     * may be ended early, but it is emitted only if object events are still
+     * enabled.
+     * 
+     * @param type
+     *            The class of the object.
+     * @param diffuser
+     *            The object diffuser that diffused the object.
+     * @param elapsed
+     *            The time spent diffusing the object in nanoseconds, which is
+     *            ignored in favor of the duration of the event.
+     * @param size
+     *            The number of elements or entries or -1.
+     */
+    public void object(Class<?> type, ObjectDiffuser diffuser, long elapsed, int size) {
+        Deque<ObjectEvent> stack = objects.get();
+        if (stack.isEmpty()) {
+            return;
+        }
+        ObjectEvent event = stack.pop();
+        event.end();
+        if (event.shouldCommit()) {
+            event.type = type;
+            event.diffuser = diffuser.getClass();
+            event.size = size;
+            event.commit();
+        }
+    }
+
+    /**
+     * Begin a diffusion event.
+     */
+    public void beginDiffusion() {
+        DiffusionEvent event = new DiffusionEvent();
+        event.begin();
+        diffusions.get().push(event);
+    }
+
+    /**
+     * End the diffusion event begun for the diffusion and emit it.
+     * 
+     * @param type
+     *            The class of the root object or null.
+     * @param elapsed
+     *            The time spent diffusing the object graph in nanoseconds,
+     *            which is ignored in favor of the duration of the event.
+     * @param nodes
+     *            The number of objects diffused.
+     * @param depth
+     *            The maximum depth of the diffused objects.
+     */
+    public void diffusion(Class<?> type, long elapsed, long nodes, int depth) {
+        DiffusionEvent event = diffusions.get().pop();
+        event.end();
+        if (event.shouldCommit()) {
+            event.type = type;
+            event.nodes = nodes;
+            event.depth = depth;
+            event.commit();
+        }
+    }
+}
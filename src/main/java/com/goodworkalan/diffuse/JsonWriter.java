@@ -0,0 +1,338 @@
+package com.goodworkalan.diffuse;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * A diffusion sink that writes a diffused object graph as UTF-8 encoded JSON
+ * directly to an <code>OutputStream</code>, a
+ * <code>WritableByteChannel</code> or a <code>ByteBuffer</code>, without
+ * building the diffused object graph as a tree of maps and lists. The object
+ * graph is diffused with the object diffusers, converters and include paths
+ * of the given {@link Diffuser}, so the JSON is the same as the JSON of the
+ * tree returned by {@link Diffuser#diffuse(Object, Includes)}.
+ * <p>
+ * When the diffuser has a {@link CyclePolicy}, a container that appears more
+ * than once is written in full only at its first appearance. Each later
+ * appearance is written as an object with a single member named
+ * <code>"$shared"</code> whose value is the index of the first appearance,
+ * the number of JSON objects and arrays that begin before it in the document,
+ * not counting these references.
+ * <p>
+ * The scratch buffer and the nesting state are reused from one write to the
+ * next, so a JSON writer that is reused allocates very little once it has
+ * warmed up. A JSON writer is not thread-safe. Each thread should have its
+ * own JSON writer.
+ * 
+ * @author Alan Gutierrez
+ */
+public class JsonWriter extends ByteSink {
+    /** The hexadecimal digits used to write unicode escapes. */
+    private final static byte[] HEX = "0123456789abcdef".getBytes();
+
+    /** The minimum long value, which cannot be negated. */
+    private final static byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes();
+
+    /** Whether the container at each depth is a list. */
+    private boolean[] lists = new boolean[16];
+
+    /** Whether the container at each depth has yet to receive a member. */
+    private boolean[] empty = new boolean[16];
+
+    /** The depth of the current container, zero at the root. */
+    private int depth;
+
+    /** The number of JSON objects and arrays started in the document. */
+    private int started;
+
+    /** Scratch space for the digits of a long. */
+    private final byte[] digits = new byte[20];
+
+    /** Create a JSON writer with a scratch buffer of 8k. */
+    public JsonWriter() {
+        this(8192);
+    }
+
+    /**
+     * Create a JSON writer with a scratch buffer of the given size.
+     * 
+     * @param bufferSize
+     *            The size of the scratch buffer.
+     */
+    public JsonWriter(int bufferSize) {
+        super(bufferSize);
+        start();
+    }
+
+    /**
+     * Create a JSON writer with a scratch buffer of 8k that writes the events
+     * it receives directly to the given output stream, so that it can be
+     * given to {@link Diffuser#diffuse(Object, Includes, DiffusionSink)}.
+     * Each document ends with a call to {@link #flush()}.
+     * 
+     * @param out
+     *            The output stream.
+     */
+    public JsonWriter(OutputStream out) {
+        super(8192, out);
+        start();
+    }
+
+    /** Reset the nesting state before writing a diffused object graph. */
+    protected void start() {
+        depth = 0;
+        started = 0;
+        empty[0] = true;
+    }
+
+    /**
+     * Write the given ASCII text unquoted.
+     * 
+     * @param text
+     *            The text.
+     */
+    private void ascii(String text) {
+        for (int i = 0, stop = text.length(); i < stop; i++) {
+            write(text.charAt(i));
+        }
+    }
+
+    /**
+     * Write the given long value as decimal digits.
+     * 
+     * @param value
+     *            The value.
+     */
+    private void number(long value) {
+        if (value == Long.MIN_VALUE) {
+            write(MIN_LONG, 0, MIN_LONG.length);
+            return;
+        }
+        if (value < 0) {
+            write('-');
+            value = -value;
+        }
+        int i = digits.length;
+        do {
+            digits[--i] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        write(digits, i, digits.length - i);
+    }
+
+    /**
+     * Write the given characters as a quoted, escaped, UTF-8 encoded JSON
+     * string.
+     * 
+     * @param chars
+     *            The characters.
+     */
+    private void string(CharSequence chars) {
+        write('"');
+        for (int i = 0, stop = chars.length(); i < stop; i++) {
+            char ch = chars.charAt(i);
+            if (ch < 0x80) {
+                if (ch == '"' || ch == '\\') {
+                    write('\\');
+                    write(ch);
+                } else if (ch < 0x20) {
+                    escape(ch);
+                } else {
+                    write(ch);
+                }
+            } else if (ch < 0x800) {
+                write(0xC0 | (ch >> 6));
+                write(0x80 | (ch & 0x3F));
+            } else if (Character.isHighSurrogate(ch) && i + 1 < stop && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(ch, chars.charAt(++i));
+                write(0xF0 | (codePoint >> 18));
+                write(0x80 | ((codePoint >> 12) & 0x3F));
+                write(0x80 | ((codePoint >> 6) & 0x3F));
+                write(0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(ch)) {
+                unicode(ch);
+            } else {
+                write(0xE0 | (ch >> 12));
+                write(0x80 | ((ch >> 6) & 0x3F));
+                write(0x80 | (ch & 0x3F));
+            }
+        }
+        write('"');
+    }
+
+    /**
+     * Write the escape sequence for the given control character.
+     * 
+     * @param ch
+     *            The control character.
+     */
+    private void escape(char ch) {
+        switch (ch) {
+        case '\n':
+            write('\\');
+            write('n');
+            break;
+        case '\r':
+            write('\\');
+            write('r');
+            break;
+        case '\t':
+            write('\\');
+            write('t');
+            break;
+        case '\b':
+            write('\\');
+            write('b');
+            break;
+        case '\f':
+            write('\\');
+            write('f');
+            break;
+        default:
+            unicode(ch);
+        }
+    }
+
+    /**
+     * Write the given character as a unicode escape sequence.
+     * 
+     * @param ch
+     *            The character.
+     */
+    private void unicode(char ch) {
+        write('\\');
+        write('u');
+        write(HEX[(ch >> 12) & 0xF]);
+        write(HEX[(ch >> 8) & 0xF]);
+        write(HEX[(ch >> 4) & 0xF]);
+        write(HEX[ch & 0xF]);
+    }
+
+    /**
+     * Write a comma before a list element if it is not the first element of
+     * the list.
+     */
+    private void element() {
+        if (lists[depth]) {
+            if (!empty[depth]) {
+                write(',');
+            }
+            empty[depth] = false;
+        }
+    }
+
+    /**
+     * Enter a new map or list.
+     * 
+     * @param list
+     *            Whether the container is a list.
+     */
+    private void push(boolean list) {
+        if (++depth == lists.length) {
+            boolean[] grow = new boolean[depth * 2];
+            System.arraycopy(lists, 0, grow, 0, depth);
+            lists = grow;
+            grow = new boolean[depth * 2];
+            System.arraycopy(empty, 0, grow, 0, depth);
+            empty = grow;
+        }
+        lists[depth] = list;
+        empty[depth] = true;
+    }
+
+    /** Start a JSON object. */
+    public void startMap() {
+        element();
+        write('{');
+        push(false);
+        started++;
+    }
+
+    /**
+     * Write the given map key as a JSON object member name.
+     * 
+     * @param name
+     *            The key.
+     */
+    public void key(String name) {
+        if (!empty[depth]) {
+            write(',');
+        }
+        empty[depth] = false;
+        string(name);
+        write(':');
+    }
+
+    /** Start a JSON array. */
+    public void startList() {
+        element();
+        write('[');
+        push(true);
+        started++;
+    }
+
+    /**
+     * Write the given scalar as a JSON literal. Numbers and booleans are
+     * written as JSON numbers and booleans, except for non-finite floating
+     * point numbers, which are written as strings. All other values are
+     * written as JSON strings.
+     * 
+     * @param value
+     *            The scalar value.
+     */
+    public void scalar(Object value) {
+        element();
+        if (value == null) {
+            ascii("null");
+        } else if (value instanceof String) {
+            string((String) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            number(((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            ascii(((Boolean) value).booleanValue() ? "true" : "false");
+        } else if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                string(value.toString());
+            } else {
+                ascii(value.toString());
+            }
+        } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+            ascii(value.toString());
+        } else if (value instanceof CharSequence) {
+            string((CharSequence) value);
+        } else {
+            string(value.toString());
+        }
+    }
+
+    /** End the current JSON object or array. */
+    public void end() {
+        write(lists[depth] ? ']' : '}');
+        depth--;
+    }
+
+    /**
+     * Get the index of the next JSON object or array.
+     * 
+     * @return The number of JSON objects and arrays started.
+     */
+    public int mark() {
+        return started;
+    }
+
+    /**
+     * Write a reference to the JSON object or array with the given index as
+     * an object whose only member is named <code>"$shared"</code>.
+     * 
+     * @param index
+     *            The index of the JSON object or array.
+     */
+    public void reference(int index) {
+        element();
+        ascii("{\"$shared\":");
+        number(index);
+        write('}');
+    }
+}
@@ -0,0 +1,21 @@
+package com.goodworkalan.diffuse;
+
+/**
+ * Implemented by the on-demand map and list views returned by a
+ * {@link Diffuser} in lazy mode. The members of a lazy view are diffused when
+ * they are first accessed, reading the diffused object at that time. A
+ * snapshot diffuses all of the members at once, so that the diffused object
+ * graph no longer depends on the objects it was diffused from.
+ * 
+ * @author Alan Gutierrez
+ */
+public interface Lazy {
+    /**
+     * Diffuse every member of this view that has not yet been diffused,
+     * recursively, and return the result as a tree of unmodifiable maps, lists
+     * and scalars that does not reference the diffused objects.
+     * 
+     * @return A detached copy of this view.
+     */
+    public Object snapshot();
+}
@@ -0,0 +1,28 @@
+package com.goodworkalan.diffuse;
+
+/**
+ * Implemented by container object diffusers that can diffuse an object into
+ * an on-demand map or list view for a {@link Diffuser} in lazy mode. Container
+ * diffusers that do not implement this interface are diffused eagerly, even in
+ * lazy mode.
+ * 
+ * @author Alan Gutierrez
+ */
+public interface LazyDiffuser {
+    /**
+     * Diffuse the given object into an unmodifiable map or list view whose
+     * members are diffused when they are first accessed. The view should
+     * implement {@link Lazy}. Members should be diffused with the
+     * {@link Diffuser#lazy(Object, Includes, ObjectDiffuser) lazy} method of
+     * the given root diffuser so that they are lazy as well.
+     * 
+     * @param diffuser
+     *            The root diffuser.
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The include node for the object in the object graph.
+     * @return A lazy map or list view.
+     */
+    public Object lazy(Diffuser diffuser, Object object, Includes includes);
+}
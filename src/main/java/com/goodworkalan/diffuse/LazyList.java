@@ -0,0 +1,93 @@
+package com.goodworkalan.diffuse;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An unmodifiable list whose size is known when it is created and whose
+ * elements are diffused when they are first accessed and then memoized.
+ * Elements are published safely, so a lazy list can be read by any number of
+ * threads, although an element may be diffused more than once if it is first
+ * accessed by two threads at the same time.
+ * 
+ * @author Alan Gutierrez
+ */
+class LazyList extends AbstractList<Object> implements Lazy, RandomAccess {
+    /** The root diffuser. */
+    private final Diffuser diffuser;
+
+    /** The undiffused elements. */
+    private final Object[] elements;
+
+    /** The include node for the elements. */
+    private final Includes includes;
+
+    /** The memoized elements, null if not yet diffused. */
+    private final AtomicReferenceArray<Object> values;
+
+    /**
+     * Create a lazy list of the given undiffused elements.
+     * 
+     * @param diffuser
+     *            The root diffuser.
+     * @param elements
+     *            The undiffused elements.
+     * @param includes
+     *            The include node for the elements.
+     */
+    public LazyList(Diffuser diffuser, Object[] elements, Includes includes) {
+        this.diffuser = diffuser;
+        this.elements = elements;
+        this.includes = includes;
+        this.values = new AtomicReferenceArray<Object>(elements.length);
+    }
+
+    /**
+     * Get the diffused element at the given index, diffusing it if it has not
+     * yet been diffused.
+     * 
+     * @param index
+     *            The index.
+     * @return The diffused element.
+     */
+    @Override
+    public Object get(int index) {
+        Object value = values.get(index);
+        if (value == null) {
+            Object element = elements[index];
+            value = element == null ? null : diffuser.lazy(element, includes, diffuser.getDiffuser(element.getClass()));
+            if (!values.compareAndSet(index, null, value == null ? LazyMap.NULL : value)) {
+                value = values.get(index);
+            }
+        }
+        return value == LazyMap.NULL ? null : value;
+    }
+
+    /**
+     * Get the number of elements.
+     * 
+     * @return The size of the list.
+     */
+    @Override
+    public int size() {
+        return elements.length;
+    }
+
+    /**
+     * Diffuse all elements, recursively, and return a detached copy of the
+     * list.
+     * 
+     * @return A detached, unmodifiable copy of the list.
+     */
+    public Object snapshot() {
+        List<Object> copy = new ArrayList<Object>(elements.length);
+        for (int i = 0; i < elements.length; i++) {
+            copy.add(Diffuser.snapshot(get(i)));
+        }
+        return Collections.unmodifiableList(copy);
+    }
+}
@@ -0,0 +1,191 @@
+package com.goodworkalan.diffuse;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An unmodifiable map whose keys are known when it is created and whose values
+ * are diffused when they are first accessed and then memoized. Values are
+ * published safely, so a lazy map can be read by any number of threads,
+ * although a value may be diffused more than once if it is first accessed by
+ * two threads at the same time.
+ * 
+ * @author Alan Gutierrez
+ */
+abstract class LazyMap extends AbstractMap<String, Object> implements Lazy {
+    /** The memoized value of a member whose diffused value is null. */
+    final static Object NULL = new Object();
+
+    /** The keys in iteration order. */
+    private final String[] keys;
+
+    /** The index of the keys or null if no key has been looked up. */
+    private volatile MapKeys index;
+
+    /** The memoized values, null if not yet diffused. */
+    private final AtomicReferenceArray<Object> values;
+
+    /**
+     * Create a lazy map with the given keys.
+     * 
+     * @param keys
+     *            The keys in iteration order.
+     */
+    public LazyMap(String[] keys) {
+        this.keys = keys;
+        this.values = new AtomicReferenceArray<Object>(keys.length);
+    }
+
+    /**
+     * Create a lazy map with the given shared keys, which are also the index
+     * of the keys.
+     * 
+     * @param keys
+     *            The keys.
+     */
+    public LazyMap(MapKeys keys) {
+        this.keys = new String[keys.size()];
+        for (int i = 0; i < this.keys.length; i++) {
+            this.keys[i] = keys.get(i);
+        }
+        this.values = new AtomicReferenceArray<Object>(this.keys.length);
+        this.index = keys;
+    }
+
+    /**
+     * Diffuse the value for the key at the given index.
+     * 
+     * @param index
+     *            The key index.
+     * @return The diffused value.
+     */
+    protected abstract Object diffuse(int index);
+
+    /**
+     * Get the diffused value for the key at the given index, diffusing it if
+     * it has not yet been diffused.
+     * 
+     * @param index
+     *            The key index.
+     * @return The diffused value.
+     */
+    Object value(int index) {
+        Object value = values.get(index);
+        if (value == null) {
+            value = diffuse(index);
+            if (!values.compareAndSet(index, null, value == null ? NULL : value)) {
+                value = values.get(index);
+            }
+        }
+        return value == NULL ? null : value;
+    }
+
+    /**
+     * Get the index of the given key or -1 if the key is not in the map. The
+     * keys are indexed by a hash table built on the first lookup, so that
+     * reading every entry of a wide map by key is not quadratic.
+     * 
+     * @param key
+     *            The key.
+     * @return The key index or -1.
+     */
+    private int indexOf(Object key) {
+        MapKeys index = this.index;
+        if (index == null) {
+            index = this.index = new MapKeys(keys, false);
+        }
+        return index.indexOf(key);
+    }
+
+    /**
+     * Get the number of entries.
+     * 
+     * @return The size of the map.
+     */
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Return true if the map contains the given key. Does not diffuse any
+     * values.
+     * 
+     * @param key
+     *            The key.
+     * @return True if the map contains the key.
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) != -1;
+    }
+
+    /**
+     * Get the value for the given key, diffusing it if necessary.
+     * 
+     * @param key
+     *            The key.
+     * @return The diffused value or null if the key is not in the map.
+     */
+    @Override
+    public Object get(Object key) {
+        int index = indexOf(key);
+        return index == -1 ? null : value(index);
+    }
+
+    /**
+     * Get the set of entries, whose values are diffused as they are visited.
+     * 
+     * @return The set of entries.
+     */
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            public int size() {
+                return keys.length;
+            }
+
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new Iterator<Map.Entry<String, Object>>() {
+                    private int index;
+
+                    public boolean hasNext() {
+                        return index < keys.length;
+                    }
+
+                    public Map.Entry<String, Object> next() {
+                        if (index == keys.length) {
+                            throw new NoSuchElementException();
+                        }
+                        int i = index++;
+                        return new AbstractMap.SimpleImmutableEntry<String, Object>(keys[i], value(i));
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Diffuse all values, recursively, and return a detached copy of the map.
+     * 
+     * @return A detached, unmodifiable copy of the map.
+     */
+    public Object snapshot() {
+        Map<String, Object> copy = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < keys.length; i++) {
+            copy.put(keys[i], Diffuser.snapshot(value(i)));
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+}
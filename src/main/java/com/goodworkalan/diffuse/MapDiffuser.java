@@ -1,87 +1,170 @@
 package com.goodworkalan.diffuse;
 
+import static java.util.Arrays.copyOf;
+
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * Converts a map by creating a copy of the map and diffusing the entry values.
  *
  * @author Alan Gutierrez
  */
-public class MapDiffuser implements ObjectDiffuser {
+public class MapDiffuser implements ObjectDiffuser, LazyDiffuser {
     /** The singleton map converter instnace. */
     public final static MapDiffuser INSTANCE = new MapDiffuser();
 
+    /** Whether a subclass overrides the modifiable method. */
+    private final boolean amends;
+
+    /** Create a map diffuser. */
+    public MapDiffuser() {
+        boolean amends = false;
+        for (Class<?> type = getClass(); type != MapDiffuser.class && !amends; type = type.getSuperclass()) {
+            try {
+                type.getDeclaredMethod("modifiable", Diffuser.class, Object.class, Includes.class);
+                amends = true;
+            } catch (NoSuchMethodException e) {
+            }
+        }
+        this.amends = amends;
+    }
+
     /**
-     * Create a copy of the given map object diffusing the entries using the
-     * objects diffusers obtained from the given object diffuser provider.
+     * Copy the given map object by emitting a map to the sink of the given
+     * <code>diffusion</code> and using the diffusion to diffuse the entry
+     * values.
      * <p>
-     * For each entry of the map, the key name is appended to the object path
-     * after appending a dot, to create a dot separated path to the member in
-     * the object graph. If the diffuser for the member value is not a container
-     * diffuser, the diffused value is included in the copy of the map. If the
-     * diffuser for the member value is a container diffuser, the diffused value
-     * is included if the amended path is in the set of paths to include, or if
-     * the set of paths to include is empty. The object diffuser for each member
-     * is called with the amended path to reflect the path of the object to
+     * For each entry of the map, the child include node for the key name is
+     * obtained from the given include node. If the diffuser for the member
+     * value is not a container diffuser, the diffused value is included in the
+     * copy of the map. If the diffuser for the member value is a container
+     * diffuser, the diffused value is included only if there is a child
+     * include node for the key name. The object diffuser for each member is
+     * called with the child include node to reflect the path of the object to
      * diffuse.
+     * <p>
+     * A map with at least as many entries as the parallel threshold of the
+     * root diffuser has its entry values diffused in parallel.
+     * <p>
+     * If a subclass overrides {@link #modifiable(Diffuser, Object, Includes)
+     * modifiable}, the map it returns is emitted as an already diffused value
+     * instead, so that the subclass can amend the map as it could before
+     * diffusion emitted events. The entry values of that map are diffused
+     * outside of the budget and the identity tracking of the diffusion.
+     * <p>
+     * If the diffusion has a budget and the map is truncated, the marker
+     * counts the remaining entries that would have been included, not the
+     * entries that the include node excludes.
      * 
-     * @param diffuser
-     *            The object diffuser provider.
+     * @param diffusion
+     *            The state of the diffusion.
      * @param object
      *            The class to diffuse.
-     * @param path
-     *            The path of the object in the object graph.
      * @param includes
-     *            The set of paths to include in the diffused object graph or an
-     *            empty set to include all paths.
+     *            The include node for the map in the object graph.
      * @exception ClassCastException
      *                If the given object is not a <code>java.util.Map</code>.
-     * @see #diffuse(Diffuser, Object, StringBuilder, Set)
      */
-    public Object diffuse(Diffuser diffuser, Object object, StringBuilder path, Set<String> includes) {
-        return Collections.unmodifiableMap(modifiable(diffuser, object, path, includes));
+    public void diffuse(Diffusion diffusion, Object object, Includes includes) {
+        Diffuser diffuser = diffusion.getDiffuser();
+        DiffusionSink sink = diffusion.getSink();
+        if (amends) {
+            sink.value(Collections.unmodifiableMap(modifiable(diffuser, object, includes)));
+            return;
+        }
+        Map<?, ?> original = (Map<?, ?>) object;
+        if (diffusion.isParallel(original.size())) {
+            Included included = new Included(diffuser, original, includes);
+            Object[] diffused = ParallelDiffusion.diffuse(diffusion, included.values, included.children, included.converters);
+            sink.startMap();
+            for (int i = 0; i < included.count; i++) {
+                sink.key(included.keys[i]);
+                sink.value(diffused[i]);
+            }
+            sink.end();
+            return;
+        }
+        sink.startMap();
+        int emitted = 0, elided = 0;
+        for (Map.Entry<?, ?> entry : original.entrySet()) {
+            String name = entry.getKey().toString();
+            Object value = entry.getValue();
+            ObjectDiffuser converter = value == null ? NullDiffuser.INSTANCE : diffuser.getDiffuser(value.getClass());
+            Includes child = includes.get(name);
+            if (child == null && converter.isContainer()) {
+                continue;
+            }
+            if (elided != 0 || diffusion.isTruncated(emitted)) {
+                elided++;
+                continue;
+            }
+            sink.key(name);
+            if (value == null) {
+                sink.scalar(null);
+            } else {
+                diffusion.diffuse(value, child == null ? Includes.NONE : child, converter);
+            }
+            emitted++;
+        }
+        if (elided != 0) {
+            diffusion.elideEntries(elided);
+        }
+        sink.end();
+    }
+
+    /**
+     * Copy the given map object into a lazy map view, with an entry for each
+     * entry of the map that is included according to the include node. The
+     * entry values are diffused when they are first accessed.
+     * 
+     * @param diffuser
+     *            The root diffuser.
+     * @param object
+     *            The map to diffuse.
+     * @param includes
+     *            The include node for the map in the object graph.
+     * @return A lazy map view.
+     * @exception ClassCastException
+     *                If the given object is not a <code>java.util.Map</code>.
+     */
+    public Object lazy(final Diffuser diffuser, Object object, Includes includes) {
+        final Included included = new Included(diffuser, (Map<?, ?>) object, includes);
+        String[] keys = new String[included.count];
+        System.arraycopy(included.keys, 0, keys, 0, included.count);
+        return new LazyMap(keys) {
+            protected Object diffuse(int index) {
+                return diffuser.lazy(included.values[index], included.children[index], included.converters[index]);
+            }
+        };
     }
 
     /**
      * Convert the given map object into map that can be modified, unlike the
-     * unmodifiable map generated by the <code>diffuse</code> method. Used by
-     * derived classes to obtain a map that can be amended by their
-     * implementation of <code>diffuse</code>.
+     * unmodifiable map generated by the <code>diffuse</code> method. The map
+     * has the entries of the map returned by
+     * {@link #diffuse(Diffuser, Object, Includes)}, each entry value diffused
+     * by its own object diffuser. Subclasses can override this method to add
+     * or remove entries before the map is emitted by <code>diffuse</code>.
      * 
      * @param diffuser
      *            The object diffuser provider.
      * @param object
      *            The class to diffuse.
-     * @param path
-     *            The path of the object in the object graph.
      * @param includes
-     *            The set of paths to include in the diffused object graph or an
-     *            empty set to include all paths.
+     *            The include node for the map in the object graph.
+     * @return A modifiable map of the diffused entries.
      * @exception ClassCastException
      *                If the given object is not a <code>java.util.Map</code>.
-     * @see #diffuse(Diffuser, Object, StringBuilder, Set)
+     * @see #diffuse(Diffuser, Object, Includes)
      */
-    public Map<String, Object> modifiable(Diffuser diffuser, Object object, StringBuilder path, Set<String> includes) {
-        int index = path.length();
-        Map<?, ?> original = (Map<?, ?>) object;
+    public Map<String, Object> modifiable(Diffuser diffuser, Object object, Includes includes) {
+        Included included = new Included(diffuser, (Map<?, ?>) object, includes);
         Map<String, Object> copy = new LinkedHashMap<String, Object>();
-        for (Map.Entry<?, ?> entry : original.entrySet()) {
-            String name = entry.getKey().toString();
-            path.append(name);
-            Object value = entry.getValue();
-            if (value == null) {
-                copy.put(name, value);
-            } else {
-                ObjectDiffuser converter = diffuser.getDiffuser(value.getClass());
-                if (!converter.isContainer() || includes.isEmpty() || includes.contains(path.toString())) {
-                    path.append(".");
-                    copy.put(name, converter.diffuse(diffuser, value, path, includes));
-                }
-            }
-            path.setLength(index);
+        for (int i = 0; i < included.count; i++) {
+            Object value = included.values[i];
+            copy.put(included.keys[i], value == null ? null : included.converters[i].diffuse(diffuser, value, included.children[i]));
         }
         return copy;
     }
@@ -95,4 +178,67 @@ public class MapDiffuser implements ObjectDiffuser {
     public boolean isContainer() {
         return true;
     }
+
+    /**
+     * The entries of a map that are included according to an include node,
+     * gathered into arrays along with their child include nodes and object
+     * diffusers, for diffusion out of the order of iteration.
+     */
+    private final static class Included {
+        /** The keys of the included entries. */
+        public final String[] keys;
+
+        /** The values of the included entries. */
+        public final Object[] values;
+
+        /** The child include nodes of the included entries. */
+        public final Includes[] children;
+
+        /** The object diffusers of the included entry values. */
+        public final ObjectDiffuser[] converters;
+
+        /** The number of included entries. */
+        public final int count;
+
+        /**
+         * Gather the included entries of the given map.
+         * 
+         * @param diffuser
+         *            The root diffuser.
+         * @param original
+         *            The map.
+         * @param includes
+         *            The include node for the map in the object graph.
+         */
+        public Included(Diffuser diffuser, Map<?, ?> original, Includes includes) {
+            int size = original.size();
+            String[] keys = new String[size];
+            Object[] values = new Object[size];
+            Includes[] children = new Includes[size];
+            ObjectDiffuser[] converters = new ObjectDiffuser[size];
+            int count = 0;
+            for (Map.Entry<?, ?> entry : original.entrySet()) {
+                String name = entry.getKey().toString();
+                Object value = entry.getValue();
+                Includes child = includes.get(name);
+                ObjectDiffuser converter = value == null ? NullDiffuser.INSTANCE : diffuser.getDiffuser(value.getClass());
+                if (child != null || !converter.isContainer()) {
+                    keys[count] = name;
+                    values[count] = value;
+                    children[count] = child == null ? Includes.NONE : child;
+                    converters[count++] = converter;
+                }
+            }
+            if (count != size) {
+                values = copyOf(values, count);
+                children = copyOf(children, count);
+                converters = copyOf(converters, count);
+            }
+            this.keys = keys;
+            this.values = values;
+            this.children = children;
+            this.converters = converters;
+            this.count = count;
+        }
+    }
 }
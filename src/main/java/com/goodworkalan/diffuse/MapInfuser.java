@@ -0,0 +1,73 @@
+package com.goodworkalan.diffuse;
+
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates a map from a diffused map, infusing each key and value as the key
+ * and value type arguments of the map type. Map interfaces are created as a
+ * <code>LinkedHashMap</code>, <code>TreeMap</code> or
+ * <code>ConcurrentHashMap</code>. Concrete map classes are created with their
+ * no argument constructor.
+ * 
+ * @author Alan Gutierrez
+ */
+class MapInfuser implements ObjectInfuser {
+    /** The singleton instance of the map infuser. */
+    public final static ObjectInfuser INSTANCE = new MapInfuser();
+
+    /**
+     * Create a map of the given type from the given diffused map.
+     * 
+     * @param infuser
+     *            The root infuser.
+     * @param diffused
+     *            The diffused map.
+     * @param type
+     *            The map type.
+     * @return A new map.
+     * @exception IllegalArgumentException
+     *                If the value is not a map or an entry cannot be infused.
+     */
+    @SuppressWarnings("unchecked")
+    public Object infuse(Infuser infuser, Object diffused, Type type) {
+        if (!(diffused instanceof Map<?, ?>)) {
+            throw Infuser.cannotInfuse(diffused, type, null);
+        }
+        Type keyType = Infuser.getTypeArgument(type, 0);
+        Type valueType = Infuser.getTypeArgument(type, 1);
+        Map<Object, Object> map = (Map<Object, Object>) create(infuser, Infuser.getRawClass(type));
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) diffused).entrySet()) {
+            map.put(infuser.infuse(entry.getKey(), keyType), infuser.infuse(entry.getValue(), valueType));
+        }
+        return map;
+    }
+
+    /**
+     * Create an empty map of the given class.
+     * 
+     * @param infuser
+     *            The root infuser.
+     * @param mapClass
+     *            The map class.
+     * @return An empty map.
+     */
+    private static Object create(Infuser infuser, Class<?> mapClass) {
+        if (mapClass.isInterface() || Modifier.isAbstract(mapClass.getModifiers())) {
+            if (mapClass.isAssignableFrom(LinkedHashMap.class)) {
+                return new LinkedHashMap<Object, Object>();
+            }
+            if (mapClass.isAssignableFrom(TreeMap.class)) {
+                return new TreeMap<Object, Object>();
+            }
+            if (mapClass.isAssignableFrom(ConcurrentHashMap.class)) {
+                return new ConcurrentHashMap<Object, Object>();
+            }
+        }
+        return infuser.getPlan(mapClass).newInstance();
+    }
+}
@@ -0,0 +1,124 @@
+package com.goodworkalan.diffuse;
+
+import java.util.Arrays;
+
+/**
+ * An immutable, ordered set of map keys shared by every map diffused from
+ * instances of the same bean class with the same include node. The keys are
+ * interned and indexed by an open addressing hash table, so that the maps that
+ * share the keys need only store their values in an array.
+ * <p>
+ * Bean diffusers pass the keys of a map to
+ * {@link DiffusionSink#startMap(MapKeys)} before emitting the entries of the
+ * map, in the order of the keys.
+ * 
+ * @author Alan Gutierrez
+ */
+public final class MapKeys {
+    /** The keys in iteration order. */
+    private final String[] names;
+
+    /**
+     * The hash table of key indexes plus one, where zero marks an empty slot.
+     * The length is a power of two.
+     */
+    private final int[] table;
+
+    /**
+     * Create a set of keys.
+     * 
+     * @param names
+     *            The keys in iteration order, which must be unique.
+     */
+    public MapKeys(String... names) {
+        this(names, true);
+    }
+
+    /**
+     * Create a set of keys, interning the keys only if requested, so that an
+     * index of the keys of an arbitrary map does not intern its keys. If a key
+     * appears more than once, the first appearance is found.
+     * 
+     * @param names
+     *            The keys in iteration order.
+     * @param intern
+     *            Whether to intern the keys.
+     */
+    MapKeys(String[] names, boolean intern) {
+        this.names = new String[names.length];
+        this.table = new int[Integer.highestOneBit(Math.max(1, names.length) * 2) * 2];
+        for (int i = 0; i < names.length; i++) {
+            this.names[i] = intern ? names[i].intern() : names[i];
+            int slot = slot(names[i]);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    /**
+     * Get the initial hash table slot of the given key.
+     * 
+     * @param name
+     *            The key.
+     * @return The initial slot.
+     */
+    private int slot(Object name) {
+        int hash = name.hashCode();
+        return (hash ^ (hash >>> 16)) & (table.length - 1);
+    }
+
+    /**
+     * Get the number of keys.
+     * 
+     * @return The number of keys.
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Get the key at the given index.
+     * 
+     * @param index
+     *            The key index.
+     * @return The key.
+     */
+    public String get(int index) {
+        return names[index];
+    }
+
+    /**
+     * Get the index of the given key or -1 if it is not one of the keys.
+     * 
+     * @param name
+     *            The key.
+     * @return The key index or -1.
+     */
+    public int indexOf(Object name) {
+        if (!(name instanceof String)) {
+            return -1;
+        }
+        int slot = slot(name);
+        int index;
+        while ((index = table[slot]) != 0) {
+            String candidate = names[index - 1];
+            if (candidate == name || candidate.equals(name)) {
+                return index - 1;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Return a string representation of the keys.
+     * 
+     * @return The keys as a string.
+     */
+    @Override
+    public String toString() {
+        return Arrays.toString(names);
+    }
+}
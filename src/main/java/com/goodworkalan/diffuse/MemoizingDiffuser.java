@@ -0,0 +1,104 @@
+package com.goodworkalan.diffuse;
+
+/**
+ * An object diffuser for an immutable class that returns the diffused form of
+ * an object from the {@link DiffusionCache} of the diffuser, if it has been
+ * diffused before, instead of diffusing it again with the object diffuser
+ * assigned to the class.
+ * <p>
+ * When diffusing into a tree, the diffused form is captured from the tree as
+ * it is built. When diffusing into any other sink, the object is diffused
+ * into a tree of its own, which is cached and replayed to the sink. Objects
+ * are diffused as usual within a budget, since the budget may truncate them.
+ * Immutable objects are not expected to contain the containers that contain
+ * them, so an object diffused into a tree of its own does not know of the
+ * containers of the enclosing object graph.
+ * <p>
+ * When diffusing into a {@link Delta} created with a previous fingerprint, an
+ * object that is the same instance as the object diffused at the same path
+ * last time is not diffused, and the delta reuses its previous fingerprint.
+ * 
+ * @author Alan Gutierrez
+ */
+final class MemoizingDiffuser implements ObjectDiffuser {
+    /** The object diffuser assigned to the class. */
+    private final ObjectDiffuser delegate;
+
+    /** Whether objects are compared by identity instead of equality. */
+    private final boolean identity;
+
+    /**
+     * Create a memoizing diffuser.
+     * 
+     * @param delegate
+     *            The object diffuser assigned to the class.
+     * @param identity
+     *            Whether objects are compared by identity instead of
+     *            equality.
+     */
+    public MemoizingDiffuser(ObjectDiffuser delegate, boolean identity) {
+        this.delegate = delegate;
+        this.identity = identity;
+    }
+
+    /**
+     * Get the object diffuser assigned to the class.
+     * 
+     * @return The object diffuser.
+     */
+    public ObjectDiffuser getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Emit the cached diffused form of the given object, or diffuse the object
+     * with the object diffuser assigned to its class and cache the diffused
+     * form.
+     * 
+     * @param diffusion
+     *            The state of the diffusion.
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The include node for the object in the object graph.
+     */
+    public void diffuse(Diffusion diffusion, Object object, Includes includes) {
+        DiffusionSink sink = diffusion.getSink();
+        if (sink instanceof Delta && !diffusion.isBudgeted() && ((Delta) sink).reuse(object, includes)) {
+            return;
+        }
+        DiffusionCache cache = diffusion.getDiffuser().getCache();
+        if (cache == null || diffusion.isBudgeted()) {
+            delegate.diffuse(diffusion, object, includes);
+            return;
+        }
+        Object key = DiffusionCache.key(object, includes, identity);
+        Object diffused = cache.get(key);
+        if (diffused != null) {
+            sink.value(diffused);
+            return;
+        }
+        if (sink instanceof TreeSink) {
+            delegate.diffuse(diffusion, object, includes);
+            diffused = ((TreeSink) sink).getLast();
+        } else {
+            TreeSink tree = new TreeSink();
+            delegate.diffuse(new Diffusion(diffusion.getDiffuser(), tree, null), object, includes);
+            diffused = tree.getTree();
+            sink.value(diffused);
+        }
+        if (diffused != null) {
+            cache.put(key, diffused);
+        }
+    }
+
+    /**
+     * Return true if the object diffuser assigned to the class is a container
+     * diffuser.
+     * 
+     * @return True if the object diffuser is a container diffuser.
+     */
+    public boolean isContainer() {
+        return delegate.isContainer();
+    }
+}
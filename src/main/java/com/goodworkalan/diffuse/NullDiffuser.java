@@ -1,12 +1,11 @@
 package com.goodworkalan.diffuse;
 
-import java.util.Set;
-
 /**
- * A no-op object diffuser that simply returns the object given.
+ * A no-op object diffuser that simply emits the object given as a scalar.
  * <p>
  * This object diffuser should never be used to convert anything but the
- * primitive types, their object counterparts, and String.
+ * primitive types, their object counterparts, String, and the big integers and
+ * decimals that every sink writes as numbers.
  * 
  * @author Alan Gutierrez
  */
@@ -15,22 +14,19 @@ public class NullDiffuser implements ObjectDiffuser {
     public final static ObjectDiffuser INSTANCE = new NullDiffuser();
 
     /**
-     * Simply return the given object since it is already a string or primitive.
-     * 
+     * Simply emit the given object as a scalar since it is already a string or
+     * primitive. A string is truncated if it exceeds the budget of the
+     * diffusion.
      * 
-     * @param diffuser
-     *            The object diffuser provider.
+     * @param diffusion
+     *            The state of the diffusion.
      * @param object
      *            The class to diffuse.
-     * @param path
-     *            The path of the object in the object graph.
      * @param includes
-     *            The set of paths to include in the diffused object graph or an
-     *            empty set to include all paths.
-     * @return The object.
+     *            The include node for the object in the object graph.
      */
-    public Object diffuse(Diffuser diffuser, Object object, StringBuilder path, Set<String> includes) {
-        return object;
+    public void diffuse(Diffusion diffusion, Object object, Includes includes) {
+        diffusion.scalar(object);
     }
 
     /**
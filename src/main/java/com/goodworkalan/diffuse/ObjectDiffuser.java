@@ -7,37 +7,93 @@ import java.util.Set;
  * scalar, where a scalar is a primitive or string.
  * <p>
  * Implementations of this interface will diffuse an object in an object graph,
- * converting it to either a map, list or scalar. The {@link #isContainer}
+ * converting it to either a map, list or scalar by emitting events to the
+ * {@link DiffusionSink} of a {@link Diffusion}. The {@link #isContainer}
  * method indicates that the object is a container, an object that will be
  * converted to a map or list.
+ * <p>
+ * An implementation overrides either
+ * {@link #diffuse(Diffusion, Object, Includes)}, to emit events, or the
+ * original {@link #diffuse(Diffuser, Object, StringBuilder, Set)}, to return
+ * a diffused object. Each has a default implementation that calls the other,
+ * so an object diffuser written for the original form of this interface
+ * still compiles and is used by the event based diffusion, and an object
+ * diffuser that emits events can still be called with the original form. An
+ * implementation that overrides neither throws an
+ * <code>UnsupportedOperationException</code> when it is first used.
  * 
  * @author Alan Gutierrez
  */
 public interface ObjectDiffuser {
     /**
      * Diffuse the given <code>object</code>, converting it to a map, list, or
-     * scalar where a scalar is a primitive or string. Container diffusers will
-     * only diffuse members whose paths are present in the given set of
-     * includes, unless the set of includes is empty, in which case all members
-     * will be included in the diffused object graph. Any nested objects can be
-     * diffused using the object diffuser obtained from the given root
-     * <code>diffuser</code>.
+     * scalar where a scalar is a primitive or string, by emitting the events
+     * of the map, list or scalar to the sink of the given diffusion. Container
+     * diffusers will only diffuse the container members that are included by
+     * the given include node. Any nested objects can be diffused using the
+     * diffuse method of the given <code>diffusion</code>, which will obtain
+     * the object diffuser for the nested object from the root diffuser.
      * <p>
      * Implementations of this interface that diffuse objects by converting them
-     * into into maps should only include non-scalar entries if either the given
-     * set of paths to include, includes, is empty or if it contains the path
-     * formed by appending the entry key to the given path. If a non-scalar
-     * entry is included in a to map diffusion, the to map object diffuser will
-     * first obtain an object diffuser to the entry value type, then call the
-     * diffuse method of the object diffuser passing it the given path with
-     * entry key appended, followed by an appended "." (period). This will
-     * maintain the current object path as the diffusion descends an object
-     * graph.
+     * into into maps should only include non-scalar entries if the given
+     * include node has a child node for the entry key. If a non-scalar entry
+     * is included in a to map diffusion, the to map object diffuser will emit
+     * the entry key, then diffuse the entry value passing the child include
+     * node. This will maintain the current position in the include paths as
+     * the diffusion descends an object graph. Implementations that diffuse
+     * objects into lists pass the child include node for the asterisk path
+     * segment to the object diffusers of their elements.
      * <p>
      * Diffusion is a recursive process. A diffuser that diffuses and object
-     * into a map or list will use the given root diffuser to find the
-     * appropriate object diffuser to diffuse the items in the list or the entry
-     * values in the map.
+     * into a map or list will use the given diffusion to diffuse the items in
+     * the list or the entry values in the map.
+     * <p>
+     * The default implementation calls the original form of the diffuse
+     * method with the include paths beneath the given include node and emits
+     * the diffused object it returns as a value.
+     * 
+     * @param diffusion
+     *            The state of the diffusion.
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The include node for the object in the object graph.
+     */
+    default public void diffuse(Diffusion diffusion, Object object, Includes includes) {
+        diffusion.getSink().value(diffuse(diffusion.getDiffuser(), object, new StringBuilder(), includes.toPaths()));
+    }
+
+    /**
+     * Diffuse the given <code>object</code>, returning the diffused object as a
+     * tree of unmodifiable maps, lists and scalars. The default implementation
+     * builds the tree by diffusing the object into a {@link TreeSink}.
+     * 
+     * @param diffuser
+     *            The root diffuser to use to diffuse nested objects.
+     * @param object
+     *            The object to diffuse.
+     * @param includes
+     *            The include node for the object in the object graph.
+     * @return The diffused object, converted to a map, list or scalar, where a
+     *         scalar is a primitive or a string.
+     */
+    default public Object diffuse(Diffuser diffuser, Object object, Includes includes) {
+        TreeSink sink = new TreeSink();
+        new Diffusion(diffuser, sink).root(object, includes, this);
+        return sink.getTree();
+    }
+
+    /**
+     * Diffuse the given <code>object</code>, given the path of the object as a
+     * string and the include paths as a set of strings. This is the original
+     * form of the diffuse method. It compiles the include paths and positions
+     * the include cursor at the given path on every call, then calls
+     * {@link #diffuse(Diffuser, Object, Includes)}.
+     * <p>
+     * The default implementation is called either for an object diffuser that
+     * emits events, or for an object diffuser that implements neither form,
+     * in which case it throws an exception rather than calling the default
+     * event form, which would call this method again.
      * 
      * @param diffuser
      *            The root diffuser to use to diffuse nested objects.
@@ -46,19 +102,36 @@ public interface ObjectDiffuser {
      * @param path
      *            The current object path in the object graph.
      * @param includes
-     *            A set of paths to include in the diffusion.
+     *            A set of paths to include in the diffusion or an empty set to
+     *            include all paths.
      * @return The diffused object, converted to a map, list or scalar, where a
      *         scalar is a primitive or a string.
+     * @exception UnsupportedOperationException
+     *                If the object diffuser implements neither form of the
+     *                diffuse method.
      */
-    public Object diffuse(Diffuser diffuser, Object object, StringBuilder path, Set<String> includes);
+    default public Object diffuse(Diffuser diffuser, Object object, StringBuilder path, Set<String> includes) {
+        Class<?> declaring;
+        try {
+            declaring = getClass().getMethod("diffuse", Diffusion.class, Object.class, Includes.class).getDeclaringClass();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+        if (declaring == ObjectDiffuser.class) {
+            throw new UnsupportedOperationException(String.format(
+                    "\n\tObject diffuser implements neither diffuse method.\n" +
+                    "\t\tClass: [%s]", getClass()));
+        }
+        return diffuse(diffuser, object, Includes.fromPaths(path, includes));
+    }
 
     /**
      * Return true if the diffuser converts objects that act as containers for
      * other objects. During a diffusion, if a container is encountered, it is
-     * only diffused if the container is included in the set of paths to
-     * include. Those include paths do not affect non-container objects, which
-     * are always diffused. The object diffuser for an object reports on whether
-     * or not the the object is a container object.
+     * only diffused if the container is included by the include paths. Those
+     * include paths do not affect non-container objects, which are always
+     * diffused. The object diffuser for an object reports on whether or not
+     * the the object is a container object.
      * <p>
      * Non-container diffusers do not necessarily produce scalar objects;
      * primitives or strings. They can produce maps and lists but they do not
@@ -67,4 +140,4 @@ public interface ObjectDiffuser {
      * @return True if the diffuser converts containers.
      */
     public boolean isContainer();
-}
\ No newline at end of file
+}
@@ -0,0 +1,33 @@
+package com.goodworkalan.diffuse;
+
+import java.lang.reflect.Type;
+
+/**
+ * A strategy for converting a diffused map, list or scalar back into an object
+ * of a particular type. The reverse of an {@link ObjectDiffuser}.
+ * <p>
+ * Implementations of this interface that infuse containers use the given
+ * infuser to infuse the members of the container, passing the declared type of
+ * each member, so that the object infusers for the members are obtained from
+ * the root infuser.
+ * 
+ * @author Alan Gutierrez
+ */
+public interface ObjectInfuser {
+    /**
+     * Infuse the given non-null diffused value, converting it into an object
+     * of the given type.
+     * 
+     * @param infuser
+     *            The root infuser to use to infuse nested values.
+     * @param diffused
+     *            The diffused map, list or scalar.
+     * @param type
+     *            The type of object to create, a class or a parameterized
+     *            type.
+     * @return An object of the given type.
+     * @exception IllegalArgumentException
+     *                If the value cannot be converted to the given type.
+     */
+    public Object infuse(Infuser infuser, Object diffused, Type type);
+}
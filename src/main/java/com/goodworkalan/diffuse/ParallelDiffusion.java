@@ -0,0 +1,160 @@
+package com.goodworkalan.diffuse;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Diffuses the members of a large container in parallel using fork/join
+ * tasks. The members are divided into ranges, each range is diffused by its
+ * own forked {@link Diffusion} into its own {@link TreeSink}, and the diffused
+ * members are collected in their original order.
+ * 
+ * @author Alan Gutierrez
+ */
+class ParallelDiffusion extends RecursiveAction {
+    /** The serial version id. */
+    private static final long serialVersionUID = 1L;
+
+    /** The diffusion of the container. */
+    private final Diffusion diffusion;
+
+    /** The members to diffuse. */
+    private final Object[] objects;
+
+    /** The include node for each member. */
+    private final Includes[] includes;
+
+    /**
+     * The object diffuser for each member, or null to use the object diffuser
+     * for the class of each member.
+     */
+    private final ObjectDiffuser[] diffusers;
+
+    /** The diffused members. */
+    private final Object[] diffused;
+
+    /** The index of the first member of the range. */
+    private final int from;
+
+    /** The index one past the last member of the range. */
+    private final int to;
+
+    /** The maximum number of members to diffuse in a single task. */
+    private final int grain;
+
+    /**
+     * Create a task to diffuse the given range of members.
+     * 
+     * @param diffusion
+     *            The diffusion of the container.
+     * @param objects
+     *            The members to diffuse.
+     * @param includes
+     *            The include node for each member.
+     * @param diffusers
+     *            The object diffuser for each member or null.
+     * @param diffused
+     *            The array to receive the diffused members.
+     * @param from
+     *            The index of the first member of the range.
+     * @param to
+     *            The index one past the last member of the range.
+     * @param grain
+     *            The maximum number of members to diffuse in a single task.
+     */
+    private ParallelDiffusion(Diffusion diffusion, Object[] objects, Includes[] includes, ObjectDiffuser[] diffusers, Object[] diffused, int from, int to, int grain) {
+        this.diffusion = diffusion;
+        this.objects = objects;
+        this.includes = includes;
+        this.diffusers = diffusers;
+        this.diffused = diffused;
+        this.from = from;
+        this.to = to;
+        this.grain = grain;
+    }
+
+    /**
+     * Diffuse the members in the range, dividing the range in two if it is
+     * larger than the grain.
+     */
+    @Override
+    protected void compute() {
+        if (to - from > grain) {
+            int middle = (from + to) >>> 1;
+            invokeAll(new ParallelDiffusion(diffusion, objects, includes, diffusers, diffused, from, middle, grain),
+                      new ParallelDiffusion(diffusion, objects, includes, diffusers, diffused, middle, to, grain));
+            return;
+        }
+        TreeSink sink = new TreeSink();
+        Diffusion fork = diffusion.fork(sink);
+        sink.startList();
+        for (int i = from; i < to; i++) {
+            if (objects[i] == null) {
+                sink.scalar(null);
+            } else if (diffusers == null) {
+                fork.diffuse(objects[i], includes[i]);
+            } else {
+                fork.diffuse(objects[i], includes[i], diffusers[i]);
+            }
+        }
+        sink.end();
+        diffusion.join(fork);
+        List<?> list = (List<?>) sink.getTree();
+        for (int i = from; i < to; i++) {
+            diffused[i] = list.get(i - from);
+        }
+    }
+
+    /**
+     * Diffuse the given members in parallel using the fork/join pool of the
+     * root diffuser and return the diffused members in the same order.
+     * 
+     * @param diffusion
+     *            The diffusion of the container.
+     * @param objects
+     *            The members to diffuse.
+     * @param includes
+     *            The include node for each member.
+     * @param diffusers
+     *            The object diffuser for each member, or null to use the
+     *            object diffuser for the class of each member.
+     * @return The diffused members.
+     */
+    public static Object[] diffuse(Diffusion diffusion, Object[] objects, Includes[] includes, ObjectDiffuser[] diffusers) {
+        ForkJoinPool pool = diffusion.getDiffuser().getForkJoinPool();
+        int grain = Math.max(1, objects.length / (pool.getParallelism() * 4));
+        Object[] diffused = new Object[objects.length];
+        ParallelDiffusion task = new ParallelDiffusion(diffusion, objects, includes, diffusers, diffused, 0, objects.length, grain);
+        if (ForkJoinTask.getPool() == pool) {
+            task.invoke();
+        } else {
+            pool.invoke(task);
+        }
+        return diffused;
+    }
+
+    /**
+     * Diffuse the given elements in parallel, all with the given include node,
+     * and emit them as a list to the sink of the given diffusion.
+     * 
+     * @param diffusion
+     *            The diffusion of the container.
+     * @param elements
+     *            The elements to diffuse.
+     * @param includes
+     *            The include node for the elements.
+     */
+    public static void list(Diffusion diffusion, Object[] elements, Includes includes) {
+        Includes[] each = new Includes[elements.length];
+        Arrays.fill(each, includes);
+        DiffusionSink sink = diffusion.getSink();
+        sink.startList();
+        for (Object element : diffuse(diffusion, elements, each, null)) {
+            sink.value(element);
+        }
+        sink.end();
+    }
+}
@@ -0,0 +1,114 @@
+package com.goodworkalan.diffuse;
+
+import java.lang.reflect.Array;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * An unmodifiable list view of a primitive array that boxes each element only
+ * when it is read. The diffused form of a primitive array is a list over a
+ * copy of the primitive array, which is far more compact than a list of boxed
+ * elements.
+ * 
+ * @author Alan Gutierrez
+ */
+final class PrimitiveArrayList extends AbstractList<Object> implements RandomAccess {
+    /** The primitive array. */
+    private final Object array;
+
+    /** The length of the primitive array. */
+    private final int size;
+
+    /**
+     * Create a list view of the given primitive array. The array is not
+     * copied.
+     * 
+     * @param array
+     *            The primitive array.
+     * @param size
+     *            The length of the primitive array.
+     */
+    private PrimitiveArrayList(Object array, int size) {
+        this.array = array;
+        this.size = size;
+    }
+
+    /**
+     * Create a list view of the given primitive array without copying it.
+     * 
+     * @param array
+     *            The primitive array.
+     * @return An unmodifiable list of the boxed elements of the array.
+     */
+    public static PrimitiveArrayList view(Object array) {
+        return new PrimitiveArrayList(array, Array.getLength(array));
+    }
+
+    /**
+     * Create a list view of a copy of the given primitive array.
+     * 
+     * @param array
+     *            The primitive array.
+     * @return An unmodifiable list of the boxed elements of a copy of the
+     *         array.
+     * @exception IllegalArgumentException
+     *                If the given object is not a primitive array.
+     */
+    public static PrimitiveArrayList copyOf(Object array) {
+        if (array instanceof int[]) {
+            return new PrimitiveArrayList(((int[]) array).clone(), ((int[]) array).length);
+        } else if (array instanceof long[]) {
+            return new PrimitiveArrayList(((long[]) array).clone(), ((long[]) array).length);
+        } else if (array instanceof double[]) {
+            return new PrimitiveArrayList(((double[]) array).clone(), ((double[]) array).length);
+        } else if (array instanceof byte[]) {
+            return new PrimitiveArrayList(((byte[]) array).clone(), ((byte[]) array).length);
+        } else if (array instanceof float[]) {
+            return new PrimitiveArrayList(((float[]) array).clone(), ((float[]) array).length);
+        } else if (array instanceof short[]) {
+            return new PrimitiveArrayList(((short[]) array).clone(), ((short[]) array).length);
+        } else if (array instanceof char[]) {
+            return new PrimitiveArrayList(((char[]) array).clone(), ((char[]) array).length);
+        } else if (array instanceof boolean[]) {
+            return new PrimitiveArrayList(((boolean[]) array).clone(), ((boolean[]) array).length);
+        }
+        throw new IllegalArgumentException(String.format("\n\tNot a primitive array.\n\t\tClass: [%s]", array.getClass()));
+    }
+
+    /**
+     * Get the boxed element at the given index.
+     * 
+     * @param index
+     *            The index.
+     * @return The boxed element.
+     * @exception IndexOutOfBoundsException
+     *                If the index is out of bounds.
+     */
+    public Object get(int index) {
+        if (array instanceof int[]) {
+            return ((int[]) array)[index];
+        } else if (array instanceof long[]) {
+            return ((long[]) array)[index];
+        } else if (array instanceof double[]) {
+            return ((double[]) array)[index];
+        } else if (array instanceof byte[]) {
+            return ((byte[]) array)[index];
+        } else if (array instanceof float[]) {
+            return ((float[]) array)[index];
+        } else if (array instanceof short[]) {
+            return ((short[]) array)[index];
+        } else if (array instanceof char[]) {
+            return ((char[]) array)[index];
+        }
+        return ((boolean[]) array)[index];
+    }
+
+    /**
+     * Get the length of the array.
+     * 
+     * @return The size of the list.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,77 @@
+package com.goodworkalan.diffuse;
+
+import java.lang.reflect.Type;
+
+/**
+ * Converts a diffused scalar into a primitive, a primitive wrapper or a
+ * string. Numbers are converted to the numeric type, and strings are parsed,
+ * so that values that have been through a format with fewer numeric types,
+ * such as JSON, can be infused.
+ * 
+ * @author Alan Gutierrez
+ */
+class ScalarInfuser implements ObjectInfuser {
+    /** The singleton instance of the scalar infuser. */
+    public final static ObjectInfuser INSTANCE = new ScalarInfuser();
+
+    /**
+     * Convert the given diffused scalar into the given primitive, primitive
+     * wrapper or string type.
+     * 
+     * @param infuser
+     *            The root infuser.
+     * @param diffused
+     *            The diffused scalar.
+     * @param type
+     *            The scalar class.
+     * @return The converted scalar.
+     * @exception IllegalArgumentException
+     *                If the value cannot be converted.
+     */
+    public Object infuse(Infuser infuser, Object diffused, Type type) {
+        Class<?> scalarClass = Infuser.getRawClass(type);
+        if (scalarClass == String.class) {
+            return diffused.toString();
+        }
+        try {
+            if (scalarClass == int.class || scalarClass == Integer.class) {
+                return diffused instanceof Number ? ((Number) diffused).intValue() : Integer.valueOf(diffused.toString());
+            }
+            if (scalarClass == long.class || scalarClass == Long.class) {
+                return diffused instanceof Number ? ((Number) diffused).longValue() : Long.valueOf(diffused.toString());
+            }
+            if (scalarClass == double.class || scalarClass == Double.class) {
+                return diffused instanceof Number ? ((Number) diffused).doubleValue() : Double.valueOf(diffused.toString());
+            }
+            if (scalarClass == float.class || scalarClass == Float.class) {
+                return diffused instanceof Number ? ((Number) diffused).floatValue() : Float.valueOf(diffused.toString());
+            }
+            if (scalarClass == short.class || scalarClass == Short.class) {
+                return diffused instanceof Number ? ((Number) diffused).shortValue() : Short.valueOf(diffused.toString());
+            }
+            if (scalarClass == byte.class || scalarClass == Byte.class) {
+                return diffused instanceof Number ? ((Number) diffused).byteValue() : Byte.valueOf(diffused.toString());
+            }
+        } catch (NumberFormatException e) {
+            throw Infuser.cannotInfuse(diffused, type, e);
+        }
+        if (scalarClass == boolean.class || scalarClass == Boolean.class) {
+            return diffused instanceof Boolean ? diffused : Boolean.valueOf(diffused.toString());
+        }
+        if (scalarClass == char.class || scalarClass == Character.class) {
+            if (diffused instanceof Character) {
+                return diffused;
+            }
+            if (diffused instanceof Number) {
+                return (char) ((Number) diffused).intValue();
+            }
+            if (diffused.toString().length() == 1) {
+                return diffused.toString().charAt(0);
+            }
+        }
+        if (scalarClass.isInstance(diffused)) {
+            return diffused;
+        }
+        throw Infuser.cannotInfuse(diffused, type, null);
+    }
+}
@@ -1,7 +1,5 @@
 package com.goodworkalan.diffuse;
 
-import java.util.Set;
-
 /**
  * Convert an object into a string by calling its <code>toString</code> method.
  * 
@@ -13,21 +11,17 @@ public class ToStringDiffuser implements ObjectDiffuser {
 
 	/**
 	 * Diffuse the given <code>object</code> by calling its
-	 * <code>toString</code> method.
+	 * <code>toString</code> method and emitting the result as a scalar.
 	 * 
-	 * @param diffuser
-	 *            The object diffuser provider.
+	 * @param diffusion
+	 *            The state of the diffusion.
 	 * @param object
 	 *            The class to diffuse.
-	 * @param path
-	 *            The path of the object in the object graph.
 	 * @param includes
-	 *            The set of paths to include in the diffused object graph or an
-	 *            empty set to include all paths.
-	 * @return The result of calling <code>toString</code> on the object.
+	 *            The include node for the object in the object graph.
 	 */
-    public Object diffuse(Diffuser diffuser, Object object, StringBuilder path, Set<String> includes) {
-        return object.toString();
+    public void diffuse(Diffusion diffusion, Object object, Includes includes) {
+        diffusion.scalar(object.toString());
     }
     
     /**
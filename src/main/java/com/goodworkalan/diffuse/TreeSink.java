@@ -0,0 +1,212 @@
+package com.goodworkalan.diffuse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A diffusion sink that builds the diffused object graph as a tree of
+ * unmodifiable maps, lists and scalars. This is the sink used to create the
+ * objects returned by the {@link Diffuser#diffuse(Object, Includes)} method.
+ * <p>
+ * A tree sink is used for a single diffusion and is not thread-safe.
+ * 
+ * @author Alan Gutierrez
+ */
+public class TreeSink implements DiffusionSink {
+    /** The stack of maps and lists under construction. */
+    private final List<Object> stack = new ArrayList<Object>();
+
+    /** The unmodifiable views of the maps and lists on the stack. */
+    private final List<Object> views = new ArrayList<Object>();
+
+    /** The value most recently completed. */
+    private Object last;
+
+    /** The key of the next map entry. */
+    private String key;
+
+    /** The root of the tree. */
+    private Object tree;
+
+    /** The maps and lists started in order or null if not retained. */
+    private final List<Object> containers;
+
+    /** Create a tree sink. */
+    public TreeSink() {
+        this(false);
+    }
+
+    /**
+     * Create a tree sink that retains the maps and lists it starts, if
+     * requested, so that it can receive references to them.
+     * 
+     * @param retain
+     *            Whether to retain the maps and lists started.
+     */
+    TreeSink(boolean retain) {
+        this.containers = retain ? new ArrayList<Object>() : null;
+    }
+
+    /**
+     * Add the given value to the map or list at the top of the stack or set
+     * the root of the tree if the stack is empty.
+     * 
+     * @param value
+     *            The value.
+     */
+    @SuppressWarnings("unchecked")
+    private void add(Object value) {
+        last = value;
+        if (stack.isEmpty()) {
+            tree = value;
+        } else {
+            Object top = stack.get(stack.size() - 1);
+            if (top instanceof CompactMap) {
+                ((CompactMap) top).add(value);
+            } else if (top instanceof List<?>) {
+                ((List<Object>) top).add(value);
+            } else {
+                ((Map<String, Object>) top).put(key, value);
+            }
+        }
+    }
+
+    /**
+     * Start a map by adding an unmodifiable view of a new map to the tree and
+     * pushing the new map onto the stack.
+     */
+    public void startMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        Map<String, Object> view = Collections.unmodifiableMap(map);
+        add(view);
+        stack.add(map);
+        views.add(view);
+        if (containers != null) {
+            containers.add(view);
+        }
+    }
+
+    /**
+     * Start a map with the given keys by adding a new compact map to the tree
+     * and pushing it onto the stack. The compact map is unmodifiable, so it
+     * is its own view.
+     * 
+     * @param keys
+     *            The keys of the map entries.
+     */
+    public void startMap(MapKeys keys) {
+        CompactMap map = new CompactMap(keys);
+        add(map);
+        stack.add(map);
+        views.add(map);
+        if (containers != null) {
+            containers.add(map);
+        }
+    }
+
+    /**
+     * Record the key of the next map entry.
+     * 
+     * @param name
+     *            The entry key.
+     */
+    public void key(String name) {
+        key = name;
+    }
+
+    /**
+     * Start a list by adding an unmodifiable view of a new list to the tree
+     * and pushing the new list onto the stack.
+     */
+    public void startList() {
+        List<Object> list = new ArrayList<Object>();
+        List<Object> view = Collections.unmodifiableList(list);
+        add(view);
+        stack.add(list);
+        views.add(view);
+        if (containers != null) {
+            containers.add(view);
+        }
+    }
+
+    /**
+     * Add the given scalar to the tree.
+     * 
+     * @param value
+     *            The scalar value.
+     */
+    public void scalar(Object value) {
+        add(value);
+    }
+
+    /**
+     * Add the given already diffused value to the tree as is.
+     * 
+     * @param diffused
+     *            The diffused value.
+     */
+    public void value(Object diffused) {
+        add(diffused);
+    }
+
+    /** Pop the current map or list off of the stack. */
+    public void end() {
+        stack.remove(stack.size() - 1);
+        last = views.remove(views.size() - 1);
+    }
+
+    /**
+     * Get the index of the next map or list if this sink retains the maps and
+     * lists it starts, otherwise -1.
+     * 
+     * @return The index of the next map or list or -1.
+     */
+    public int mark() {
+        return containers == null ? -1 : containers.size();
+    }
+
+    /**
+     * Add the retained map or list with the given index to the tree again.
+     * 
+     * @param index
+     *            The index of the map or list.
+     */
+    public void reference(int index) {
+        add(get(index));
+    }
+
+    /**
+     * Get the retained map or list with the given index.
+     * 
+     * @param index
+     *            The index of the map or list.
+     * @return The map or list.
+     */
+    Object get(int index) {
+        return containers.get(index);
+    }
+
+    /**
+     * Get the value most recently completed, the map or list most recently
+     * ended or the scalar or already diffused value most recently added.
+     * After an object diffuser has diffused an object, this is the diffused
+     * object.
+     * 
+     * @return The value most recently completed.
+     */
+    Object getLast() {
+        return last;
+    }
+
+    /**
+     * Get the root of the diffused tree.
+     * 
+     * @return The diffused tree.
+     */
+    public Object getTree() {
+        return tree;
+    }
+}
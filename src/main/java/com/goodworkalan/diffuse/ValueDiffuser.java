@@ -0,0 +1,137 @@
+package com.goodworkalan.diffuse;
+
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Convert a holder of a single value, an optional, an atomic, an adder or an
+ * accumulator, into its current value. An empty optional is diffused as null.
+ * <p>
+ * The primitive optionals, atomics, adders and accumulators are diffused by
+ * {@link #INSTANCE} as the boxed primitive of their current value. They are
+ * scalars, so a bean property whose value is one of them is included without
+ * an include path.
+ * <p>
+ * The value of an <code>Optional</code> or an <code>AtomicReference</code> is
+ * diffused by {@link #REFERENCE} in place of the holder with the include node
+ * of the holder, so that the holder is invisible in the diffused object
+ * graph. The value can be a bean or a collection, so a reference holder is a
+ * container. A bean property whose value is a reference holder is included
+ * only if its path is included, as is a bean property whose value is a bean,
+ * whatever the value of the holder.
+ *
+ * @author Alan Gutierrez
+ */
+public class ValueDiffuser implements ObjectDiffuser {
+    /** The value diffuser for primitive holders. */
+    public final static ObjectDiffuser INSTANCE = new ValueDiffuser(false);
+
+    /** The value diffuser for reference holders. */
+    public final static ObjectDiffuser REFERENCE = new ValueDiffuser(true);
+
+    /** Whether this diffuser diffuses reference holders. */
+    private final boolean reference;
+
+    /**
+     * Create a value diffuser.
+     *
+     * @param reference
+     *            Whether the diffuser diffuses reference holders.
+     */
+    private ValueDiffuser(boolean reference) {
+        this.reference = reference;
+    }
+
+    /**
+     * Diffuse the given holder by emitting its current value as a scalar, or
+     * diffusing it in place of the holder if it is the value of an
+     * <code>Optional</code> or an <code>AtomicReference</code>.
+     *
+     * @param diffusion
+     *            The state of the diffusion.
+     * @param object
+     *            The holder to diffuse.
+     * @param includes
+     *            The include node for the object in the object graph.
+     * @exception IllegalArgumentException
+     *                If the object is not a supported holder.
+     */
+    public void diffuse(Diffusion diffusion, Object object, Includes includes) {
+        if (object instanceof Optional<?>) {
+            diffusion.diffuse(((Optional<?>) object).orElse(null), includes);
+        } else if (object instanceof AtomicReference<?>) {
+            diffusion.diffuse(((AtomicReference<?>) object).get(), includes);
+        } else {
+            diffusion.scalar(value(object));
+        }
+    }
+
+    /**
+     * Get the current value of the given primitive holder.
+     *
+     * @param object
+     *            The primitive holder.
+     * @return The boxed value or null if the holder is an empty optional.
+     * @exception IllegalArgumentException
+     *                If the object is not a supported holder.
+     */
+    private static Object value(Object object) {
+        if (object instanceof AtomicInteger) {
+            return ((AtomicInteger) object).get();
+        }
+        if (object instanceof AtomicLong) {
+            return ((AtomicLong) object).get();
+        }
+        if (object instanceof AtomicBoolean) {
+            return ((AtomicBoolean) object).get();
+        }
+        if (object instanceof LongAdder) {
+            return ((LongAdder) object).sum();
+        }
+        if (object instanceof LongAccumulator) {
+            return ((LongAccumulator) object).get();
+        }
+        if (object instanceof DoubleAdder) {
+            return ((DoubleAdder) object).sum();
+        }
+        if (object instanceof DoubleAccumulator) {
+            return ((DoubleAccumulator) object).get();
+        }
+        if (object instanceof OptionalInt) {
+            OptionalInt optional = (OptionalInt) object;
+            return optional.isPresent() ? (Object) optional.getAsInt() : null;
+        }
+        if (object instanceof OptionalLong) {
+            OptionalLong optional = (OptionalLong) object;
+            return optional.isPresent() ? (Object) optional.getAsLong() : null;
+        }
+        if (object instanceof OptionalDouble) {
+            OptionalDouble optional = (OptionalDouble) object;
+            return optional.isPresent() ? (Object) optional.getAsDouble() : null;
+        }
+        throw new IllegalArgumentException(String.format(
+                "\n\tUnable to diffuse value.\n" +
+                "\t\tClass: [%s]", object.getClass()));
+    }
+
+    /**
+     * Return true if this diffuser diffuses reference holders, whose values
+     * may be containers, or false if it diffuses primitive holders, which are
+     * scalars.
+     *
+     * @return True if this is a diffuser for reference holders.
+     */
+    public boolean isContainer() {
+        return reference;
+    }
+}
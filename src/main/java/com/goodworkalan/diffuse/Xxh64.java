@@ -0,0 +1,280 @@
+package com.goodworkalan.diffuse;
+
+import java.security.MessageDigest;
+
+/**
+ * A message digest that computes the 64-bit XXH64 hash, a fast
+ * non-cryptographic hash, for use where a cryptographic digest is slower than
+ * necessary, as with a {@link DigestSink} that fingerprints a diffused object
+ * graph to detect a change. The digest is the eight bytes of the hash, most
+ * significant first.
+ * <p>
+ * The input is consumed in stripes of 32 bytes, so only the last partial
+ * stripe is buffered, and the digest can be cloned part way through an input.
+ * An XXH64 digest is not thread-safe.
+ *
+ * @author Alan Gutierrez
+ */
+public final class Xxh64 extends MessageDigest implements Cloneable {
+    /** The first prime. */
+    private final static long PRIME_1 = 0x9E3779B185EBCA87L;
+
+    /** The second prime. */
+    private final static long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+
+    /** The third prime. */
+    private final static long PRIME_3 = 0x165667B19E3779F9L;
+
+    /** The fourth prime. */
+    private final static long PRIME_4 = 0x85EBCA77C2B2AE63L;
+
+    /** The fifth prime. */
+    private final static long PRIME_5 = 0x27D4EB2F165667C5L;
+
+    /** The seed. */
+    private final long seed;
+
+    /** The four accumulators of the stripes. */
+    private long v1, v2, v3, v4;
+
+    /** The bytes of the last partial stripe. */
+    private byte[] stripe = new byte[32];
+
+    /** The count of bytes in the last partial stripe. */
+    private int length;
+
+    /** The total count of bytes consumed. */
+    private long total;
+
+    /** Create an XXH64 digest with a seed of zero. */
+    public Xxh64() {
+        this(0L);
+    }
+
+    /**
+     * Create an XXH64 digest with the given seed.
+     *
+     * @param seed
+     *            The seed.
+     */
+    public Xxh64(long seed) {
+        super("XXH64");
+        this.seed = seed;
+        engineReset();
+    }
+
+    /**
+     * Get the hash of the input consumed so far, without resetting the
+     * digest.
+     *
+     * @return The hash.
+     */
+    public long getValue() {
+        long hash;
+        if (total >= 32) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = merge(hash, v1);
+            hash = merge(hash, v2);
+            hash = merge(hash, v3);
+            hash = merge(hash, v4);
+        } else {
+            hash = seed + PRIME_5;
+        }
+        hash += total;
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            hash ^= round(0, getLong(stripe, i));
+            hash = Long.rotateLeft(hash, 27) * PRIME_1 + PRIME_4;
+        }
+        if (i + 4 <= length) {
+            hash ^= (getInt(stripe, i) & 0xFFFFFFFFL) * PRIME_1;
+            hash = Long.rotateLeft(hash, 23) * PRIME_2 + PRIME_3;
+            i += 4;
+        }
+        for (; i < length; i++) {
+            hash ^= (stripe[i] & 0xFF) * PRIME_5;
+            hash = Long.rotateLeft(hash, 11) * PRIME_1;
+        }
+        hash ^= hash >>> 33;
+        hash *= PRIME_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME_3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    /**
+     * Mix the given input into the given accumulator.
+     *
+     * @param accumulator
+     *            The accumulator.
+     * @param input
+     *            The input.
+     * @return The new accumulator.
+     */
+    private static long round(long accumulator, long input) {
+        accumulator += input * PRIME_2;
+        accumulator = Long.rotateLeft(accumulator, 31);
+        return accumulator * PRIME_1;
+    }
+
+    /**
+     * Merge the given accumulator into the given hash.
+     *
+     * @param hash
+     *            The hash.
+     * @param accumulator
+     *            The accumulator.
+     * @return The new hash.
+     */
+    private static long merge(long hash, long accumulator) {
+        hash ^= round(0, accumulator);
+        return hash * PRIME_1 + PRIME_4;
+    }
+
+    /**
+     * Read the little-endian long at the given offset.
+     *
+     * @param bytes
+     *            The bytes.
+     * @param offset
+     *            The offset.
+     * @return The long.
+     */
+    private static long getLong(byte[] bytes, int offset) {
+        return (getInt(bytes, offset) & 0xFFFFFFFFL) | ((long) getInt(bytes, offset + 4) << 32);
+    }
+
+    /**
+     * Read the little-endian int at the given offset.
+     *
+     * @param bytes
+     *            The bytes.
+     * @param offset
+     *            The offset.
+     * @return The int.
+     */
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF)
+            | (bytes[offset + 1] & 0xFF) << 8
+            | (bytes[offset + 2] & 0xFF) << 16
+            | (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+    /**
+     * Consume the stripe of 32 bytes at the given offset.
+     *
+     * @param bytes
+     *            The bytes.
+     * @param offset
+     *            The offset.
+     */
+    private void consume(byte[] bytes, int offset) {
+        v1 = round(v1, getLong(bytes, offset));
+        v2 = round(v2, getLong(bytes, offset + 8));
+        v3 = round(v3, getLong(bytes, offset + 16));
+        v4 = round(v4, getLong(bytes, offset + 24));
+    }
+
+    /**
+     * Update the digest with the given byte.
+     *
+     * @param input
+     *            The byte.
+     */
+    @Override
+    protected void engineUpdate(byte input) {
+        total++;
+        stripe[length++] = input;
+        if (length == 32) {
+            consume(stripe, 0);
+            length = 0;
+        }
+    }
+
+    /**
+     * Update the digest with the given range of bytes.
+     *
+     * @param input
+     *            The bytes.
+     * @param offset
+     *            The offset of the range.
+     * @param count
+     *            The count of bytes in the range.
+     */
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int count) {
+        total += count;
+        if (length + count < 32) {
+            System.arraycopy(input, offset, stripe, length, count);
+            length += count;
+            return;
+        }
+        int end = offset + count;
+        if (length != 0) {
+            int fill = 32 - length;
+            System.arraycopy(input, offset, stripe, length, fill);
+            consume(stripe, 0);
+            offset += fill;
+            length = 0;
+        }
+        for (; offset + 32 <= end; offset += 32) {
+            consume(input, offset);
+        }
+        length = end - offset;
+        System.arraycopy(input, offset, stripe, 0, length);
+    }
+
+    /**
+     * Get the eight bytes of the hash, most significant first, and reset the
+     * digest.
+     *
+     * @return The digest.
+     */
+    @Override
+    protected byte[] engineDigest() {
+        long hash = getValue();
+        engineReset();
+        byte[] digest = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            digest[i] = (byte) hash;
+            hash >>>= 8;
+        }
+        return digest;
+    }
+
+    /**
+     * Get the length of the digest.
+     *
+     * @return The length of the digest, eight bytes.
+     */
+    @Override
+    protected int engineGetDigestLength() {
+        return 8;
+    }
+
+    /** Reset the digest. */
+    @Override
+    protected void engineReset() {
+        v1 = seed + PRIME_1 + PRIME_2;
+        v2 = seed + PRIME_2;
+        v3 = seed;
+        v4 = seed - PRIME_1;
+        length = 0;
+        total = 0;
+    }
+
+    /**
+     * Create a copy of this digest with its own copy of the partial stripe.
+     *
+     * @return A copy of this digest.
+     * @exception CloneNotSupportedException
+     *                Never.
+     */
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        Xxh64 copy = (Xxh64) super.clone();
+        copy.stripe = stripe.clone();
+        return copy;
+    }
+}
@@ -4,9 +4,12 @@ import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNull;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.testng.annotations.Test;
@@ -29,4 +32,35 @@ public class ArrayDiffuserTest {
         assertNull(iterator.next());
         assertFalse(iterator.hasNext());
     }
+
+    /** Test primitive array conversion. */
+    @Test
+    public void primitives() {
+        Diffuser diffuser = new Diffuser();
+        double[] histogram = new double[] { 1.5, 2.5 };
+        List<?> list = (List<?>) diffuser.diffuse(histogram);
+        histogram[0] = 0;
+        assertEquals(list.size(), 2);
+        assertEquals(list.get(0), 1.5);
+        assertEquals(diffuser.diffuse(new int[] { 1 }), Collections.singletonList(1));
+        assertEquals(diffuser.diffuse(new long[] { 1 }), Collections.singletonList(1L));
+        assertEquals(diffuser.diffuse(new float[] { 1 }), Collections.singletonList(1f));
+        assertEquals(diffuser.diffuse(new short[] { 1 }), Collections.singletonList((short) 1));
+        assertEquals(diffuser.diffuse(new char[] { 'a' }), Collections.singletonList('a'));
+        assertEquals(diffuser.diffuse(new boolean[] { true }), Collections.singletonList(true));
+        assertEquals(diffuser.diffuse(new byte[] { 1 }), Collections.singletonList((byte) 1));
+        Map<?, ?> map = (Map<?, ?>) diffuser.diffuse(Collections.singletonMap("a", new int[] { 1, 2 }), "a");
+        assertEquals(map.get("a"), Arrays.asList(1, 2));
+    }
+
+    /** Test byte array encodings. */
+    @Test
+    public void bytes() {
+        Diffuser diffuser = new Diffuser();
+        diffuser.setConverter(byte[].class, ByteArrayDiffuser.HEX);
+        assertEquals(diffuser.diffuse(new byte[] { 1, (byte) 0xAB }), "01ab");
+        diffuser.setConverter(byte[].class, ByteArrayDiffuser.BASE64);
+        assertEquals(diffuser.diffuse(new byte[] { 1, 2, 3 }), "AQID");
+        assertEquals(diffuser.diffuse(new Object[] { new byte[] { 1, 2, 3 } }), Collections.singletonList("AQID"));
+    }
 }
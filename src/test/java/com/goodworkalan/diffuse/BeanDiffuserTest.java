@@ -1,6 +1,13 @@
 package com.goodworkalan.diffuse;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.testng.annotations.Test;
 
@@ -20,4 +27,69 @@ public class BeanDiffuserTest {
             throw e;
         }
     }
+
+    /** Test that public properties are read with method handles. */
+    @Test
+    public void direct() {
+        Diffuser diffuser = new Diffuser();
+        BeanPlan plan = diffuser.getPlan(Widget.class);
+        for (int i = 0; i < plan.size(); i++) {
+            assertTrue(plan.get(i).isDirect());
+        }
+        Widget widget = new Widget();
+        widget.string = "a";
+        Map<?, ?> map = (Map<?, ?>) diffuser.diffuse(widget);
+        assertEquals(map.get("integer"), 1);
+        assertEquals(map.get("string"), "a");
+    }
+
+    /** Test that diffused beans share their keys. */
+    @Test
+    public void compact() {
+        Diffuser diffuser = new Diffuser();
+        Widget first = new Widget();
+        first.string = "a";
+        Widget second = new Widget();
+        Map<?, ?> map = (Map<?, ?>) diffuser.diffuse(first, "list");
+        assertTrue(map instanceof CompactMap);
+        assertEquals(map.get("string"), "a");
+        assertTrue(map.containsKey("list"));
+        assertFalse(map.containsKey("map"));
+        assertNull(map.get(1));
+        Map<Object, Object> expected = new LinkedHashMap<Object, Object>(map);
+        assertEquals(map, expected);
+        assertEquals(expected, map);
+        assertEquals(map.hashCode(), expected.hashCode());
+        BeanPlan plan = diffuser.getPlan(Widget.class);
+        assertSame(plan.getKeys(new Includes("list")), plan.getKeys(new Includes("list")));
+        assertSame(plan.getKeys(Includes.NONE), plan.getKeys(new Includes("nothing")));
+        Includes list = new Includes("list");
+        Includes both = new Includes("list", "map");
+        for (int i = 0; i < 3; i++) {
+            assertEquals(plan.getKeys(list).size(), plan.getKeys(Includes.NONE).size() + 1);
+            assertEquals(plan.getKeys(both).size(), plan.getKeys(Includes.NONE).size() + 2);
+        }
+        Map<?, ?> other = (Map<?, ?>) diffuser.diffuse(second, "list");
+        assertEquals(other.keySet(), map.keySet());
+        try {
+            map.clear();
+        } catch (UnsupportedOperationException e) {
+            return;
+        }
+        throw new AssertionError();
+    }
+
+    /** Test the key index of shared keys. */
+    @Test
+    public void keys() {
+        MapKeys keys = new MapKeys("a", "b", "c", new String("d"));
+        assertEquals(keys.size(), 4);
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(keys.indexOf(keys.get(i)), i);
+        }
+        assertEquals(keys.indexOf("d"), 3);
+        assertEquals(keys.indexOf("e"), -1);
+        assertEquals(keys.indexOf(null), -1);
+        assertEquals(new MapKeys().indexOf("a"), -1);
+    }
 }
@@ -0,0 +1,44 @@
+package com.goodworkalan.diffuse;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the Diffuse JMH benchmarks with the GC profiler, so that the bytes
+ * allocated per operation are reported along with the operations per second.
+ * Any JMH command line options are passed through, so a subset of the
+ * benchmarks can be run by passing a benchmark pattern or parameter values,
+ * for example <code>-p shape=deep</code>. All of the Diffuse benchmarks are
+ * run only if no benchmark pattern is given.
+ *
+ * @author Alan Gutierrez
+ */
+public class Benchmarks {
+    /**
+     * Run the benchmarks.
+     *
+     * @param args
+     *            The JMH command line options.
+     * @throws RunnerException
+     *             If a benchmark fails.
+     * @throws CommandLineOptionException
+     *             If the command line options are invalid.
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions options = new CommandLineOptions(args);
+        ChainedOptionsBuilder builder = new OptionsBuilder()
+            .parent(options)
+            .addProfiler(GCProfiler.class);
+        if (options.getIncludes().isEmpty()) {
+            builder
+                .include(DiffuserBenchmark.class.getSimpleName())
+                .include(DispatchBenchmark.class.getSimpleName());
+        }
+        new Runner(builder.build()).run();
+    }
+}
@@ -0,0 +1,191 @@
+package com.goodworkalan.diffuse;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link BinaryWriter} and {@link BinaryReader} classes.
+ *
+ * @author Alan Gutierrez
+ */
+public class BinaryWriterTest {
+    /**
+     * Create a map with nested containers and every kind of scalar.
+     * 
+     * @return A map to write.
+     */
+    private Map<String, Object> map() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("a", 1);
+        map.put("b", Arrays.asList(Long.MIN_VALUE, -2L, 47, 48, -1, Integer.MIN_VALUE, 1.5d, Double.NaN, 2.5f, true, false, null));
+        map.put("c", "\"\\\n\u0001\u00e9\u20ac\ud83d\ude00\ud800");
+        map.put("d", new LinkedHashMap<String, Object>());
+        map.put("e", new BigDecimal("-12345678901234567890.0042"));
+        map.put("f", new BigInteger("123456789012345678901234567890"));
+        map.put("g", Arrays.asList(Arrays.asList(), Arrays.asList("a")));
+        return map;
+    }
+
+    /**
+     * Write the given object and read it back.
+     * 
+     * @param object
+     *            The object.
+     * @param includes
+     *            The include paths.
+     * @return The tree read back.
+     */
+    private Object roundTrip(Object object, Includes includes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinaryWriter(3).write(new Diffuser(), object, includes, out);
+        return new BinaryReader(new ByteArrayInputStream(out.toByteArray()), 5).read();
+    }
+
+    /** Test that scalars, maps and lists are read back unchanged. */
+    @Test
+    public void scalars() throws IOException {
+        assertEquals(roundTrip(map(), Includes.ALL), new Diffuser().diffuse(map(), Includes.ALL));
+        assertEquals(roundTrip("x", Includes.ALL), "x");
+        assertEquals(roundTrip(null, Includes.ALL), null);
+    }
+
+    /** Test that bean keys are written once and read back as shared keys. */
+    @Test
+    public void shapes() throws IOException {
+        List<Widget> widgets = new ArrayList<Widget>();
+        for (int i = 0; i < 3; i++) {
+            Widget widget = new Widget();
+            widget.string = "widget" + i;
+            widgets.add(widget);
+        }
+        Includes includes = new Includes("list");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinaryWriter().write(new Diffuser(), widgets, includes, out);
+        byte[] bytes = out.toByteArray();
+        String text = new String(bytes, "ISO-8859-1");
+        assertEquals(text.indexOf("string"), text.lastIndexOf("string"));
+
+        List<?> list = (List<?>) new BinaryReader(new ByteArrayInputStream(bytes)).read();
+        assertEquals(list, new Diffuser().diffuse(widgets, includes));
+        assertTrue(list.get(0) instanceof CompactMap);
+        assertSame(((CompactMap) list.get(0)).keySet().iterator().next(), ((CompactMap) list.get(2)).keySet().iterator().next());
+    }
+
+    /** Test keys beyond the single byte key references. */
+    @Test
+    public void keys() throws IOException {
+        List<Map<String, Object>> maps = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < 2; i++) {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            for (int j = 0; j < 300; j++) {
+                map.put("key" + j, j * 1000);
+            }
+            maps.add(map);
+        }
+        assertEquals(roundTrip(maps, Includes.ALL), maps);
+    }
+
+    /** Test several documents in one stream replayed to a sink. */
+    @Test
+    public void documents() throws IOException {
+        BinaryWriter writer = new BinaryWriter();
+        ByteBuffer bytes = ByteBuffer.allocate(4096);
+        writer.write(new Diffuser(), map(), Includes.ALL, bytes);
+        writer.write(new Diffuser(), Arrays.asList(1, 2), Includes.ALL, bytes);
+        bytes.flip();
+        byte[] array = new byte[bytes.remaining()];
+        bytes.get(array);
+        BinaryReader reader = new BinaryReader(new ByteArrayInputStream(array));
+        TreeSink sink = new TreeSink();
+        reader.read(sink);
+        assertEquals(sink.getTree(), new Diffuser().diffuse(map(), Includes.ALL));
+        assertEquals(reader.read(), Arrays.asList(1, 2));
+        try {
+            reader.read();
+            assertTrue(false);
+        } catch (EOFException e) {
+        }
+    }
+
+    /** Test giving a binary writer directly to a diffuser. */
+    @Test
+    public void direct() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryWriter writer = new BinaryWriter(out);
+        new Diffuser().diffuse(map(), Includes.ALL, writer);
+        writer.flush();
+        new Diffuser().diffuse(map(), Includes.ALL, writer);
+        writer.flush();
+        BinaryReader reader = new BinaryReader(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(reader.read(), new Diffuser().diffuse(map(), Includes.ALL));
+        assertEquals(reader.read(), new Diffuser().diffuse(map(), Includes.ALL));
+    }
+
+    /** Test that a malformed count does not force a large allocation. */
+    @Test
+    public void oversized() throws IOException {
+        byte[] string = { (byte) BinaryWriter.MAGIC, (byte) BinaryWriter.VERSION, (byte) BinaryWriter.STRING, (byte) 0xF0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 'a' };
+        byte[] shape = { (byte) BinaryWriter.MAGIC, (byte) BinaryWriter.VERSION, (byte) BinaryWriter.SHAPED_MAP, 0x00, (byte) 0xF0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 };
+        for (byte[] document : Arrays.asList(string, shape)) {
+            try {
+                new BinaryReader(new ByteArrayInputStream(document)).read();
+                assertTrue(false);
+            } catch (EOFException e) {
+            }
+        }
+    }
+
+    /** Test reading a container that appears more than once. */
+    @Test
+    public void shared() throws IOException {
+        Map<String, Object> shared = new LinkedHashMap<String, Object>();
+        shared.put("x", 1);
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("a", shared);
+        map.put("b", Arrays.asList(shared, shared));
+        Diffuser diffuser = new Diffuser();
+        diffuser.setCyclePolicy(CyclePolicy.THROW);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinaryWriter().write(diffuser, map, Includes.ALL, out);
+        byte[] bytes = out.toByteArray();
+        Map<?, ?> read = (Map<?, ?>) new BinaryReader(new ByteArrayInputStream(bytes)).read();
+        assertEquals(read, new Diffuser().diffuse(map, Includes.ALL));
+        assertSame(read.get("a"), ((List<?>) read.get("b")).get(1));
+        TreeSink sink = new TreeSink();
+        new BinaryReader(new ByteArrayInputStream(bytes)).read(sink);
+        assertEquals(sink.getTree(), read);
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(json);
+        new BinaryReader(new ByteArrayInputStream(bytes)).read(writer);
+        writer.flush();
+        assertEquals(new String(json.toByteArray(), "UTF-8"), "{\"a\":{\"x\":1},\"b\":[{\"$shared\":1},{\"$shared\":1}]}");
+        byte[] open = { (byte) BinaryWriter.MAGIC, (byte) BinaryWriter.VERSION, (byte) BinaryWriter.LIST, (byte) BinaryWriter.SHARED, 0x00, (byte) BinaryWriter.END };
+        try {
+            new BinaryReader(new ByteArrayInputStream(open)).read();
+            assertTrue(false);
+        } catch (IOException e) {
+        }
+    }
+
+    /** Test reading something that is not a document. */
+    @Test(expectedExceptions = IOException.class)
+    public void malformed() throws IOException {
+        new BinaryReader(new ByteArrayInputStream("{}".getBytes("UTF-8"))).read();
+    }
+}
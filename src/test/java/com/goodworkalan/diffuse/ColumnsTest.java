@@ -0,0 +1,73 @@
+package com.goodworkalan.diffuse;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link Columns} class.
+ *
+ * @author Alan Gutierrez
+ */
+public class ColumnsTest {
+    /**
+     * Create a list of widgets.
+     * 
+     * @return A list of widgets.
+     */
+    private List<Widget> widgets() {
+        List<Widget> widgets = new ArrayList<Widget>();
+        for (int i = 0; i < 5; i++) {
+            Widget widget = new Widget();
+            widget.string = i % 2 == 0 ? null : "widget" + i;
+            widget.list.add("a" + i);
+            widgets.add(widget);
+        }
+        return widgets;
+    }
+
+    /** Test that the columns match the diffused rows. */
+    @Test
+    public void columns() {
+        Diffuser diffuser = new Diffuser();
+        Includes includes = new Includes("list");
+        Columns columns = diffuser.columns(widgets(), Widget.class, includes);
+        List<Object> rows = new ArrayList<Object>();
+        for (Widget widget : widgets()) {
+            rows.add(diffuser.diffuse(widget, includes));
+        }
+        assertEquals(columns.size(), 5);
+        assertEquals(columns.getBeanClass(), Widget.class);
+        assertEquals(columns.getKeys().size(), ((Map<?, ?>) rows.get(0)).size());
+        for (int i = 0; i < columns.getKeys().size(); i++) {
+            String key = columns.getKeys().get(i);
+            List<?> column = columns.getList(i);
+            assertEquals(column.size(), 5);
+            for (int j = 0; j < rows.size(); j++) {
+                assertEquals(column.get(j), ((Map<?, ?>) rows.get(j)).get(key));
+            }
+        }
+        assertTrue(Arrays.equals((int[]) columns.getColumn("integer"), new int[] { 1, 1, 1, 1, 1 }));
+        assertEquals(columns.getType(columns.getKeys().indexOf("integer")), int.class);
+        assertEquals(columns.getColumn("list"), Arrays.asList(Arrays.asList("a0"), Arrays.asList("a1"), Arrays.asList("a2"), Arrays.asList("a3"), Arrays.asList("a4")));
+        assertNull(columns.getColumn("map"));
+        Map<String, Object> map = columns.toMap();
+        assertEquals(map.get("string"), Arrays.asList(null, "widget1", null, "widget3", null));
+        assertEquals(map.get("integer"), Arrays.asList(1, 1, 1, 1, 1));
+    }
+
+    /** Test a collection with a bean of another class. */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void mixed() {
+        List<Object> beans = new ArrayList<Object>(widgets());
+        beans.add(new BeanOfEvil());
+        new Diffuser().columns(beans, Widget.class, Includes.NONE);
+    }
+}
@@ -0,0 +1,85 @@
+package com.goodworkalan.diffuse;
+
+import static org.testng.Assert.assertEquals;
+
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Date;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link DateDiffuser} class.
+ *
+ * @author Alan Gutierrez
+ */
+public class DateDiffuserTest {
+    /** Test the default format. */
+    @Test
+    public void defaultPattern() {
+        Date date = new Date(1234567890123L);
+        String expected = new SimpleDateFormat("EEE MMM dd HH:mm:ss z yyyy").format(date);
+        Diffuser diffuser = new Diffuser();
+        assertEquals(diffuser.diffuse(date), expected);
+        assertEquals(diffuser.diffuse(date), expected);
+        assertEquals(diffuser.diffuse(Instant.ofEpochMilli(1234567890123L)), expected);
+    }
+
+    /** Test ISO-8601 formatting. */
+    @Test
+    public void iso() {
+        DateDiffuser iso = DateDiffuser.ISO;
+        assertEquals(iso.format(new Date(1234567890000L)), "2009-02-13T23:31:30Z");
+        assertEquals(iso.format(new Date(1234567890123L)), "2009-02-13T23:31:30.123Z");
+        Timestamp timestamp = new Timestamp(1234567890000L);
+        timestamp.setNanos(123456000);
+        assertEquals(iso.format(timestamp), "2009-02-13T23:31:30.123456Z");
+        timestamp.setNanos(123456789);
+        assertEquals(iso.format(timestamp), "2009-02-13T23:31:30.123456789Z");
+        assertEquals(iso.format(Instant.ofEpochSecond(1234567890L, 1)), Instant.ofEpochSecond(1234567890L, 1).toString());
+        assertEquals(iso.format(LocalDateTime.of(2009, 2, 13, 23, 31, 30)), "2009-02-13T23:31:30");
+        assertEquals(iso.format(ZonedDateTime.of(2009, 2, 13, 23, 31, 30, 0, ZoneOffset.ofHours(-5))), "2009-02-13T23:31:30-05:00");
+        for (long millis = 1234567890000L; millis < 1234567890000L + 40000; millis += 999) {
+            assertEquals(iso.format(new Date(millis)), Instant.ofEpochMilli(millis).toString());
+        }
+    }
+
+    /** Test epoch milliseconds. */
+    @Test
+    public void epochMillis() {
+        DateDiffuser millis = DateDiffuser.EPOCH_MILLIS;
+        assertEquals(millis.format(new Date(1234567890123L)), 1234567890123L);
+        assertEquals(millis.format(Instant.ofEpochMilli(1234567890123L)), 1234567890123L);
+        assertEquals(millis.format(LocalDateTime.of(1970, 1, 1, 0, 0, 1)), 1000L);
+        assertEquals(millis.format(ZonedDateTime.of(1970, 1, 1, 1, 0, 0, 0, ZoneOffset.ofHours(1))), 0L);
+        Diffuser diffuser = new Diffuser();
+        diffuser.setConverter(Date.class, millis);
+        assertEquals(diffuser.diffuse(new Date(1L)), 1L);
+    }
+
+    /** Test custom patterns. */
+    @Test
+    public void pattern() {
+        ZoneId zone = ZoneId.of("America/New_York");
+        DateDiffuser cached = new DateDiffuser("yyyy-MM-dd HH:mm:ss", zone, true);
+        DateDiffuser millis = new DateDiffuser("HH:mm:ss.SSS", zone, true);
+        assertEquals(cached.format(new Date(1234567890123L)), "2009-02-13 18:31:30");
+        assertEquals(cached.format(new Date(1234567890999L)), "2009-02-13 18:31:30");
+        assertEquals(cached.format(new Date(1234567891000L)), "2009-02-13 18:31:31");
+        assertEquals(millis.format(new Date(1234567890123L)), "18:31:30.123");
+        assertEquals(millis.format(new Date(1234567890999L)), "18:31:30.999");
+        assertEquals(cached.format(LocalDateTime.of(2009, 2, 13, 18, 31, 30)), "2009-02-13 18:31:30");
+        assertEquals(new DateDiffuser("'SS' ss", zone, true).format(new Date(1234567890123L)), "SS 30");
+    }
+
+    /** Test an unsupported type. */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void unsupported() {
+        DateDiffuser.ISO.format("2009");
+    }
+}
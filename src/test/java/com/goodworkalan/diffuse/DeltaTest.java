@@ -0,0 +1,171 @@
+package com.goodworkalan.diffuse;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link Delta} class.
+ *
+ * @author Alan Gutierrez
+ */
+public class DeltaTest {
+    /**
+     * Get the changes as strings.
+     * 
+     * @param delta
+     *            The delta.
+     * @return The changes as strings.
+     */
+    private List<String> changes(Delta delta) {
+        List<String> changes = new ArrayList<String>();
+        for (Change change : delta.getChanges()) {
+            changes.add(change.toString());
+        }
+        return changes;
+    }
+
+    /** Test the changes to a bean. */
+    @Test
+    public void bean() {
+        Diffuser diffuser = new Diffuser();
+        Includes includes = new Includes("list", "map", "widget");
+        Widget widget = new Widget();
+        widget.string = "a";
+        widget.list.add("x");
+        widget.list.add("y");
+        widget.map.put("k", 1);
+        Object previous = diffuser.diffuse(widget, includes);
+
+        Delta delta = diffuser.delta(previous, widget, includes);
+        assertTrue(delta.isEmpty());
+        assertEquals(delta.getTree(), previous);
+
+        widget.string = "b";
+        widget.list.remove(1);
+        widget.list.add(0, "w");
+        widget.map.remove("k");
+        widget.map.put("j", 2);
+        widget.widget = new Widget();
+        delta = diffuser.delta(previous, widget, includes);
+        assertEquals(delta.getTree(), diffuser.diffuse(widget, includes));
+        assertEquals(changes(delta), Arrays.asList(
+                "REPLACED [widget] null -> " + diffuser.diffuse(widget.widget, includes.get("widget")),
+                "REPLACED [string] a -> b",
+                "REPLACED [list, 0] x -> w",
+                "REPLACED [list, 1] y -> x",
+                "ADDED [map, j] null -> 2",
+                "REMOVED [map, k] 1 -> null"));
+        assertEquals(delta.getChanges().get(2).getPath(), Arrays.<Object>asList("list", 0));
+
+        Delta changes = diffuser.delta(previous, widget, includes, false);
+        assertNull(changes.getTree());
+        assertEquals(changes(changes), changes(delta));
+    }
+
+    /** Test changes to lists and maps and reused subtrees. */
+    @Test
+    public void containers() {
+        Diffuser diffuser = new Diffuser();
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("a", Arrays.asList(1, 2, 3));
+        map.put("b", Arrays.asList(1));
+        Object previous = diffuser.diffuse(map, Includes.ALL);
+        map.put("a", Arrays.asList(1));
+        map.put("b", Arrays.asList(Arrays.asList(2)));
+        map.put("c", Arrays.asList(4));
+        Delta delta = diffuser.delta(previous, map, Includes.ALL);
+        assertEquals(changes(delta), Arrays.asList(
+                "REMOVED [a, 1] 2 -> null",
+                "REMOVED [a, 2] 3 -> null",
+                "REPLACED [b, 0] 1 -> [2]",
+                "ADDED [c] null -> [4]"));
+        assertEquals(changes(diffuser.delta(previous, map, Includes.ALL, false)), changes(delta));
+        assertEquals(changes(diffuser.delta(null, map, Includes.ALL)), Arrays.asList("REPLACED [] null -> " + diffuser.diffuse(map, Includes.ALL)));
+        assertEquals(changes(diffuser.delta(null, map, Includes.ALL, false)), Arrays.asList("REPLACED [] null -> " + diffuser.diffuse(map, Includes.ALL)));
+
+        diffuser.setImmutable(Widget.class, true);
+        diffuser.setCache(new DiffusionCache(16));
+        Widget widget = new Widget();
+        previous = diffuser.diffuse(Arrays.asList(widget));
+        widget.string = "changed";
+        assertTrue(diffuser.delta(previous, Arrays.asList(widget), Includes.NONE).isEmpty());
+        diffuser.setParallelThreshold(1);
+        assertTrue(diffuser.delta(previous, Arrays.asList(widget), Includes.NONE).isEmpty());
+    }
+
+    /** Test the changes against a retained fingerprint. */
+    @Test
+    public void fingerprint() {
+        Diffuser diffuser = new Diffuser();
+        Includes includes = new Includes("list", "map", "widget");
+        Widget widget = new Widget();
+        widget.string = "a";
+        widget.list.add("x");
+        widget.list.add("y");
+        widget.map.put("k", 1);
+        Fingerprint previous = diffuser.delta((Fingerprint) null, widget, includes).getFingerprint();
+
+        Delta delta = diffuser.delta(previous, widget, includes);
+        assertTrue(delta.isEmpty());
+        assertNull(delta.getTree());
+        assertEquals(delta.getFingerprint().getValue(), previous.getValue());
+
+        widget.string = "b";
+        widget.list.remove(1);
+        widget.list.add(0, "w");
+        widget.map.remove("k");
+        widget.map.put("j", 2);
+        widget.widget = new Widget();
+        delta = diffuser.delta(previous, widget, includes);
+        assertEquals(changes(delta), Arrays.asList(
+                "REPLACED [widget] null -> " + diffuser.diffuse(widget.widget, includes.get("widget")),
+                "REPLACED [string] null -> b",
+                "REPLACED [list, 0] null -> w",
+                "REPLACED [list, 1] null -> x",
+                "ADDED [map, j] null -> 2",
+                "REMOVED [map, k] null -> null"));
+        assertEquals(delta.getFingerprint().getValue(), diffuser.delta((Fingerprint) null, widget, includes).getFingerprint().getValue());
+    }
+
+    /** Test pruning immutable objects by identity and subtrees by hash. */
+    @Test
+    public void prune() {
+        Diffuser diffuser = new Diffuser();
+        diffuser.setImmutable(Widget.class, true);
+        Widget widget = new Widget();
+        widget.string = "a";
+        Fingerprint previous = diffuser.delta((Fingerprint) null, Arrays.asList(widget), Includes.NONE).getFingerprint();
+        widget.string = "b";
+        Delta delta = diffuser.delta(previous, Arrays.asList(widget), Includes.NONE);
+        assertTrue(delta.isEmpty());
+        assertEquals(delta.getFingerprint().getValue(), previous.getValue());
+
+        Widget copy = new Widget();
+        copy.string = "a";
+        delta = diffuser.delta(previous, Arrays.asList(copy), Includes.NONE);
+        assertTrue(delta.isEmpty());
+        copy.string = "c";
+        delta = diffuser.delta(previous, Arrays.asList(copy), Includes.NONE);
+        assertEquals(changes(delta), Arrays.asList("REPLACED [0, string] null -> c"));
+
+        diffuser.setCache(new DiffusionCache(16));
+        previous = delta.getFingerprint();
+        Widget other = new Widget();
+        other.string = "c";
+        delta = diffuser.delta(previous, Arrays.asList(other), Includes.NONE);
+        assertTrue(delta.isEmpty());
+        other = new Widget();
+        other.string = "d";
+        delta = diffuser.delta(previous, Arrays.asList(other), Includes.NONE);
+        assertEquals(changes(delta), Arrays.asList("REPLACED [0, string] null -> d"));
+    }
+}
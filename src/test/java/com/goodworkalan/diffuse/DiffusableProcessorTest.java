@@ -0,0 +1,128 @@
+package com.goodworkalan.diffuse;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link DiffusableProcessor} class.
+ *
+ * @author Alan Gutierrez
+ */
+public class DiffusableProcessorTest {
+    /** The source of an annotated bean. */
+    private final static String SOURCE =
+        "package example;\n" +
+        "@com.goodworkalan.diffuse.Diffusable\n" +
+        "public class Gadget {\n" +
+        "    public String name = \"gadget\";\n" +
+        "    public int count = 1;\n" +
+        "    public int getCount() { return count + 1; }\n" +
+        "    public boolean isOn() { return true; }\n" +
+        "    public java.util.List<String> getTags() { return java.util.Arrays.asList(\"a\", \"b\"); }\n" +
+        "    public String getNothing() { return null; }\n" +
+        "    public static String getStatic() { return \"static\"; }\n" +
+        "    public String getArgument(int i) { return \"argument\"; }\n" +
+        "}\n";
+
+    /**
+     * Compile the annotated bean with the processor into the given directory.
+     *
+     * @param directory
+     *            The output directory.
+     */
+    private void compile(File directory) throws IOException {
+        File source = new File(directory, "Gadget.java");
+        Writer writer = Files.newBufferedWriter(source.toPath(), StandardCharsets.UTF_8);
+        try {
+            writer.write(SOURCE);
+        } finally {
+            writer.close();
+        }
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        int result = compiler.run(null, null, null,
+                "-classpath", System.getProperty("java.class.path"),
+                "-processor", DiffusableProcessor.class.getName(),
+                "-d", directory.getPath(), "-s", directory.getPath(),
+                source.getPath());
+        assertEquals(result, 0);
+    }
+
+    /**
+     * Delete the given directory and everything in it.
+     *
+     * @param directory
+     *            The directory.
+     */
+    private void delete(File directory) throws IOException {
+        Stream<Path> paths = Files.walk(directory.toPath());
+        try {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        } finally {
+            paths.close();
+        }
+    }
+
+    /** Test that the generated diffuser matches the reflective diffuser. */
+    @Test
+    public void generate() throws Exception {
+        File directory = Files.createTempDirectory("diffusable").toFile();
+        try {
+            compile(directory);
+            assertTrue(new File(directory, "example/Gadget_Diffuser.java").exists());
+            List<String> services = Files.readAllLines(new File(directory, "META-INF/services/" + GeneratedDiffuser.class.getName()).toPath(), StandardCharsets.UTF_8);
+            assertEquals(services, Arrays.asList("example.Gadget_Diffuser"));
+
+            URLClassLoader loader = new URLClassLoader(new URL[] { directory.toURI().toURL() }, getClass().getClassLoader());
+            Class<?> beanClass = loader.loadClass("example.Gadget");
+            GeneratedDiffuser generated = (GeneratedDiffuser) loader.loadClass("example.Gadget_Diffuser").getConstructor().newInstance();
+            assertEquals(generated.getType(), beanClass);
+            Object bean = beanClass.getConstructor().newInstance();
+
+            Map<?, ?> reflective = (Map<?, ?>) new Diffuser().diffuse(bean, "tags", "nothing");
+            // The reflective library reads the getter rather than the public
+            // field of the same name, and the generated diffuser must agree.
+            assertEquals(reflective.get("count"), 2);
+
+            Diffuser diffuser = new Diffuser();
+            diffuser.setConverter(beanClass, generated);
+            BeanPlan plan = diffuser.getPlan(beanClass);
+            assertEquals(plan.size(), 5);
+            for (int i = 0; i < plan.size(); i++) {
+                assertTrue(plan.get(i).isDirect());
+            }
+            Map<?, ?> map = (Map<?, ?>) diffuser.diffuse(bean, "tags", "nothing");
+            assertEquals(new LinkedHashMap<Object, Object>(map), new LinkedHashMap<Object, Object>(reflective));
+            assertEquals(map.get("count"), 2);
+            assertEquals(map.get("on"), true);
+            assertEquals(map.get("tags"), Arrays.asList("a", "b"));
+            assertTrue(map.containsKey("nothing"));
+            assertEquals(map.get("name"), "gadget");
+            loader.close();
+        } finally {
+            delete(directory);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.goodworkalan.diffuse;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the diffusion hot paths. Each benchmark is run for each
+ * shape of object graph, with all paths included and with a specific set of
+ * include paths. Run with {@link Benchmarks} to report allocation per
+ * operation along with throughput.
+ *
+ * @author Alan Gutierrez
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiffuserBenchmark {
+    /** A bean with only scalar properties. */
+    public static class Flat {
+        /** An integer. */
+        public int integer = 1;
+
+        /** A long. */
+        public long number = 2L;
+
+        /** A double. */
+        public double real = 3.0;
+
+        /** A boolean. */
+        public boolean flag = true;
+
+        /** A string. */
+        public String string = "string";
+
+        /** Another string. */
+        public String text = "text";
+
+        /** A string property. */
+        public String getName() {
+            return "name";
+        }
+
+        /** An integer property. */
+        public int getCount() {
+            return 4;
+        }
+    }
+
+    /** A bean that nests another bean. */
+    public static class Deep {
+        /** A string. */
+        public String name = "deep";
+
+        /** The nested bean. */
+        public Deep child;
+    }
+
+    /** A bean with only date properties. */
+    public static class Dated {
+        /** The creation date. */
+        public Date created = new Date();
+
+        /** The modification date. */
+        public Date modified = new Date();
+
+        /** The access date. */
+        public Date accessed = new Date();
+
+        /** The expiration date. */
+        public Date expires = new Date();
+    }
+
+    /** A bean with large arrays. */
+    public static class Arrays {
+        /** A large primitive array. */
+        public double[] histogram = new double[10000];
+
+        /** A large object array. */
+        public Flat[] beans = new Flat[1000];
+    }
+
+    /** The shape of the object graph to diffuse. */
+    @Param({ "flat", "deep", "wideMap", "largeList", "arrays", "dates" })
+    public String shape;
+
+    /** Whether to include all paths or a specific set of include paths. */
+    @Param({ "all", "paths" })
+    public String include;
+
+    /** The diffuser shared by all benchmark threads. */
+    private Diffuser diffuser;
+
+    /** The object graph to diffuse. */
+    private Object object;
+
+    /** The compiled include paths. */
+    private Includes includes;
+
+    /** Build the object graph and compile the include paths. */
+    @Setup
+    public void setup() {
+        diffuser = new Diffuser();
+        String[] paths = new String[0];
+        if (shape.equals("flat")) {
+            object = new Flat();
+        } else if (shape.equals("deep")) {
+            Deep deep = new Deep();
+            for (int i = 0; i < 8; i++) {
+                Deep parent = new Deep();
+                parent.child = deep;
+                deep = parent;
+            }
+            object = deep;
+            paths = new String[] { "child", "child.child", "child.child.child" };
+        } else if (shape.equals("wideMap")) {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            for (int i = 0; i < 500; i++) {
+                map.put("key" + i, i % 2 == 0 ? new Flat() : (Object) Integer.valueOf(i));
+            }
+            object = map;
+            paths = new String[50];
+            for (int i = 0; i < paths.length; i++) {
+                paths[i] = "key" + (i * 2);
+            }
+        } else if (shape.equals("largeList")) {
+            List<Object> list = new ArrayList<Object>();
+            for (int i = 0; i < 10000; i++) {
+                list.add(new Flat());
+            }
+            object = list;
+        } else if (shape.equals("arrays")) {
+            Arrays arrays = new Arrays();
+            for (int i = 0; i < arrays.beans.length; i++) {
+                arrays.beans[i] = new Flat();
+            }
+            object = arrays;
+            paths = new String[] { "histogram" };
+        } else if (shape.equals("dates")) {
+            List<Object> list = new ArrayList<Object>();
+            for (int i = 0; i < 1000; i++) {
+                list.add(new Dated());
+            }
+            object = list;
+        }
+        includes = include.equals("all") ? Includes.ALL : new Includes(paths);
+    }
+
+    /** The per thread JSON writer and output buffer. */
+    @State(Scope.Thread)
+    public static class Json {
+        /** The JSON writer. */
+        public final JsonWriter writer = new JsonWriter();
+
+        /** The output buffer. */
+        public final ByteBuffer bytes = ByteBuffer.allocate(4 * 1024 * 1024);
+    }
+
+    /**
+     * Diffuse the object graph into a tree.
+     *
+     * @return The diffused tree.
+     */
+    @Benchmark
+    public Object tree() {
+        return diffuser.diffuse(object, includes);
+    }
+
+    /**
+     * Diffuse the object graph into a tree from many threads sharing a single
+     * diffuser.
+     *
+     * @return The diffused tree.
+     */
+    @Benchmark
+    @Threads(8)
+    public Object sharedTree() {
+        return diffuser.diffuse(object, includes);
+    }
+
+    /**
+     * Diffuse the object graph directly to JSON.
+     *
+     * @param json
+     *            The per thread JSON writer.
+     * @return The number of bytes written.
+     */
+    @Benchmark
+    public int json(Json json) {
+        json.bytes.clear();
+        json.writer.write(diffuser, object, includes, json.bytes);
+        return json.bytes.position();
+    }
+}
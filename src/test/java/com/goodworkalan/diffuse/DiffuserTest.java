@@ -1,14 +1,43 @@
 package com.goodworkalan.diffuse;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.testng.annotations.Test;
 
@@ -18,6 +47,18 @@ import org.testng.annotations.Test;
  * @author Alan Gutierrez
  */
 public class DiffuserTest {
+    /** A bean with value holder properties. */
+    public static class Holder {
+        /** An optional bean. */
+        public Optional<Widget> widget = Optional.empty();
+
+        /** An optional string. */
+        public Optional<String> name = Optional.of("a");
+
+        /** A counter. */
+        public AtomicLong count = new AtomicLong(1);
+    }
+
     /** Test the diffuse method. */
     @Test
     public void diffuse() {
@@ -66,4 +107,444 @@ public class DiffuserTest {
         diffuser.toString(StringBuilder.class);
         assertEquals(diffuser.diffuse(new StringBuilder().append('a')), "a");
     }
+
+    /**
+     * Test that bean plans and object diffusers are cached and discarded when
+     * converters change.
+     */
+    @Test
+    public void plans() {
+        Widget widget = new Widget();
+        widget.setOther(new Widget());
+        Diffuser diffuser = new Diffuser();
+        BeanPlan plan = diffuser.getPlan(Widget.class);
+        assertSame(diffuser.getPlan(Widget.class), plan);
+        assertSame(diffuser.getDiffuser(Widget.class), BeanDiffuser.INSTANCE);
+        assertSame(diffuser.getDiffuser(int.class), NullDiffuser.INSTANCE);
+        assertSame(diffuser.getDiffuser(Widget[].class), ArrayDiffuser.INSTANCE);
+        assertTrue(((Map<?, ?>) diffuser.diffuse(widget, "other")).get("other") instanceof Map<?, ?>);
+        diffuser.toString(Widget.class);
+        assertSame(diffuser.getDiffuser(Widget.class), ToStringDiffuser.INSTANCE);
+        assertNotSame(diffuser.getPlan(Widget.class), plan);
+        assertTrue(diffuser.diffuse(widget) instanceof String);
+    }
+
+    /** Test diffusion to an event sink. */
+    @Test
+    public void sink() {
+        final StringBuilder events = new StringBuilder();
+        DiffusionSink sink = new DiffusionSink() {
+            public void startMap() {
+                events.append("{");
+            }
+
+            public void key(String name) {
+                events.append(name).append(":");
+            }
+
+            public void startList() {
+                events.append("[");
+            }
+
+            public void scalar(Object value) {
+                events.append(value).append(",");
+            }
+
+            public void end() {
+                events.append("}");
+            }
+        };
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("a", 1);
+        map.put("b", new String[] { "c", null });
+        map.put("d", new File("e"));
+        new Diffuser().diffuse(map, new Includes("b"), sink);
+        assertEquals(events.toString(), "{a:1,b:[c,null,}d:e,}");
+        events.setLength(0);
+        sink.value(Collections.singletonMap("a", Collections.singletonList(1)));
+        assertEquals(events.toString(), "{a:[1,}}");
+    }
+
+    /** Test lazy diffusion. */
+    @Test
+    public void lazy() {
+        Diffuser diffuser = new Diffuser();
+        diffuser.setLazy(true);
+        Map<?, ?> map = (Map<?, ?>) diffuser.diffuse(Collections.singletonMap("evil", new BeanOfEvil()), "*");
+        assertTrue(map instanceof Lazy);
+        Map<?, ?> evil = (Map<?, ?>) map.get("evil");
+        assertSame(map.get("evil"), evil);
+        assertEquals(evil.keySet(), Collections.singleton("evil"));
+        try {
+            evil.get("evil");
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        Widget widget = new Widget();
+        widget.widget = new Widget();
+        widget.list.add("a");
+        widget.map.put("a", new Widget[] { new Widget() });
+        widget.date = new Date();
+        Object lazy = diffuser.diffuse(widget, "*");
+        Object snapshot = Diffuser.snapshot(lazy);
+        assertFalse(snapshot instanceof Lazy);
+        assertEquals(snapshot, new Diffuser().diffuse(widget, "*"));
+        assertEquals(lazy, snapshot);
+        widget.string = "b";
+        assertEquals(((Map<?, ?>) lazy).get("string"), null);
+        assertEquals(((Map<?, ?>) diffuser.diffuse(widget)).get("string"), "b");
+        Map<Object, Object> wide = new LinkedHashMap<Object, Object>();
+        for (int i = 0; i < 100; i++) {
+            wide.put(Integer.toString(i), i);
+        }
+        wide.put(1, "duplicate");
+        map = (Map<?, ?>) diffuser.diffuse(wide);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(map.get(Integer.toString(i)), i);
+        }
+        assertFalse(map.containsKey("100"));
+        assertFalse(map.containsKey(1));
+    }
+
+    /** Test cycle detection and shared container reuse. */
+    @Test
+    public void identity() {
+        Widget widget = new Widget();
+        widget.widget = widget;
+        Diffuser diffuser = new Diffuser();
+        try {
+            diffuser.diffuse(widget, "*");
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        diffuser.setCyclePolicy(CyclePolicy.REFERENCE);
+        Map<?, ?> map = (Map<?, ?>) diffuser.diffuse(widget, "*");
+        assertEquals(map.get("widget"), Collections.singletonMap("$ref", 1));
+        diffuser.setCyclePolicy(CyclePolicy.NULL);
+        map = (Map<?, ?>) diffuser.diffuse(widget, "*");
+        assertTrue(map.containsKey("widget"));
+        assertNull(map.get("widget"));
+        diffuser.setCyclePolicy(CyclePolicy.THROW);
+        try {
+            diffuser.diffuse(widget, "*");
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        Widget shared = new Widget();
+        widget.widget = shared;
+        widget.setOther(shared);
+        map = (Map<?, ?>) diffuser.diffuse(widget, "*");
+        assertSame(map.get("widget"), map.get("other"));
+        map = (Map<?, ?>) diffuser.diffuse(widget, "widget", "other", "widget.list");
+        assertNotSame(map.get("widget"), map.get("other"));
+    }
+
+    /** Test parallel diffusion. */
+    @Test
+    public void parallel() {
+        List<Object> list = new ArrayList<Object>();
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < 100; i++) {
+            Widget widget = new Widget();
+            widget.string = Integer.toString(i);
+            widget.list.add(widget.string);
+            list.add(widget);
+            list.add(null);
+            map.put(widget.string, widget);
+        }
+        Widget widget = new Widget();
+        widget.map.putAll(map);
+        widget.map.put("list", list);
+        Diffuser diffuser = new Diffuser();
+        diffuser.setParallelThreshold(10);
+        Object diffused = diffuser.diffuse(widget, "*");
+        assertEquals(diffused, new Diffuser().diffuse(widget, "*"));
+        assertEquals(diffuser.diffuse(list.toArray(), "*"), new Diffuser().diffuse(list, "*"));
+        list.add(widget);
+        diffuser.setCyclePolicy(CyclePolicy.REFERENCE);
+        Map<?, ?> cyclic = (Map<?, ?>) diffuser.diffuse(widget, "*");
+        List<?> elements = (List<?>) ((Map<?, ?>) cyclic.get("map")).get("list");
+        assertEquals(elements.get(200), Collections.singletonMap("$ref", 3));
+    }
+
+    /** Test diffusion measurements. */
+    @Test
+    public void metrics() {
+        Widget widget = new Widget();
+        widget.list.add("a");
+        widget.list.add("b");
+        Diffuser diffuser = new Diffuser();
+        assertNull(diffuser.getListener());
+        DiffusionMetrics metrics = new DiffusionMetrics();
+        diffuser.setListener(metrics);
+        assertSame(new Diffuser(diffuser).getListener(), metrics);
+        diffuser.diffuse(widget, "list");
+        assertEquals(metrics.getDiffusions(), 1);
+        assertEquals(metrics.getNodes(), 5);
+        assertEquals(metrics.getMaximumDepth(), 3);
+        DiffusionMetrics.Type type = metrics.getTypes().get(Widget.class);
+        assertEquals(type.getObjects(), 1);
+        assertEquals(type.getDiffusions(), 1);
+        assertEquals(type.getNodes(), 5);
+        assertEquals(type.getMaximumSize(), -1);
+        assertSame(type.getDiffuser(), BeanDiffuser.INSTANCE);
+        type = metrics.getTypes().get(ArrayList.class);
+        assertEquals(type.getObjects(), 1);
+        assertEquals(type.getMaximumSize(), 2);
+        assertEquals(type.getDiffusions(), 0);
+        assertEquals(metrics.getTypes().get(String.class).getObjects(), 2);
+        List<Object> list = new ArrayList<Object>();
+        for (int i = 0; i < 100; i++) {
+            list.add(Collections.singletonList(i));
+        }
+        diffuser.setParallelThreshold(10);
+        diffuser.diffuse(list);
+        assertEquals(metrics.getDiffusions(), 2);
+        assertEquals(metrics.getNodes(), 5 + 201);
+        assertEquals(metrics.getMaximumDepth(), 3);
+        diffuser.setConverter(Widget.class, new ObjectDiffuser() {
+            public void diffuse(Diffusion diffusion, Object object, Includes includes) {
+                throw new IllegalStateException();
+            }
+
+            public boolean isContainer() {
+                return true;
+            }
+        });
+        try {
+            diffuser.diffuse(widget);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        assertEquals(metrics.getDiffusions(), 3);
+        assertEquals(metrics.getTypes().get(Widget.class).getObjects(), 2);
+        diffuser.setListener(new JfrDiffusionListener());
+        try {
+            diffuser.diffuse(widget);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        diffuser.setConverter(Widget.class, BeanDiffuser.INSTANCE);
+        diffuser.diffuse(widget, "list");
+    }
+
+    /** Test diffusion within a budget. */
+    @Test
+    public void budget() {
+        Diffuser diffuser = new Diffuser();
+        List<Object> list = new ArrayList<Object>();
+        for (int i = 0; i < 10; i++) {
+            list.add(i);
+        }
+        Map<String, Object> marker = Collections.<String, Object>singletonMap(Budget.TRUNCATED, 7);
+        Budget elements = new Budget(0, 0, 3, 0);
+        List<Object> expected = new ArrayList<Object>(list.subList(0, 3));
+        expected.add(marker);
+        assertEquals(diffuser.diffuse(list, Includes.ALL, elements), expected);
+        assertEquals(diffuser.diffuse(list.toArray(), Includes.ALL, elements), expected);
+        assertEquals(diffuser.diffuse(new int[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 }, Includes.ALL, elements), expected);
+        assertEquals(diffuser.diffuse(new int[] { 0, 1, 2 }, Includes.ALL, elements), list.subList(0, 3));
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < 10; i++) {
+            map.put(Integer.toString(i), i);
+        }
+        Map<?, ?> diffused = (Map<?, ?>) diffuser.diffuse(map, Includes.ALL, elements);
+        assertEquals(diffused.size(), 4);
+        assertEquals(diffused.get(Budget.TRUNCATED), 7);
+        map.put("excluded", Arrays.asList(1));
+        diffused = (Map<?, ?>) diffuser.diffuse(map, Includes.NONE, elements);
+        assertEquals(diffused.get(Budget.TRUNCATED), 7);
+        assertEquals(diffuser.diffuse("abcdef", Includes.ALL, new Budget(0, 0, 0, 4)), "abcd...[$truncated 2]");
+        assertEquals(diffuser.diffuse("abcd", Includes.ALL, new Budget(0, 0, 0, 4)), "abcd");
+        Widget widget = new Widget();
+        widget.string = "a";
+        widget.list.add("b");
+        widget.widget = new Widget();
+        diffused = (Map<?, ?>) diffuser.diffuse(widget, new Includes("list", "widget"), new Budget(1, 0, 0, 0));
+        assertEquals(diffused.get("string"), "a");
+        assertEquals(diffused.get("list"), Collections.singletonMap(Budget.TRUNCATED, 1));
+        assertEquals(((Map<?, ?>) diffused.get("widget")).get(Budget.TRUNCATED), diffuser.getPlan(Widget.class).size());
+        diffuser.setBudget(new Budget(0, 2, 0, 0));
+        assertEquals(new Diffuser(diffuser).getBudget().getMaxNodes(), 2);
+        diffused = (Map<?, ?>) diffuser.diffuse(widget, "list", "widget");
+        assertEquals(diffused.size(), 2);
+        assertEquals(diffused.get(Budget.TRUNCATED), ((Map<?, ?>) diffuser.diffuse(widget, new Includes("list", "widget"), (Budget) null)).size() - 1);
+        diffuser.setParallelThreshold(2);
+        diffuser.setBudget(new Budget(0, 0, 3, 0));
+        assertEquals(diffuser.diffuse(list), expected);
+        try {
+            new Budget(-1, 0, 0, 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /** Test the cache of diffused immutable objects. */
+    @Test
+    public void cache() throws Exception {
+        Diffuser diffuser = new Diffuser();
+        diffuser.setImmutable(Widget.class, true);
+        diffuser.setImmutable(File.class, false);
+        Widget widget = new Widget();
+        widget.string = "a";
+        List<Object> list = new ArrayList<Object>();
+        list.add(widget);
+        list.add(widget);
+        list.add(new File("a"));
+        list.add(new File("a"));
+        List<?> diffused = (List<?>) diffuser.diffuse(list);
+        assertNotSame(diffused.get(0), diffused.get(1));
+        assertNull(diffuser.getCache());
+
+        DiffusionCache cache = new DiffusionCache(16);
+        diffuser.setCache(cache);
+        assertEquals(diffuser.diffuse(list), diffused);
+        diffused = (List<?>) diffuser.diffuse(list);
+        assertSame(diffused.get(0), diffused.get(1));
+        assertEquals(cache.getMisses(), 2);
+        assertEquals(cache.getHits(), 6);
+        assertEquals(cache.size(), 2);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JsonWriter().write(diffuser, list, Includes.NONE, out);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new JsonWriter().write(new Diffuser(), list, Includes.NONE, expected);
+        assertEquals(out.toString("UTF-8"), expected.toString("UTF-8"));
+        assertEquals(cache.getHits(), 10);
+
+        diffuser.diffuse(list, Includes.NONE, new Budget(0, 100, 0, 0));
+        assertEquals(cache.getHits(), 10);
+
+        assertEquals(new Diffuser(diffuser).getCache().getMaximumSize(), 16);
+        DiffusionCache small = new DiffusionCache(1);
+        diffuser.setCache(small);
+        diffuser.diffuse(Arrays.asList(new Widget(), new Widget(), new Widget()));
+        assertEquals(small.getEvictions(), 2);
+        assertEquals(small.size(), 1);
+        DiffusionCache full = new DiffusionCache(16);
+        diffuser.setCache(full);
+        List<Widget> widgets = new ArrayList<Widget>();
+        for (int i = 0; i < 16; i++) {
+            widgets.add(new Widget());
+        }
+        diffuser.diffuse(widgets);
+        diffuser.diffuse(widgets);
+        assertEquals(full.getEvictions(), 0);
+        assertEquals(full.getMisses(), 16);
+        assertEquals(full.getHits(), 16);
+        diffuser.setCache(cache);
+        diffuser.setConverter(Date.class, DateDiffuser.ISO);
+        assertEquals(cache.size(), 0);
+        try {
+            new DiffusionCache(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /** Test the scalar encodings of common value types. */
+    @Test
+    public void values() throws UnknownHostException {
+        Diffuser diffuser = new Diffuser();
+        assertEquals(diffuser.diffuse(TimeUnit.SECONDS), "SECONDS");
+        assertEquals(diffuser.diffuse(new BigDecimal("1.50")), new BigDecimal("1.50"));
+        assertEquals(diffuser.diffuse(BigInteger.TEN), BigInteger.TEN);
+        UUID uuid = UUID.randomUUID();
+        assertEquals(diffuser.diffuse(uuid), uuid.toString());
+        assertEquals(diffuser.diffuse(InetAddress.getByAddress("host", new byte[] { 127, 0, 0, 1 })), "127.0.0.1");
+        assertEquals(diffuser.diffuse(Duration.ofSeconds(90)), "PT1M30S");
+        assertEquals(diffuser.diffuse(LocalDate.of(2020, 1, 2)), "2020-01-02");
+        assertEquals(diffuser.diffuse(ZoneId.of("UTC")), "UTC");
+        assertEquals(diffuser.diffuse(Optional.of("a")), "a");
+        assertNull(diffuser.diffuse(Optional.empty()));
+        assertEquals(diffuser.diffuse(OptionalInt.of(1)), 1);
+        assertNull(diffuser.diffuse(OptionalLong.empty()));
+        assertEquals(diffuser.diffuse(new AtomicLong(2)), 2L);
+        assertEquals(diffuser.diffuse(new AtomicBoolean(true)), true);
+        LongAdder adder = new LongAdder();
+        adder.add(3);
+        assertEquals(diffuser.diffuse(adder), 3L);
+        Widget widget = new Widget();
+        widget.string = "a";
+        assertEquals(diffuser.diffuse(new AtomicReference<Widget>(widget), "string"), diffuser.diffuse(widget, "string"));
+        assertEquals(diffuser.diffuse(Arrays.asList(Optional.of(widget)), "*.string"), Arrays.asList(diffuser.diffuse(widget, "string")));
+
+        Holder holder = new Holder();
+        holder.widget = Optional.of(widget);
+        Map<?, ?> map = (Map<?, ?>) diffuser.diffuse(holder);
+        assertEquals(map.keySet(), Collections.singleton("count"));
+        assertEquals(map.get("count"), 1L);
+        map = (Map<?, ?>) diffuser.diffuse(holder, "widget", "name");
+        assertEquals(map.get("widget"), diffuser.diffuse(widget, "string"));
+        assertEquals(map.get("name"), "a");
+        holder.widget = Optional.empty();
+        assertTrue(((Map<?, ?>) diffuser.diffuse(holder, "widget")).containsKey("widget"));
+        assertNull(((Map<?, ?>) diffuser.diffuse(holder, "widget")).get("widget"));
+    }
+
+    /** Test that a subclass can amend the modifiable map of a container. */
+    @Test
+    public void modifiable() {
+        Diffuser diffuser = new Diffuser();
+        diffuser.setConverter(TreeMap.class, new MapDiffuser() {
+            public Map<String, Object> modifiable(Diffuser diffuser, Object object, Includes includes) {
+                Map<String, Object> map = super.modifiable(diffuser, object, includes);
+                map.put("amended", true);
+                return map;
+            }
+        });
+        diffuser.setConverter(Widget.class, new BeanDiffuser() {
+            protected Map<String, Object> modifiable(Diffuser diffuser, Object object, Includes includes) {
+                Map<String, Object> map = super.modifiable(diffuser, object, includes);
+                map.remove("string");
+                return map;
+            }
+        });
+        Map<String, Object> tree = new TreeMap<String, Object>();
+        tree.put("a", 1);
+        Widget widget = new Widget();
+        tree.put("w", widget);
+        Map<?, ?> map = (Map<?, ?>) diffuser.diffuse(tree, "w");
+        assertEquals(map.get("a"), 1);
+        assertEquals(map.get("amended"), true);
+        assertFalse(((Map<?, ?>) map.get("w")).containsKey("string"));
+        assertFalse(((Map<?, ?>) diffuser.diffuse(widget)).containsKey("string"));
+        assertFalse(((Map<?, ?>) new Diffuser().diffuse(tree, "w")).containsKey("amended"));
+    }
+
+    /** Test an object diffuser that implements only the original form. */
+    @Test
+    public void legacy() {
+        final List<Set<String>> seen = new ArrayList<Set<String>>();
+        Diffuser diffuser = new Diffuser();
+        diffuser.setConverter(Widget.class, new ObjectDiffuser() {
+            public Object diffuse(Diffuser diffuser, Object object, StringBuilder path, Set<String> includes) {
+                seen.add(includes);
+                return ((Widget) object).string;
+            }
+
+            public boolean isContainer() {
+                return false;
+            }
+        });
+        Widget widget = new Widget();
+        widget.string = "a";
+        assertEquals(diffuser.diffuse(Collections.singletonMap("w", widget), "w", "w.x", "w.x.y"), Collections.singletonMap("w", "a"));
+        assertEquals(seen.get(0), new HashSet<String>(Arrays.asList("x", "x.y")));
+        assertEquals(diffuser.diffuse(Arrays.asList(widget), "*"), Arrays.asList("a"));
+        assertTrue(seen.get(1).isEmpty());
+        assertEquals(diffuser.diffuse(widget), "a");
+        assertEquals(seen.get(2), Collections.singleton("\0"));
+        assertEquals(diffuser.getDiffuser(Widget.class).diffuse(diffuser, widget, new StringBuilder(), Collections.<String>emptySet()), "a");
+        diffuser.setConverter(Widget.class, new ObjectDiffuser() {
+            public boolean isContainer() {
+                return false;
+            }
+        });
+        try {
+            diffuser.diffuse(widget);
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+    }
 }
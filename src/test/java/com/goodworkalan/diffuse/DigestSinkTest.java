@@ -0,0 +1,115 @@
+package com.goodworkalan.diffuse;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link DigestSink} class.
+ *
+ * @author Alan Gutierrez
+ */
+public class DigestSinkTest {
+    /**
+     * Get the XXH64 hash of the given string.
+     *
+     * @param string
+     *            The string.
+     * @return The hash.
+     */
+    private long xxh64(String string) {
+        Xxh64 digest = new Xxh64();
+        digest.update(string.getBytes(StandardCharsets.UTF_8));
+        return digest.getValue();
+    }
+
+    /** Test the XXH64 hash against known values. */
+    @Test
+    public void xxh64() throws CloneNotSupportedException {
+        assertEquals(xxh64(""), 0xEF46DB3751D8E999L);
+        assertEquals(xxh64("abc"), 0x44BC2CF5AD770999L);
+        String spam = "Nobody inspects the spammish repetition";
+        assertEquals(xxh64(spam), 0xFBCEA83C8A378BF1L);
+
+        Xxh64 digest = new Xxh64();
+        byte[] bytes = spam.getBytes(StandardCharsets.UTF_8);
+        digest.update(bytes, 0, 20);
+        Xxh64 copy = (Xxh64) digest.clone();
+        for (int i = 20; i < bytes.length; i++) {
+            digest.update(bytes[i]);
+        }
+        copy.update(bytes, 20, bytes.length - 20);
+        assertEquals(digest.getValue(), 0xFBCEA83C8A378BF1L);
+        assertTrue(Arrays.equals(copy.digest(), digest.digest()));
+        assertEquals(digest.getValue(), xxh64(""));
+    }
+
+    /** Test that equal diffused object graphs have equal digests. */
+    @Test
+    public void canonical() throws NoSuchAlgorithmException {
+        Diffuser diffuser = new Diffuser();
+        Map<String, Object> first = new LinkedHashMap<String, Object>();
+        first.put("a", Arrays.asList(1, "x", null, true));
+        first.put("b", new BigDecimal("1.50"));
+        first.put("c", 2.5f);
+        Map<String, Object> second = new LinkedHashMap<String, Object>();
+        second.put("c", 2.5d);
+        second.put("b", new BigDecimal("1.5"));
+        second.put("a", Arrays.asList(1L, "x", null, true));
+        assertEquals(diffuser.fingerprint(first, Includes.ALL), diffuser.fingerprint(second, Includes.ALL));
+
+        MessageDigest sha = MessageDigest.getInstance("SHA-256");
+        byte[] digest = diffuser.digest(first, Includes.ALL, sha);
+        assertEquals(digest.length, 32);
+        assertTrue(Arrays.equals(diffuser.digest(second, Includes.ALL, sha), digest));
+
+        second.put("a", Arrays.asList(1L, "x", true, null));
+        assertFalse(Arrays.equals(diffuser.digest(second, Includes.ALL, sha), digest));
+        second.put("a", Arrays.asList(1L, "x", null, true));
+        second.put("d", null);
+        assertFalse(Arrays.equals(diffuser.digest(second, Includes.ALL, sha), digest));
+
+        assertFalse(diffuser.fingerprint(1, Includes.ALL) == diffuser.fingerprint("1", Includes.ALL));
+        DigestSink sink = new DigestSink();
+        sink.scalar(BigInteger.ONE);
+        assertEquals(sink.getValue(), diffuser.fingerprint(1, Includes.ALL));
+        assertFalse(diffuser.fingerprint(Arrays.asList(), Includes.ALL) == diffuser.fingerprint(new LinkedHashMap<String, Object>(), Includes.ALL));
+    }
+
+    /** Test that the digest of a bean matches the digest of its tree. */
+    @Test
+    public void bean() {
+        Diffuser diffuser = new Diffuser();
+        Includes includes = new Includes("list", "map", "widget");
+        Widget widget = new Widget();
+        widget.string = "a";
+        widget.list.add("x");
+        widget.map.put("k", 1);
+        widget.map.put("j", Arrays.asList(2, 3));
+        widget.widget = new Widget();
+
+        DigestSink sink = new DigestSink();
+        diffuser.diffuse(widget, includes, sink);
+        long value = sink.getValue();
+        sink.value(diffuser.diffuse(widget, includes));
+        assertEquals(sink.getValue(), value);
+        diffuser.diffuse(widget, includes, sink);
+        assertEquals(sink.getValue(), value);
+
+        widget.widget.string = "b";
+        assertFalse(diffuser.fingerprint(widget, includes) == value);
+        widget.widget.string = null;
+        assertEquals(diffuser.fingerprint(widget, includes), value);
+    }
+}
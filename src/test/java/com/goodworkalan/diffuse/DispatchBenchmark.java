@@ -0,0 +1,101 @@
+package com.goodworkalan.diffuse;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmarks of the resolution of the object diffuser for a class, with
+ * varying numbers of registered converters. The cost of resolution should not
+ * grow with the number of converters.
+ *
+ * @author Alan Gutierrez
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    /** The classes that may be registered as converters. */
+    private final static Class<?>[] CONVERTERS = {
+        BigDecimal.class, BigInteger.class, UUID.class, Locale.class,
+        Thread.class, Runtime.class, Number.class, Comparable.class,
+        Iterable.class, Runnable.class, Appendable.class, AutoCloseable.class,
+        StringBuffer.class, Enum.class, Throwable.class, Process.class
+    };
+
+    /** The classes resolved by each operation. */
+    private final static Class<?>[] TYPES = {
+        Integer.class, String.class, ArrayList.class, HashMap.class,
+        TreeMap.class, Date.class, File.class, URI.class,
+        int[].class, Object[].class, DiffuserBenchmark.Flat.class, StringBuilder.class
+    };
+
+    /** The number of registered converters. */
+    @Param({ "0", "4", "16" })
+    public int converters;
+
+    /** The diffuser. */
+    private Diffuser diffuser;
+
+    /** Create the diffuser and register the converters. */
+    @Setup
+    public void setup() {
+        diffuser = new Diffuser();
+        for (int i = 0; i < converters; i++) {
+            diffuser.toString(CONVERTERS[i]);
+        }
+    }
+
+    /**
+     * Resolve the object diffuser for each of a set of classes.
+     *
+     * @param blackhole
+     *            The sink for the resolved object diffusers.
+     */
+    @Benchmark
+    public void dispatch(Blackhole blackhole) {
+        for (Class<?> type : TYPES) {
+            blackhole.consume(diffuser.getDiffuser(type));
+        }
+    }
+
+    /**
+     * Resolve the object diffuser for each of a set of classes from many
+     * threads sharing a single diffuser.
+     *
+     * @param blackhole
+     *            The sink for the resolved object diffusers.
+     */
+    @Benchmark
+    @Threads(8)
+    public void sharedDispatch(Blackhole blackhole) {
+        for (Class<?> type : TYPES) {
+            blackhole.consume(diffuser.getDiffuser(type));
+        }
+    }
+}
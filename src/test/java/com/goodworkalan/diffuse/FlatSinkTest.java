@@ -0,0 +1,118 @@
+package com.goodworkalan.diffuse;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link FlatSink} class.
+ *
+ * @author Alan Gutierrez
+ */
+public class FlatSinkTest {
+    /**
+     * Create a map with nested containers and every kind of scalar.
+     * 
+     * @return A map to flatten.
+     */
+    private Map<String, Object> map() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("a", 1);
+        map.put("b", Arrays.asList(Long.MIN_VALUE, (short) 2, (byte) 3, 'c', 1.5d, 2.5f, true, false, null));
+        map.put("c", "\u00e9\u20ac\ud83d\ude00\ud800");
+        map.put("d", new LinkedHashMap<String, Object>());
+        map.put("e", new BigDecimal("-1.0042"));
+        map.put("f", new BigInteger("123456789012345678901234567890"));
+        map.put("\u00e9\ud83d\ude00", Arrays.asList(Arrays.asList(), Arrays.asList("a")));
+        return map;
+    }
+
+    /** Test that the views equal the diffused tree. */
+    @Test
+    public void views() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        buffer.position(7);
+        Diffuser diffuser = new Diffuser();
+        Map<?, ?> map = (Map<?, ?>) diffuser.flatten(map(), Includes.ALL, buffer);
+        assertEquals(map, diffuser.diffuse(map(), Includes.ALL));
+        assertEquals(new LinkedHashMap<Object, Object>(map), diffuser.diffuse(map(), Includes.ALL));
+        assertEquals(map.get("c"), "\u00e9\u20ac\ud83d\ude00\ud800");
+        assertEquals(map.get("\u00e9\ud83d\ude00"), Arrays.asList(Arrays.asList(), Arrays.asList("a")));
+        assertTrue(map.containsKey("d"));
+        assertFalse(map.containsKey("\u00e9"));
+        assertNull(map.get("z"));
+        assertNull(map.get(1));
+        assertEquals(FlatSink.view(buffer, 7), map);
+        assertEquals(diffuser.flatten("x", Includes.ALL, buffer), "x");
+        assertEquals(diffuser.flatten(null, Includes.ALL, buffer), null);
+    }
+
+    /** Test that beans share their keys and shapes. */
+    @Test
+    public void beans() {
+        List<Widget> widgets = new ArrayList<Widget>();
+        for (int i = 0; i < 100; i++) {
+            Widget widget = new Widget();
+            widget.string = "widget";
+            widgets.add(widget);
+        }
+        Diffuser diffuser = new Diffuser();
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        List<?> list = (List<?>) diffuser.flatten(widgets, new Includes("list"), buffer);
+        assertEquals(list, diffuser.diffuse(widgets, new Includes("list")));
+        String text = new String(buffer.array(), 0, buffer.position(), StandardCharsets.ISO_8859_1);
+        assertTrue(text.indexOf("string") == text.lastIndexOf("string"));
+        try {
+            list.add(null);
+            assertTrue(false);
+        } catch (UnsupportedOperationException e) {
+        }
+    }
+
+    /** Test reading a graph from a memory-mapped file. */
+    @Test
+    public void mapped() throws IOException {
+        File file = File.createTempFile("flat", ".bin");
+        file.deleteOnExit();
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, 4096);
+            new Diffuser().flatten(map(), Includes.ALL, buffer);
+            buffer.force();
+        } finally {
+            channel.close();
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, 4096);
+            assertEquals(FlatSink.view(buffer, 0), new Diffuser().diffuse(map(), Includes.ALL));
+        } finally {
+            channel.close();
+        }
+    }
+
+    /** Test a graph that does not fit. */
+    @Test(expectedExceptions = BufferOverflowException.class)
+    public void overflow() {
+        new Diffuser().flatten(map(), Includes.ALL, ByteBuffer.allocate(64));
+    }
+}
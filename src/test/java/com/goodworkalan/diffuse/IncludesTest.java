@@ -0,0 +1,59 @@
+package com.goodworkalan.diffuse;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link Includes} class.
+ *
+ * @author Alan Gutierrez
+ */
+public class IncludesTest {
+    /** Test walking compiled include paths. */
+    @Test
+    public void walk() {
+        Includes includes = new Includes("a", "a.b", "c.*.d", "e", "e.*.f");
+        assertFalse(includes.isAll());
+        assertNotNull(includes.get("a"));
+        assertNotNull(includes.get("a").get("b"));
+        assertNull(includes.get("a").get("c"));
+        assertNull(includes.get("c"));
+        assertNull(includes.get("e").get("f"));
+        assertNotNull(includes.get("e").getElements().get("f"));
+        assertSame(includes.get("a").getElements(), Includes.NONE);
+        assertNull(includes.get("b"));
+    }
+
+    /** Test the all paths and no paths include nodes. */
+    @Test
+    public void special() {
+        Includes all = new Includes("a", "*");
+        assertTrue(all.isAll());
+        assertSame(all.get("z"), all);
+        assertSame(Includes.ALL.getElements(), Includes.ALL);
+        assertNull(new Includes().get("a"));
+        assertNull(Includes.NONE.get("a"));
+    }
+
+    /** Test conversion from a path and a set of includes. */
+    @Test
+    public void fromPaths() {
+        Set<String> includes = new HashSet<String>();
+        includes.add("a");
+        includes.add("a.b");
+        assertNotNull(Includes.fromPaths("a.", includes).get("b"));
+        assertSame(Includes.fromPaths("c.", includes), Includes.NONE);
+        assertNull(Includes.fromPaths("", Collections.singleton("a.b")).get("a"));
+        assertNotNull(Includes.fromPaths("a.", Collections.singleton("a.b")).get("b"));
+        assertSame(Includes.fromPaths("c.", Collections.<String>emptySet()), Includes.ALL);
+    }
+}
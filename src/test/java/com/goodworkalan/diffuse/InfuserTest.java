@@ -0,0 +1,173 @@
+package com.goodworkalan.diffuse;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.Type;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link Infuser} class.
+ *
+ * @author Alan Gutierrez
+ */
+public class InfuserTest {
+    /** A bean with parameterized collections for testing infusion. */
+    public static class Holder {
+        /** A list of widgets. */
+        public List<Widget> widgets;
+
+        /** A map of integers. */
+        public SortedMap<String, Integer> counts;
+
+        /** A set of units. */
+        public Set<TimeUnit> units;
+
+        /** An array of primitives. */
+        public long[] longs;
+
+        /** An array of beans. */
+        public Widget[] array;
+
+        /** A primitive. */
+        public double real;
+    }
+
+    /** A type for testing generic types. */
+    public List<Map<String, Widget>> generic;
+
+    /** Test a round trip of a bean through diffusion and infusion. */
+    @Test
+    public void roundTrip() {
+        Widget widget = new Widget();
+        widget.string = "a";
+        widget.type = Widget.class;
+        widget.list.add("b");
+        widget.map.put("c", 1);
+        widget.file = new File("d");
+        widget.date = new Date(1234567890000L);
+        widget.widget = new Widget();
+        widget.widget.string = "e";
+        widget.setOther(new Widget());
+        Object diffused = new Diffuser().diffuse(widget, "*");
+        Infuser infuser = new Infuser();
+        Widget infused = infuser.infuse(diffused, Widget.class);
+        assertEquals(infused.string, "a");
+        assertSame(infused.type, Widget.class);
+        assertEquals(infused.list, Collections.singletonList("b"));
+        assertEquals(infused.map, Collections.singletonMap("c", 1));
+        assertEquals(infused.file, new File("d"));
+        assertEquals(infused.date, widget.date);
+        assertEquals(infused.widget.string, "e");
+        assertTrue(infused.getOther() != null);
+        assertEquals(new Diffuser().diffuse(infused, "*"), diffused);
+        InfusionSink<Widget> sink = new InfusionSink<Widget>(infuser, Widget.class);
+        new Diffuser().diffuse(widget, Includes.ALL, sink);
+        assertEquals(sink.getInfused().widget.string, "e");
+        assertNull(infuser.infuse(null, Widget.class));
+    }
+
+    /** Test infusion of parameterized collections, maps and arrays. */
+    @Test
+    public void containers() throws NoSuchFieldException {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        Map<String, Object> widget = new LinkedHashMap<String, Object>();
+        widget.put("string", "a");
+        widget.put("integer", 1);
+        widget.put("$truncated", 1);
+        map.put("widgets", Arrays.asList(widget, null));
+        Map<String, Object> counts = new LinkedHashMap<String, Object>();
+        counts.put("b", 2L);
+        counts.put("a", "1");
+        map.put("counts", counts);
+        map.put("units", Arrays.asList("SECONDS", "DAYS"));
+        map.put("longs", Arrays.asList(1, 2.0, "3"));
+        map.put("array", Collections.singletonList(widget));
+        map.put("real", 1);
+        Holder holder = new Infuser().infuse(map, Holder.class);
+        assertEquals(holder.widgets.size(), 2);
+        assertEquals(holder.widgets.get(0).string, "a");
+        assertNull(holder.widgets.get(1));
+        assertEquals(holder.counts.firstKey(), "a");
+        assertEquals(holder.counts.get("a"), Integer.valueOf(1));
+        assertEquals(holder.counts.get("b"), Integer.valueOf(2));
+        assertEquals(new ArrayList<TimeUnit>(holder.units), Arrays.asList(TimeUnit.SECONDS, TimeUnit.DAYS));
+        assertTrue(Arrays.equals(holder.longs, new long[] { 1, 2, 3 }));
+        assertEquals(holder.array[0].string, "a");
+        assertEquals(holder.real, 1.0);
+        Type type = getClass().getField("generic").getGenericType();
+        List<?> list = (List<?>) new Infuser().infuse(Collections.singletonList(Collections.singletonMap("w", widget)), type);
+        assertEquals(((Widget) ((Map<?, ?>) list.get(0)).get("w")).string, "a");
+    }
+
+    /** Test infusion of dates. */
+    @Test
+    public void dates() {
+        Infuser infuser = new Infuser();
+        Instant instant = Instant.ofEpochMilli(1234567890123L);
+        assertEquals(infuser.infuse(1234567890123L, Date.class), new Date(1234567890123L));
+        assertEquals(infuser.infuse(DateDiffuser.ISO.format(instant), Instant.class), instant);
+        LocalDateTime local = LocalDateTime.of(2009, 2, 13, 23, 31, 30);
+        assertEquals(infuser.infuse(DateDiffuser.ISO.format(local), LocalDateTime.class), local);
+        assertEquals(new DateInfuser(DateDiffuser.ISO).infuse(infuser, DateDiffuser.ISO.format(local), Date.class), new Date(1234567890000L));
+    }
+
+    /** Test infusion of local date times diffused as milliseconds. */
+    @Test
+    public void epochMillis() {
+        TimeZone zone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        try {
+            LocalDateTime local = LocalDateTime.of(2009, 2, 13, 23, 31, 30);
+            Object millis = DateDiffuser.EPOCH_MILLIS.format(local);
+            assertEquals(millis, 1234567890000L);
+            assertEquals(new Infuser().infuse(millis, LocalDateTime.class), local);
+            DateDiffuser tokyo = new DateDiffuser("yyyy-MM-dd HH:mm:ss", ZoneId.of("Asia/Tokyo"), true);
+            DateInfuser infuser = new DateInfuser(tokyo);
+            assertEquals(infuser.infuse(new Infuser(), local.toString(), Instant.class), local.atZone(ZoneId.of("Asia/Tokyo")).toInstant());
+        } finally {
+            TimeZone.setDefault(zone);
+        }
+    }
+
+    /** Test custom converters. */
+    @Test
+    public void converters() {
+        Infuser infuser = new Infuser();
+        infuser.setConverter(Widget.class, new ObjectInfuser() {
+            public Object infuse(Infuser infuser, Object diffused, Type type) {
+                Widget widget = new Widget();
+                widget.string = diffused.toString();
+                return widget;
+            }
+        });
+        assertEquals(infuser.infuse("a", Widget.class).string, "a");
+        assertEquals(new Infuser(infuser).infuse("b", Widget.class).string, "b");
+        infuser.fromString(StringBuilder.class);
+        assertEquals(infuser.infuse("c", StringBuilder.class).toString(), "c");
+    }
+
+    /** Test a value that cannot be infused. */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void cannotInfuse() {
+        new Infuser().infuse("a", Widget.class);
+    }
+}
@@ -0,0 +1,113 @@
+package com.goodworkalan.diffuse;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link IteratorDiffuser} class.
+ *
+ * @author Alan Gutierrez
+ */
+public class IteratorDiffuserTest {
+    /** Test diffusing iterators, iterables and streams. */
+    @Test
+    public void sources() {
+        Diffuser diffuser = new Diffuser();
+        assertEquals(diffuser.diffuse(Arrays.asList("a", "b").iterator()), Arrays.asList("a", "b"));
+        assertEquals(diffuser.diffuse(Stream.of("a", "b")), Arrays.asList("a", "b"));
+        assertEquals(diffuser.diffuse(IntStream.range(0, 3)), Arrays.asList(0, 1, 2));
+        Iterable<String> iterable = new Iterable<String>() {
+            public Iterator<String> iterator() {
+                return Arrays.asList("a", "b").iterator();
+            }
+        };
+        assertTrue(diffuser.diffuse(iterable) instanceof Map<?, ?>);
+        diffuser.setConverter(iterable.getClass(), IteratorDiffuser.INSTANCE);
+        assertEquals(diffuser.diffuse(iterable), Arrays.asList("a", "b"));
+        assertEquals(diffuser.diffuse(Collections.singleton("a")), Arrays.asList("a"));
+        assertEquals(diffuser.diffuse(Paths.get("a", "b")), Paths.get("a", "b").toString());
+
+        Widget widget = new Widget();
+        widget.string = "a";
+        assertEquals(diffuser.diffuse(Stream.of(widget), "*.string"), Arrays.asList(diffuser.diffuse(widget, "string")));
+
+        diffuser.setLazy(true);
+        assertEquals(diffuser.diffuse(Stream.of("a", "b")), Arrays.asList("a", "b"));
+        assertEquals(diffuser.diffuse(Arrays.asList("a", "b")), Arrays.asList("a", "b"));
+    }
+
+    /** Test that a self-iterating exception is diffused as a bean. */
+    @Test
+    public void exception() {
+        Object diffused = new Diffuser().diffuse(new SQLException("boom"));
+        assertTrue(diffused instanceof Map<?, ?>);
+        assertEquals(((Map<?, ?>) diffused).get("message"), "boom");
+    }
+
+    /**
+     * Test that a drained or failed stream is closed and a truncated stream
+     * is not.
+     */
+    @Test
+    public void close() {
+        Diffuser diffuser = new Diffuser();
+        final boolean[] closed = new boolean[1];
+        diffuser.diffuse(Stream.of(1, 2).onClose(() -> closed[0] = true));
+        assertTrue(closed[0]);
+        closed[0] = false;
+        diffuser.diffuse(Stream.of(1, 2, 3).onClose(() -> closed[0] = true), Includes.ALL, new Budget(0, 0, 2, 0));
+        assertFalse(closed[0]);
+        try {
+            diffuser.diffuse(Stream.of(1, 2).map(i -> {
+                throw new IllegalStateException();
+            }).onClose(() -> closed[0] = true));
+            assertTrue(false);
+        } catch (IllegalStateException e) {
+        }
+        assertTrue(closed[0]);
+        closed[0] = false;
+        diffuser.setLazy(true);
+        diffuser.diffuse(Stream.of(1, 2).onClose(() -> closed[0] = true));
+        assertTrue(closed[0]);
+    }
+
+    /** Test that a truncated stream is not consumed past the budget. */
+    @Test
+    public void truncated() {
+        Diffuser diffuser = new Diffuser();
+        Object diffused = diffuser.diffuse(Stream.iterate(0, i -> i + 1), Includes.ALL, new Budget(0, 0, 2, 0));
+        assertEquals(diffused, Arrays.asList(0, 1, Collections.singletonMap(Budget.TRUNCATED, -1)));
+    }
+
+    /** Test writing a long stream without building the tree. */
+    @Test
+    public void write() throws IOException {
+        final long[] count = new long[1];
+        OutputStream out = new OutputStream() {
+            public void write(int b) {
+                count[0]++;
+            }
+
+            public void write(byte[] b, int off, int len) {
+                count[0] += len;
+            }
+        };
+        Stream<Map<String, Integer>> rows = IntStream.range(0, 100000).mapToObj(i -> Collections.singletonMap("row", i));
+        new JsonWriter().write(new Diffuser(), rows, Includes.ALL, out);
+        assertTrue(count[0] > 100000 * "{\"row\":0},".length());
+    }
+}
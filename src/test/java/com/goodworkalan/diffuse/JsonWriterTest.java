@@ -0,0 +1,100 @@
+package com.goodworkalan.diffuse;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link JsonWriter} class.
+ *
+ * @author Alan Gutierrez
+ */
+public class JsonWriterTest {
+    /**
+     * Create a map with nested containers and values that need escaping.
+     * 
+     * @return A map to write.
+     */
+    private Map<String, Object> map() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("a", 1);
+        map.put("b", Arrays.asList(Long.MIN_VALUE, -2L, 1.5d, Double.NaN, true, null));
+        map.put("c", "\"\\\n\u0001\u00e9\u20ac\ud83d\ude00");
+        map.put("d", new LinkedHashMap<String, Object>());
+        return map;
+    }
+
+    /** The expected JSON for the map. */
+    private final static String JSON = "{\"a\":1,\"b\":[-9223372036854775808,-2,1.5,\"NaN\",true,null],"
+        + "\"c\":\"\\\"\\\\\\n\\u0001\u00e9\u20ac\ud83d\ude00\",\"d\":{}}";
+
+    /** Test writing to an output stream with a tiny scratch buffer. */
+    @Test
+    public void stream() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(3);
+        writer.write(new Diffuser(), map(), Includes.ALL, out);
+        assertEquals(new String(out.toByteArray(), "UTF-8"), JSON);
+        out.reset();
+        writer.write(new Diffuser(), map(), Includes.ALL, out);
+        assertEquals(new String(out.toByteArray(), "UTF-8"), JSON);
+    }
+
+    /** Test writing to a channel and to a byte buffer. */
+    @Test
+    public void buffers() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter();
+        writer.write(new Diffuser(), map(), Includes.ALL, Channels.newChannel(out));
+        assertEquals(new String(out.toByteArray(), "UTF-8"), JSON);
+        ByteBuffer bytes = ByteBuffer.allocate(1024);
+        writer.write(new Diffuser(), map(), new Includes(), bytes);
+        bytes.flip();
+        byte[] array = new byte[bytes.remaining()];
+        bytes.get(array);
+        assertEquals(new String(array, "UTF-8"), "{\"a\":1,\"c\":\"\\\"\\\\\\n\\u0001\u00e9\u20ac\ud83d\ude00\"}");
+    }
+
+    /** Test writing a container that appears more than once as a reference. */
+    @Test
+    public void shared() throws IOException {
+        Map<String, Object> shared = new LinkedHashMap<String, Object>();
+        shared.put("x", 1);
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("a", shared);
+        map.put("b", Arrays.asList(shared, shared));
+        Diffuser diffuser = new Diffuser();
+        diffuser.setCyclePolicy(CyclePolicy.THROW);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JsonWriter().write(diffuser, map, Includes.ALL, out);
+        assertEquals(new String(out.toByteArray(), "UTF-8"), "{\"a\":{\"x\":1},\"b\":[{\"$shared\":1},{\"$shared\":1}]}");
+    }
+
+    /** Test giving a JSON writer directly to a diffuser. */
+    @Test
+    public void direct() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(out);
+        new Diffuser().diffuse(map(), Includes.ALL, writer);
+        writer.flush();
+        assertEquals(new String(out.toByteArray(), "UTF-8"), JSON);
+        out.reset();
+        writer.write(new Diffuser(), map(), Includes.ALL, out);
+        new Diffuser().diffuse(map(), Includes.ALL, writer);
+        writer.flush();
+        assertEquals(new String(out.toByteArray(), "UTF-8"), JSON + JSON);
+        try {
+            new Diffuser().diffuse(map(), Includes.ALL, new JsonWriter(3));
+            assertEquals(true, false);
+        } catch (IllegalStateException e) {
+        }
+    }
+}